@@ -0,0 +1,27 @@
+package com.alphasystem.openxml.builder.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.PACKAGE;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * Marker annotation which triggers <code>OpenXmlBuilderProcessor</code> of <code>openxml-builder-maven-plugin</code>
+ * to generate fluent API builders as part of the normal <code>javac</code> compilation. Retained in class files, as
+ * Gradle requires for annotations of aggregating processors.
+ *
+ * @author sali
+ */
+@Documented
+@Retention(CLASS)
+@Target({TYPE, PACKAGE})
+public @interface GenerateOpenXmlBuilders {
+
+    /**
+     * @return root classes to generate builders for, builders for any dependent class will be generated as well
+     */
+    Class<?>[] value();
+}
@@ -0,0 +1,323 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.BUILDER_PACKAGE_NAME;
+import static java.lang.String.format;
+import static org.apache.maven.plugins.annotations.LifecyclePhase.PACKAGE;
+
+/**
+ * Builds an AppCDS archive for the generated builders. Class list is made of the builder classes found in the project
+ * jar and the docx4j types they build, when a warm-up class is configured the list is extended with the classes loaded
+ * while running it. Optionally, startup time of the warm-up class is measured with the archive and with the default
+ * CDS archive of the JDK.
+ * <p>
+ * CDS only archives classes loaded from jar files, the archive must be used with the same class path, which is logged.
+ *
+ * @author sali
+ */
+@Mojo(name = "appcds", requiresProject = true, defaultPhase = PACKAGE,
+        requiresDependencyResolution = ResolutionScope.RUNTIME)
+public class AppCdsMojo extends AbstractMojo {
+
+    public static final String CLASS_LIST_FILE_NAME = "classes.lst";
+    public static final String ARCHIVE_FILE_NAME = "openxml-builders.jsa";
+
+    @Parameter(name = "applicationJar", required = true,
+            defaultValue = "${project.build.directory}/${project.build.finalName}.jar")
+    private File applicationJar;
+
+    @Parameter(defaultValue = "${project.runtimeClasspathElements}", readonly = true)
+    private List<String> runtimeClasspathElements;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}", readonly = true)
+    private File classesDirectory;
+
+    @Parameter(name = "outputDirectory", required = true, defaultValue = "${project.build.directory}/appcds")
+    private File outputDirectory;
+
+    @Parameter(name = "javaExecutable", required = true, defaultValue = "${java.home}/bin/java")
+    private File javaExecutable;
+
+    @Parameter(name = "warmUpClassName")
+    private String warmUpClassName;
+
+    @Parameter(name = "warmUpArguments")
+    private List<String> warmUpArguments;
+
+    @Parameter(name = "benchmark", defaultValue = "false")
+    private boolean benchmark;
+
+    @Parameter(name = "benchmarkIterations", defaultValue = "5")
+    private int benchmarkIterations;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!applicationJar.isFile()) {
+            throw new MojoExecutionException(format("Application jar {%s} not found", applicationJar));
+        }
+        if (!outputDirectory.exists()) {
+            outputDirectory.mkdirs();
+        }
+        final String classPath = getClassPath();
+        getLog().info(format("Class path of the archive: %s", classPath));
+
+        final File classListFile = new File(outputDirectory, CLASS_LIST_FILE_NAME);
+        final Set<String> classList = new TreeSet<>(getStaticClassList());
+        if (warmUpClassName != null) {
+            final File loadedClassListFile = new File(outputDirectory, "loaded-" + CLASS_LIST_FILE_NAME);
+            List<String> command = new ArrayList<>();
+            command.add("-Xshare:off");
+            command.add(format("-XX:DumpLoadedClassList=%s", loadedClassListFile.getAbsolutePath()));
+            run(classPath, command, true);
+            try {
+                classList.addAll(FileUtils.readLines(loadedClassListFile, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new MojoExecutionException(format("Unable to read class list {%s}", loadedClassListFile), e);
+            }
+        }
+        try {
+            FileUtils.writeLines(classListFile, StandardCharsets.UTF_8.name(), classList);
+        } catch (IOException e) {
+            throw new MojoExecutionException(format("Unable to write class list {%s}", classListFile), e);
+        }
+        getLog().info(format("Written %s classes into %s", classList.size(), classListFile));
+
+        final File archiveFile = new File(outputDirectory, ARCHIVE_FILE_NAME);
+        List<String> command = new ArrayList<>();
+        command.add("-Xshare:dump");
+        command.add(format("-XX:SharedClassListFile=%s", classListFile.getAbsolutePath()));
+        command.add(format("-XX:SharedArchiveFile=%s", archiveFile.getAbsolutePath()));
+        run(classPath, command, false);
+        getLog().info(format("Written archive %s", archiveFile));
+
+        if (benchmark && warmUpClassName != null) {
+            // baseline runs with the JVM defaults, i.e., with the default CDS archive of the JDK
+            final long withDefaultArchive = measure(classPath, Collections.emptyList());
+            final long withArchive = measure(classPath, Arrays.asList("-Xshare:auto",
+                    format("-XX:SharedArchiveFile=%s", archiveFile.getAbsolutePath())));
+            getLog().info(format("Startup of %s: %s ms with default archive, %s ms with archive (average of %s runs)",
+                    warmUpClassName, withDefaultArchive, withArchive, benchmarkIterations));
+        }
+    }
+
+    /**
+     * Returns names (in class list format) of the builder classes in the application jar and the types they build.
+     */
+    private Set<String> getStaticClassList() throws MojoExecutionException {
+        Set<String> classNames = new TreeSet<>();
+        final String builderPath = BUILDER_PACKAGE_NAME.replace('.', '/') + "/";
+        try (JarFile jarFile = new JarFile(applicationJar)) {
+            final Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                final String name = entries.nextElement().getName();
+                if (name.startsWith(builderPath) && name.endsWith(".class")) {
+                    classNames.add(name.substring(0, name.length() - ".class".length()));
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(format("Unable to read {%s}", applicationJar), e);
+        }
+
+        // builders extends OpenXmlBuilder<T>, T is the built type
+        List<Class<?>> types = new ArrayList<>();
+        try (URLClassLoader classLoader = new ProjectClassLoader(getClassPathUrls(), getClass().getClassLoader())) {
+            for (String className : classNames) {
+                try {
+                    final Type superclass = Class.forName(className.replace('/', '.'), false, classLoader)
+                            .getGenericSuperclass();
+                    if (superclass instanceof ParameterizedType) {
+                        final Type type = ((ParameterizedType) superclass).getActualTypeArguments()[0];
+                        if (type instanceof Class) {
+                            types.add((Class<?>) type);
+                        }
+                    }
+                } catch (ClassNotFoundException | LinkageError e) {
+                    getLog().warn(format("Unable to load {%s}: %s", className, e.getMessage()));
+                }
+            }
+            for (Class<?> type : NativeImageConfigGenerator.getJaxbTypes(types)) {
+                classNames.add(type.getName().replace('.', '/'));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to close class loader", e);
+        }
+        return classNames;
+    }
+
+    private long measure(String classPath, List<String> options) throws MojoExecutionException {
+        long total = 0;
+        for (int i = 0; i < benchmarkIterations; i++) {
+            final long start = System.nanoTime();
+            run(classPath, options, true);
+            total += System.nanoTime() - start;
+        }
+        return total / Math.max(1, benchmarkIterations) / 1000000L;
+    }
+
+    private void run(String classPath, List<String> options, boolean runWarmUp) throws MojoExecutionException {
+        List<String> command = new ArrayList<>();
+        command.add(javaExecutable.getAbsolutePath());
+        command.addAll(options);
+        command.add("-cp");
+        command.add(classPath);
+        if (runWarmUp) {
+            command.add(warmUpClassName);
+            if (warmUpArguments != null) {
+                command.addAll(warmUpArguments);
+            }
+        }
+        getLog().debug(format("Running %s", command));
+        try {
+            final Process process = new ProcessBuilder(command).directory(outputDirectory).redirectErrorStream(true)
+                    .start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                    StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    getLog().debug(line);
+                }
+            }
+            final int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new MojoExecutionException(format("Command %s failed with exit code {%s}", command, exitCode));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(format("Unable to run %s", command), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException(format("Interrupted while running %s", command), e);
+        }
+    }
+
+    /**
+     * Application jar followed by runtime dependencies, classes directory is replaced by the jar since CDS does not
+     * archive classes loaded from directories.
+     */
+    private String getClassPath() {
+        List<String> elements = new ArrayList<>();
+        elements.add(applicationJar.getAbsolutePath());
+        if (runtimeClasspathElements != null) {
+            for (String element : runtimeClasspathElements) {
+                if (!new File(element).equals(classesDirectory)) {
+                    elements.add(element);
+                }
+            }
+        }
+        return String.join(File.pathSeparator, elements);
+    }
+
+    private URL[] getClassPathUrls() throws MojoExecutionException {
+        final String[] elements = getClassPath().split(File.pathSeparator);
+        URL[] urls = new URL[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            try {
+                urls[i] = new File(elements[i]).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new MojoExecutionException(format("Invalid class path element {%s}", elements[i]), e);
+            }
+        }
+        return urls;
+    }
+
+    public void setRuntimeClasspathElements(List<String> runtimeClasspathElements) {
+        this.runtimeClasspathElements = runtimeClasspathElements;
+    }
+
+    public void setJavaExecutable(File javaExecutable) {
+        this.javaExecutable = javaExecutable;
+    }
+
+    public void setBenchmark(boolean benchmark) {
+        this.benchmark = benchmark;
+    }
+
+    public void setBenchmarkIterations(int benchmarkIterations) {
+        this.benchmarkIterations = benchmarkIterations;
+    }
+
+    public File getApplicationJar() {
+        return applicationJar;
+    }
+
+    public void setApplicationJar(File applicationJar) {
+        this.applicationJar = applicationJar;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public String getWarmUpClassName() {
+        return warmUpClassName;
+    }
+
+    public void setWarmUpClassName(String warmUpClassName) {
+        this.warmUpClassName = warmUpClassName;
+    }
+
+    public List<String> getWarmUpArguments() {
+        return warmUpArguments;
+    }
+
+    public void setWarmUpArguments(List<String> warmUpArguments) {
+        this.warmUpArguments = warmUpArguments;
+    }
+
+    /**
+     * Loads classes of the project class path before the ones of the plugin, so that builders are linked against the
+     * docx4j version of the project. Platform classes, JAXB annotations included, are loaded by the parent, so that
+     * annotations are recognized by the plugin.
+     */
+    static class ProjectClassLoader extends URLClassLoader {
+
+        ProjectClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("java.") || name.startsWith("javax.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loadedClass = findLoadedClass(name);
+                if (loadedClass == null) {
+                    try {
+                        loadedClass = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(loadedClass);
+                }
+                return loadedClass;
+            }
+        }
+    }
+}
@@ -0,0 +1,670 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import java.io.*;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.getCollectionElementType;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.isCollectionType;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+import static org.apache.commons.lang3.text.WordUtils.capitalize;
+
+/**
+ * Generates <code>WmlBinaryCodec</code>, compact binary encoding of objects with generated builders. Properties are
+ * written in declaration order through their getters and read back through setters, no reflection is involved. Getters
+ * of attributes may return a default value in place of an absent one, such values are not set on decoding, so absent
+ * values stay absent, values equal to the default are decoded as absent. Strings are interned and objects referenced
+ * more than once are written once. The stream
+ * starts with a header holding format version and a hash of the generated types, so that streams written by a
+ * different generation are rejected rather than decoded into wrong types.
+ *
+ * @author sali
+ */
+public class BinaryCodecGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlBinaryCodec";
+    public static final String ENCODE_METHOD_NAME = "encode";
+    public static final String DECODE_METHOD_NAME = "decode";
+    public static final int MAGIC = 0x574D4C42;
+    public static final int FORMAT_VERSION = 1;
+    private static final String WRITE_ANY_METHOD_NAME = "writeAny";
+    private static final String WRITE_ELEMENT_METHOD_NAME = "writeElement";
+    private static final String WRITE_STRING_METHOD_NAME = "writeString";
+    private static final String WRITE_BYTES_METHOD_NAME = "writeBytes";
+    private static final String WRITE_CLASS_METHOD_NAME = "writeClass";
+    private static final String WRITE_ENUM_METHOD_NAME = "writeEnum";
+    private static final String WRITE_VAR_INT_METHOD_NAME = "writeVarInt";
+    private static final String READ_ANY_METHOD_NAME = "readAny";
+    private static final String READ_ELEMENT_METHOD_NAME = "readElement";
+    private static final String READ_NODE_METHOD_NAME = "readNode";
+    private static final String READ_STRING_METHOD_NAME = "readString";
+    private static final String READ_BYTES_METHOD_NAME = "readBytes";
+    private static final String READ_CLASS_METHOD_NAME = "readClass";
+    private static final String READ_ENUM_METHOD_NAME = "readEnum";
+    private static final String READ_VAR_INT_METHOD_NAME = "readVarInt";
+    private static final String CLASSES_FIELD_NAME = "CLASSES";
+    private static final String CLASS_INDEX_FIELD_NAME = "CLASS_INDEX";
+    private static final String DATATYPE_FACTORY_FIELD_NAME = "DATATYPE_FACTORY";
+    private static final String[] TAGS = {"NULL", "REFERENCE", "STRING", "TRUE", "FALSE", "INTEGER", "LONG",
+            "BIG_INTEGER", "BYTES", "CALENDAR", "ENUM", "ELEMENT", "NODE"};
+
+    private final Map<String, JFieldVar> tags = new HashMap<>();
+    private JFieldVar out;
+    private JFieldVar in;
+    private JFieldVar encodedObjects;
+    private JFieldVar encodedStrings;
+    private JFieldVar decodedObjects;
+    private JFieldVar decodedStrings;
+
+    public BinaryCodecGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Compact binary encoding of objects with generated builders, meant for caching pre-built fragments. ");
+        javadoc.add("Strings are interned and objects referenced more than once are encoded once, streams written by a ");
+        javadoc.add("different generation of builders are rejected. <code>JAXBElement</code> wrappers are supported, ");
+        javadoc.add("values of other types (e.g. DOM elements) are not.");
+
+        final List<Class<?>> classes = getClasses();
+        addConstants(classes);
+        addFields();
+        addEncodeMethods();
+        addDecodeMethods();
+        addWriteAnyMethod();
+        addWriteElementMethod();
+        for (Class<?> type : types) {
+            addEncodeMethod(type);
+        }
+        addReadAnyMethod();
+        addReadElementMethod();
+        addReadNodeMethod();
+        for (Class<?> type : types) {
+            addDecodeMethod(type);
+        }
+        addStringMethods();
+        addBytesMethods();
+        addClassMethods();
+        addEnumMethods();
+        addVarIntMethods();
+        addFactoryMethods();
+    }
+
+    /**
+     * Returns classes which can be referred to in the stream, i.e., declared types and scopes of
+     * <code>JAXBElement</code> and enums held by untyped properties. Generated types come first, in index order.
+     */
+    private List<Class<?>> getClasses() {
+        List<Class<?>> classes = new ArrayList<>(types);
+        Collections.addAll(classes, JAXBElement.GlobalScope.class, Object.class, String.class, Boolean.class,
+                Integer.class, Long.class, BigInteger.class, byte[].class, XMLGregorianCalendar.class);
+        Set<Class<?>> enumTypes = new LinkedHashSet<>();
+        for (Class<?> type : types) {
+            for (PropertyInfo propertyInfo : getProperties(type)) {
+                final Field field = propertyInfo.getField();
+                final Class<?> valueType = isCollectionType(field) ? getCollectionElementType(field) : field.getType();
+                if (valueType != null && valueType.isEnum()) {
+                    enumTypes.add(valueType);
+                }
+            }
+        }
+        classes.addAll(enumTypes);
+        return classes;
+    }
+
+    /**
+     * Returns hash of the class table and of the properties of generated types, i.e., of everything the encoding
+     * depends on.
+     */
+    private int getSchemaHash(List<Class<?>> classes) {
+        int hash = 1;
+        for (Class<?> type : classes) {
+            hash = 31 * hash + type.getName().hashCode();
+        }
+        for (Class<?> type : types) {
+            for (PropertyInfo propertyInfo : getProperties(type)) {
+                hash = 31 * hash + propertyInfo.getFieldName().hashCode();
+            }
+        }
+        return hash;
+    }
+
+    private void addConstants(List<Class<?>> classes) {
+        JFieldVar field = thisClass.field(PUBLIC | STATIC | FINAL, codeModel.INT, "MAGIC", lit(MAGIC));
+        field.javadoc().add("First four bytes of every stream.");
+        field = thisClass.field(PUBLIC | STATIC | FINAL, codeModel.INT, "FORMAT_VERSION", lit(FORMAT_VERSION));
+        field.javadoc().add("Version of the encoding.");
+        field = thisClass.field(PUBLIC | STATIC | FINAL, codeModel.INT, "SCHEMA_HASH", lit(getSchemaHash(classes)));
+        field.javadoc().add("Hash of the generated types, streams are only decoded by the same generation of builders.");
+        for (int i = 0; i < TAGS.length; i++) {
+            final String name = TAGS[i];
+            tags.put(name, thisClass.field(PRIVATE | STATIC | FINAL, codeModel.BYTE, format("TAG_%s", name), lit(i)));
+        }
+
+        final JClass classType = getType(Class.class).narrow(codeModel.wildcard());
+        final JArray array = newArray(classType);
+        for (Class<?> type : classes) {
+            array.add(codeModel.ref(type).dotclass());
+        }
+        final JFieldVar classesField = thisClass.field(PRIVATE | STATIC | FINAL, classType.array(), CLASSES_FIELD_NAME,
+                array);
+        // code model creates arrays of the raw type
+        classesField.annotate(SuppressWarnings.class).param("value", "rawtypes");
+        final JClass indexType = getType(Map.class).narrow(classType, getType(Integer.class));
+        final JFieldVar classIndex = thisClass.field(PRIVATE | STATIC | FINAL, indexType, CLASS_INDEX_FIELD_NAME,
+                _new(getType(HashMap.class).narrow(classType, getType(Integer.class))));
+        thisClass.field(PRIVATE | STATIC | FINAL, DatatypeFactory.class, DATATYPE_FACTORY_FIELD_NAME,
+                invoke("createDatatypeFactory"));
+
+        final JForLoop forLoop = thisClass.init()._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(classesField.ref("length")));
+        forLoop.update(i.incr());
+        forLoop.body().add(classIndex.invoke("put").arg(classesField.component(i)).arg(i));
+
+        final JMethod method = addMethod(PRIVATE | STATIC, getType(DatatypeFactory.class), "createDatatypeFactory",
+                thisClass);
+        final JTryBlock tryBlock = method.body()._try();
+        tryBlock.body()._return(getType(DatatypeFactory.class).staticInvoke("newInstance"));
+        final JCatchBlock catchBlock = tryBlock._catch(getType(DatatypeConfigurationException.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body()._throw(_new(getType(RuntimeException.class)).arg(lit("Unable to create datatype factory"))
+                .arg(ex));
+    }
+
+    private void addFields() {
+        out = thisClass.field(PRIVATE | FINAL, DataOutputStream.class, "out");
+        in = thisClass.field(PRIVATE | FINAL, DataInputStream.class, "in");
+        encodedObjects = thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(Object.class, Integer.class),
+                "encodedObjects", _new(getType(IdentityHashMap.class).narrow(Object.class, Integer.class)));
+        encodedStrings = thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(String.class, Integer.class),
+                "encodedStrings", _new(getType(HashMap.class).narrow(String.class, Integer.class)));
+        decodedObjects = thisClass.field(PRIVATE | FINAL, getType(List.class).narrow(Object.class), "decodedObjects",
+                _new(getType(ArrayList.class).narrow(Object.class)));
+        decodedStrings = thisClass.field(PRIVATE | FINAL, getType(List.class).narrow(String.class), "decodedStrings",
+                _new(getType(ArrayList.class).narrow(String.class)));
+
+        final JMethod constructor = thisClass.constructor(PRIVATE);
+        final JVar outParam = constructor.param(DataOutputStream.class, "out");
+        final JVar inParam = constructor.param(DataInputStream.class, "in");
+        constructor.body().assign(_this().ref(out), outParam);
+        constructor.body().assign(_this().ref(in), inParam);
+    }
+
+    private void addEncodeMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, ENCODE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        JVar root = method.param(Object.class, "root");
+        final JVar outputStream = method.param(OutputStream.class, "outputStream");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Encodes given object and everything reachable from it into given stream, the stream is not closed.");
+        javadoc.addParam(root).add("object to encode");
+        javadoc.addParam(outputStream).add("stream to write into");
+        javadoc.addThrows(IOException.class).add("if unable to write");
+        javadoc.addThrows(IllegalArgumentException.class).add("if the tree holds value of unsupported type");
+        JBlock body = method.body();
+        final JVar dataOut = body.decl(FINAL, getType(DataOutputStream.class), "dataOut",
+                _new(getType(DataOutputStream.class)).arg(_new(getType(BufferedOutputStream.class)).arg(outputStream)));
+        body.add(dataOut.invoke("writeInt").arg(ref("MAGIC")));
+        body.add(dataOut.invoke("writeShort").arg(ref("FORMAT_VERSION")));
+        body.add(dataOut.invoke("writeInt").arg(ref("SCHEMA_HASH")));
+        body.add(_new(thisClass).arg(dataOut).arg(_null()).invoke(WRITE_ANY_METHOD_NAME).arg(root));
+        body.add(dataOut.invoke("flush"));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.BYTE.array(), ENCODE_METHOD_NAME, thisClass);
+        root = method.param(Object.class, "root");
+        javadoc = method.javadoc();
+        javadoc.add("Encodes given object and everything reachable from it.");
+        javadoc.addParam(root).add("object to encode");
+        javadoc.addReturn().add("encoded bytes");
+        javadoc.addThrows(IllegalArgumentException.class).add("if the tree holds value of unsupported type");
+        body = method.body();
+        final JVar buffer = body.decl(FINAL, getType(ByteArrayOutputStream.class), "buffer",
+                _new(getType(ByteArrayOutputStream.class)));
+        final JTryBlock tryBlock = body._try();
+        tryBlock.body().invoke(ENCODE_METHOD_NAME).arg(root).arg(buffer);
+        final JCatchBlock catchBlock = tryBlock._catch(getType(IOException.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body().directStatement("// not thrown by ByteArrayOutputStream");
+        catchBlock.body()._throw(_new(getType(RuntimeException.class)).arg(lit("Unable to encode")).arg(ex));
+        body._return(buffer.invoke("toByteArray"));
+    }
+
+    private void addDecodeMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, getType(Object.class), DECODE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar inputStream = method.param(InputStream.class, "inputStream");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Decodes object from given stream, reading from an unbuffered stream is slow as the stream is read ");
+        javadoc.add("byte by byte.");
+        javadoc.addParam(inputStream).add("stream positioned at the start of an encoded object");
+        javadoc.addReturn().add("decoded object");
+        javadoc.addThrows(IOException.class).add("if unable to read or the stream is not written by this generation of builders");
+        JBlock body = method.body();
+        final JVar dataIn = body.decl(FINAL, getType(DataInputStream.class), "dataIn",
+                _new(getType(DataInputStream.class)).arg(inputStream));
+        final JVar magic = body.decl(FINAL, codeModel.INT, "magic", dataIn.invoke("readInt"));
+        final JVar version = body.decl(FINAL, codeModel.INT, "version", dataIn.invoke("readShort"));
+        final JVar hash = body.decl(FINAL, codeModel.INT, "hash", dataIn.invoke("readInt"));
+        body._if(magic.ne(ref("MAGIC")).cor(version.ne(ref("FORMAT_VERSION"))))._then()._throw(
+                _new(getType(IOException.class)).arg(getType(String.class).staticInvoke("format")
+                        .arg(lit("Unsupported format {%s}, version {%s}")).arg(magic).arg(version)));
+        body._if(hash.ne(ref("SCHEMA_HASH")))._then()._throw(_new(getType(IOException.class))
+                .arg(getType(String.class).staticInvoke("format")
+                        .arg(lit("Stream written by different generation of builders {%s}, expected {%s}"))
+                        .arg(hash).arg(ref("SCHEMA_HASH"))));
+        body._return(_new(thisClass).arg(_null()).arg(dataIn).invoke(READ_ANY_METHOD_NAME));
+
+        method = addMethod(PUBLIC | STATIC, getType(Object.class), DECODE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar bytes = method.param(codeModel.BYTE.array(), "bytes");
+        javadoc = method.javadoc();
+        javadoc.add("Decodes object from given bytes.");
+        javadoc.addParam(bytes).add("encoded bytes");
+        javadoc.addReturn().add("decoded object");
+        javadoc.addThrows(IOException.class).add("if bytes are not written by this generation of builders");
+        method.body()._return(invoke(DECODE_METHOD_NAME).arg(_new(getType(ByteArrayInputStream.class)).arg(bytes)));
+
+        method = addMethod(PUBLIC | STATIC, getType(Object.class), DECODE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar buffer = method.param(ByteBuffer.class, "buffer");
+        javadoc = method.javadoc();
+        javadoc.add("Decodes object from remaining bytes of given buffer, e.g. a memory mapped file, without copying ");
+        javadoc.add("them. Position of the buffer is not changed.");
+        javadoc.addParam(buffer).add("buffer holding encoded bytes");
+        javadoc.addReturn().add("decoded object");
+        javadoc.addThrows(IOException.class).add("if bytes are not written by this generation of builders");
+        body = method.body();
+        final JVar source = body.decl(FINAL, getType(ByteBuffer.class), "source", buffer.invoke("duplicate"));
+        final JDefinedClass streamClass = codeModel.anonymousClass(InputStream.class);
+        JMethod readMethod = addMethod(PUBLIC, codeModel.INT, "read", streamClass, Override.class);
+        readMethod.body()._return(JOp.cond(source.invoke("hasRemaining"), source.invoke("get").band(lit(0xFF)), lit(-1)));
+        readMethod = addMethod(PUBLIC, codeModel.INT, "read", streamClass, Override.class);
+        final JVar b = readMethod.param(codeModel.BYTE.array(), "b");
+        final JVar off = readMethod.param(codeModel.INT, "off");
+        final JVar len = readMethod.param(codeModel.INT, "len");
+        final JBlock readBody = readMethod.body();
+        readBody._if(source.invoke("hasRemaining").not())._then()._return(lit(-1));
+        final JVar count = readBody.decl(FINAL, codeModel.INT, "count", getType(Math.class).staticInvoke("min")
+                .arg(len).arg(source.invoke("remaining")));
+        readBody.add(source.invoke("get").arg(b).arg(off).arg(count));
+        readBody._return(count);
+        body._return(invoke(DECODE_METHOD_NAME).arg(_new(streamClass)));
+    }
+
+    private void addWriteAnyMethod() {
+        final JMethod method = addMethod(PRIVATE, codeModel.VOID, WRITE_ANY_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar value = method.param(Object.class, "value");
+        final JBlock body = method.body();
+        JBlock block = body._if(value.eq(_null()))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("NULL")));
+        block._return();
+        block = body._if(value._instanceof(getType(String.class)))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("STRING")));
+        block.invoke(WRITE_STRING_METHOD_NAME).arg(cast(getType(String.class), value));
+        block._return();
+        block = body._if(value._instanceof(getType(Boolean.class)))._then();
+        block.add(out.invoke("writeByte").arg(JOp.cond(invoke(cast(getType(Boolean.class), value), "booleanValue"),
+                tags.get("TRUE"), tags.get("FALSE"))));
+        block._return();
+        block = body._if(value._instanceof(getType(Integer.class)))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("INTEGER")));
+        block.add(out.invoke("writeInt").arg(cast(getType(Integer.class), value)));
+        block._return();
+        block = body._if(value._instanceof(getType(Long.class)))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("LONG")));
+        block.add(out.invoke("writeLong").arg(cast(getType(Long.class), value)));
+        block._return();
+        block = body._if(value._instanceof(getType(BigInteger.class)))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("BIG_INTEGER")));
+        block.invoke(WRITE_BYTES_METHOD_NAME).arg(invoke(cast(getType(BigInteger.class), value), "toByteArray"));
+        block._return();
+        block = body._if(value._instanceof(codeModel.BYTE.array()))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("BYTES")));
+        block.invoke(WRITE_BYTES_METHOD_NAME).arg(cast(codeModel.BYTE.array(), value));
+        block._return();
+        block = body._if(value._instanceof(getType(XMLGregorianCalendar.class)))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("CALENDAR")));
+        block.invoke(WRITE_STRING_METHOD_NAME).arg(invoke(cast(getType(XMLGregorianCalendar.class), value),
+                "toXMLFormat"));
+        block._return();
+        block = body._if(value._instanceof(getType(Enum.class)))._then();
+        final JVar enumValue = block.decl(FINAL, getType(Enum.class).narrow(codeModel.wildcard()), "enumValue",
+                cast(getType(Enum.class).narrow(codeModel.wildcard()), value));
+        block.add(out.invoke("writeByte").arg(tags.get("ENUM")));
+        block.invoke(WRITE_CLASS_METHOD_NAME).arg(enumValue.invoke("getDeclaringClass"));
+        block.invoke(WRITE_STRING_METHOD_NAME).arg(enumValue.invoke("name"));
+        block._return();
+
+        final JVar id = body.decl(FINAL, getType(Integer.class), "id", encodedObjects.invoke("get").arg(value));
+        block = body._if(id.ne(_null()))._then();
+        block.add(out.invoke("writeByte").arg(tags.get("REFERENCE")));
+        block.invoke(WRITE_VAR_INT_METHOD_NAME).arg(id);
+        block._return();
+        block = body._if(value._instanceof(getType(JAXBElement.class)))._then();
+        block.invoke(WRITE_ELEMENT_METHOD_NAME).arg(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()), value));
+        block._return();
+
+        final JVar index = body.decl(FINAL, codeModel.INT, "index", getHelperClass(TYPES_CLASS_NAME)
+                .staticInvoke(INDEX_OF_METHOD_NAME).arg(value));
+        body._if(index.lt(lit(0)))._then()._throw(_new(getType(IllegalArgumentException.class))
+                .arg(getType(String.class).staticInvoke("format").arg(lit("Unsupported type {%s}"))
+                        .arg(value.invoke("getClass").invoke("getName"))));
+        body.add(encodedObjects.invoke("put").arg(value).arg(encodedObjects.invoke("size")));
+        body.add(out.invoke("writeByte").arg(tags.get("NODE")));
+        body.invoke(WRITE_VAR_INT_METHOD_NAME).arg(index);
+        final JSwitch jSwitch = body._switch(index);
+        for (Class<?> type : types) {
+            final JBlock caseBody = addCase(jSwitch, type);
+            caseBody.invoke(getMethodName(ENCODE_METHOD_NAME, type)).arg(cast(getType(type), value));
+            caseBody._break();
+        }
+    }
+
+    private void addWriteElementMethod() {
+        final JMethod method = addMethod(PRIVATE, codeModel.VOID, WRITE_ELEMENT_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar element = method.param(getType(JAXBElement.class).narrow(codeModel.wildcard()), "element");
+        final JBlock body = method.body();
+        body.add(encodedObjects.invoke("put").arg(element).arg(encodedObjects.invoke("size")));
+        body.add(out.invoke("writeByte").arg(tags.get("ELEMENT")));
+        final JVar name = body.decl(FINAL, getType(QName.class), "name", element.invoke("getName"));
+        body.invoke(WRITE_STRING_METHOD_NAME).arg(name.invoke("getNamespaceURI"));
+        body.invoke(WRITE_STRING_METHOD_NAME).arg(name.invoke("getLocalPart"));
+        body.invoke(WRITE_STRING_METHOD_NAME).arg(name.invoke("getPrefix"));
+        body.invoke(WRITE_CLASS_METHOD_NAME).arg(element.invoke("getDeclaredType"));
+        body.invoke(WRITE_CLASS_METHOD_NAME).arg(element.invoke("getScope"));
+        body.add(out.invoke("writeBoolean").arg(element.invoke("isNil")));
+        body.invoke(WRITE_ANY_METHOD_NAME).arg(element.invoke("getValue"));
+    }
+
+    private void addEncodeMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE, codeModel.VOID, getMethodName(ENCODE_METHOD_NAME, type), thisClass);
+        method._throws(IOException.class);
+        final JVar node = method.param(type, "node");
+        final JBlock body = method.body();
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            final Field field = propertyInfo.getField();
+            final JExpression value = getValue(node, propertyInfo);
+            if (field.getType().isPrimitive()) {
+                body.add(out.invoke(format("write%s", capitalize(field.getType().getName()))).arg(value));
+            } else if (isCollectionType(field)) {
+                final Class<?> elementType = getCollectionElementType(field);
+                final JVar list = body.decl(FINAL, getType(List.class).narrow(codeModel.wildcard()),
+                        format("%sList", propertyInfo.getFieldName()), value);
+                body.invoke(WRITE_VAR_INT_METHOD_NAME).arg(list.invoke("size"));
+                final JForEach forEach = body.forEach(getType(Object.class), format("%sItem", propertyInfo.getFieldName()),
+                        list);
+                if (elementType != null && elementType.isEnum()) {
+                    forEach.body().invoke(WRITE_ENUM_METHOD_NAME).arg(cast(getType(Enum.class)
+                            .narrow(codeModel.wildcard()), forEach.var()));
+                } else {
+                    forEach.body().invoke(WRITE_ANY_METHOD_NAME).arg(forEach.var());
+                }
+            } else if (field.getType().isEnum()) {
+                body.invoke(WRITE_ENUM_METHOD_NAME).arg(value);
+            } else {
+                body.invoke(WRITE_ANY_METHOD_NAME).arg(value);
+            }
+        }
+    }
+
+    private void addReadAnyMethod() {
+        final JMethod method = addMethod(PRIVATE, getType(Object.class), READ_ANY_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        method.annotate(SuppressWarnings.class).paramArray("value").param("unchecked").param("rawtypes");
+        final JBlock body = method.body();
+        final JVar tag = body.decl(FINAL, codeModel.BYTE, "tag", in.invoke("readByte"));
+        final JSwitch jSwitch = body._switch(tag);
+        jSwitch._case(tags.get("NULL")).body()._return(_null());
+        jSwitch._case(tags.get("REFERENCE")).body()._return(decodedObjects.invoke("get")
+                .arg(invoke(READ_VAR_INT_METHOD_NAME)));
+        jSwitch._case(tags.get("STRING")).body()._return(invoke(READ_STRING_METHOD_NAME));
+        jSwitch._case(tags.get("TRUE")).body()._return(getType(Boolean.class).staticRef("TRUE"));
+        jSwitch._case(tags.get("FALSE")).body()._return(getType(Boolean.class).staticRef("FALSE"));
+        jSwitch._case(tags.get("INTEGER")).body()._return(in.invoke("readInt"));
+        jSwitch._case(tags.get("LONG")).body()._return(in.invoke("readLong"));
+        jSwitch._case(tags.get("BIG_INTEGER")).body()._return(_new(getType(BigInteger.class))
+                .arg(invoke(READ_BYTES_METHOD_NAME)));
+        jSwitch._case(tags.get("BYTES")).body()._return(invoke(READ_BYTES_METHOD_NAME));
+        jSwitch._case(tags.get("CALENDAR")).body()._return(ref(DATATYPE_FACTORY_FIELD_NAME)
+                .invoke("newXMLGregorianCalendar").arg(invoke(READ_STRING_METHOD_NAME)));
+        jSwitch._case(tags.get("ENUM")).body()._return(invoke(READ_ENUM_METHOD_NAME).arg(cast(getType(Class.class),
+                invoke(READ_CLASS_METHOD_NAME))));
+        jSwitch._case(tags.get("ELEMENT")).body()._return(invoke(READ_ELEMENT_METHOD_NAME));
+        jSwitch._case(tags.get("NODE")).body()._return(invoke(READ_NODE_METHOD_NAME).arg(invoke(READ_VAR_INT_METHOD_NAME)));
+        jSwitch._default().body()._throw(_new(getType(IOException.class)).arg(getType(String.class)
+                .staticInvoke("format").arg(lit("Invalid tag {%s}")).arg(tag)));
+    }
+
+    private void addReadElementMethod() {
+        final JClass elementType = getType(JAXBElement.class).narrow(Object.class);
+        final JMethod method = addMethod(PRIVATE, elementType, READ_ELEMENT_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JBlock body = method.body();
+        final JVar namespaceURI = body.decl(FINAL, getType(String.class), "namespaceURI", invoke(READ_STRING_METHOD_NAME));
+        final JVar localPart = body.decl(FINAL, getType(String.class), "localPart", invoke(READ_STRING_METHOD_NAME));
+        final JVar prefix = body.decl(FINAL, getType(String.class), "prefix", invoke(READ_STRING_METHOD_NAME));
+        final JVar declaredType = body.decl(FINAL, getType(Class.class).narrow(Object.class), "declaredType",
+                cast(getType(Class.class).narrow(Object.class), invoke(READ_CLASS_METHOD_NAME)));
+        final JVar scope = body.decl(FINAL, getType(Class.class).narrow(codeModel.wildcard()), "scope",
+                invoke(READ_CLASS_METHOD_NAME));
+        final JVar nil = body.decl(FINAL, codeModel.BOOLEAN, "nil", in.invoke("readBoolean"));
+        final JVar element = body.decl(FINAL, elementType, "element", _new(elementType)
+                .arg(_new(getType(QName.class)).arg(namespaceURI).arg(localPart).arg(prefix)).arg(declaredType)
+                .arg(scope).arg(_null()));
+        // registered before its value is read, so that the value can refer back to it
+        body.add(decodedObjects.invoke("add").arg(element));
+        body.add(element.invoke("setValue").arg(invoke(READ_ANY_METHOD_NAME)));
+        body.add(element.invoke("setNil").arg(nil));
+        body._return(element);
+    }
+
+    private void addReadNodeMethod() {
+        final JMethod method = addMethod(PRIVATE, getType(Object.class), READ_NODE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar index = method.param(codeModel.INT, "index");
+        final JBlock body = method.body();
+        final JSwitch jSwitch = body._switch(index);
+        for (Class<?> type : types) {
+            addCase(jSwitch, type)._return(invoke(getMethodName(DECODE_METHOD_NAME, type)));
+        }
+        jSwitch._default().body()._throw(_new(getType(IOException.class)).arg(getType(String.class)
+                .staticInvoke("format").arg(lit("Invalid type index {%s}")).arg(index)));
+    }
+
+    private void addDecodeMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE, getType(type), getMethodName(DECODE_METHOD_NAME, type), thisClass);
+        method._throws(IOException.class);
+        final JBlock body = method.body();
+        final JVar node = body.decl(FINAL, getType(type), "node", createObject(type));
+        body.add(decodedObjects.invoke("add").arg(node));
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            final Field field = propertyInfo.getField();
+            if (field.getType().isPrimitive()) {
+                body.add(node.invoke(propertyInfo.getWriteMethod().getName()).arg(in.invoke(format("read%s",
+                        capitalize(field.getType().getName())))));
+            } else if (isCollectionType(field)) {
+                final Class<?> elementType = getCollectionElementType(field);
+                final JVar size = body.decl(FINAL, codeModel.INT, format("%sSize", propertyInfo.getFieldName()),
+                        invoke(READ_VAR_INT_METHOD_NAME));
+                final JForLoop forLoop = body._for();
+                final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+                forLoop.test(i.lt(size));
+                forLoop.update(i.incr());
+                forLoop.body().add(getValue(node, propertyInfo).invoke("add").arg(readValue(elementType)));
+            } else if (isNodeType(field.getType())) {
+                body.add(node.invoke(propertyInfo.getWriteMethod().getName()).arg(readValue(field.getType())));
+            } else {
+                // node is newly created, so its getter returns the default of an absent value
+                final JVar value = body.decl(FINAL, getType(field.getType()), format("%sValue",
+                        propertyInfo.getFieldName()), readValue(field.getType()));
+                body._if(value.ne(_null()).cand(value.invoke("equals").arg(getValue(node, propertyInfo)).not()))
+                        ._then().add(node.invoke(propertyInfo.getWriteMethod().getName()).arg(value));
+            }
+        }
+        body._return(node);
+    }
+
+    private JExpression readValue(Class<?> type) {
+        if (type == null || Object.class.equals(type)) {
+            return invoke(READ_ANY_METHOD_NAME);
+        } else if (type.isEnum()) {
+            return invoke(READ_ENUM_METHOD_NAME).arg(getType(type).dotclass());
+        } else if (type.isPrimitive()) {
+            return cast(codeModel._ref(type).boxify(), invoke(READ_ANY_METHOD_NAME));
+        }
+        return cast(getType(type), invoke(READ_ANY_METHOD_NAME));
+    }
+
+    private void addStringMethods() {
+        JMethod method = addMethod(PRIVATE, codeModel.VOID, WRITE_STRING_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar value = method.param(String.class, "value");
+        method.javadoc().add("Writes <code>0</code> for null, index plus <code>2</code> for strings already written, ");
+        method.javadoc().add("otherwise <code>1</code> followed by UTF-8 bytes of the string.");
+        JBlock body = method.body();
+        JBlock block = body._if(value.eq(_null()))._then();
+        block.invoke(WRITE_VAR_INT_METHOD_NAME).arg(lit(0));
+        block._return();
+        final JVar index = body.decl(FINAL, getType(Integer.class), "index", encodedStrings.invoke("get").arg(value));
+        block = body._if(index.ne(_null()))._then();
+        block.invoke(WRITE_VAR_INT_METHOD_NAME).arg(index.plus(lit(2)));
+        block._return();
+        body.add(encodedStrings.invoke("put").arg(value).arg(encodedStrings.invoke("size")));
+        body.invoke(WRITE_VAR_INT_METHOD_NAME).arg(lit(1));
+        body.invoke(WRITE_BYTES_METHOD_NAME).arg(value.invoke("getBytes").arg(getType(StandardCharsets.class)
+                .staticRef("UTF_8")));
+
+        method = addMethod(PRIVATE, getType(String.class), READ_STRING_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        body = method.body();
+        final JVar readIndex = body.decl(FINAL, codeModel.INT, "index", invoke(READ_VAR_INT_METHOD_NAME));
+        body._if(readIndex.eq(lit(0)))._then()._return(_null());
+        body._if(readIndex.gt(lit(1)))._then()._return(decodedStrings.invoke("get").arg(readIndex.minus(lit(2))));
+        final JVar result = body.decl(FINAL, getType(String.class), "value", _new(getType(String.class))
+                .arg(invoke(READ_BYTES_METHOD_NAME)).arg(getType(StandardCharsets.class).staticRef("UTF_8")));
+        body.add(decodedStrings.invoke("add").arg(result));
+        body._return(result);
+    }
+
+    private void addBytesMethods() {
+        JMethod method = addMethod(PRIVATE, codeModel.VOID, WRITE_BYTES_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar value = method.param(codeModel.BYTE.array(), "value");
+        method.body().invoke(WRITE_VAR_INT_METHOD_NAME).arg(value.ref("length"));
+        method.body().add(out.invoke("write").arg(value));
+
+        method = addMethod(PRIVATE, codeModel.BYTE.array(), READ_BYTES_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JBlock body = method.body();
+        final JVar result = body.decl(FINAL, codeModel.BYTE.array(), "value", newArray(codeModel.BYTE,
+                invoke(READ_VAR_INT_METHOD_NAME)));
+        body.add(in.invoke("readFully").arg(result));
+        body._return(result);
+    }
+
+    private void addClassMethods() {
+        JMethod method = addMethod(PRIVATE, codeModel.VOID, WRITE_CLASS_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar type = method.param(getType(Class.class).narrow(codeModel.wildcard()), "type");
+        JBlock body = method.body();
+        final JVar index = body.decl(FINAL, getType(Integer.class), "index", ref(CLASS_INDEX_FIELD_NAME).invoke("get")
+                .arg(type));
+        body._if(index.eq(_null()))._then()._throw(_new(getType(IllegalArgumentException.class))
+                .arg(getType(String.class).staticInvoke("format").arg(lit("Unsupported class {%s}"))
+                        .arg(type.invoke("getName"))));
+        body.invoke(WRITE_VAR_INT_METHOD_NAME).arg(index);
+
+        method = addMethod(PRIVATE, getType(Class.class).narrow(codeModel.wildcard()), READ_CLASS_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        body = method.body();
+        final JVar readIndex = body.decl(FINAL, codeModel.INT, "index", invoke(READ_VAR_INT_METHOD_NAME));
+        body._if(readIndex.gte(ref(CLASSES_FIELD_NAME).ref("length")))._then()._throw(_new(getType(IOException.class))
+                .arg(getType(String.class).staticInvoke("format").arg(lit("Invalid class index {%s}")).arg(readIndex)));
+        body._return(ref(CLASSES_FIELD_NAME).component(readIndex));
+    }
+
+    private void addEnumMethods() {
+        JMethod method = addMethod(PRIVATE, codeModel.VOID, WRITE_ENUM_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar value = method.param(getType(Enum.class).narrow(codeModel.wildcard()), "value");
+        method.body().invoke(WRITE_STRING_METHOD_NAME).arg(JOp.cond(value.eq(_null()), _null(), value.invoke("name")));
+
+        method = addMethod(PRIVATE, codeModel.VOID, READ_ENUM_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JTypeVar e = method.generify("E");
+        e.bound(getType(Enum.class).narrow(e));
+        method.type(e);
+        final JVar type = method.param(getType(Class.class).narrow(e), "type");
+        final JBlock body = method.body();
+        final JVar name = body.decl(FINAL, getType(String.class), "name", invoke(READ_STRING_METHOD_NAME));
+        body._return(JOp.cond(name.eq(_null()), _null(), getType(Enum.class).staticInvoke("valueOf").arg(type)
+                .arg(name)));
+    }
+
+    private void addVarIntMethods() {
+        JMethod method = addMethod(PRIVATE, codeModel.VOID, WRITE_VAR_INT_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar value = method.param(codeModel.INT, "value");
+        method.javadoc().add("Writes given value seven bits at a time, least significant first.");
+        JBlock body = method.body();
+        final JVar remaining = body.decl(codeModel.INT, "remaining", value);
+        final JWhileLoop whileLoop = body._while(remaining.band(lit(~0x7F)).ne(lit(0)));
+        whileLoop.body().add(out.invoke("writeByte").arg(remaining.band(lit(0x7F)).bor(lit(0x80))));
+        whileLoop.body().assign(remaining, remaining.shrz(lit(7)));
+        body.add(out.invoke("writeByte").arg(remaining));
+
+        method = addMethod(PRIVATE, codeModel.INT, READ_VAR_INT_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        body = method.body();
+        final JVar result = body.decl(codeModel.INT, "value", lit(0));
+        final JVar shift = body.decl(codeModel.INT, "shift", lit(0));
+        final JVar b = body.decl(codeModel.INT, "b");
+        final JDoLoop doLoop = body._do(b.band(lit(0x80)).ne(lit(0)));
+        doLoop.body().assign(b, in.invoke("readUnsignedByte"));
+        doLoop.body().assign(result, result.bor(b.band(lit(0x7F)).shl(shift)));
+        doLoop.body().assignPlus(shift, lit(7));
+        body._return(result);
+    }
+
+    private void addFactoryMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.BYTE.array(), "encodeBinary", builderFactoryClass);
+        JVar param = method.param(Object.class, "root");
+        method.javadoc().add("Encodes given object and everything reachable from it into compact binary form.");
+        method.javadoc().addParam(param).add("object to encode");
+        method.javadoc().addReturn().add("encoded bytes");
+        method.body()._return(thisClass.staticInvoke(ENCODE_METHOD_NAME).arg(param));
+
+        method = addMethod(PUBLIC | STATIC, getType(Object.class), "decodeBinary", builderFactoryClass);
+        method._throws(IOException.class);
+        param = method.param(codeModel.BYTE.array(), "bytes");
+        method.javadoc().add("Decodes object encoded by <code>encodeBinary</code>.");
+        method.javadoc().addParam(param).add("encoded bytes");
+        method.javadoc().addReturn().add("decoded object");
+        method.javadoc().addThrows(IOException.class).add("if bytes are not written by this generation of builders");
+        method.body()._return(thisClass.staticInvoke(DECODE_METHOD_NAME).arg(param));
+    }
+}
@@ -0,0 +1,243 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.wml.CTBookmark;
+import org.docx4j.wml.CTMarkupRange;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.GET_BIG_INTEGER_METHOD_NAME;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.OBJECT_FACTORY_FIELD_NAME;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlBookmarkRegistry</code>, per document registry of bookmarks which allocates bookmark ids without
+ * locking, looks up bookmarks by name or id and pairs bookmark start with its end, so that sections of a document can
+ * be built by parallel threads. Both names and ids are unique within the registry.
+ *
+ * @author sali
+ */
+public class BookmarkRegistryGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlBookmarkRegistry";
+    private static final String MAIN_NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String START_METHOD_NAME = "start";
+    private static final String END_METHOD_NAME = "end";
+    private static final String NEXT_ID_METHOD_NAME = "nextId";
+
+    private JFieldVar sequence;
+    private JFieldVar bookmarks;
+    private JFieldVar ids;
+
+    public BookmarkRegistryGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Registry of bookmarks of one document, safe for use by multiple threads. Ids are allocated from an ");
+        javadoc.add("atomic sequence, bookmarks created elsewhere can be registered, the sequence is moved past their ids. ");
+        javadoc.add("Bookmarks whose name or id is already in use are rejected.");
+
+        final JClass qNameType = getType(QName.class);
+        final JFieldVar startName = thisClass.field(PRIVATE | STATIC | FINAL, qNameType, "BOOKMARK_START",
+                _new(qNameType).arg(lit(MAIN_NAMESPACE)).arg(lit("bookmarkStart")));
+        final JFieldVar endName = thisClass.field(PRIVATE | STATIC | FINAL, qNameType, "BOOKMARK_END",
+                _new(qNameType).arg(lit(MAIN_NAMESPACE)).arg(lit("bookmarkEnd")));
+        sequence = thisClass.field(PRIVATE | FINAL, AtomicLong.class, "sequence", _new(getType(AtomicLong.class)));
+        final JClass bookmarkType = getType(CTBookmark.class);
+        bookmarks = thisClass.field(PRIVATE | FINAL, getType(ConcurrentMap.class).narrow(getType(String.class),
+                bookmarkType), "bookmarks", _new(getType(ConcurrentHashMap.class).narrow(getType(String.class),
+                bookmarkType)));
+        ids = thisClass.field(PRIVATE | FINAL, getType(ConcurrentMap.class).narrow(getType(BigInteger.class),
+                bookmarkType), "ids", _new(getType(ConcurrentHashMap.class).narrow(getType(BigInteger.class),
+                bookmarkType)));
+
+        addNextIdMethod();
+        addStartMethod();
+        addEndMethod();
+        addElementMethod("startElement", START_METHOD_NAME, CTBookmark.class, startName,
+                "Creates bookmark start, wrapped as paragraph or body content.");
+        addElementMethod("endElement", END_METHOD_NAME, CTMarkupRange.class, endName,
+                "Creates end of bookmark with given name, wrapped as paragraph or body content.");
+        addBookmarkMethod();
+        addRegisterMethods();
+        addLookupMethods();
+    }
+
+    private void addNextIdMethod() {
+        final JClass idType = getType(BigInteger.class);
+        final JMethod method = addMethod(PRIVATE, idType, NEXT_ID_METHOD_NAME, thisClass);
+        final JVar bookmark = method.param(CTBookmark.class, "bookmark");
+        method.javadoc().add("Allocates id for given bookmark, ids taken by bookmarks registered concurrently are skipped.");
+        final JBlock body = method.body();
+        final JVar id = body.decl(idType, "id");
+        final JDoLoop doLoop = body._do(ids.invoke("putIfAbsent").arg(id).arg(bookmark).ne(_null()));
+        doLoop.body().assign(id, builderFactoryClass.staticInvoke(GET_BIG_INTEGER_METHOD_NAME)
+                .arg(sequence.invoke("getAndIncrement")));
+        body._return(id);
+    }
+
+    private void addStartMethod() {
+        final JClass bookmarkType = getType(CTBookmark.class);
+        final JMethod method = addMethod(PUBLIC, bookmarkType, START_METHOD_NAME, thisClass);
+        final JVar name = method.param(String.class, "name");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Creates bookmark start with newly allocated id.");
+        javadoc.addParam(name).add("name of the bookmark");
+        javadoc.addReturn().add("bookmark start");
+        javadoc.addThrows(NullPointerException.class).add("if name is null");
+        javadoc.addThrows(IllegalStateException.class).add("if bookmark with given name already exists");
+        final JBlock body = method.body();
+        addNullCheck(body, name);
+        final JVar bookmark = body.decl(FINAL, bookmarkType, "bookmark", createObject(CTBookmark.class));
+        body.add(bookmark.invoke("setId").arg(invoke(NEXT_ID_METHOD_NAME).arg(bookmark)));
+        body.add(bookmark.invoke("setName").arg(name));
+        final JBlock duplicateBlock = body._if(bookmarks.invoke("putIfAbsent").arg(name).arg(bookmark).ne(_null()))._then();
+        duplicateBlock.add(ids.invoke("remove").arg(bookmark.invoke("getId")).arg(bookmark));
+        duplicateBlock._throw(_new(getType(IllegalStateException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Duplicate bookmark {%s}")).arg(name)));
+        body._return(bookmark);
+    }
+
+    private void addEndMethod() {
+        final JClass rangeType = getType(CTMarkupRange.class);
+        final JMethod method = addMethod(PUBLIC, rangeType, END_METHOD_NAME, thisClass);
+        final JVar name = method.param(String.class, "name");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Creates end of bookmark with given name, paired with its start by id.");
+        javadoc.addParam(name).add("name of the bookmark");
+        javadoc.addReturn().add("bookmark end");
+        javadoc.addThrows(IllegalStateException.class).add("if no bookmark with given name exists");
+        final JBlock body = method.body();
+        final JVar bookmark = body.decl(FINAL, getType(CTBookmark.class), "bookmark", bookmarks.invoke("get").arg(name));
+        body._if(bookmark.eq(_null()))._then()._throw(_new(getType(IllegalStateException.class))
+                .arg(getType(String.class).staticInvoke("format").arg(lit("No bookmark {%s}")).arg(name)));
+        final JVar range = body.decl(FINAL, rangeType, "range", builderFactoryClass.staticRef(OBJECT_FACTORY_FIELD_NAME)
+                .invoke("createCTMarkupRange"));
+        body.add(range.invoke("setId").arg(bookmark.invoke("getId")));
+        body._return(range);
+    }
+
+    private void addElementMethod(String methodName, String delegateName, Class<?> valueType, JFieldVar qName,
+                                  String description) {
+        final JClass jValueType = getType(valueType);
+        final JClass elementType = getType(JAXBElement.class).narrow(jValueType);
+        final JMethod method = addMethod(PUBLIC, elementType, methodName, thisClass);
+        final JVar name = method.param(String.class, "name");
+        method.javadoc().add(description);
+        method.javadoc().addParam(name).add("name of the bookmark");
+        method.javadoc().addReturn().add("wrapped bookmark " + delegateName);
+        method.body()._return(_new(elementType).arg(qName).arg(jValueType.dotclass()).arg(_null())
+                .arg(invoke(delegateName).arg(name)));
+    }
+
+    private void addBookmarkMethod() {
+        final JClass listType = getType(List.class).narrow(Object.class);
+        final JMethod method = addMethod(PUBLIC, listType, "bookmark", thisClass);
+        final JVar name = method.param(String.class, "name");
+        final JVar content = method.varParam(Object.class, "content");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Surrounds given content with start and end of a new bookmark.");
+        javadoc.addParam(name).add("name of the bookmark");
+        javadoc.addParam(content).add("content to bookmark");
+        javadoc.addReturn().add("bookmark start, given content and bookmark end");
+        final JBlock body = method.body();
+        final JVar result = body.decl(FINAL, listType, "result", _new(getType(ArrayList.class).narrow(Object.class))
+                .arg(lit(2).plus(JOp.cond(content.eq(_null()), lit(0), content.ref("length")))));
+        body.add(result.invoke("add").arg(invoke("startElement").arg(name)));
+        body._if(content.ne(_null()))._then().staticInvoke(getType(Collections.class), "addAll").arg(result).arg(content);
+        body.add(result.invoke("add").arg(invoke("endElement").arg(name)));
+        body._return(result);
+    }
+
+    private void addRegisterMethods() {
+        JMethod method = addMethod(PUBLIC, codeModel.VOID, "register", thisClass);
+        final JVar bookmark = method.param(CTBookmark.class, "bookmark");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Registers bookmark created elsewhere, e.g. in a section merged into the document, ids allocated ");
+        javadoc.add("afterwards are greater than its id. Bookmark without id is given a newly allocated one, bookmark ");
+        javadoc.add("whose id is in use is rejected, as its end can not be renumbered along with it. Ids beyond the ");
+        javadoc.add("range of <code>long</code> do not move the sequence, allocation skips them as any id in use.");
+        javadoc.addParam(bookmark).add("bookmark to register");
+        javadoc.addThrows(NullPointerException.class).add("if name of the bookmark is null");
+        javadoc.addThrows(IllegalStateException.class).add("if another bookmark with same name or id already exists");
+        JBlock body = method.body();
+        body._if(bookmark.eq(_null()))._then()._return();
+        addNullCheck(body, bookmark.invoke("getName"));
+        final JVar existing = body.decl(FINAL, getType(CTBookmark.class), "existing",
+                bookmarks.invoke("putIfAbsent").arg(bookmark.invoke("getName")).arg(bookmark));
+        body._if(existing.eq(bookmark))._then()._return();
+        body._if(existing.ne(_null()))._then()._throw(_new(getType(IllegalStateException.class))
+                .arg(getType(String.class).staticInvoke("format").arg(lit("Duplicate bookmark {%s}"))
+                        .arg(bookmark.invoke("getName"))));
+        final JConditional idConditional = body._if(bookmark.invoke("getId").eq(_null()));
+        idConditional._then().add(bookmark.invoke("setId").arg(invoke(NEXT_ID_METHOD_NAME).arg(bookmark)));
+        final JBlock clashBlock = idConditional._elseif(ids.invoke("putIfAbsent").arg(bookmark.invoke("getId"))
+                .arg(bookmark).ne(_null()))._then();
+        clashBlock.add(bookmarks.invoke("remove").arg(bookmark.invoke("getName")).arg(bookmark));
+        clashBlock._throw(_new(getType(IllegalStateException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Duplicate id {%s} of bookmark {%s}")).arg(bookmark.invoke("getId"))
+                .arg(bookmark.invoke("getName"))));
+        final JVar bookmarkId = body.decl(FINAL, getType(BigInteger.class), "id", bookmark.invoke("getId"));
+        // ids out of range of the sequence do not move it, allocation skips them as any other id in use
+        body._if(bookmarkId.invoke("signum").gte(lit(0)).cand(bookmarkId.invoke("compareTo")
+                .arg(getType(BigInteger.class).staticInvoke("valueOf").arg(getType(Long.class).staticRef("MAX_VALUE")))
+                .lt(lit(0))))._then().invoke("reserveId").arg(bookmarkId.invoke("longValue"));
+
+        method = addMethod(PUBLIC, codeModel.VOID, "reserveId", thisClass);
+        final JVar id = method.param(codeModel.LONG, "id");
+        javadoc = method.javadoc();
+        javadoc.add("Moves the sequence past given id, without locking.");
+        javadoc.addParam(id).add("id in use, the sequence can not move past <code>Long.MAX_VALUE</code>");
+        body = method.body();
+        body._if(id.eq(getType(Long.class).staticRef("MAX_VALUE")))._then()._return();
+        final JVar current = body.decl(codeModel.LONG, "current");
+        final JDoLoop doLoop = body._do(sequence.invoke("compareAndSet").arg(current).arg(id.plus(lit(1))).not());
+        doLoop.body().assign(current, sequence.invoke("get"));
+        doLoop.body()._if(current.gt(id))._then()._return();
+    }
+
+    private void addNullCheck(JBlock body, JExpression name) {
+        body._if(name.eq(_null()))._then()._throw(_new(getType(NullPointerException.class)).arg(lit("name")));
+    }
+
+    private void addLookupMethods() {
+        JMethod method = addMethod(PUBLIC, getType(CTBookmark.class), "find", thisClass);
+        JVar name = method.param(String.class, "name");
+        method.javadoc().addParam(name).add("name of the bookmark");
+        method.javadoc().addReturn().add("bookmark start with given name or null");
+        method.body()._return(bookmarks.invoke("get").arg(name));
+
+        method = addMethod(PUBLIC, getType(CTBookmark.class), "findById", thisClass);
+        final JVar id = method.param(BigInteger.class, "id");
+        method.javadoc().addParam(id).add("id of the bookmark, e.g. of its end");
+        method.javadoc().addReturn().add("bookmark start with given id or null");
+        method.body()._return(JOp.cond(id.eq(_null()), _null(), ids.invoke("get").arg(id)));
+
+        method = addMethod(PUBLIC, codeModel.BOOLEAN, "contains", thisClass);
+        name = method.param(String.class, "name");
+        method.javadoc().addParam(name).add("name of the bookmark");
+        method.javadoc().addReturn().add("true if bookmark with given name exists");
+        method.body()._return(bookmarks.invoke("containsKey").arg(name));
+
+        method = addMethod(PUBLIC, getType(Collection.class).narrow(CTBookmark.class), "getBookmarks", thisClass);
+        method.javadoc().addReturn().add("all the registered bookmarks");
+        method.body()._return(getType(Collections.class).staticInvoke("unmodifiableCollection")
+                .arg(bookmarks.invoke("values")));
+    }
+}
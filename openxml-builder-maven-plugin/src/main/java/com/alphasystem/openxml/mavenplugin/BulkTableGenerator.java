@@ -0,0 +1,327 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.wml.*;
+
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.*;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static org.apache.commons.lang3.StringUtils.capitalize;
+
+/**
+ * Generates <code>WmlBulkTableBuilder</code>, columnar builder of very large tables. Cell objects are created
+ * directly through object factory rather than builders, per column properties (<code>TcPr</code>, <code>PPr</code>
+ * and <code>RPr</code>) are shared by all the cells of the column and rows are materialized in batches, optionally in
+ * parallel.
+ *
+ * @author sali
+ */
+public class BulkTableGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlBulkTableBuilder";
+    private static final String COLUMN_CLASS_NAME = "Column";
+    private static final String ADD_ROW_METHOD_NAME = "addRow";
+    private static final String FLUSH_METHOD_NAME = "flush";
+    private static final String START_METHOD_NAME = "start";
+    private static final String EMIT_METHOD_NAME = "emit";
+    private static final String CREATE_ROW_METHOD_NAME = "createRow";
+    private static final String CREATE_CELL_METHOD_NAME = "createCell";
+    private static final String BUILD_METHOD_NAME = "build";
+
+    private JDefinedClass columnClass;
+
+    public BulkTableGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Columnar builder of large tables. Column properties are shared by all cells of the column, hence ");
+        javadoc.add("must not be modified once rows are added. Rows are collected into batches, each batch is ");
+        javadoc.add("materialized (in parallel if enabled) and passed in order to the sink, which by default appends ");
+        javadoc.add("rows to the table. Rows and cells are created without builders, hence they are neither ");
+        javadoc.add("validated nor counted by builder metrics.");
+        addColumnClass();
+
+        final JClass trListType = getType(List.class).narrow(Tr.class);
+        thisClass.field(PRIVATE | FINAL, getBuilderClass(Tbl.class), "tblBuilder");
+        thisClass.field(PRIVATE | FINAL, getType(List.class).narrow(columnClass), "columns",
+                _new(getType(ArrayList.class).narrow(columnClass)));
+        thisClass.field(PRIVATE | FINAL, getType(List.class).narrow(getType(List.class).narrow(codeModel.wildcard())),
+                "batch", _new(getType(ArrayList.class).narrow(getType(List.class).narrow(codeModel.wildcard()))));
+        thisClass.field(PRIVATE, codeModel.INT, "batchSize", lit(1000));
+        thisClass.field(PRIVATE, codeModel.BOOLEAN, "parallel");
+        thisClass.field(PRIVATE, codeModel.BOOLEAN, "started");
+        thisClass.field(PRIVATE, getType(Consumer.class).narrow(trListType), "sink");
+
+        addConstructors();
+        addWithMethods(trListType);
+        addAddColumnMethod();
+        addAddRowMethod();
+        addBuildMethods();
+        addFlushMethod(trListType);
+        addCreateRowMethod();
+        addCreateCellMethod();
+    }
+
+    private void addColumnClass() {
+        try {
+            columnClass = thisClass._class(PUBLIC | STATIC | FINAL, COLUMN_CLASS_NAME);
+        } catch (JClassAlreadyExistsException e) {
+            return;
+        }
+        columnClass.javadoc().add("Definition of a column, properties are shared by every cell of the column.");
+        addColumnProperty(getType(String.class), "header", "text of header cell, no header row is added if none of the columns has header");
+        addColumnProperty(getType(BigInteger.class), "width", "width of grid column in twips");
+        addColumnProperty(getType(TcPr.class), "tcPr", "cell properties");
+        addColumnProperty(getType(PPr.class), "pPr", "paragraph properties");
+        addColumnProperty(getType(RPr.class), "rPr", "run properties");
+    }
+
+    private void addColumnProperty(JClass type, String name, String description) {
+        final JFieldVar field = columnClass.field(PRIVATE, type, name);
+        JMethod method = addMethod(PUBLIC, columnClass, "with" + capitalize(name), columnClass);
+        final JVar param = method.param(type, PARAM_NAME);
+        method.javadoc().addParam(param).add(description);
+        method.javadoc().addReturn().add("reference to this");
+        method.body().assign(refthis(field.name()), param);
+        method.body()._return(_this());
+
+        method = addMethod(PUBLIC, type, "get" + capitalize(name), columnClass);
+        method.body()._return(field);
+    }
+
+    private void addConstructors() {
+        JMethod constructor = thisClass.constructor(PUBLIC);
+        constructor.javadoc().add("Initialize with new table.");
+        constructor.body().invoke("this").arg(_new(getBuilderClass(Tbl.class)));
+
+        constructor = thisClass.constructor(PUBLIC);
+        final JVar tblBuilder = constructor.param(getBuilderClass(Tbl.class), "tblBuilder");
+        constructor.javadoc().addParam(tblBuilder).add("builder of the table to add rows into, e.g., with table properties set");
+        constructor.body().assign(refthis("tblBuilder"), tblBuilder);
+    }
+
+    private void addWithMethods(JClass trListType) {
+        JMethod method = addMethod(PUBLIC, thisClass, "withBatchSize", thisClass);
+        JVar param = method.param(codeModel.INT, PARAM_NAME);
+        method.javadoc().addParam(param).add("number of rows materialized at a time, defaults to 1000");
+        method.javadoc().addReturn().add("reference to this");
+        method.body()._if(param.lt(lit(1)))._then()._throw(_new(getType(IllegalArgumentException.class))
+                .arg(lit("Batch size must be positive")));
+        method.body().assign(refthis("batchSize"), param);
+        method.body()._return(_this());
+
+        method = addMethod(PUBLIC, thisClass, "withParallel", thisClass);
+        param = method.param(codeModel.BOOLEAN, PARAM_NAME);
+        method.javadoc().addParam(param).add("true to materialize rows of each batch in parallel, order of rows is kept");
+        method.javadoc().addReturn().add("reference to this");
+        method.body().assign(refthis("parallel"), param);
+        method.body()._return(_this());
+
+        method = addMethod(PUBLIC, thisClass, "withSink", thisClass);
+        param = method.param(getType(Consumer.class).narrow(trListType), PARAM_NAME);
+        method.javadoc().add("Sets consumer of materialized rows, e.g. to write them out as they are created. Rows ");
+        method.javadoc().add("passed to the sink, including the header row, are not added to the table. No streaming ");
+        method.javadoc().add("writer is generated, <code>WmlPackageWriter</code> marshals the body as a whole, hence the ");
+        method.javadoc().add("sink has to write the rows itself.");
+        method.javadoc().addParam(param).add("consumer of each batch of rows, in order");
+        method.javadoc().addReturn().add("reference to this");
+        method.body().assign(refthis("sink"), param);
+        method.body()._return(_this());
+    }
+
+    private void addAddColumnMethod() {
+        final JMethod method = addMethod(PUBLIC, thisClass, "addColumn", thisClass);
+        final JVar column = method.param(columnClass, "column");
+        method.javadoc().addParam(column).add("column to add");
+        method.javadoc().addReturn().add("reference to this");
+        final JBlock body = method.body();
+        body._if(ref("started"))._then()._throw(_new(getType(IllegalStateException.class))
+                .arg(lit("Columns cannot be added once rows are added")));
+        body.add(ref("columns").invoke("add").arg(column));
+        body._return(_this());
+    }
+
+    private void addAddRowMethod() {
+        final JMethod method = addMethod(PUBLIC, thisClass, ADD_ROW_METHOD_NAME, thisClass);
+        final JVar values = method.param(getType(List.class).narrow(codeModel.wildcard()), "values");
+        method.javadoc().add("Adds a row, values are converted to text with <code>String.valueOf</code>, null values ");
+        method.javadoc().add("result in empty cells.");
+        method.javadoc().addParam(values).add("cell values in column order");
+        method.javadoc().addReturn().add("reference to this");
+        final JBlock body = method.body();
+        body.invoke(START_METHOD_NAME);
+        body.add(ref("batch").invoke("add").arg(values));
+        body._if(ref("batch").invoke("size").gte(ref("batchSize")))._then().invoke(FLUSH_METHOD_NAME);
+        body._return(_this());
+
+        // start: add grid and header row, once
+        final JMethod start = addMethod(PRIVATE, codeModel.VOID, START_METHOD_NAME, thisClass);
+        final JBlock startBody = start.body();
+        startBody._if(ref("started"))._then()._return();
+        startBody.assign(ref("started"), TRUE);
+        final JVar tbl = startBody.decl(FINAL, getType(Tbl.class), "tbl", ref("tblBuilder").invoke(GET_OBJECT_METHOD_NAME));
+        final JVar grid = startBody.decl(FINAL, getType(TblGrid.class), "grid", createObject(TblGrid.class));
+        final JVar headers = startBody.decl(FINAL, getType(List.class).narrow(Object.class), "headers",
+                _new(getType(ArrayList.class).narrow(Object.class)));
+        final JVar hasHeader = startBody.decl(codeModel.BOOLEAN, "hasHeader", FALSE);
+        final JForEach forEach = startBody.forEach(columnClass, "column", ref("columns"));
+        final JBlock forBody = forEach.body();
+        final JVar gridCol = forBody.decl(FINAL, getType(TblGridCol.class), "gridCol", createObject(TblGridCol.class));
+        forBody.add(gridCol.invoke("setW").arg(forEach.var().invoke("getWidth")));
+        forBody.add(grid.invoke("getGridCol").invoke("add").arg(gridCol));
+        forBody.add(headers.invoke("add").arg(forEach.var().invoke("getHeader")));
+        forBody.assign(hasHeader, hasHeader.cor(forEach.var().invoke("getHeader").ne(_null())));
+        startBody._if(tbl.invoke("getTblGrid").eq(_null()))._then().add(tbl.invoke("setTblGrid").arg(grid));
+        final JBlock headerBlock = startBody._if(hasHeader)._then();
+        final JVar header = headerBlock.decl(FINAL, getType(Tr.class), "header", invoke(CREATE_ROW_METHOD_NAME).arg(headers));
+        final JVar trPr = headerBlock.decl(FINAL, getType(TrPr.class), "trPr", createObject(TrPr.class));
+        // repeated on every page and announced as header to assistive technologies
+        headerBlock.add(trPr.invoke("getCnfStyleOrDivIdOrGridBefore").invoke("add").arg(builderFactoryClass
+                .staticRef(OBJECT_FACTORY_FIELD_NAME).invoke("createCTTrPrBaseTblHeader")
+                .arg(createObject(BooleanDefaultTrue.class))));
+        headerBlock.add(header.invoke("setTrPr").arg(trPr));
+        headerBlock.invoke(EMIT_METHOD_NAME).arg(getType(Collections.class).staticInvoke("singletonList").arg(header));
+    }
+
+    private void addBuildMethods() {
+        final JClass tblType = getType(Tbl.class);
+        final JClass rowType = getType(List.class).narrow(codeModel.wildcard());
+
+        JMethod method = addMethod(PUBLIC, tblType, BUILD_METHOD_NAME, thisClass);
+        method.javadoc().add("Materializes any pending rows, grid and header row are added even if there are no rows.");
+        method.javadoc().addReturn().add("the table");
+        JBlock body = method.body();
+        body.invoke(START_METHOD_NAME);
+        body.invoke(FLUSH_METHOD_NAME);
+        body._return(ref("tblBuilder").invoke(GET_OBJECT_METHOD_NAME));
+
+        method = addMethod(PUBLIC, tblType, BUILD_METHOD_NAME, thisClass);
+        JVar rows = method.param(getType(Iterator.class).narrow(rowType.wildcard()), "rows");
+        method.javadoc().addParam(rows).add("rows to add");
+        method.javadoc().addReturn().add("the table");
+        body = method.body();
+        body._while(rows.invoke("hasNext")).body().invoke(ADD_ROW_METHOD_NAME).arg(rows.invoke("next"));
+        body._return(invoke(BUILD_METHOD_NAME));
+
+        method = addMethod(PUBLIC, tblType, BUILD_METHOD_NAME, thisClass);
+        rows = method.param(getType(Stream.class).narrow(rowType.wildcard()), "rows");
+        method.javadoc().addParam(rows).add("rows to add, consumed sequentially");
+        method.javadoc().addReturn().add("the table");
+        method.body()._return(invoke(BUILD_METHOD_NAME).arg(rows.invoke("iterator")));
+
+        method = addMethod(PUBLIC, tblType, BUILD_METHOD_NAME, thisClass);
+        method._throws(SQLException.class);
+        final JVar resultSet = method.param(ResultSet.class, "resultSet");
+        method.javadoc().add("Adds one row per remaining row of given result set, one value per defined column.");
+        method.javadoc().addParam(resultSet).add("result set to read");
+        method.javadoc().addReturn().add("the table");
+        body = method.body();
+        final JVar columnCount = body.decl(FINAL, codeModel.INT, "columnCount", ref("columns").invoke("size"));
+        final JBlock loopBody = body._while(resultSet.invoke("next")).body();
+        final JVar values = loopBody.decl(FINAL, getType(List.class).narrow(Object.class), "values",
+                _new(getType(ArrayList.class).narrow(Object.class)).arg(columnCount));
+        final JForLoop forLoop = loopBody._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(1));
+        forLoop.test(i.lte(columnCount));
+        forLoop.update(i.incr());
+        forLoop.body().add(values.invoke("add").arg(resultSet.invoke("getObject").arg(i)));
+        loopBody.invoke(ADD_ROW_METHOD_NAME).arg(values);
+        body._return(invoke(BUILD_METHOD_NAME));
+    }
+
+    private void addFlushMethod(JClass trListType) {
+        final JMethod method = addMethod(PRIVATE, codeModel.VOID, FLUSH_METHOD_NAME, thisClass);
+        final JBlock body = method.body();
+        final JClass rowType = getType(List.class).narrow(codeModel.wildcard());
+        final JVar batch = body.decl(FINAL, getType(List.class).narrow(rowType), "batch", refthis("batch"));
+        body._if(batch.invoke("isEmpty"))._then()._return();
+        final JVar rows = body.decl(FINAL, getType(Tr.class).array(), "rows", newArray(getType(Tr.class), batch.invoke("size")));
+        final JConditional conditional = body._if(ref("parallel"));
+
+        final JDefinedClass consumerClass = codeModel.anonymousClass(getType(IntConsumer.class));
+        final JMethod accept = addMethod(PUBLIC, codeModel.VOID, "accept", consumerClass, Override.class);
+        final JVar index = accept.param(codeModel.INT, "index");
+        accept.body().assign(rows.component(index), invoke(CREATE_ROW_METHOD_NAME).arg(batch.invoke("get").arg(index)));
+        conditional._then().add(getType(IntStream.class).staticInvoke("range").arg(lit(0)).arg(rows.ref("length"))
+                .invoke("parallel").invoke("forEach").arg(_new(consumerClass)));
+
+        final JForLoop forLoop = conditional._else()._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(rows.ref("length")));
+        forLoop.update(i.incr());
+        forLoop.body().assign(rows.component(i), invoke(CREATE_ROW_METHOD_NAME).arg(batch.invoke("get").arg(i)));
+        body.add(batch.invoke("clear"));
+
+        body.invoke(EMIT_METHOD_NAME).arg(getType(Arrays.class).staticInvoke("asList").arg(rows));
+
+        final JMethod emit = addMethod(PRIVATE, codeModel.VOID, EMIT_METHOD_NAME, thisClass);
+        final JVar result = emit.param(trListType, "rows");
+        final JConditional sinkConditional = emit.body()._if(ref("sink").ne(_null()));
+        sinkConditional._then().add(ref("sink").invoke("accept").arg(result));
+        sinkConditional._else().add(ref("tblBuilder").invoke(GET_OBJECT_METHOD_NAME).invoke("getContent")
+                .invoke("addAll").arg(result));
+    }
+
+    private void addCreateRowMethod() {
+        final JClass trType = getType(Tr.class);
+        final JMethod method = addMethod(PRIVATE, trType, CREATE_ROW_METHOD_NAME, thisClass);
+        final JVar values = method.param(getType(List.class).narrow(codeModel.wildcard()), "values");
+        final JBlock body = method.body();
+        final JVar tr = body.decl(FINAL, trType, "tr", createObject(Tr.class));
+        final JVar content = body.decl(FINAL, getType(List.class).narrow(Object.class), "content", tr.invoke("getContent"));
+        final JForLoop forLoop = body._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(ref("columns").invoke("size")));
+        forLoop.update(i.incr());
+        forLoop.body().add(content.invoke("add").arg(invoke(CREATE_CELL_METHOD_NAME).arg(ref("columns").invoke("get").arg(i))
+                .arg(JOp.cond(i.lt(values.invoke("size")), values.invoke("get").arg(i), _null()))));
+        body._return(tr);
+    }
+
+    private void addCreateCellMethod() {
+        final JClass tcType = getType(Tc.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, tcType, CREATE_CELL_METHOD_NAME, thisClass);
+        final JVar column = method.param(columnClass, "column");
+        final JVar value = method.param(Object.class, "value");
+        final JBlock body = method.body();
+        final JVar tc = body.decl(FINAL, tcType, "tc", createObject(Tc.class));
+        body.add(tc.invoke("setTcPr").arg(column.invoke("getTcPr")));
+        final JVar p = body.decl(FINAL, getType(P.class), "p", createObject(P.class));
+        body.add(p.invoke("setPPr").arg(column.invoke("getPPr")));
+        final JBlock ifBlock = body._if(value.ne(_null()))._then();
+        final JVar text = ifBlock.decl(FINAL, getType(String.class), "text", getType(String.class).staticInvoke("valueOf").arg(value));
+        final JVar t = ifBlock.decl(FINAL, getType(Text.class), "t", createObject(Text.class));
+        ifBlock.add(t.invoke("setValue").arg(text));
+        ifBlock._if(text.invoke("trim").invoke("length").ne(text.invoke("length")))._then()
+                .add(t.invoke("setSpace").arg(lit("preserve")));
+        final JVar r = ifBlock.decl(FINAL, getType(R.class), "r", createObject(R.class));
+        ifBlock.add(r.invoke("setRPr").arg(column.invoke("getRPr")));
+        ifBlock.add(r.invoke("getContent").invoke("add").arg(builderFactoryClass.staticRef(OBJECT_FACTORY_FIELD_NAME)
+                .invoke("createRT").arg(t)));
+        ifBlock.add(p.invoke("getContent").invoke("add").arg(r));
+        body.add(tc.invoke("getContent").invoke("add").arg(p));
+        body._return(tc);
+    }
+}
@@ -6,6 +6,7 @@ package com.alphasystem.openxml.mavenplugin;
 import com.sun.codemodel.*;
 import org.docx4j.wml.BooleanDefaultTrue;
 import org.docx4j.wml.CTSdtRow;
+import org.docx4j.wml.P;
 import org.docx4j.wml.SdtBlock;
 
 import java.lang.reflect.Field;
@@ -33,7 +34,7 @@ import static org.apache.commons.lang3.text.WordUtils.uncapitalize;
  */
 public class ClassGenerator {
 
-    private static String getCreateMethodName(Class<?> srcClass) {
+    static String getCreateMethodName(Class<?> srcClass) {
         String createMethodNamePrefix = "";
         Class<?> declaringClass = srcClass.getDeclaringClass();
         while (declaringClass != null) {
@@ -53,18 +54,23 @@ public class ClassGenerator {
     private final String superClassName;
     private final String sourcePackageName;
     private final JDefinedClass builderFactoryClass;
+    private final FluentApiGenerator apiGenerator;
     private JBlock constructorBody;
     private JDefinedClass thisClass;
     private Map<String, PropertyInfo> classInfo = new LinkedHashMap<>();
 
+    /**
+     * @param apiGenerator generator of the whole builder set, its options decide which helpers builders call into
+     */
     public ClassGenerator(JCodeModel codeModel, JDefinedClass enclosingClass, Class<?> srcClass, String superClassName, String sourcePackageName,
-                          JDefinedClass builderFactoryClass) {
+                          JDefinedClass builderFactoryClass, FluentApiGenerator apiGenerator) {
         this.codeModel = codeModel;
         this.enclosingClass = enclosingClass;
         this.srcClass = srcClass;
         this.superClassName = superClassName;
         this.sourcePackageName = sourcePackageName;
         this.builderFactoryClass = builderFactoryClass;
+        this.apiGenerator = apiGenerator;
         classInfo.putAll(inspectClass(this.srcClass));
     }
 
@@ -86,21 +92,27 @@ public class ClassGenerator {
             addConstructor();
             addOverloadedConstructor();
 
-            List<String> classesToIgnore = new ArrayList<>();
-            classesToIgnore.add(SdtBlock.class.getName());
-            classesToIgnore.add(CTSdtRow.class.getName());
-            // TODO: hack to avoid compilation error, need to figure out later
-            if (!classesToIgnore.contains(srcClass.getName())) {
-                addCopyConstructor();
-            }
+            addCopyConstructor();
 
             // implement "createObject" method
             final JMethod method = thisClass.method(PROTECTED, srcClass, CREATE_OBJECT_METHOD_NAME);
+            if (apiGenerator.isSizeTracking()) {
+                method.body().staticInvoke(getSizeTrackerClass(), SizeTrackerGenerator.CHARGE_METHOD_NAME)
+                        .arg(lit(SizeEstimatorGenerator.getShallowSize(srcClass)));
+            }
             method.body()._return(invoke(builderFactoryClass.staticRef(OBJECT_FACTORY_FIELD_NAME), getCreateMethodName(srcClass)));
 
             // add fluent API methods
             classInfo.entrySet().forEach(entry -> processField(entry.getValue()));
 
+            if (apiGenerator.isNormalizer() && (P.class.equals(srcClass) || P.Hyperlink.class.equals(srcClass))) {
+                addCoalesceRuns();
+            }
+
+            if (apiGenerator.isSdtIndex() && (SdtBlock.class.equals(srcClass) || CTSdtRow.class.equals(srcClass))) {
+                addSdtIndexRegistration();
+            }
+
             if (enclosingClass == null) {
                 // add "get" method in builder class
                 addBuilderGetterMethod(PUBLIC | STATIC);
@@ -111,6 +123,50 @@ public class ClassGenerator {
         return thisClass;
     }
 
+    /**
+     * Adds optional normalization of paragraph content, when enabled adjacent runs with identical run properties are
+     * merged on <code>getObject</code>.
+     */
+    private void addCoalesceRuns() {
+        final JFieldVar field = thisClass.field(PRIVATE, codeModel.BOOLEAN, COALESCE_RUNS_FIELD_NAME);
+
+        JMethod method = addMethod(PUBLIC, thisClass, "withCoalesceRuns", thisClass);
+        final JVar param = method.param(codeModel.BOOLEAN, PARAM_NAME);
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Enables merging of adjacent runs with structurally identical run properties, and of adjacent text ");
+        javadoc.add("nodes, when the object is retrieved.");
+        javadoc.addParam(param).add("true to enable");
+        javadoc.addReturn().add("reference to this");
+        method.body().assign(refthis(field.name()), param);
+        method.body()._return(_this());
+
+        method = addMethod(PUBLIC, parseClass(codeModel, srcClass), GET_OBJECT_METHOD_NAME, thisClass, Override.class);
+        final JBlock body = method.body();
+        body._if(field)._then().staticInvoke(parseClass(codeModel, format("%s.%s", BUILDER_PACKAGE_NAME,
+                NormalizerGenerator.CLASS_NAME)), NormalizerGenerator.COALESCE_RUNS_METHOD_NAME)
+                .arg(FIELD_TYPE_REF.invoke("getContent"));
+        body._return(_super().invoke(GET_OBJECT_METHOD_NAME));
+    }
+
+    /**
+     * Adds registration of content control into <code>WmlSdtIndex</code> of current thread on <code>getObject</code>,
+     * once the object has been registered into an open index it is not registered again.
+     */
+    private void addSdtIndexRegistration() {
+        final JFieldVar registered = thisClass.field(PRIVATE, codeModel.BOOLEAN, REGISTERED_FIELD_NAME);
+        final JMethod method = addMethod(PUBLIC, parseClass(codeModel, srcClass), GET_OBJECT_METHOD_NAME, thisClass,
+                Override.class);
+        final JBlock body = method.body();
+        body._if(registered.not())._then().assign(registered, parseClass(codeModel, format("%s.%s",
+                BUILDER_PACKAGE_NAME, SdtIndexGenerator.CLASS_NAME)).staticInvoke(SdtIndexGenerator.REGISTER_METHOD_NAME)
+                .arg(FIELD_TYPE_REF));
+        body._return(_super().invoke(GET_OBJECT_METHOD_NAME));
+    }
+
+    private JClass getSizeTrackerClass() {
+        return parseClass(codeModel, format("%s.%s", BUILDER_PACKAGE_NAME, SizeTrackerGenerator.CLASS_NAME));
+    }
+
     private void addConstructor() {
         JMethod constructor = thisClass.constructor(PUBLIC);
         constructor.javadoc().add("Initialize the underlying object.");
@@ -136,14 +192,22 @@ public class ClassGenerator {
 
         final JDocComment javadoc = constructor.javadoc();
         javadoc.add("Copies values fom <code>src</code> into <code>target</code>. Values of <code>target</code> will be overridden by the values from <code>src</code>.");
+        if (apiGenerator.isValidator()) {
+            javadoc.add(" Copied object is not validated unless validation is enabled again.");
+        }
         javadoc.addParam(srcParam).add("source object");
         javadoc.addParam(targetParam).add("target object");
 
         final JBlock body = constructor.body();
         body.invoke("this").arg(targetParam);
+        if (apiGenerator.isValidator()) {
+            // copies are made by deep copy and clone utilities, only objects built by the user are validated
+            body.invoke(format("set%s", capitalize(VALIDATING_FIELD_NAME))).arg(FALSE);
+        }
         final JBlock ifBlock = body._if(srcParam.ne(_null()))._then();
 
         JInvocation invocation = null;
+        boolean uncheckedCopy = false;
         for (Map.Entry<String, PropertyInfo> entry : classInfo.entrySet()) {
             final PropertyInfo propertyInfo = entry.getValue();
 
@@ -153,19 +217,31 @@ public class ClassGenerator {
             if (collectionType) {
                 final Type genericType = field.getGenericType();
                 final String typeName = genericType.getTypeName();
-                if (typeName.contains("?")) {
+                final String methodName = propertyInfo.getReadMethod().getName();
+                if (typeName.contains("?") || paramType == null) {
+                    // no typed "add" method for items such as JAXBElement<?>, add deep copies to the list directly
+                    if (!uncheckedCopy) {
+                        constructor.annotate(SuppressWarnings.class).param("value", "unchecked");
+                        uncheckedCopy = true;
+                    }
+                    final JClass listType = parseClass(codeModel, List.class).narrow(Object.class);
+                    final JVar jVar = ifBlock.decl(listType, getLocalVariableName(propertyInfo.getFieldName()),
+                            cast(listType, cast(parseClass(codeModel, List.class), FIELD_TYPE_REF.invoke(methodName))));
+                    final JForEach forEach = ifBlock.forEach(parseClass(codeModel, Object.class), "o", srcParam.invoke(methodName));
+                    forEach.body().add(jVar.invoke("add").arg(builderFactoryClass.staticInvoke(DEEP_COPY_METHOD_NAME)
+                            .arg(forEach.var())));
                     continue;
                 }
-                final String methodName = propertyInfo.getReadMethod().getName();
                 final String paramTypeName = (paramType == null) ? null : paramType.getName();
                 final JClass thisType = parseClass(codeModel, typeName);
-                final JVar jVar = ifBlock.decl(thisType, propertyInfo.getFieldName(), srcParam.invoke(methodName));
+                final JVar jVar = ifBlock.decl(thisType, getLocalVariableName(propertyInfo.getFieldName()),
+                        srcParam.invoke(methodName));
                 final JForEach forEach = ifBlock.forEach(parseClass(codeModel, paramType), "o", jVar);
                 final JVar var = forEach.var();
                 JBlock forBody = forEach.body();
                 final String targetMethodName = getTargetMethodName(true, propertyInfo.getReadMethod().getName());
                 if (Object.class.getName().equals(paramTypeName)) {
-                    forBody.invoke(targetMethodName).arg(builderFactoryClass.staticInvoke(CLONE_OBJECT_METHOD_NAME).arg(var));
+                    forBody.invoke(targetMethodName).arg(builderFactoryClass.staticInvoke(DEEP_COPY_METHOD_NAME).arg(var));
                 } else {
                     String builderClassFqn = getBuilderClassFqn(paramType);
                     final JInvocation builderArg = _new(parseClass(codeModel, builderClassFqn)).arg(var).arg(_null()).invoke(GET_OBJECT_METHOD_NAME);
@@ -181,15 +257,33 @@ public class ClassGenerator {
         }
     }
 
+    /**
+     * Returns name of the local variable holding copy of given field in copy constructor, fields named after the
+     * constructor parameters or the underlying object (e.g. <code>CTOdso.src</code>) would hide them.
+     */
+    private static String getLocalVariableName(String fieldName) {
+        return ("src".equals(fieldName) || "target".equals(fieldName) || FIELD_NAME.equals(fieldName)) ?
+                format("%sValue", fieldName) : fieldName;
+    }
+
+    /**
+     * Checks whether given type belongs to source package, primitive and array types (e.g. <code>byte[]</code> of
+     * element value types) have no package.
+     */
+    private boolean isSourcePackage(Class<?> type) {
+        final Package _package = type.getPackage();
+        return (_package != null) && _package.getName().equals(sourcePackageName);
+    }
+
     private JInvocation copyValue(PropertyInfo propertyInfo, JBlock ifBlock, JVar srcParam, Class<?> paramType, JInvocation invocation) {
-        final JClass thisType = parseClass(codeModel, paramType);
-        final boolean sourcePackage = paramType.getPackage().getName().equals(sourcePackageName);
+        final JType thisType = codeModel._ref(paramType);
+        final boolean sourcePackage = isSourcePackage(paramType);
         final String paramTypeName = paramType.getName();
         final boolean innerType = paramTypeName.contains("$");
         final String fieldName = propertyInfo.getFieldName();
 
         final String readMethodName = propertyInfo.getReadMethod().getName();
-        JInvocation methodToInvoke = srcParam.invoke(readMethodName);
+        final JExpression methodToInvoke = readValue(srcParam, propertyInfo, paramType);
         JExpression var;
 
         if (paramTypeName.equals(BooleanDefaultTrue.class.getName())) {
@@ -201,9 +295,10 @@ public class ClassGenerator {
         } else if (!paramType.isEnum() && sourcePackage) {
             String builderClassFqn = getBuilderClassFqn(paramType, thisClass.name(), innerType);
             final JClass builderClass = parseClass(codeModel, builderClassFqn);
-            final JVar localVar = ifBlock.decl(thisType, fieldName, methodToInvoke);
+            final JVar localVar = ifBlock.decl(thisType, getLocalVariableName(fieldName), methodToInvoke);
             final JBlock localIf = ifBlock._if(localVar.ne(_null()))._then();
-            localIf.assign(localVar, _new(builderClass).arg(localVar).arg(FIELD_TYPE_REF.invoke(readMethodName)).invoke(GET_OBJECT_METHOD_NAME));
+            localIf.assign(localVar, _new(builderClass).arg(localVar).arg(readValue(FIELD_TYPE_REF, propertyInfo, paramType))
+                    .invoke(GET_OBJECT_METHOD_NAME));
             var = localVar;
         } else {
             var = methodToInvoke;
@@ -213,6 +308,21 @@ public class ClassGenerator {
         return invocation;
     }
 
+    /**
+     * Reads given property, getters of some types are declared with a wider return type than the field (e.g.
+     * <code>SdtBlock.getSdtContent</code> returns <code>SdtContent</code> while field is <code>SdtContentBlock</code>),
+     * in which case the value is cast to the field type.
+     */
+    private JExpression readValue(JExpression source, PropertyInfo propertyInfo, Class<?> paramType) {
+        final Method readMethod = propertyInfo.getReadMethod();
+        final Class<?> returnType = readMethod.getReturnType();
+        final JInvocation invocation = source.invoke(readMethod.getName());
+        if (paramType.isPrimitive() || returnType.isPrimitive() || paramType.isAssignableFrom(returnType)) {
+            return invocation;
+        }
+        return cast(parseClass(codeModel, paramType), invocation);
+    }
+
     private JInvocation setValue(PropertyInfo propertyInfo, JExpression var, JInvocation invocation) {
         Method srcMethod = propertyInfo.getWriteMethod();
         String targetMethodName = getTargetMethodName(false, srcMethod.getName());
@@ -284,11 +394,20 @@ public class ClassGenerator {
         if (!paramType.isPrimitive() && !collectionType) {
             block = body._if(param.ne(_null()))._then();
         }
-        final boolean sourcePackage = paramType.getPackage().getName().equals(sourcePackageName);
+        final boolean sourcePackage = isSourcePackage(paramType);
         final boolean innerType = paramType.getName().contains("$");
         if (collectionType) {
+            if (apiGenerator.isSizeTracking()) {
+                // list slots of added items are charged, items have been charged when they were created
+                body._if(param.ne(_null()))._then().staticInvoke(getSizeTrackerClass(),
+                        SizeTrackerGenerator.CHARGE_METHOD_NAME).arg(lit((long) SizeEstimatorGenerator.REFERENCE_SIZE)
+                        .mul(param.ref("length")));
+            }
             invokeMethod(body, ADD_CONTENT_METHOD_NAME, FIELD_TYPE_REF.invoke(propertyInfo.getReadMethod().getName()), param);
         } else {
+            if (apiGenerator.isSizeTracking() && String.class.equals(paramType)) {
+                block.staticInvoke(getSizeTrackerClass(), SizeTrackerGenerator.CHARGE_STRING_METHOD_NAME).arg(param);
+            }
             invokeMethod(block, FIELD_TYPE_REF, propertyInfo.getWriteMethod().getName(), param);
         }
         body._return(_this());
@@ -339,6 +458,11 @@ public class ClassGenerator {
             if (collectionType) {
                 if (generateCollectionOverload) {
                     addOverloadedCollectionMethod(targetMethodName, childPropertyInfo, childType, childBuilderClassFqn);
+                    if (BigInteger.class.getName().equals(childType.getName())) {
+                        // primitive values are served from the BigInteger cache, see "getBigInteger"
+                        addOverloadedCollectionMethod(targetMethodName, childPropertyInfo, long.class,
+                                childBuilderClassFqn);
+                    }
                 }
             } else {
                 if (childCollectionType) {
@@ -360,23 +484,21 @@ public class ClassGenerator {
      *
      * @param targetMethodName     name of target method to invoke
      * @param childPropertyInfo    propertyInfo of current property
-     * @param childType            type of current property
+     * @param childType            type of current property, <code>BigInteger</code> is taken as <code>Long</code>
      * @param childBuilderClassFqn builder fully qualified name of current property
      */
     private void addOverloadedCollectionMethod(String targetMethodName, PropertyInfo childPropertyInfo,
                                                Class<?> childType, String childBuilderClassFqn) {
         final String targetMethodName1 = getTargetMethodName(false, childPropertyInfo.getWriteMethod().getName());
         final JMethod method1 = addMethod(PUBLIC, thisClass, targetMethodName, thisClass);
-        JVar param1;
-        JClass jClass = parseClass(codeModel, childType);
-        if (BigInteger.class.getName().equals(childType.getName())) {
-            jClass = parseClass(codeModel, Long.class);
-            param1 = method1.varParam(jClass, childPropertyInfo.getFieldName());
-        } else {
-            param1 = method1.varParam(jClass, childPropertyInfo.getFieldName());
-        }
+        final JType jClass = BigInteger.class.getName().equals(childType.getName()) ? parseClass(codeModel, Long.class) :
+                codeModel._ref(childType);
+        final JVar param1 = method1.varParam(jClass, childPropertyInfo.getFieldName());
         final JBlock body1 = method1.body();
-        final JBlock ifBlock1 = body1._if(invoke(HAS_CONTENT_MEHOD_NAME).arg(param1))._then();
+        // primitive array would be taken as single var arg of "hasContent"
+        final JExpression hasContent = jClass.isPrimitive() ? param1.ne(_null()).cand(param1.ref("length").gt(lit(0))) :
+                invoke(HAS_CONTENT_MEHOD_NAME).arg(param1);
+        final JBlock ifBlock1 = body1._if(hasContent)._then();
         final JForEach jForEach = ifBlock1.forEach(jClass, "o", param1);
         final JBlock forBody = jForEach.body();
         forBody.add(invoke(targetMethodName).arg(_new(parseClass(codeModel, childBuilderClassFqn))
@@ -410,17 +532,42 @@ public class ClassGenerator {
                 .invoke(targetMethodName1).arg(param).invoke(GET_OBJECT_METHOD_NAME);
         ifBlock.add(FIELD_TYPE_REF.invoke(propertyInfo.getWriteMethod().getName()).arg(invocation));
         body._return(_this());
+
+        if (BigInteger.class.getName().equals(childType.getName())) {
+            addPrimitiveOverloadedMethod(propertyInfo, targetMethodName, childPropertyInfo, long.class, childBuilderClassFqn);
+        }
+    }
+
+    /**
+     * Add primitive overload method for any non-collection OpenXML property which has one and only one field of type
+     * <code>BigInteger</code>.
+     *
+     * @param propertyInfo         parent propertyInfo
+     * @param targetMethodName     name of target method to invoke
+     * @param childPropertyInfo    propertyInfo of current property
+     * @param primitiveType        primitive type of parameter
+     * @param childBuilderClassFqn builder fully qualified name of current property
+     */
+    private void addPrimitiveOverloadedMethod(PropertyInfo propertyInfo, String targetMethodName,
+                                              PropertyInfo childPropertyInfo, Class<?> primitiveType,
+                                              String childBuilderClassFqn) {
+        final String targetMethodName1 = getTargetMethodName(false, childPropertyInfo.getWriteMethod().getName());
+        final JMethod method = addMethod(PUBLIC, thisClass, targetMethodName, thisClass);
+        final JVar param = method.param(primitiveType, childPropertyInfo.getFieldName());
+        final JInvocation invocation = _new(parseClass(codeModel, childBuilderClassFqn))
+                .invoke(targetMethodName1).arg(param).invoke(GET_OBJECT_METHOD_NAME);
+        final JBlock body = method.body();
+        body.add(FIELD_TYPE_REF.invoke(propertyInfo.getWriteMethod().getName()).arg(invocation));
+        body._return(_this());
     }
 
     private void generateChildBuilder(Class<?> paramType) {
-        ClassGenerator generator = new ClassGenerator(codeModel, null, paramType, superClassName, sourcePackageName,
-                builderFactoryClass);
-        generator.generate();
+        apiGenerator.addPendingType(paramType);
     }
 
     private void addInnerBuilder(Class<?> paramType, String targetMethodName, PropertyInfo pi) {
         ClassGenerator generator = new ClassGenerator(codeModel, thisClass, paramType, superClassName,
-                sourcePackageName, builderFactoryClass);
+                sourcePackageName, builderFactoryClass, apiGenerator);
         final JDefinedClass innerClass = generator.generate();
 
         // add this inner builder construction method
@@ -438,7 +585,8 @@ public class ClassGenerator {
 
     private void addOverloadMethod(Class<?> paramType, JFieldVar fieldVar, String targetMethodName) {
         final Map<String, PropertyInfo> propertyInfoMap = inspectClass(paramType);
-        if (propertyInfoMap.size() <= 4) {
+        // some of element value types have inner types without any property
+        if (!propertyInfoMap.isEmpty() && propertyInfoMap.size() <= 4) {
             final JMethod method = addMethod(PUBLIC, thisClass, targetMethodName, thisClass);
 
             List<JVar> methodParams = new ArrayList<>();
@@ -538,6 +686,20 @@ public class ClassGenerator {
     private void addBigIntegerOverloadedMethod(String withMethodName, Method setterMethod) {
         addOverloadedMethod(withMethodName, setterMethod, BigInteger.class, String.class);
         addOverloadedMethod(withMethodName, setterMethod, BigInteger.class, Long.class);
+        addPrimitiveOverloadedMethod(withMethodName, setterMethod, long.class);
+    }
+
+    private void addPrimitiveOverloadedMethod(String withMethodName, Method setterMethod, Class<?> paramType) {
+        // primitive values are served from the BigInteger cache in builder factory, no boxing and no allocation
+        // for commonly used measurements
+        JMethod method = addMethod(PUBLIC, thisClass, withMethodName, thisClass);
+        final JVar param = method.param(paramType, PARAM_NAME);
+        String setterMethodName = addJavaDocComments(method, setterMethod);
+
+        JBlock block = method.body();
+        invokeMethod(block, FIELD_TYPE_REF, setterMethodName,
+                builderFactoryClass.staticInvoke(GET_BIG_INTEGER_METHOD_NAME).arg(param));
+        block._return(_this());
     }
 
     private void addOverloadedMethod(String withMethodName, Method setterMethod, Class<?> valueClass, Class<?> paramType) {
@@ -563,6 +725,8 @@ public class ClassGenerator {
         final JClass type = parseClass(codeModel, valueClass);
         if (hasConstructor) {
             arg = _new(type).arg(param);
+        } else if (isAssignableFrom(BigInteger.class, valueClass)) {
+            arg = builderFactoryClass.staticInvoke(GET_BIG_INTEGER_METHOD_NAME).arg(param);
         } else {
             arg = type.staticInvoke("valueOf").arg(param);
         }
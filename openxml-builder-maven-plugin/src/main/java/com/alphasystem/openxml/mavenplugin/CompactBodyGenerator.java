@@ -0,0 +1,236 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.wml.*;
+
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.EqualityGenerator.KEY_CLASS_NAME;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.OBJECT_FACTORY_FIELD_NAME;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlCompactBodyBuilder</code>, alternative builder backend which records paragraphs and text runs
+ * into primitive arrays with interned strings and a table of structurally de-duplicated properties, real objects
+ * are only materialized when paragraphs are requested.
+ *
+ * @author sali
+ */
+public class CompactBodyGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlCompactBodyBuilder";
+    private static final String ADD_PARAGRAPH_METHOD_NAME = "addParagraph";
+    private static final String GET_PARAGRAPH_METHOD_NAME = "getParagraph";
+    private static final String MATERIALIZE_METHOD_NAME = "materialize";
+    private static final String INDEX_OF_PROPERTIES_METHOD_NAME = "indexOfProperties";
+    private static final String INDEX_OF_STRING_METHOD_NAME = "indexOfString";
+    private static final String CREATE_RUN_METHOD_NAME = "createRun";
+
+    private JClass keyClass;
+
+    public CompactBodyGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Compact, append only representation of body content made of paragraphs of text runs. Each run ");
+        javadoc.add("costs two <code>int</code>s, text values are interned and <code>PPr</code>/<code>RPr</code> ");
+        javadoc.add("instances are de-duplicated structurally and shared by all the materialized objects, so they must ");
+        javadoc.add("not be modified once added.");
+        keyClass = getNestedHelperClass(EqualityGenerator.CLASS_NAME, KEY_CLASS_NAME);
+
+        final JClass objectType = getType(Object.class);
+        final JClass integerType = getType(Integer.class);
+        final JClass stringType = getType(String.class);
+        thisClass.field(PRIVATE | FINAL, getType(List.class).narrow(objectType), "properties",
+                _new(getType(ArrayList.class).narrow(objectType)));
+        thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(objectType, integerType), "identityIndex",
+                _new(getType(IdentityHashMap.class).narrow(objectType, integerType)));
+        thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(keyClass, integerType), "structuralIndex",
+                _new(getType(HashMap.class).narrow(keyClass, integerType)));
+        thisClass.field(PRIVATE | FINAL, getType(List.class).narrow(stringType), "strings",
+                _new(getType(ArrayList.class).narrow(stringType)));
+        thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(stringType, integerType), "stringIndex",
+                _new(getType(HashMap.class).narrow(stringType, integerType)));
+        final JType intArray = codeModel.INT.array();
+        thisClass.field(PRIVATE, intArray, "paragraphProperties", newArray(codeModel.INT, lit(64)));
+        thisClass.field(PRIVATE, intArray, "paragraphRuns", newArray(codeModel.INT, lit(65)));
+        thisClass.field(PRIVATE, codeModel.INT, "paragraphCount");
+        thisClass.field(PRIVATE, intArray, "runProperties", newArray(codeModel.INT, lit(256)));
+        thisClass.field(PRIVATE, intArray, "runTexts", newArray(codeModel.INT, lit(256)));
+        thisClass.field(PRIVATE, codeModel.INT, "runCount");
+
+        addAddParagraphMethod();
+        addAddRunMethod();
+        addGetParagraphCountMethod();
+        addGetParagraphMethod();
+        addMaterializeMethod();
+        addToBodyMethod();
+        addIndexOfPropertiesMethod();
+        addIndexOfStringMethod();
+        addCreateRunMethod();
+    }
+
+    private void addAddParagraphMethod() {
+        final JMethod method = addMethod(PUBLIC, thisClass, ADD_PARAGRAPH_METHOD_NAME, thisClass);
+        final JVar pPr = method.param(PPr.class, "pPr");
+        method.javadoc().add("Starts a new paragraph.");
+        method.javadoc().addParam(pPr).add("paragraph properties, may be null");
+        method.javadoc().addReturn().add("reference to this");
+        final JBlock body = method.body();
+        final JFieldRef paragraphRuns = ref("paragraphRuns");
+        final JFieldRef paragraphProperties = ref("paragraphProperties");
+        final JFieldRef paragraphCount = ref("paragraphCount");
+        final JBlock growBlock = body._if(paragraphCount.plus(lit(1)).gte(paragraphRuns.ref("length")))._then();
+        growBlock.assign(paragraphRuns, getType(Arrays.class).staticInvoke("copyOf").arg(paragraphRuns)
+                .arg(paragraphRuns.ref("length").mul(lit(2))));
+        growBlock.assign(paragraphProperties, getType(Arrays.class).staticInvoke("copyOf").arg(paragraphProperties)
+                .arg(paragraphRuns.ref("length")));
+        body.assign(paragraphProperties.component(paragraphCount), invoke(INDEX_OF_PROPERTIES_METHOD_NAME).arg(pPr));
+        body.assign(paragraphRuns.component(paragraphCount), ref("runCount"));
+        body.assign(paragraphCount, paragraphCount.plus(lit(1)));
+        body.assign(paragraphRuns.component(paragraphCount), ref("runCount"));
+        body._return(_this());
+    }
+
+    private void addAddRunMethod() {
+        final JMethod method = addMethod(PUBLIC, thisClass, "addRun", thisClass);
+        final JVar rPr = method.param(RPr.class, "rPr");
+        final JVar text = method.param(String.class, "text");
+        method.javadoc().add("Adds a text run to the current paragraph, a paragraph without properties is started if none.");
+        method.javadoc().addParam(rPr).add("run properties, may be null");
+        method.javadoc().addParam(text).add("text of the run, may be null");
+        method.javadoc().addReturn().add("reference to this");
+        final JBlock body = method.body();
+        final JFieldRef runCount = ref("runCount");
+        final JFieldRef runProperties = ref("runProperties");
+        final JFieldRef runTexts = ref("runTexts");
+        body._if(ref("paragraphCount").eq(lit(0)))._then().invoke(ADD_PARAGRAPH_METHOD_NAME).arg(_null());
+        final JBlock growBlock = body._if(runCount.eq(runTexts.ref("length")))._then();
+        growBlock.assign(runProperties, getType(Arrays.class).staticInvoke("copyOf").arg(runProperties)
+                .arg(runCount.mul(lit(2))));
+        growBlock.assign(runTexts, getType(Arrays.class).staticInvoke("copyOf").arg(runTexts).arg(runCount.mul(lit(2))));
+        body.assign(runProperties.component(runCount), invoke(INDEX_OF_PROPERTIES_METHOD_NAME).arg(rPr));
+        body.assign(runTexts.component(runCount), invoke(INDEX_OF_STRING_METHOD_NAME).arg(text));
+        body.assign(runCount, runCount.plus(lit(1)));
+        body.assign(ref("paragraphRuns").component(ref("paragraphCount")), runCount);
+        body._return(_this());
+    }
+
+    private void addGetParagraphCountMethod() {
+        final JMethod method = addMethod(PUBLIC, codeModel.INT, "getParagraphCount", thisClass);
+        method.javadoc().addReturn().add("number of paragraphs recorded so far");
+        method.body()._return(ref("paragraphCount"));
+    }
+
+    private void addGetParagraphMethod() {
+        final JClass pType = getType(P.class);
+        final JMethod method = addMethod(PUBLIC, pType, GET_PARAGRAPH_METHOD_NAME, thisClass);
+        final JVar index = method.param(codeModel.INT, "index");
+        method.javadoc().add("Materializes paragraph at given index, a new object is created on each call.");
+        method.javadoc().addParam(index).add("index of the paragraph");
+        method.javadoc().addReturn().add("the paragraph");
+        final JBlock body = method.body();
+        body._if(index.lt(lit(0)).cor(index.gte(ref("paragraphCount"))))._then()._throw(
+                _new(getType(IndexOutOfBoundsException.class)).arg(getType(String.class).staticInvoke("valueOf").arg(index)));
+        final JVar p = body.decl(FINAL, pType, "p", createObject(P.class));
+        final JVar propertiesIndex = body.decl(FINAL, codeModel.INT, "propertiesIndex",
+                ref("paragraphProperties").component(index));
+        body._if(propertiesIndex.gte(lit(0)))._then().add(p.invoke("setPPr").arg(cast(getType(PPr.class),
+                ref("properties").invoke("get").arg(propertiesIndex))));
+        final JVar content = body.decl(FINAL, getType(List.class).narrow(Object.class), "content", p.invoke("getContent"));
+        final JForLoop forLoop = body._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", ref("paragraphRuns").component(index));
+        forLoop.test(i.lt(ref("paragraphRuns").component(index.plus(lit(1)))));
+        forLoop.update(i.incr());
+        forLoop.body().add(content.invoke("add").arg(invoke(CREATE_RUN_METHOD_NAME).arg(i)));
+        body._return(p);
+    }
+
+    private void addMaterializeMethod() {
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, MATERIALIZE_METHOD_NAME, thisClass);
+        final JVar from = method.param(codeModel.INT, "from");
+        final JVar to = method.param(codeModel.INT, "to");
+        final JVar target = method.param(getType(List.class).narrow(Object.class), "target");
+        method.javadoc().add("Materializes range of paragraphs into given list, e.g., content of body.");
+        method.javadoc().addParam(from).add("index of first paragraph, inclusive");
+        method.javadoc().addParam(to).add("index of last paragraph, exclusive");
+        method.javadoc().addParam(target).add("list to add paragraphs into");
+        final JForLoop forLoop = method.body()._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", from);
+        forLoop.test(i.lt(to));
+        forLoop.update(i.incr());
+        forLoop.body().add(target.invoke("add").arg(invoke(GET_PARAGRAPH_METHOD_NAME).arg(i)));
+    }
+
+    private void addToBodyMethod() {
+        final JClass bodyType = getType(Body.class);
+        final JMethod method = addMethod(PUBLIC, bodyType, "toBody", thisClass);
+        method.javadoc().addReturn().add("new body with all the paragraphs materialized");
+        final JBlock body = method.body();
+        final JVar result = body.decl(FINAL, bodyType, "body", builderFactoryClass.staticRef(OBJECT_FACTORY_FIELD_NAME)
+                .invoke("createBody"));
+        body.invoke(MATERIALIZE_METHOD_NAME).arg(lit(0)).arg(ref("paragraphCount")).arg(result.invoke("getContent"));
+        body._return(result);
+    }
+
+    private void addIndexOfPropertiesMethod() {
+        final JMethod method = addMethod(PRIVATE, codeModel.INT, INDEX_OF_PROPERTIES_METHOD_NAME, thisClass);
+        final JVar value = method.param(Object.class, "value");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(lit(-1));
+        final JVar index = body.decl(getType(Integer.class), "index", ref("identityIndex").invoke("get").arg(value));
+        final JBlock ifBlock = body._if(index.eq(_null()))._then();
+        final JVar key = ifBlock.decl(FINAL, keyClass, "key", _new(keyClass).arg(value));
+        ifBlock.assign(index, ref("structuralIndex").invoke("get").arg(key));
+        final JBlock newBlock = ifBlock._if(index.eq(_null()))._then();
+        newBlock.assign(index, ref("properties").invoke("size"));
+        newBlock.add(ref("properties").invoke("add").arg(value));
+        newBlock.add(ref("structuralIndex").invoke("put").arg(key).arg(index));
+        ifBlock.add(ref("identityIndex").invoke("put").arg(value).arg(index));
+        body._return(index);
+    }
+
+    private void addIndexOfStringMethod() {
+        final JMethod method = addMethod(PRIVATE, codeModel.INT, INDEX_OF_STRING_METHOD_NAME, thisClass);
+        final JVar value = method.param(String.class, "value");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(lit(-1));
+        final JVar index = body.decl(getType(Integer.class), "index", ref("stringIndex").invoke("get").arg(value));
+        final JBlock ifBlock = body._if(index.eq(_null()))._then();
+        ifBlock.assign(index, ref("strings").invoke("size"));
+        ifBlock.add(ref("strings").invoke("add").arg(value));
+        ifBlock.add(ref("stringIndex").invoke("put").arg(value).arg(index));
+        body._return(index);
+    }
+
+    private void addCreateRunMethod() {
+        final JClass rType = getType(R.class);
+        final JMethod method = addMethod(PRIVATE, rType, CREATE_RUN_METHOD_NAME, thisClass);
+        final JVar index = method.param(codeModel.INT, "index");
+        final JBlock body = method.body();
+        final JVar r = body.decl(FINAL, rType, "r", createObject(R.class));
+        final JVar propertiesIndex = body.decl(FINAL, codeModel.INT, "propertiesIndex", ref("runProperties").component(index));
+        body._if(propertiesIndex.gte(lit(0)))._then().add(r.invoke("setRPr").arg(cast(getType(RPr.class),
+                ref("properties").invoke("get").arg(propertiesIndex))));
+        final JVar textIndex = body.decl(FINAL, codeModel.INT, "textIndex", ref("runTexts").component(index));
+        final JBlock ifBlock = body._if(textIndex.gte(lit(0)))._then();
+        final JVar value = ifBlock.decl(FINAL, getType(String.class), "value", ref("strings").invoke("get").arg(textIndex));
+        final JVar t = ifBlock.decl(FINAL, getType(Text.class), "t", createObject(Text.class));
+        ifBlock.add(t.invoke("setValue").arg(value));
+        ifBlock._if(value.invoke("trim").invoke("length").ne(value.invoke("length")))._then()
+                .add(t.invoke("setSpace").arg(lit("preserve")));
+        ifBlock.add(r.invoke("getContent").invoke("add").arg(builderFactoryClass.staticRef(OBJECT_FACTORY_FIELD_NAME)
+                .invoke("createRT").arg(t)));
+        body._return(r);
+    }
+}
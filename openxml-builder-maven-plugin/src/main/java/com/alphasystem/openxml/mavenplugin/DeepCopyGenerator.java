@@ -0,0 +1,102 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.XmlUtils;
+import org.w3c.dom.Node;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlType;
+import java.util.List;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.*;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+
+/**
+ * Generates <code>WmlDeepCopy</code>, which deep copies any object with generated builder through the copy constructor
+ * of its builder, and exposes it as <code>WmlBuilderFactory.deepCopy</code>, a drop in replacement of
+ * <code>XmlUtils.deepCopy</code> without marshalling and unmarshalling.
+ * <p>
+ * Objects of types without builder found in the tree (e.g. DrawingML or math objects, DOM nodes of <code>any</code>
+ * content) are copied through <code>XmlUtils.deepCopy</code> and <code>Node.cloneNode</code> respectively, immutable
+ * values (strings, numbers, enums) are shared.
+ *
+ * @author sali
+ */
+public class DeepCopyGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlDeepCopy";
+    public static final String COPY_METHOD_NAME = "copy";
+
+    public DeepCopyGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        thisClass.javadoc().add("Deep copy of objects with generated builders, <code>JAXBElement</code> wrappers are " +
+                "copied with same name, declared type and scope.");
+        addPrivateConstructor();
+        addCopyMethod();
+        addFactoryMethod();
+    }
+
+    private void addCopyMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, getType(Object.class), COPY_METHOD_NAME, thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JVar source = method.param(Object.class, "source");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns deep copy of given object.");
+        javadoc.addParam(source).add("object to copy");
+        javadoc.addReturn().add("copy of the object, immutable values are returned as is");
+        final JBlock body = method.body();
+        body._if(source.eq(_null()))._then()._return(_null());
+
+        final JClass elementType = getType(JAXBElement.class).narrow(getType(Object.class));
+        final JBlock elementBlock = body._if(source._instanceof(getType(JAXBElement.class)))._then();
+        final JVar element = elementBlock.decl(FINAL, elementType, "element", cast(elementType, source));
+        final JVar copy = elementBlock.decl(FINAL, elementType, "copy", _new(elementType)
+                .arg(element.invoke("getName")).arg(element.invoke("getDeclaredType")).arg(element.invoke("getScope"))
+                .arg(invoke(COPY_METHOD_NAME).arg(element.invoke("getValue"))));
+        elementBlock.add(copy.invoke("setNil").arg(element.invoke("isNil")));
+        elementBlock._return(copy);
+
+        final JSwitch jSwitch = addTypeSwitch(body, source);
+        for (Class<?> type : types) {
+            final JDefinedClass builderClass = getBuilderClass(type);
+            if (builderClass == null) {
+                throw new RuntimeException(format("Unable to find builder for {%s}", type.getName()));
+            }
+            addCase(jSwitch, type)._return(_new(builderClass).arg(cast(getType(type), source)).arg(_null())
+                    .invoke(GET_OBJECT_METHOD_NAME));
+        }
+        // types without builder, e.g. DrawingML and math objects, go through JAXB
+        body._if(source._instanceof(getType(Node.class)))._then()._return(invoke(cast(getType(Node.class), source),
+                "cloneNode").arg(TRUE));
+        body._if(source._instanceof(getType(Enum.class)).not().cand(source.invoke("getClass")
+                .invoke("isAnnotationPresent").arg(getType(XmlType.class).dotclass())))._then()
+                ._return(getType(XmlUtils.class).staticInvoke("deepCopy").arg(source));
+        body._return(source);
+    }
+
+    private void addFactoryMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, DEEP_COPY_METHOD_NAME, builderFactoryClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JTypeVar t = method.generify("T");
+        method.type(t);
+        final JVar source = method.param(t, "source");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Deep copies given object through the copy constructors of generated builders, drop in replacement ");
+        javadoc.add("of <code>XmlUtils.deepCopy</code>.");
+        javadoc.addParam(source).add("object to copy");
+        javadoc.addReturn().add("copy of the object");
+        method.body()._return(cast(t, thisClass.staticInvoke(COPY_METHOD_NAME).arg(source)));
+    }
+}
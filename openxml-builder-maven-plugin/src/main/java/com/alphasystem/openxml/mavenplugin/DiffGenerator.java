@@ -0,0 +1,453 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.JAXBElement;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.isCollectionType;
+import static com.sun.codemodel.ClassType.ENUM;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static org.apache.commons.lang3.text.WordUtils.capitalize;
+
+/**
+ * Generates <code>WmlDiff</code>, per type structural diff functions which produce a patch of changed properties and
+ * list edits, and patch apply functions which write changes back through the generated builders.
+ *
+ * @author sali
+ */
+public class DiffGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlDiff";
+    public static final String DIFF_METHOD_NAME = "diff";
+    public static final String APPLY_METHOD_NAME = "apply";
+    private static final String DIFF_VALUE_METHOD_NAME = "diffValue";
+    private static final String DIFF_LIST_METHOD_NAME = "diffList";
+    private static final String IS_UNCHANGED_METHOD_NAME = "isUnchanged";
+    private static final String APPEND_METHOD_NAME = "append";
+    private static final String GET_CHILD_METHOD_NAME = "getChild";
+    private static final String APPLY_EDIT_METHOD_NAME = "applyEdit";
+    private static final String APPLY_LIST_METHOD_NAME = "applyList";
+    private static final String SET = "SET";
+    private static final String INSERT = "INSERT";
+    private static final String REMOVE = "REMOVE";
+
+    private JDefinedClass operationClass;
+    private JDefinedClass editClass;
+    private JClass editsType;
+    private JClass hashesType;
+
+    public DiffGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Structural diff between two trees of same root type. A patch is list of edits, each edit is ");
+        javadoc.add("addressed by a path of <code>(property, index)</code> pairs from the root, where property is the ");
+        javadoc.add("ordinal of the property within its type and index is the list index or <code>-1</code>. ");
+        javadoc.add("Subtrees which are identical or structurally equal are skipped, structural hash of every node is ");
+        javadoc.add("computed once per diff and subtrees are compared deeply only if their hashes are equal. Values ");
+        javadoc.add("in edits are deep copies of the target tree.");
+        try {
+            addOperationClass();
+            addEditClass();
+        } catch (JClassAlreadyExistsException e) {
+            return;
+        }
+        editsType = getType(List.class).narrow(editClass);
+        hashesType = getType(Map.class).narrow(getType(Object.class), getType(Integer.class));
+        addPrivateConstructor();
+        addDiffMethods();
+        addIsUnchangedMethod();
+        addDiffValueMethod();
+        addDiffListMethod();
+        addAppendMethod();
+        addApplyMethods();
+        addApplyListMethod();
+    }
+
+    private void addOperationClass() throws JClassAlreadyExistsException {
+        operationClass = thisClass._class(PUBLIC | STATIC, "Operation", ENUM);
+        operationClass.javadoc().add("Type of edit.");
+        operationClass.enumConstant(SET).javadoc().add("Replace value of the property or list item.");
+        operationClass.enumConstant(INSERT).javadoc().add("Insert value into list.");
+        operationClass.enumConstant(REMOVE).javadoc().add("Remove item from list.");
+    }
+
+    private void addEditClass() throws JClassAlreadyExistsException {
+        editClass = thisClass._class(PUBLIC | STATIC | FINAL, "Edit");
+        editClass.javadoc().add("Single edit of a patch.");
+        final JMethod constructor = editClass.constructor(PUBLIC);
+        addEditField(constructor, codeModel.INT.array(), "path");
+        addEditField(constructor, codeModel.INT, "property");
+        addEditField(constructor, operationClass, "operation");
+        addEditField(constructor, codeModel.INT, "index");
+        addEditField(constructor, getType(Object.class), "value");
+    }
+
+    private void addEditField(JMethod constructor, JType type, String name) {
+        final JFieldVar field = editClass.field(PRIVATE | FINAL, type, name);
+        constructor.body().assign(refthis(name), constructor.param(type, name));
+        addMethod(PUBLIC, type, "get" + capitalize(name), editClass).body()._return(field);
+    }
+
+    private JInvocation newEdit(JExpression path, JExpression property, String operation, JExpression index,
+                                JExpression value) {
+        return _new(editClass).arg(path).arg(property).arg(operationClass.staticRef(operation)).arg(index).arg(value);
+    }
+
+    private JInvocation copyOf(JExpression value) {
+        return getHelperClass(DeepCopyGenerator.CLASS_NAME).staticInvoke(DeepCopyGenerator.COPY_METHOD_NAME).arg(value);
+    }
+
+    private void addDiffMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, editsType, DIFF_METHOD_NAME, thisClass);
+        JVar source = method.param(Object.class, "source");
+        JVar target = method.param(Object.class, "target");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Computes patch which turns source tree into target tree.");
+        javadoc.addParam(source).add("source tree");
+        javadoc.addParam(target).add("target tree, must be of same type as source");
+        javadoc.addReturn().add("list of edits, empty if both trees are structurally equal");
+        javadoc.addThrows(IllegalArgumentException.class).add("if given trees are not of same generated type");
+        JBlock body = method.body();
+        body._if(source.eq(_null()).cor(target.eq(_null())).cor(source.invoke("getClass").ne(target.invoke("getClass")))
+                .cor(getHelperClass(TYPES_CLASS_NAME).staticInvoke(INDEX_OF_METHOD_NAME).arg(source).lt(lit(0))))
+                ._then()._throw(_new(getType(IllegalArgumentException.class))
+                .arg(lit("Source and target must be of same generated type")));
+        final JVar edits = body.decl(FINAL, editsType, "edits", _new(getType(ArrayList.class).narrow(editClass)));
+        final JVar hashes = body.decl(FINAL, hashesType, "hashes", _new(getType(IdentityHashMap.class)
+                .narrow(getType(Object.class), getType(Integer.class))));
+        body.invoke(DIFF_METHOD_NAME).arg(source).arg(target).arg(newArray(codeModel.INT, lit(0))).arg(hashes)
+                .arg(edits);
+        body._return(edits);
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, DIFF_METHOD_NAME, thisClass);
+        source = method.param(Object.class, "source");
+        target = method.param(Object.class, "target");
+        JVar path = method.param(codeModel.INT.array(), "path");
+        JVar hashesParam = method.param(hashesType, "hashes");
+        JVar editsParam = method.param(editsType, "edits");
+        final JSwitch jSwitch = addTypeSwitch(method.body(), source);
+        for (Class<?> type : types) {
+            final JClass jType = getType(type);
+            final JBlock caseBody = addCase(jSwitch, type);
+            caseBody.invoke(addDiffMethod(type)).arg(cast(jType, source)).arg(cast(jType, target)).arg(path)
+                    .arg(hashesParam).arg(editsParam);
+            caseBody._break();
+        }
+    }
+
+    private JMethod addDiffMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, getMethodName(DIFF_METHOD_NAME, type),
+                thisClass);
+        final JVar source = method.param(type, "source");
+        final JVar target = method.param(type, "target");
+        final JVar path = method.param(codeModel.INT.array(), "path");
+        final JVar hashes = method.param(hashesType, "hashes");
+        final JVar edits = method.param(editsType, "edits");
+        final JBlock body = method.body();
+        final List<PropertyInfo> properties = getProperties(type);
+        for (int i = 0; i < properties.size(); i++) {
+            final PropertyInfo propertyInfo = properties.get(i);
+            final JExpression sourceValue = getValue(source, propertyInfo);
+            final JExpression targetValue = getValue(target, propertyInfo);
+            if (isCollectionType(propertyInfo.getField())) {
+                body.invoke(DIFF_LIST_METHOD_NAME).arg(sourceValue).arg(targetValue).arg(path).arg(lit(i)).arg(hashes)
+                        .arg(edits);
+            } else if (propertyInfo.getReadMethod().getReturnType().isPrimitive()) {
+                body._if(sourceValue.ne(targetValue))._then().add(edits.invoke("add")
+                        .arg(newEdit(path, lit(i), SET, lit(-1), targetValue)));
+            } else if (isNodeProperty(propertyInfo)) {
+                body.invoke(DIFF_VALUE_METHOD_NAME).arg(sourceValue).arg(targetValue).arg(path).arg(lit(i)).arg(lit(-1))
+                        .arg(hashes).arg(edits);
+            } else {
+                body._if(getHelperClass(EqualityGenerator.CLASS_NAME).staticInvoke(EqualityGenerator.IS_EQUAL_METHOD_NAME)
+                        .arg(sourceValue).arg(targetValue).not())._then()
+                        .add(edits.invoke("add").arg(newEdit(path, lit(i), SET, lit(-1), copyOf(targetValue))));
+            }
+        }
+        return method;
+    }
+
+    private void addIsUnchangedMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.BOOLEAN, IS_UNCHANGED_METHOD_NAME, thisClass);
+        final JVar source = method.param(Object.class, "source");
+        final JVar target = method.param(Object.class, "target");
+        final JVar hashes = method.param(hashesType, "hashes");
+        final JBlock body = method.body();
+        final JClass equality = getHelperClass(EqualityGenerator.CLASS_NAME);
+        body._if(source.eq(target))._then()._return(TRUE);
+        body._if(source.eq(_null()).cor(target.eq(_null())))._then()._return(FALSE);
+        body.directStatement("// hashes are cached by node identity, so every node is hashed once per diff and deep " +
+                "comparison runs only for subtrees which are most likely equal");
+        body._return(equality.staticInvoke(EqualityGenerator.HASH_OF_METHOD_NAME).arg(source).arg(hashes)
+                .eq(equality.staticInvoke(EqualityGenerator.HASH_OF_METHOD_NAME).arg(target).arg(hashes))
+                .cand(equality.staticInvoke(EqualityGenerator.IS_EQUAL_METHOD_NAME).arg(source).arg(target)));
+    }
+
+    private void addDiffValueMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, DIFF_VALUE_METHOD_NAME, thisClass);
+        final JVar source = method.param(Object.class, "source");
+        final JVar target = method.param(Object.class, "target");
+        final JVar path = method.param(codeModel.INT.array(), "path");
+        final JVar property = method.param(codeModel.INT, "property");
+        final JVar index = method.param(codeModel.INT, "index");
+        final JVar hashes = method.param(hashesType, "hashes");
+        final JVar edits = method.param(editsType, "edits");
+        final JBlock body = method.body();
+        body._if(invoke(IS_UNCHANGED_METHOD_NAME).arg(source).arg(target).arg(hashes))._then()._return();
+        final JVar sourceNode = body.decl(getType(Object.class), "sourceNode", source);
+        final JVar targetNode = body.decl(getType(Object.class), "targetNode", target);
+        final JClass elementType = getType(JAXBElement.class).narrow(codeModel.wildcard());
+        final JBlock elementBlock = body._if(source._instanceof(getType(JAXBElement.class))
+                .cand(target._instanceof(getType(JAXBElement.class))))._then();
+        final JVar sourceElement = elementBlock.decl(FINAL, elementType, "sourceElement", cast(elementType, source));
+        final JVar targetElement = elementBlock.decl(FINAL, elementType, "targetElement", cast(elementType, target));
+        final JBlock sameNameBlock = elementBlock._if(sourceElement.invoke("getName").invoke("equals")
+                .arg(targetElement.invoke("getName")))._then();
+        sameNameBlock.assign(sourceNode, sourceElement.invoke("getValue"));
+        sameNameBlock.assign(targetNode, targetElement.invoke("getValue"));
+        final JConditional conditional = body._if(sourceNode.ne(_null()).cand(targetNode.ne(_null()))
+                .cand(sourceNode.invoke("getClass").eq(targetNode.invoke("getClass")))
+                .cand(getHelperClass(TYPES_CLASS_NAME).staticInvoke(INDEX_OF_METHOD_NAME).arg(sourceNode).gte(lit(0))));
+        conditional._then().invoke(DIFF_METHOD_NAME).arg(sourceNode).arg(targetNode)
+                .arg(invoke(APPEND_METHOD_NAME).arg(path).arg(property).arg(index)).arg(hashes).arg(edits);
+        conditional._else().add(edits.invoke("add").arg(newEdit(path, property, SET, index, copyOf(target))));
+    }
+
+    private void addDiffListMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, DIFF_LIST_METHOD_NAME, thisClass);
+        final JClass listType = getType(List.class).narrow(codeModel.wildcard());
+        final JVar source = method.param(listType, "source");
+        final JVar target = method.param(listType, "target");
+        final JVar path = method.param(codeModel.INT.array(), "path");
+        final JVar property = method.param(codeModel.INT, "property");
+        final JVar hashes = method.param(hashesType, "hashes");
+        final JVar edits = method.param(editsType, "edits");
+        final JBlock body = method.body();
+
+        body.directStatement("// skip common prefix and suffix, remaining items are diffed pairwise and the rest is " +
+                "removed or inserted");
+        final JVar start = body.decl(codeModel.INT, "start", lit(0));
+        final JVar sourceEnd = body.decl(codeModel.INT, "sourceEnd", source.invoke("size"));
+        final JVar targetEnd = body.decl(codeModel.INT, "targetEnd", target.invoke("size"));
+        JWhileLoop whileLoop = body._while(start.lt(sourceEnd).cand(start.lt(targetEnd))
+                .cand(invoke(IS_UNCHANGED_METHOD_NAME).arg(source.invoke("get").arg(start))
+                        .arg(target.invoke("get").arg(start)).arg(hashes)));
+        whileLoop.body().assign(start, start.plus(lit(1)));
+        whileLoop = body._while(sourceEnd.gt(start).cand(targetEnd.gt(start))
+                .cand(invoke(IS_UNCHANGED_METHOD_NAME).arg(source.invoke("get").arg(sourceEnd.minus(lit(1))))
+                        .arg(target.invoke("get").arg(targetEnd.minus(lit(1)))).arg(hashes)));
+        whileLoop.body().assign(sourceEnd, sourceEnd.minus(lit(1)));
+        whileLoop.body().assign(targetEnd, targetEnd.minus(lit(1)));
+
+        final JVar common = body.decl(FINAL, codeModel.INT, "common", start.plus(getType(Math.class).staticInvoke("min")
+                .arg(sourceEnd.minus(start)).arg(targetEnd.minus(start))));
+        JForLoop forLoop = body._for();
+        JVar i = forLoop.init(codeModel.INT, "i", start);
+        forLoop.test(i.lt(common));
+        forLoop.update(i.incr());
+        forLoop.body().invoke(DIFF_VALUE_METHOD_NAME).arg(source.invoke("get").arg(i)).arg(target.invoke("get").arg(i))
+                .arg(path).arg(property).arg(i).arg(hashes).arg(edits);
+        forLoop = body._for();
+        i = forLoop.init(codeModel.INT, "i", sourceEnd.minus(lit(1)));
+        forLoop.test(i.gte(common));
+        forLoop.update(i.decr());
+        forLoop.body().add(edits.invoke("add").arg(newEdit(path, property, REMOVE, i, _null())));
+        forLoop = body._for();
+        i = forLoop.init(codeModel.INT, "i", common);
+        forLoop.test(i.lt(targetEnd));
+        forLoop.update(i.incr());
+        forLoop.body().add(edits.invoke("add").arg(newEdit(path, property, INSERT, i,
+                copyOf(target.invoke("get").arg(i)))));
+    }
+
+    private void addAppendMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.INT.array(), APPEND_METHOD_NAME, thisClass);
+        final JVar path = method.param(codeModel.INT.array(), "path");
+        final JVar property = method.param(codeModel.INT, "property");
+        final JVar index = method.param(codeModel.INT, "index");
+        final JBlock body = method.body();
+        final JVar result = body.decl(FINAL, codeModel.INT.array(), "result", getType(Arrays.class).staticInvoke("copyOf")
+                .arg(path).arg(path.ref("length").plus(lit(2))));
+        body.assign(result.component(path.ref("length")), property);
+        body.assign(result.component(path.ref("length").plus(lit(1))), index);
+        body._return(result);
+    }
+
+    private void addApplyMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, APPLY_METHOD_NAME, thisClass);
+        final JVar root = method.param(Object.class, "root");
+        final JVar patch = method.param(editsType, "patch");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Applies given patch to given tree in place.");
+        javadoc.addParam(root).add("root of the tree, must be structurally equal to the source the patch was computed from");
+        javadoc.addParam(patch).add("patch to apply, its values are inserted into the tree as they are, so a patch " +
+                "applied to more than one tree must be copied for each");
+        javadoc.addThrows(IllegalArgumentException.class).add("if an edit can not be applied to given tree");
+        final JForEach forEach = method.body().forEach(editClass, "edit", patch);
+        final JVar edit = forEach.var();
+        final JBlock forBody = forEach.body();
+        final JVar node = forBody.decl(getType(Object.class), "node", root);
+        final JVar path = forBody.decl(FINAL, codeModel.INT.array(), "path", edit.invoke("getPath"));
+        final JForLoop forLoop = forBody._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(path.ref("length")));
+        forLoop.update(i.assignPlus(lit(2)));
+        forLoop.body().assign(node, invoke(GET_CHILD_METHOD_NAME).arg(node).arg(path.component(i))
+                .arg(path.component(i.plus(lit(1)))));
+        forBody.invoke(APPLY_EDIT_METHOD_NAME).arg(node).arg(edit);
+
+        method = addMethod(PRIVATE | STATIC, getType(Object.class), GET_CHILD_METHOD_NAME, thisClass);
+        JVar nodeParam = method.param(Object.class, "node");
+        final JVar property = method.param(codeModel.INT, "property");
+        final JVar index = method.param(codeModel.INT, "index");
+        JBlock body = method.body();
+        final JVar child = body.decl(getType(Object.class), "child", _null());
+        JSwitch jSwitch = addTypeSwitch(body, nodeParam);
+        for (Class<?> type : types) {
+            final JBlock caseBody = addCase(jSwitch, type);
+            caseBody.assign(child, invoke(addGetChildMethod(type)).arg(cast(getType(type), nodeParam)).arg(property)
+                    .arg(index));
+            caseBody._break();
+        }
+        final JClass elementType = getType(JAXBElement.class).narrow(codeModel.wildcard());
+        body._if(child._instanceof(getType(JAXBElement.class)))._then()
+                ._return(invoke(cast(elementType, child), "getValue"));
+        body._if(child.eq(_null()))._then()._throw(_new(getType(IllegalArgumentException.class))
+                .arg(getType(String.class).staticInvoke("format").arg(lit("No child at {%s, %s} of {%s}"))
+                        .arg(property).arg(index).arg(nodeParam)));
+        body._return(child);
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, APPLY_EDIT_METHOD_NAME, thisClass);
+        nodeParam = method.param(Object.class, "node");
+        final JVar editParam = method.param(editClass, "edit");
+        body = method.body();
+        jSwitch = addTypeSwitch(body, nodeParam);
+        for (Class<?> type : types) {
+            final JBlock caseBody = addCase(jSwitch, type);
+            caseBody.invoke(addApplyMethod(type)).arg(cast(getType(type), nodeParam)).arg(editParam);
+            caseBody._return();
+        }
+        body._throw(_new(getType(IllegalArgumentException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Unable to apply edit to {%s}")).arg(nodeParam)));
+    }
+
+    private JMethod addGetChildMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE | STATIC, getType(Object.class), getMethodName(GET_CHILD_METHOD_NAME, type),
+                thisClass);
+        final JVar node = method.param(type, "node");
+        final JVar property = method.param(codeModel.INT, "property");
+        final JVar index = method.param(codeModel.INT, "index");
+        final JBlock body = method.body();
+        final JSwitch jSwitch = body._switch(property);
+        final List<PropertyInfo> properties = getProperties(type);
+        for (int i = 0; i < properties.size(); i++) {
+            final PropertyInfo propertyInfo = properties.get(i);
+            if (!isNodeProperty(propertyInfo)) {
+                continue;
+            }
+            final JBlock caseBody = jSwitch._case(lit(i)).body();
+            if (isCollectionType(propertyInfo.getField())) {
+                caseBody._return(getValue(node, propertyInfo).invoke("get").arg(index));
+            } else {
+                caseBody._return(getValue(node, propertyInfo));
+            }
+        }
+        body._return(_null());
+        return method;
+    }
+
+    private JMethod addApplyMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, getMethodName(APPLY_METHOD_NAME, type),
+                thisClass);
+        final JVar node = method.param(type, "node");
+        final JVar edit = method.param(editClass, "edit");
+        final JBlock body = method.body();
+        final JDefinedClass builderClass = getBuilderClass(type);
+        final JVar value = body.decl(FINAL, getType(Object.class), "value", edit.invoke("getValue"));
+        final JSwitch jSwitch = body._switch(edit.invoke("getProperty"));
+        final List<PropertyInfo> properties = getProperties(type);
+        for (int i = 0; i < properties.size(); i++) {
+            final PropertyInfo propertyInfo = properties.get(i);
+            final JBlock caseBody = jSwitch._case(lit(i)).body();
+            final Method readMethod = propertyInfo.getReadMethod();
+            if (isCollectionType(propertyInfo.getField())) {
+                final String addMethodName = readMethod.getName().replaceFirst("^get", "add");
+                final JMethod addMethod = findAddMethod(builderClass, addMethodName);
+                final JExpression list = getValue(node, propertyInfo);
+                if (addMethod != null) {
+                    // appending goes through the builder, anything else is done on the list directly
+                    final JBlock appendBlock = caseBody._if(edit.invoke("getOperation").eq(operationClass.staticRef(INSERT))
+                            .cand(edit.invoke("getIndex").eq(list.invoke("size"))))._then();
+                    final JType itemType = addMethod.listVarParam().type().elementType().erasure();
+                    appendBlock.add(_new(builderClass).arg(node).invoke(addMethod.name())
+                            .arg(Object.class.getName().equals(itemType.fullName()) ? value : cast(itemType, value)));
+                    appendBlock._return();
+                }
+                caseBody.invoke(APPLY_LIST_METHOD_NAME).arg(list).arg(edit);
+                caseBody._return();
+                continue;
+            }
+            final Method writeMethod = propertyInfo.getWriteMethod();
+            final Class<?> fieldType = propertyInfo.getField().getType();
+            final JClass boxedType = codeModel._ref(fieldType).boxify();
+            final String withMethodName = writeMethod.getName().replaceFirst("^set", "with");
+            final JMethod withMethod = getBuilderMethod(builderClass, withMethodName, codeModel._ref(fieldType));
+            if (withMethod == null) {
+                caseBody.add(node.invoke(writeMethod.getName()).arg(cast(boxedType, value)));
+            } else if (fieldType.isPrimitive()) {
+                caseBody.add(_new(builderClass).arg(node).invoke(withMethodName).arg(cast(boxedType, value)));
+            } else {
+                final JConditional conditional = caseBody._if(value.eq(_null()));
+                conditional._then().add(node.invoke(writeMethod.getName()).arg(_null()));
+                conditional._else().add(_new(builderClass).arg(node).invoke(withMethodName).arg(cast(boxedType, value)));
+            }
+            caseBody._return();
+        }
+        body._throw(_new(getType(IllegalArgumentException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Unknown property {%s} of {%s}")).arg(edit.invoke("getProperty")).arg(node)));
+        return method;
+    }
+
+    private static JMethod findAddMethod(JDefinedClass builderClass, String methodName) {
+        if (builderClass == null) {
+            return null;
+        }
+        for (JMethod method : builderClass.methods()) {
+            if (method.name().equals(methodName) && method.params().isEmpty() && method.listVarParam() != null) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private void addApplyListMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, APPLY_LIST_METHOD_NAME, thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JTypeVar e = method.generify("E");
+        final JVar list = method.param(getType(List.class).narrow(e), "list");
+        final JVar edit = method.param(editClass, "edit");
+        final JSwitch jSwitch = method.body()._switch(edit.invoke("getOperation"));
+        jSwitch._case(ref(SET)).body().add(list.invoke("set").arg(edit.invoke("getIndex"))
+                .arg(cast(e, edit.invoke("getValue"))))._break();
+        jSwitch._case(ref(INSERT)).body().add(list.invoke("add").arg(edit.invoke("getIndex"))
+                .arg(cast(e, edit.invoke("getValue"))))._break();
+        jSwitch._case(ref(REMOVE)).body().add(list.invoke("remove").arg(edit.invoke("getIndex")))._break();
+    }
+}
@@ -0,0 +1,292 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.JAXBElement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlEquality</code>, reflection free structural <code>equals</code> and <code>hashCode</code>
+ * functions for every type with generated builder, and exposes them through builder factory.
+ *
+ * @author sali
+ */
+public class EqualityGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlEquality";
+    public static final String IS_EQUAL_METHOD_NAME = "isEqual";
+    public static final String HASH_OF_METHOD_NAME = "hashOf";
+    public static final String KEY_CLASS_NAME = "Key";
+    private static final String LIST_EQUAL_METHOD_NAME = "isListEqual";
+    private static final String LIST_HASH_METHOD_NAME = "listHashOf";
+    private static final String INTERN_METHOD_NAME = "intern";
+    private static final String COMPUTE_HASH_METHOD_NAME = "computeHash";
+
+    private JDefinedClass keyClass;
+    private JClass hashesType;
+
+    public EqualityGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        thisClass.javadoc().add("Structural equality of objects with generated builders, two objects are equal if they " +
+                "are of same type and all of their properties are structurally equal.");
+        addPrivateConstructor();
+        hashesType = getType(Map.class).narrow(getType(Object.class), getType(Integer.class));
+        addIsEqualMethod();
+        addHashOfMethod();
+        addListMethods();
+        addKeyClass();
+        addInternMethod();
+        addFactoryMethods();
+    }
+
+    private void addIsEqualMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.BOOLEAN, IS_EQUAL_METHOD_NAME, thisClass);
+        final JVar a = method.param(Object.class, "a");
+        final JVar b = method.param(Object.class, "b");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Compares given objects structurally.");
+        javadoc.addParam(a).add("first object");
+        javadoc.addParam(b).add("second object");
+        javadoc.addReturn().add("true if both objects are structurally equal");
+        final JBlock body = method.body();
+        body._if(a.eq(b))._then()._return(TRUE);
+        body._if(a.eq(_null()).cor(b.eq(_null())).cor(a.invoke("getClass").ne(b.invoke("getClass"))))._then()
+                ._return(FALSE);
+
+        final JClass elementType = getType(JAXBElement.class).narrow(codeModel.wildcard());
+        final JBlock elementBlock = body._if(a._instanceof(getType(JAXBElement.class)))._then();
+        final JVar x = elementBlock.decl(FINAL, elementType, "x", cast(elementType, a));
+        final JVar y = elementBlock.decl(FINAL, elementType, "y", cast(elementType, b));
+        elementBlock._return(x.invoke("getName").invoke("equals").arg(y.invoke("getName"))
+                .cand(invoke(IS_EQUAL_METHOD_NAME).arg(x.invoke("getValue")).arg(y.invoke("getValue"))));
+        final JClass listType = getType(List.class).narrow(codeModel.wildcard());
+        body._if(a._instanceof(getType(List.class)))._then()._return(invoke(LIST_EQUAL_METHOD_NAME)
+                .arg(cast(listType, a)).arg(cast(listType, b)));
+
+        final JSwitch jSwitch = addTypeSwitch(body, a);
+        for (Class<?> type : types) {
+            final JClass jType = getType(type);
+            addCase(jSwitch, type)._return(invoke(addIsEqualMethod(type)).arg(cast(jType, a)).arg(cast(jType, b)));
+        }
+        body._return(a.invoke("equals").arg(b));
+    }
+
+    private JMethod addIsEqualMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.BOOLEAN, getMethodName(IS_EQUAL_METHOD_NAME, type),
+                thisClass);
+        final JVar a = method.param(type, "a");
+        final JVar b = method.param(type, "b");
+        JExpression result = null;
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            JExpression expression;
+            if (propertyInfo.getReadMethod().getReturnType().isPrimitive()) {
+                expression = getValue(a, propertyInfo).eq(getValue(b, propertyInfo));
+            } else {
+                expression = invoke(IS_EQUAL_METHOD_NAME).arg(getValue(a, propertyInfo)).arg(getValue(b, propertyInfo));
+            }
+            result = (result == null) ? expression : result.cand(expression);
+        }
+        method.body()._return((result == null) ? TRUE : result);
+        return method;
+    }
+
+    private void addHashOfMethod() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.INT, HASH_OF_METHOD_NAME, thisClass);
+        JVar value = method.param(Object.class, "value");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns structural hash code of given object, consistent with <code>isEqual</code>.");
+        javadoc.addParam(value).add("object to hash");
+        javadoc.addReturn().add("structural hash code");
+        method.body()._return(invoke(HASH_OF_METHOD_NAME).arg(value).arg(_null()));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.INT, HASH_OF_METHOD_NAME, thisClass);
+        value = method.param(Object.class, "value");
+        final JVar hashes = method.param(hashesType, "hashes");
+        javadoc = method.javadoc();
+        javadoc.add("Returns structural hash code of given object, hash code of every node is looked up in and added ");
+        javadoc.add("to given cache, so subtrees shared between objects hashed with the same cache are hashed once.");
+        javadoc.addParam(value).add("object to hash");
+        javadoc.addParam(hashes).add("hash codes by node identity, may be null");
+        javadoc.addReturn().add("structural hash code");
+        JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(lit(0));
+        body._if(hashes.eq(_null()))._then()._return(invoke(COMPUTE_HASH_METHOD_NAME).arg(value).arg(hashes));
+        final JVar cached = body.decl(FINAL, getType(Integer.class), "cached", hashes.invoke("get").arg(value));
+        body._if(cached.ne(_null()))._then()._return(cached);
+        final JVar hash = body.decl(FINAL, codeModel.INT, "hash", invoke(COMPUTE_HASH_METHOD_NAME).arg(value).arg(hashes));
+        body.add(hashes.invoke("put").arg(value).arg(hash));
+        body._return(hash);
+
+        method = addMethod(PRIVATE | STATIC, codeModel.INT, COMPUTE_HASH_METHOD_NAME, thisClass);
+        value = method.param(Object.class, "value");
+        final JVar cache = method.param(hashesType, "hashes");
+        body = method.body();
+        final JClass elementType = getType(JAXBElement.class).narrow(codeModel.wildcard());
+        final JBlock elementBlock = body._if(value._instanceof(getType(JAXBElement.class)))._then();
+        final JVar element = elementBlock.decl(FINAL, elementType, "element", cast(elementType, value));
+        elementBlock._return(lit(31).mul(element.invoke("getName").invoke("hashCode"))
+                .plus(invoke(HASH_OF_METHOD_NAME).arg(element.invoke("getValue")).arg(cache)));
+        body._if(value._instanceof(getType(List.class)))._then()._return(invoke(LIST_HASH_METHOD_NAME)
+                .arg(cast(getType(List.class).narrow(codeModel.wildcard()), value)).arg(cache));
+
+        final JSwitch jSwitch = addTypeSwitch(body, value);
+        for (Class<?> type : types) {
+            addCase(jSwitch, type)._return(invoke(addHashOfMethod(type)).arg(cast(getType(type), value)).arg(cache));
+        }
+        body._return(value.invoke("hashCode"));
+    }
+
+    private JMethod addHashOfMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.INT, getMethodName(HASH_OF_METHOD_NAME, type),
+                thisClass);
+        final JVar value = method.param(type, "value");
+        final JVar hashes = method.param(hashesType, "hashes");
+        final JBlock body = method.body();
+        final JVar result = body.decl(codeModel.INT, "result", lit(1));
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            final Class<?> returnType = propertyInfo.getReadMethod().getReturnType();
+            JExpression hash;
+            if (returnType.isPrimitive()) {
+                hash = codeModel._ref(returnType).boxify().staticInvoke("hashCode")
+                        .arg(getValue(value, propertyInfo));
+            } else {
+                hash = invoke(HASH_OF_METHOD_NAME).arg(getValue(value, propertyInfo)).arg(hashes);
+            }
+            body.assign(result, lit(31).mul(result).plus(hash));
+        }
+        body._return(result);
+        return method;
+    }
+
+    private void addListMethods() {
+        final JClass listType = getType(List.class).narrow(codeModel.wildcard());
+        JMethod method = addMethod(PRIVATE | STATIC, codeModel.BOOLEAN, LIST_EQUAL_METHOD_NAME, thisClass);
+        final JVar a = method.param(listType, "a");
+        final JVar b = method.param(listType, "b");
+        JBlock body = method.body();
+        final JVar size = body.decl(FINAL, codeModel.INT, "size", a.invoke("size"));
+        body._if(size.ne(b.invoke("size")))._then()._return(FALSE);
+        JForLoop forLoop = body._for();
+        JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(size));
+        forLoop.update(i.incr());
+        forLoop.body()._if(invoke(IS_EQUAL_METHOD_NAME).arg(a.invoke("get").arg(i)).arg(b.invoke("get").arg(i)).not())
+                ._then()._return(FALSE);
+        body._return(TRUE);
+
+        method = addMethod(PRIVATE | STATIC, codeModel.INT, LIST_HASH_METHOD_NAME, thisClass);
+        final JVar list = method.param(listType, "list");
+        final JVar hashes = method.param(hashesType, "hashes");
+        body = method.body();
+        final JVar result = body.decl(codeModel.INT, "result", lit(1));
+        forLoop = body._for();
+        i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(list.invoke("size")));
+        forLoop.update(i.incr());
+        forLoop.body().assign(result, lit(31).mul(result).plus(invoke(HASH_OF_METHOD_NAME).arg(list.invoke("get").arg(i))
+                .arg(hashes)));
+        body._return(result);
+    }
+
+    private void addKeyClass() {
+        try {
+            keyClass = thisClass._class(PUBLIC | STATIC | FINAL, KEY_CLASS_NAME);
+        } catch (JClassAlreadyExistsException e) {
+            return;
+        }
+        keyClass.javadoc().add("Wraps an object with structural <code>equals</code>/<code>hashCode</code>, hash code is " +
+                "computed once, so the wrapped object must not be modified once wrapped. Keys of objects sharing " +
+                "subtrees may share a node hash cache, so that every shared node is hashed once.");
+        final JFieldVar value = keyClass.field(PRIVATE | FINAL, Object.class, "value");
+        final JFieldVar hash = keyClass.field(PRIVATE | FINAL, codeModel.INT, "hash");
+
+        JMethod constructor = keyClass.constructor(PUBLIC);
+        JVar param = constructor.param(Object.class, "value");
+        constructor.javadoc().add("Creates key of given object, nodes are hashed without a cache, so that short lived " +
+                "keys (e.g. of lookups) allocate nothing but the key.");
+        constructor.javadoc().addParam(param).add("object to wrap");
+        constructor.body().invoke("this").arg(param).arg(_null());
+
+        constructor = keyClass.constructor(PUBLIC);
+        param = constructor.param(Object.class, "value");
+        final JVar hashes = constructor.param(hashesType, "hashes");
+        final JDocComment javadoc = constructor.javadoc();
+        javadoc.add("Creates key of given object using given node hash cache.");
+        javadoc.addParam(param).add("object to wrap");
+        javadoc.addParam(hashes).add("hash codes by node identity, shared between keys of objects with shared " +
+                "subtrees, may be null");
+        constructor.body().assign(refthis(value.name()), param);
+        constructor.body().assign(refthis(hash.name()), thisClass.staticInvoke(HASH_OF_METHOD_NAME).arg(param)
+                .arg(hashes));
+
+        JMethod method = addMethod(PUBLIC, getType(Object.class), "getValue", keyClass);
+        method.body()._return(value);
+
+        method = addMethod(PUBLIC, codeModel.INT, "hashCode", keyClass, Override.class);
+        method.body()._return(hash);
+
+        method = addMethod(PUBLIC, codeModel.BOOLEAN, "equals", keyClass, Override.class);
+        final JVar obj = method.param(Object.class, "obj");
+        final JBlock body = method.body();
+        body._if(obj.eq(_this()))._then()._return(TRUE);
+        body._if(obj._instanceof(keyClass).not())._then()._return(FALSE);
+        final JVar other = body.decl(FINAL, keyClass, "other", cast(keyClass, obj));
+        body._return(hash.eq(other.ref(hash.name())).cand(thisClass.staticInvoke(IS_EQUAL_METHOD_NAME).arg(value)
+                .arg(other.ref(value.name()))));
+    }
+
+    private void addInternMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, INTERN_METHOD_NAME, thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JTypeVar t = method.generify("T");
+        method.type(t);
+        final JVar pool = method.param(getType(ConcurrentMap.class).narrow(keyClass, getType(Object.class)), "pool");
+        final JVar value = method.param(t, "value");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns structurally equal object from the given pool, adding given object if there is none.");
+        javadoc.addParam(pool).add("pool of interned objects");
+        javadoc.addParam(value).add("object to intern");
+        javadoc.addReturn().add("interned object");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(_null());
+        final JVar existing = body.decl(FINAL, getType(Object.class), "existing",
+                pool.invoke("putIfAbsent").arg(_new(keyClass).arg(value)).arg(value));
+        body._return(JOp.cond(existing.eq(_null()), value, cast(t, existing)));
+    }
+
+    private void addFactoryMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.BOOLEAN, "structuralEquals", builderFactoryClass);
+        final JVar a = method.param(Object.class, "a");
+        final JVar b = method.param(Object.class, "b");
+        method.javadoc().add("Delegates to <code>WmlEquality.isEqual</code>.");
+        method.body()._return(thisClass.staticInvoke(IS_EQUAL_METHOD_NAME).arg(a).arg(b));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.INT, "structuralHashCode", builderFactoryClass);
+        JVar value = method.param(Object.class, "value");
+        method.javadoc().add("Delegates to <code>WmlEquality.hashOf</code>.");
+        method.body()._return(thisClass.staticInvoke(HASH_OF_METHOD_NAME).arg(value));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.VOID, INTERN_METHOD_NAME, builderFactoryClass);
+        final JTypeVar t = method.generify("T");
+        method.type(t);
+        final JVar pool = method.param(getType(ConcurrentMap.class).narrow(keyClass, getType(Object.class)), "pool");
+        value = method.param(t, "value");
+        method.javadoc().add("Delegates to <code>WmlEquality.intern</code>.");
+        method.body()._return(thisClass.staticInvoke(INTERN_METHOD_NAME).arg(pool).arg(value));
+    }
+}
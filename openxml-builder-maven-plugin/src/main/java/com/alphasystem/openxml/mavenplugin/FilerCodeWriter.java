@@ -0,0 +1,49 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.CodeWriter;
+import com.sun.codemodel.JPackage;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static java.lang.String.format;
+import static javax.tools.StandardLocation.SOURCE_OUTPUT;
+
+/**
+ * {@link CodeWriter} which writes generated files through annotation processing {@link Filer}, so that the compiler
+ * (and any incremental build tool) knows which elements originated the generated files.
+ *
+ * @author sali
+ */
+public class FilerCodeWriter extends CodeWriter {
+
+    private static final String JAVA_FILE_EXTENSION = ".java";
+
+    private final Filer filer;
+    private final Element[] originatingElements;
+
+    public FilerCodeWriter(Filer filer, Element... originatingElements) {
+        this.filer = filer;
+        this.originatingElements = originatingElements;
+    }
+
+    @Override
+    public OutputStream openBinary(JPackage pkg, String fileName) throws IOException {
+        final String packageName = pkg.name();
+        if (fileName.endsWith(JAVA_FILE_EXTENSION)) {
+            String className = fileName.substring(0, fileName.length() - JAVA_FILE_EXTENSION.length());
+            if (!packageName.isEmpty()) {
+                className = format("%s.%s", packageName, className);
+            }
+            return filer.createSourceFile(className, originatingElements).openOutputStream();
+        }
+        return filer.createResource(SOURCE_OUTPUT, packageName, fileName, originatingElements).openOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // nothing to close, each stream is closed by code model once file is written
+    }
+}
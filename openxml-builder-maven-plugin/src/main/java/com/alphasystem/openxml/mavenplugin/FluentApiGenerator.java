@@ -0,0 +1,1082 @@
+/**
+ *
+ */
+package com.alphasystem.openxml.mavenplugin;
+
+import com.alphasystem.openxml.builder.BuilderSupport;
+import com.sun.codemodel.*;
+import org.apache.commons.io.FileUtils;
+import org.docx4j.jaxb.Context;
+import org.docx4j.wml.*;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlType;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.*;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.getClassName;
+import static com.sun.codemodel.ClassType.CLASS;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+import static org.apache.commons.lang3.text.WordUtils.capitalize;
+
+/**
+ * @author sali
+ */
+public class FluentApiGenerator {
+
+    public static final String GET_OBJECT_METHOD_NAME = "getObject";
+    public static final String SET_OBJECT_METHOD_NAME = "setObject";
+    public static final String PARAM_NAME = "value";
+    public static final String FIELD_NAME = "object";
+    public static final JFieldRef FIELD_TYPE_REF = ref(FIELD_NAME);
+    public static final String INITIALIZED_VARIABLE_NAME = "initialized";
+    public static final JFieldRef INITIALIZED_TYPE_REF = ref(INITIALIZED_VARIABLE_NAME);
+    public static final String CONTENT_PARA_NAME = "content";
+    public static final JFieldRef CONTENT_TYPE_REF = ref(CONTENT_PARA_NAME);
+    public static final String SRC_PARA_NAME = "src";
+    public static final JFieldRef SRC_TYPE_REF = ref(SRC_PARA_NAME);
+    public static final String CREATE_OBJECT_METHOD_NAME = "createObject";
+    public static final String HAS_CONTENT_MEHOD_NAME = "hasContent";
+    public static final String ADD_CONTENT_METHOD_NAME = "addContent";
+    public static final String OBJECT_FACTORY_FIELD_NAME = "OBJECT_FACTORY";
+    private static final String BASE_PACKAGE_NAME = "com.alphasystem.openxml.builder";
+    private static final String WML_PACKAGE_NAME = "org.docx4j.wml";
+    public static final String BUILDER_PACKAGE_NAME = format("%s.wml", BASE_PACKAGE_NAME);
+    private static final String SUPER_CALSS_FQN = format("%s.OpenXmlBuilder", BASE_PACKAGE_NAME);
+    private static final String BUILDER_SUPPORT_CLASS_FQN = format("%s.BuilderSupport", BASE_PACKAGE_NAME);
+    private static final String OBJECT_VALIDATOR_CLASS_FQN = format("%s.ObjectValidator", BASE_PACKAGE_NAME);
+    private static final String BUILDER_FACTORY_CLASS_NAME = "WmlBuilderFactory";
+    private static final String BUILDER_FACTORY_CLASS_FQN = format("%s.%s", BUILDER_PACKAGE_NAME, BUILDER_FACTORY_CLASS_NAME);
+    public static final String CLONE_BOOLEAN_DEFAULT_TRUE_METHOD_NAME = "cloneBooleanDefaultTrue";
+    public static final String CLONE_BIG_INTEGER_METHOD_NAME = "cloneBigInteger";
+    public static final String CLONE_BOOLEAN_METHOD_NAME = "cloneBoolean";
+    public static final String CLONE_OBJECT_METHOD_NAME = "cloneObject";
+    public static final String GET_BIG_INTEGER_METHOD_NAME = "getBigInteger";
+    public static final String DEEP_COPY_METHOD_NAME = "deepCopy";
+    public static final String COALESCE_RUNS_FIELD_NAME = "coalesceRuns";
+    public static final String REGISTERED_FIELD_NAME = "registered";
+    public static final String VALIDATING_FIELD_NAME = "validating";
+    public static final String VALIDATE_PROPERTY_NAME = "openxml.builder.validate";
+    private static final String VALIDATING_BY_DEFAULT_FIELD_NAME = "VALIDATING_BY_DEFAULT";
+    private static final String BIG_INTEGER_CACHE_FIELD_NAME = "BIG_INTEGER_CACHE";
+    private static final String CREATE_BIG_INTEGER_CACHE_METHOD_NAME = "createBigIntegerCache";
+    private static final String COMMON_MEASUREMENTS_FIELD_NAME = "COMMON_MEASUREMENTS";
+    private static final String COMMON_MEASUREMENT_CACHE_FIELD_NAME = "COMMON_MEASUREMENT_CACHE";
+    private static final String CREATE_COMMON_MEASUREMENT_CACHE_METHOD_NAME = "createCommonMeasurementCache";
+
+    public static void main(String[] args) {
+        JCodeModel codeModel = new JCodeModel();
+
+        FluentApiGenerator apiGenerator = new FluentApiGenerator(codeModel, P.class, P.Hyperlink.class, Tbl.class,
+                Tr.class, Tc.class, R.class, Text.class, CTTabStop.class, Br.class, FldChar.class, SectPr.class,
+                TblGridCol.class, CTBookmarkRange.class, CTBookmark.class, BooleanDefaultFalse.class, Styles.class,
+                Style.class, Numbering.class, SdtBlock.class, CTSdtRow.class);
+        apiGenerator.generate();
+
+        File destDir = new File("test");
+        try {
+            FileUtils.deleteDirectory(destDir);
+            destDir.mkdirs();
+        } catch (IOException ex) {
+            // ignore
+        }
+
+        try {
+            codeModel.build(destDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+    }
+
+    public static String getBuilderClassFqn(Class<?> srcClass) {
+        return format("%s.%sBuilder", BUILDER_PACKAGE_NAME, getClassName(srcClass));
+    }
+
+    public static String getInnerBuilderClassName(Class<?> srcClass) {
+        return format("%sBuilder", srcClass.getSimpleName());
+    }
+
+    public static String getBuilderClassFqn(Class<?> srcClass, String enclosingClassName, boolean innerType) {
+        return innerType ? format("%s.%s", enclosingClassName, getInnerBuilderClassName(srcClass)) :
+                getBuilderClassFqn(srcClass);
+    }
+
+    private JCodeModel codeModel;
+    private String sourcePackageName;
+    private Class<?>[] srcClasses;
+    private final Deque<Class<?>> pendingTypes = new ArrayDeque<>();
+    private final Set<Class<?>> queuedTypes = new HashSet<>();
+    private JDefinedClass openXmlBuilderClass;
+    private JDefinedClass builderFactoryClass;
+    private boolean reflectionFree;
+    private boolean useRuntime;
+    private boolean sizeTracking;
+    private boolean elementValueBuilders;
+    private boolean template;
+    private boolean equality;
+    private boolean normalizer;
+    private boolean walker;
+    private boolean bulkTable;
+    private boolean compactBody;
+    private boolean diff;
+    private boolean packageWriter;
+    private boolean indexedBuilders;
+    private boolean staticFactory;
+    private boolean validator;
+    private boolean sizeEstimator;
+    private boolean binaryCodec;
+    private boolean sdtIndex;
+    private boolean bookmarkRegistry;
+    private boolean fragmentCache;
+
+    public FluentApiGenerator(JCodeModel codeModel, Class<?>... srcClasses) {
+        this(codeModel, WML_PACKAGE_NAME, srcClasses);
+    }
+
+    /**
+     * @param codeModel         code model to generate into
+     * @param sourcePackageName package of the source classes, builders are generated for the types of this package
+     *                          reachable from source classes
+     * @param srcClasses        source classes
+     */
+    public FluentApiGenerator(JCodeModel codeModel, String sourcePackageName, Class<?>... srcClasses) {
+        this.codeModel = codeModel;
+        this.sourcePackageName = sourcePackageName;
+        this.srcClasses = srcClasses;
+    }
+
+    public boolean isReflectionFree() {
+        return reflectionFree;
+    }
+
+    /**
+     * When set, generated code does not look up builders by name, <code>cloneObject</code> is delegated to
+     * <code>deepCopy</code>. <code>Boolean</code> properties are still read through their declared fields, getters
+     * return default values in place of absent ones, these fields are covered by <code>reflect-config.json</code>.
+     *
+     * @param reflectionFree true to generate code without runtime reflection
+     */
+    public void setReflectionFree(boolean reflectionFree) {
+        this.reflectionFree = reflectionFree;
+    }
+
+    public boolean isUseRuntime() {
+        return useRuntime;
+    }
+
+    /**
+     * When set, <code>OpenXmlBuilder</code> is not generated, builders extend the one from
+     * <code>openxml-builder-runtime</code> and clone helpers of <code>WmlBuilderFactory</code> delegate to
+     * <code>BuilderSupport</code>, consuming module must depend on the runtime.
+     *
+     * @param useRuntime true to generate code against the runtime module
+     */
+    public void setUseRuntime(boolean useRuntime) {
+        this.useRuntime = useRuntime;
+    }
+
+    public boolean isSizeTracking() {
+        return sizeTracking;
+    }
+
+    /**
+     * When set, <code>WmlSizeTracker</code> is generated and builders charge created objects, added list items and
+     * strings to the tracker open for current thread. Otherwise builders carry no tracking calls at all.
+     *
+     * @param sizeTracking true to generate builders charging <code>WmlSizeTracker</code>
+     */
+    public void setSizeTracking(boolean sizeTracking) {
+        this.sizeTracking = sizeTracking;
+    }
+
+    public boolean isElementValueBuilders() {
+        return elementValueBuilders;
+    }
+
+    /**
+     * When set, builders are generated for the value type of every <code>JAXBElement</code> the WML
+     * <code>ObjectFactory</code> can create, so that wrapped content is deep copied through builders rather than
+     * through JAXB.
+     *
+     * @param elementValueBuilders true to generate builders of all the element value types
+     */
+    public void setElementValueBuilders(boolean elementValueBuilders) {
+        this.elementValueBuilders = elementValueBuilders;
+    }
+
+    public boolean isTemplate() {
+        return template;
+    }
+
+    /**
+     * When set, <code>WmlTemplate</code> is generated, which builds parameterized object trees and binds them to
+     * values.
+     *
+     * @param template true to generate <code>WmlTemplate</code>
+     */
+    public void setTemplate(boolean template) {
+        this.template = template;
+    }
+
+    public boolean isEquality() {
+        return equality;
+    }
+
+    /**
+     * When set, <code>WmlEquality</code> is generated, structural <code>equals</code> and <code>hashCode</code> of
+     * generated types. It is generated along with any helper depending on it as well.
+     *
+     * @param equality true to generate <code>WmlEquality</code>
+     */
+    public void setEquality(boolean equality) {
+        this.equality = equality;
+    }
+
+    public boolean isNormalizer() {
+        return normalizer;
+    }
+
+    /**
+     * When set, <code>WmlNormalizer</code> is generated and paragraph builders get <code>withCoalesceRuns</code>.
+     *
+     * @param normalizer true to generate <code>WmlNormalizer</code>
+     */
+    public void setNormalizer(boolean normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    public boolean isWalker() {
+        return walker;
+    }
+
+    /**
+     * When set, <code>WmlVisitor</code>, <code>WmlVisitorAdapter</code> and <code>WmlWalker</code> are generated.
+     *
+     * @param walker true to generate <code>WmlWalker</code>
+     */
+    public void setWalker(boolean walker) {
+        this.walker = walker;
+    }
+
+    public boolean isBulkTable() {
+        return bulkTable;
+    }
+
+    /**
+     * When set, <code>WmlBulkTableBuilder</code> is generated, when <code>Tbl</code> is among generated types.
+     *
+     * @param bulkTable true to generate <code>WmlBulkTableBuilder</code>
+     */
+    public void setBulkTable(boolean bulkTable) {
+        this.bulkTable = bulkTable;
+    }
+
+    public boolean isCompactBody() {
+        return compactBody;
+    }
+
+    /**
+     * When set, <code>WmlCompactBodyBuilder</code> is generated, when <code>P</code> is among generated types.
+     *
+     * @param compactBody true to generate <code>WmlCompactBodyBuilder</code>
+     */
+    public void setCompactBody(boolean compactBody) {
+        this.compactBody = compactBody;
+    }
+
+    public boolean isDiff() {
+        return diff;
+    }
+
+    /**
+     * When set, <code>WmlDiff</code> is generated, which diffs two object trees and applies the diff as patch.
+     *
+     * @param diff true to generate <code>WmlDiff</code>
+     */
+    public void setDiff(boolean diff) {
+        this.diff = diff;
+    }
+
+    public boolean isPackageWriter() {
+        return packageWriter;
+    }
+
+    /**
+     * When set, <code>WmlPackageWriter</code> is generated, for WML source package only.
+     *
+     * @param packageWriter true to generate <code>WmlPackageWriter</code>
+     */
+    public void setPackageWriter(boolean packageWriter) {
+        this.packageWriter = packageWriter;
+    }
+
+    public boolean isIndexedBuilders() {
+        return indexedBuilders;
+    }
+
+    /**
+     * When set, builders of <code>Styles</code> and <code>Numbering</code> with an index of their items by id are
+     * generated, when these types are among generated types.
+     *
+     * @param indexedBuilders true to generate indexed builders
+     */
+    public void setIndexedBuilders(boolean indexedBuilders) {
+        this.indexedBuilders = indexedBuilders;
+    }
+
+    public boolean isStaticFactory() {
+        return staticFactory;
+    }
+
+    /**
+     * When set, <code>Wml</code> is generated, static factory functions of all the generated types.
+     *
+     * @param staticFactory true to generate <code>Wml</code>
+     */
+    public void setStaticFactory(boolean staticFactory) {
+        this.staticFactory = staticFactory;
+    }
+
+    public boolean isValidator() {
+        return validator;
+    }
+
+    /**
+     * When set, <code>WmlValidator</code> is generated and builders validate their objects in <code>getObject</code>
+     * once validation is enabled.
+     *
+     * @param validator true to generate <code>WmlValidator</code>
+     */
+    public void setValidator(boolean validator) {
+        this.validator = validator;
+    }
+
+    public boolean isSizeEstimator() {
+        return sizeEstimator;
+    }
+
+    /**
+     * When set, <code>WmlSizeEstimator</code> is generated, it is generated for size tracking as well.
+     *
+     * @param sizeEstimator true to generate <code>WmlSizeEstimator</code>
+     */
+    public void setSizeEstimator(boolean sizeEstimator) {
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    public boolean isBinaryCodec() {
+        return binaryCodec;
+    }
+
+    /**
+     * When set, <code>WmlBinaryCodec</code> is generated, which encodes object trees into a compact binary form.
+     *
+     * @param binaryCodec true to generate <code>WmlBinaryCodec</code>
+     */
+    public void setBinaryCodec(boolean binaryCodec) {
+        this.binaryCodec = binaryCodec;
+    }
+
+    public boolean isSdtIndex() {
+        return sdtIndex;
+    }
+
+    /**
+     * When set, <code>WmlSdtIndex</code> is generated and builders of content controls register built objects into it,
+     * when <code>SdtBlock</code> or <code>CTSdtRow</code> is among generated types.
+     *
+     * @param sdtIndex true to generate <code>WmlSdtIndex</code>
+     */
+    public void setSdtIndex(boolean sdtIndex) {
+        this.sdtIndex = sdtIndex;
+    }
+
+    public boolean isBookmarkRegistry() {
+        return bookmarkRegistry;
+    }
+
+    /**
+     * When set, <code>WmlBookmarkRegistry</code> is generated, when <code>CTBookmark</code> is among generated types.
+     *
+     * @param bookmarkRegistry true to generate <code>WmlBookmarkRegistry</code>
+     */
+    public void setBookmarkRegistry(boolean bookmarkRegistry) {
+        this.bookmarkRegistry = bookmarkRegistry;
+    }
+
+    public boolean isFragmentCache() {
+        return fragmentCache;
+    }
+
+    /**
+     * When set, <code>WmlFragmentCache</code> is generated and the package writer splices its fragments, when
+     * <code>P</code> is among generated types.
+     *
+     * @param fragmentCache true to generate <code>WmlFragmentCache</code>
+     */
+    public void setFragmentCache(boolean fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * Returns all the options of this generator by name, in order of declaration.
+     *
+     * @return options by name
+     */
+    public Map<String, Boolean> getOptions() {
+        final Map<String, Boolean> options = new LinkedHashMap<>();
+        options.put("reflectionFree", reflectionFree);
+        options.put("useRuntime", useRuntime);
+        options.put("sizeTracking", sizeTracking);
+        options.put("elementValueBuilders", elementValueBuilders);
+        options.put("template", template);
+        options.put("equality", equality);
+        options.put("normalizer", normalizer);
+        options.put("walker", walker);
+        options.put("bulkTable", bulkTable);
+        options.put("compactBody", compactBody);
+        options.put("diff", diff);
+        options.put("packageWriter", packageWriter);
+        options.put("indexedBuilders", indexedBuilders);
+        options.put("staticFactory", staticFactory);
+        options.put("validator", validator);
+        options.put("sizeEstimator", sizeEstimator);
+        options.put("binaryCodec", binaryCodec);
+        options.put("sdtIndex", sdtIndex);
+        options.put("bookmarkRegistry", bookmarkRegistry);
+        options.put("fragmentCache", fragmentCache);
+        return options;
+    }
+
+    /**
+     * Sets option of given name, see {@link #getOptions()}.
+     *
+     * @param name  name of the option
+     * @param value value of the option
+     */
+    public void setOption(String name, boolean value) {
+        switch (name) {
+            case "reflectionFree":
+                reflectionFree = value;
+                break;
+            case "useRuntime":
+                useRuntime = value;
+                break;
+            case "sizeTracking":
+                sizeTracking = value;
+                break;
+            case "elementValueBuilders":
+                elementValueBuilders = value;
+                break;
+            case "template":
+                template = value;
+                break;
+            case "equality":
+                equality = value;
+                break;
+            case "normalizer":
+                normalizer = value;
+                break;
+            case "walker":
+                walker = value;
+                break;
+            case "bulkTable":
+                bulkTable = value;
+                break;
+            case "compactBody":
+                compactBody = value;
+                break;
+            case "diff":
+                diff = value;
+                break;
+            case "packageWriter":
+                packageWriter = value;
+                break;
+            case "indexedBuilders":
+                indexedBuilders = value;
+                break;
+            case "staticFactory":
+                staticFactory = value;
+                break;
+            case "validator":
+                validator = value;
+                break;
+            case "sizeEstimator":
+                sizeEstimator = value;
+                break;
+            case "binaryCodec":
+                binaryCodec = value;
+                break;
+            case "sdtIndex":
+                sdtIndex = value;
+                break;
+            case "bookmarkRegistry":
+                bookmarkRegistry = value;
+                break;
+            case "fragmentCache":
+                fragmentCache = value;
+                break;
+            default:
+                throw new RuntimeException(format("Unknown option {%s}", name));
+        }
+    }
+
+    private JFieldVar addBuilderFactoryStaticField(Class<?> returnTypeClass,
+                                                   String fieldName, String builderMethodName, String valueMethodName,
+                                                   JExpression arg) {
+        JType returnType = parseType(codeModel, returnTypeClass.getName());
+        return builderFactoryClass.field(PUBLIC | STATIC | FINAL, returnType,
+                fieldName, invoke(builderMethodName).invoke(valueMethodName)
+                        .arg(arg).invoke(GET_OBJECT_METHOD_NAME));
+    }
+
+    private void addJcConstants(JcEnumeration enumConstant) {
+        JClass jcEnumerationClass = parseClass(codeModel,
+                JcEnumeration.class.getName());
+        String name = enumConstant.name();
+        String fieldName = format("JC_%s", name);
+        JFieldVar field = addBuilderFactoryStaticField(Jc.class, fieldName,
+                "getJcBuilder", "withVal", jcEnumerationClass.staticRef(name));
+        field.javadoc().add(
+                format("Constant for %s.%s", jcEnumerationClass.name(), name));
+    }
+
+    public void generate() {
+        generateOpenXmlBuilderClass();
+        generateOpenXmlBuilderFactoryClass();
+        for (Class<?> srcClass : srcClasses) {
+            generate(srcClass);
+        }
+        // mixed content holds JAXBElement wrappers, values without builder are deep copied through JAXB otherwise
+        if (elementValueBuilders && WML_PACKAGE_NAME.equals(sourcePackageName)) {
+            for (Class<?> elementValueType : getElementValueTypes()) {
+                generate(elementValueType);
+            }
+        }
+
+        final List<Class<?>> generatedTypes = getGeneratedTypes();
+        new TypeIndexGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        new DeepCopyGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        // helpers are generated only on demand, along with the helpers they depend on
+        final boolean hasParagraph = generatedTypes.contains(P.class);
+        final boolean hasStyles = indexedBuilders && generatedTypes.contains(Styles.class);
+        final boolean hasNumbering = indexedBuilders && generatedTypes.contains(Numbering.class);
+        final boolean hasSdt = sdtIndex && (generatedTypes.contains(SdtBlock.class) ||
+                generatedTypes.contains(CTSdtRow.class));
+        if (equality || normalizer || diff || (compactBody && hasParagraph) || hasStyles || hasNumbering) {
+            new EqualityGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (normalizer) {
+            new NormalizerGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (walker || hasSdt) {
+            new VisitorGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (diff) {
+            new DiffGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (staticFactory) {
+            new StaticFactoryGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (validator) {
+            new ValidatorGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (sizeEstimator || sizeTracking) {
+            new SizeEstimatorGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (sizeTracking) {
+            new SizeTrackerGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (binaryCodec) {
+            new BinaryCodecGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (hasStyles) {
+            new IndexedBuilderGenerator(codeModel, builderFactoryClass, generatedTypes, Styles.class)
+                    .addIndex("style", "styleId", "Style").generate();
+        }
+        if (hasNumbering) {
+            new IndexedBuilderGenerator(codeModel, builderFactoryClass, generatedTypes, Numbering.class)
+                    .addIndex("abstractNum", "abstractNumId", null).addIndex("num", "numId", null).generate();
+        }
+        if (template && generatedTypes.contains(Text.class)) {
+            new TemplateGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (compactBody && hasParagraph) {
+            new CompactBodyGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (fragmentCache && hasParagraph) {
+            // generated before package writer, which splices frozen fragments when writing parts
+            new FragmentCacheGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (packageWriter && WML_PACKAGE_NAME.equals(sourcePackageName)) {
+            // writer only depends on docx4j types, Body and Document need not be among generated types
+            new PackageWriterGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (hasSdt) {
+            new SdtIndexGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (bookmarkRegistry && generatedTypes.contains(CTBookmark.class)) {
+            new BookmarkRegistryGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+        if (bulkTable && generatedTypes.contains(Tbl.class)) {
+            new BulkTableGenerator(codeModel, builderFactoryClass, generatedTypes).generate();
+        }
+    }
+
+    /**
+     * Returns value types of all the <code>JAXBElement</code> which <code>ObjectFactory</code> can create, only complex
+     * types of WML package are included.
+     *
+     * @return list of value types
+     */
+    public static List<Class<?>> getElementValueTypes() {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        for (Method method : ObjectFactory.class.getMethods()) {
+            final Type returnType = method.getGenericReturnType();
+            if (!(returnType instanceof ParameterizedType) ||
+                    !JAXBElement.class.equals(((ParameterizedType) returnType).getRawType())) {
+                continue;
+            }
+            final Type valueType = ((ParameterizedType) returnType).getActualTypeArguments()[0];
+            if (valueType instanceof Class) {
+                final Class<?> valueClass = (Class<?>) valueType;
+                if (valueClass.getName().startsWith("org.docx4j.wml.") && !valueClass.isEnum() &&
+                        !Modifier.isAbstract(valueClass.getModifiers()) && valueClass.isAnnotationPresent(XmlType.class)) {
+                    types.add(valueClass);
+                }
+            }
+        }
+        return new ArrayList<>(types);
+    }
+
+    /**
+     * Returns all the source classes for which builders (including inner builders) have been generated.
+     *
+     * @return list of source classes
+     */
+    public List<Class<?>> getGeneratedTypes() {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        final Iterator<JDefinedClass> iterator = codeModel._package(BUILDER_PACKAGE_NAME).classes();
+        while (iterator.hasNext()) {
+            collectGeneratedTypes(iterator.next(), types);
+        }
+        return new ArrayList<>(types);
+    }
+
+    /**
+     * Returns binary names of all the generated builder classes, inner builders included.
+     *
+     * @return list of class names
+     */
+    public List<String> getGeneratedBuilderClassNames() {
+        List<String> classNames = new ArrayList<>();
+        final Iterator<JDefinedClass> iterator = codeModel._package(BUILDER_PACKAGE_NAME).classes();
+        while (iterator.hasNext()) {
+            final JDefinedClass definedClass = iterator.next();
+            collectBuilderClassNames(definedClass, definedClass.fullName(), classNames);
+        }
+        return classNames;
+    }
+
+    private static void collectBuilderClassNames(JDefinedClass definedClass, String binaryName, List<String> classNames) {
+        if (definedClass.metadata instanceof Class) {
+            classNames.add(binaryName);
+        }
+        final Iterator<JDefinedClass> iterator = definedClass.classes();
+        while (iterator.hasNext()) {
+            final JDefinedClass innerClass = iterator.next();
+            collectBuilderClassNames(innerClass, format("%s$%s", binaryName, innerClass.name()), classNames);
+        }
+    }
+
+    private static void collectGeneratedTypes(JDefinedClass definedClass, Set<Class<?>> types) {
+        if (definedClass.metadata instanceof Class) {
+            types.add((Class<?>) definedClass.metadata);
+        }
+        final Iterator<JDefinedClass> iterator = definedClass.classes();
+        while (iterator.hasNext()) {
+            collectGeneratedTypes(iterator.next(), types);
+        }
+    }
+
+    protected JDefinedClass generate(Class<?> srcClass) {
+        queuedTypes.add(srcClass);
+        final JDefinedClass builderClass = newClassGenerator(srcClass).generate();
+        // builders of referenced types are generated one after the other rather than recursively, long chains of
+        // references in large schemas would overflow the stack otherwise
+        while (!pendingTypes.isEmpty()) {
+            newClassGenerator(pendingTypes.poll()).generate();
+        }
+        return builderClass;
+    }
+
+    /**
+     * Queues generation of the builder of given type, referenced by a builder being generated.
+     *
+     * @param srcClass referenced type
+     */
+    void addPendingType(Class<?> srcClass) {
+        if (queuedTypes.add(srcClass)) {
+            pendingTypes.add(srcClass);
+        }
+    }
+
+    private ClassGenerator newClassGenerator(Class<?> srcClass) {
+        return new ClassGenerator(codeModel, null, srcClass, SUPER_CALSS_FQN, sourcePackageName, builderFactoryClass,
+                this);
+    }
+
+    private void generateOpenXmlBuilderClass() {
+        if (useRuntime) {
+            return;
+        }
+        try {
+            openXmlBuilderClass = codeModel._class(PUBLIC | ABSTRACT, SUPER_CALSS_FQN, CLASS);
+            openXmlBuilderClass.generify("T");
+            final JType t = parseType(codeModel, "T");
+
+            openXmlBuilderClass.field(PROTECTED, t, FIELD_NAME);
+            if (validator) {
+                final JFieldVar validatingByDefault = openXmlBuilderClass.field(PRIVATE | STATIC | FINAL,
+                        codeModel.BOOLEAN, VALIDATING_BY_DEFAULT_FIELD_NAME, parseClass(codeModel, Boolean.class)
+                                .staticInvoke("getBoolean").arg(VALIDATE_PROPERTY_NAME));
+                validatingByDefault.javadoc().add(format("Default of \"%s\", read from system property \"%s\" once.",
+                        VALIDATING_FIELD_NAME, VALIDATE_PROPERTY_NAME));
+                final JFieldVar validating = openXmlBuilderClass.field(PRIVATE, codeModel.BOOLEAN,
+                        VALIDATING_FIELD_NAME, validatingByDefault);
+                validating.javadoc().add(format("Whether object is validated in \"%s\".", GET_OBJECT_METHOD_NAME));
+            }
+            JMethod constructor = openXmlBuilderClass.constructor(PROTECTED);
+            constructor.body().invoke("this").arg(_null());
+            constructor = openXmlBuilderClass.constructor(PROTECTED);
+            constructor.param(t, FIELD_NAME);
+            constructor.body().invoke(SET_OBJECT_METHOD_NAME).arg(FIELD_TYPE_REF);
+            openXmlBuilderClass.method(PROTECTED | ABSTRACT, t, CREATE_OBJECT_METHOD_NAME);
+            addGetObjectMethod(t);
+            addSetObjectMethod(t);
+            if (validator) {
+                addValidatingMethods(t);
+            }
+            addHasContentMethod();
+            addAddContentMethod();
+        } catch (JClassAlreadyExistsException e) {
+            // ignore
+        }
+    }
+
+    private void addGetObjectMethod(JType t) {
+        JMethod method = addMethod(PUBLIC, t, GET_OBJECT_METHOD_NAME, openXmlBuilderClass);
+        JBlock block = method.body();
+        if (validator) {
+            block._if(ref(VALIDATING_FIELD_NAME))._then().invoke(ValidatorGenerator.VALIDATE_METHOD_NAME)
+                    .arg(FIELD_TYPE_REF);
+        }
+        block._return(FIELD_TYPE_REF);
+    }
+
+    private void addValidatingMethods(JType t) {
+        JMethod method = addMethod(PUBLIC, codeModel.BOOLEAN, format("is%s", capitalize(VALIDATING_FIELD_NAME)),
+                openXmlBuilderClass);
+        method.body()._return(ref(VALIDATING_FIELD_NAME));
+
+        method = addMethod(PUBLIC, codeModel.VOID, format("set%s", capitalize(VALIDATING_FIELD_NAME)),
+                openXmlBuilderClass);
+        JVar param = method.param(codeModel.BOOLEAN, VALIDATING_FIELD_NAME);
+        method.javadoc().add(format("Enables validation of object in \"%s\".", GET_OBJECT_METHOD_NAME));
+        method.javadoc().addParam(param).add("true to validate");
+        method.body().assign(refthis(VALIDATING_FIELD_NAME), param);
+
+        // only the object itself is validated, children built through builders have been validated by their own builder
+        method = addMethod(PROTECTED, codeModel.VOID, ValidatorGenerator.VALIDATE_METHOD_NAME, openXmlBuilderClass);
+        param = method.param(t, FIELD_NAME);
+        method.javadoc().add("Validates given object, sub classes may override to add constraints.");
+        method.javadoc().addParam(param).add("object to validate");
+        method.javadoc().addThrows(IllegalStateException.class).add("if any constraint is violated");
+        method.body().add(parseClass(codeModel, format("%s.%s", BUILDER_PACKAGE_NAME, ValidatorGenerator.CLASS_NAME))
+                .staticInvoke(ValidatorGenerator.VALIDATE_SHALLOW_METHOD_NAME).arg(param));
+    }
+
+    private void addSetObjectMethod(JType t) {
+        JMethod method = addMethod(PUBLIC, codeModel.VOID, SET_OBJECT_METHOD_NAME, openXmlBuilderClass);
+        method.param(t, FIELD_NAME);
+        final JBlock body = method.body();
+        final JBlock ifBlock = body._if(FIELD_TYPE_REF.eq(_null()))._then();
+        ifBlock.assign(FIELD_TYPE_REF, invoke(CREATE_OBJECT_METHOD_NAME));
+        body.assign(refthis(FIELD_NAME), FIELD_TYPE_REF);
+    }
+
+    private void addAddContentMethod() {
+        final JMethod method = addMethod(PROTECTED | STATIC, codeModel.VOID, ADD_CONTENT_METHOD_NAME, openXmlBuilderClass);
+        method.generify("C");
+        final JType c = parseType(codeModel, "C");
+        method.param(parseClass(codeModel, List.class).narrow(c), SRC_PARA_NAME);
+        method.varParam(c, CONTENT_PARA_NAME);
+        method.annotate(SafeVarargs.class);
+        final JBlock methodBody = method.body();
+        final JBlock ifBlock = methodBody._if(CONTENT_TYPE_REF.ne(_null()))._then();
+        // added one by one, handing the array on to another varargs method would not be safe
+        final JForEach forEach = ifBlock.forEach(c, "item", CONTENT_TYPE_REF);
+        forEach.body().add(SRC_TYPE_REF.invoke("add").arg(forEach.var()));
+    }
+
+    private void addHasContentMethod() {
+        final JMethod method = addMethod(PROTECTED | STATIC, parseClass(codeModel, Boolean.class), HAS_CONTENT_MEHOD_NAME,
+                openXmlBuilderClass);
+        method.generify("C");
+        method.varParam(parseType(codeModel, "C"), CONTENT_PARA_NAME);
+        method.annotate(SafeVarargs.class);
+        final JBlock methodBody = method.body();
+        methodBody._return(CONTENT_TYPE_REF.ne(_null()).cand(CONTENT_TYPE_REF.ref("length").gt(JExpr.lit(0))));
+    }
+
+    private void generateOpenXmlBuilderFactoryClass() {
+        try {
+            builderFactoryClass = codeModel._class(PUBLIC, BUILDER_FACTORY_CLASS_FQN, CLASS);
+
+            builderFactoryClass.field(PUBLIC | STATIC | FINAL, parseType(codeModel, ObjectFactory.class.getName()),
+                    OBJECT_FACTORY_FIELD_NAME, parseClass(codeModel, Context.class.getName()).staticInvoke("getWmlObjectFactory"));
+
+            if (useRuntime) {
+                if (validator) {
+                    addRegisterValidator();
+                }
+            } else {
+                // must be declared before any constant which is initialized through a builder
+                builderFactoryClass.field(PRIVATE | STATIC | FINAL, parseClass(codeModel, BigInteger.class).array(),
+                        BIG_INTEGER_CACHE_FIELD_NAME, invoke(CREATE_BIG_INTEGER_CACHE_METHOD_NAME));
+                final JArray measurements = newArray(codeModel.LONG);
+                for (long measurement : BuilderSupport.getCommonMeasurements()) {
+                    measurements.add(lit(measurement));
+                }
+                builderFactoryClass.field(PRIVATE | STATIC | FINAL, codeModel.LONG.array(),
+                        COMMON_MEASUREMENTS_FIELD_NAME, measurements);
+                builderFactoryClass.field(PRIVATE | STATIC | FINAL, parseClass(codeModel, BigInteger.class).array(),
+                        COMMON_MEASUREMENT_CACHE_FIELD_NAME, invoke(CREATE_COMMON_MEASUREMENT_CACHE_METHOD_NAME));
+            }
+
+            String withValMethod = "withVal";
+            addBuilderFactoryStaticField(BooleanDefaultTrue.class,
+                    "BOOLEAN_DEFAULT_TRUE_TRUE",
+                    "getBooleanDefaultTrueBuilder", withValMethod, TRUE);
+            addBuilderFactoryStaticField(BooleanDefaultTrue.class,
+                    "BOOLEAN_DEFAULT_TRUE_FALSE",
+                    "getBooleanDefaultTrueBuilder", withValMethod, FALSE);
+            addBuilderFactoryStaticField(BooleanDefaultFalse.class,
+                    "BOOLEAN_DEFAULT_FALSE_TRUE",
+                    "getBooleanDefaultFalseBuilder", withValMethod, TRUE);
+            addBuilderFactoryStaticField(BooleanDefaultFalse.class,
+                    "BOOLEAN_DEFAULT_FALSE_FALSE",
+                    "getBooleanDefaultFalseBuilder", withValMethod, FALSE);
+
+            for (JcEnumeration jcEnum : JcEnumeration.values()) {
+                addJcConstants(jcEnum);
+            }
+
+            // private constructor
+            builderFactoryClass.constructor(PRIVATE).javadoc().add("Do not let anyone instantiate this class.");
+
+            if (!useRuntime) {
+                addCreateBigIntegerCacheMethod();
+            }
+            addGetBigIntegerMethod();
+            addCloneBooleanDefaultTrueMethod();
+            addCloneBigIntegerMethod();
+            addCloneBooleanMethod();
+            addCloneObjectMethod();
+        } catch (JClassAlreadyExistsException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Registers <code>WmlValidator</code> as default validator of the runtime <code>OpenXmlBuilder</code>.
+     */
+    private void addRegisterValidator() {
+        final JClass validatorType = parseClass(codeModel, OBJECT_VALIDATOR_CLASS_FQN);
+        final JDefinedClass validator = codeModel.anonymousClass(validatorType);
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, ValidatorGenerator.VALIDATE_METHOD_NAME, validator,
+                Override.class);
+        final JVar object = method.param(Object.class, FIELD_NAME);
+        method.body().add(parseClass(codeModel, format("%s.%s", BUILDER_PACKAGE_NAME, ValidatorGenerator.CLASS_NAME))
+                .staticInvoke(ValidatorGenerator.VALIDATE_SHALLOW_METHOD_NAME).arg(object));
+        builderFactoryClass.init().add(parseClass(codeModel, SUPER_CALSS_FQN).staticInvoke("setDefaultValidator")
+                .arg(_new(validator)));
+    }
+
+    private void addCloneBooleanDefaultTrueMethod() {
+        final JClass type = parseClass(codeModel, BooleanDefaultTrue.class);
+        final JMethod method = addMethod(PUBLIC | STATIC, type, CLONE_BOOLEAN_DEFAULT_TRUE_METHOD_NAME, builderFactoryClass);
+        final JVar source = method.param(type, "source");
+        final JBlock body = method.body();
+        final JVar target = body.decl(type, "target", _null());
+        final JBlock ifBlock = body._if(source.ne(_null()))._then();
+        final JInvocation left = _new(parseClass(codeModel, "BooleanDefaultTrueBuilder")).arg(source).arg(target);
+        ifBlock.assign(target, left.invoke(GET_OBJECT_METHOD_NAME));
+        body._return(target);
+    }
+
+    private void addCloneBooleanMethod() {
+        final JClass type = parseClass(codeModel, Boolean.class);
+        final JMethod method = addMethod(PUBLIC | STATIC, type, CLONE_BOOLEAN_METHOD_NAME, builderFactoryClass);
+        final JVar source = method.param(parseClass(codeModel, Object.class), "source");
+        final JVar fieldName = method.param(parseClass(codeModel, String.class), "fieldName");
+        final JBlock body = method.body();
+        if (useRuntime) {
+            body._return(parseClass(codeModel, BUILDER_SUPPORT_CLASS_FQN).staticInvoke(CLONE_BOOLEAN_METHOD_NAME)
+                    .arg(source).arg(fieldName));
+            return;
+        }
+        final JVar target = body.decl(type, "target", _null());
+        final JBlock ifBlock = body._if(source.ne(_null()))._then();
+
+        final JTryBlock tryBlock = ifBlock._try();
+        final JBlock tryBody = tryBlock.body();
+        final JVar field = tryBody.decl(FINAL, parseClass(codeModel, Field.class), "field", source.invoke("getClass")
+                .invoke("getDeclaredField").arg(fieldName));
+        tryBody.add(field.invoke("setAccessible").arg(lit(true)));
+        tryBody.assign(target, cast(type, field.invoke("get").arg(source)));
+
+        final JCatchBlock catchBlock = tryBlock._catch(parseClass(codeModel, Exception.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body().add(ex.invoke("printStackTrace"));
+
+
+
+        body._return(target);
+    }
+
+    private void addCloneBigIntegerMethod() {
+        final JClass type = parseClass(codeModel, BigInteger.class);
+        final JMethod method = addMethod(PUBLIC | STATIC, type, CLONE_BIG_INTEGER_METHOD_NAME, builderFactoryClass);
+        final JVar source = method.param(type, "source");
+        final JBlock body = method.body();
+        if (useRuntime) {
+            body._return(parseClass(codeModel, BUILDER_SUPPORT_CLASS_FQN).staticInvoke(CLONE_BIG_INTEGER_METHOD_NAME)
+                    .arg(source));
+            return;
+        }
+        final JVar target = body.decl(type, "target", _null());
+        final JBlock ifBlock = body._if(source.ne(_null()))._then();
+        // BigInteger is immutable, values which fits in the cache are shared, anything else is copied as is
+        final JInvocation invocation = builderFactoryClass.staticInvoke(GET_BIG_INTEGER_METHOD_NAME)
+                .arg(source.invoke("longValue"));
+        ifBlock.assign(target, JOp.cond(source.invoke("bitLength").lt(lit(64)), invocation, source));
+        body._return(target);
+    }
+
+    private void addCreateBigIntegerCacheMethod() {
+        final JType type = parseClass(codeModel, BigInteger.class).array();
+        final JMethod method = addMethod(PRIVATE | STATIC, type, CREATE_BIG_INTEGER_CACHE_METHOD_NAME, builderFactoryClass);
+        final JBlock body = method.body();
+        final JVar cache = body.decl(FINAL, type, "cache", newArray(parseClass(codeModel, BigInteger.class),
+                lit(BuilderSupport.BIG_INTEGER_CACHE_SIZE)));
+        final JForLoop forLoop = body._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(cache.ref("length")));
+        forLoop.update(i.incr());
+        forLoop.body().assign(cache.component(i), parseClass(codeModel, BigInteger.class).staticInvoke("valueOf").arg(i));
+        body._return(cache);
+
+        final JMethod commonMethod = addMethod(PRIVATE | STATIC, type, CREATE_COMMON_MEASUREMENT_CACHE_METHOD_NAME,
+                builderFactoryClass);
+        final JBlock commonBody = commonMethod.body();
+        final JFieldRef measurements = builderFactoryClass.staticRef(COMMON_MEASUREMENTS_FIELD_NAME);
+        final JVar commonCache = commonBody.decl(FINAL, type, "cache", newArray(parseClass(codeModel, BigInteger.class),
+                measurements.ref("length")));
+        final JForLoop commonLoop = commonBody._for();
+        final JVar j = commonLoop.init(codeModel.INT, "i", lit(0));
+        commonLoop.test(j.lt(commonCache.ref("length")));
+        commonLoop.update(j.incr());
+        commonLoop.body().assign(commonCache.component(j), parseClass(codeModel, BigInteger.class).staticInvoke("valueOf")
+                .arg(measurements.component(j)));
+        commonBody._return(commonCache);
+    }
+
+    private void addGetBigIntegerMethod() {
+        final JClass type = parseClass(codeModel, BigInteger.class);
+        final JMethod method = addMethod(PUBLIC | STATIC, type, GET_BIG_INTEGER_METHOD_NAME, builderFactoryClass);
+        final JVar value = method.param(codeModel.LONG, PARAM_NAME);
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns <code>BigInteger</code> for the given value, commonly used measurements (twips, half-points, ");
+        javadoc.add("widths etc.) are served from a cache, so setting them does not allocate.");
+        javadoc.addParam(value).add("value to convert");
+        javadoc.addReturn().add("<code>BigInteger</code> for the given value");
+        final JBlock body = method.body();
+        if (useRuntime) {
+            body._return(parseClass(codeModel, BUILDER_SUPPORT_CLASS_FQN).staticInvoke(GET_BIG_INTEGER_METHOD_NAME)
+                    .arg(value));
+            return;
+        }
+        final JFieldRef cache = builderFactoryClass.staticRef(BIG_INTEGER_CACHE_FIELD_NAME);
+        body._if(value.gte(lit(0L)).cand(value.lt(cache.ref("length"))))._then()
+                ._return(cache.component(cast(codeModel.INT, value)));
+        final JVar index = body.decl(FINAL, codeModel.INT, "index", parseClass(codeModel, Arrays.class)
+                .staticInvoke("binarySearch").arg(builderFactoryClass.staticRef(COMMON_MEASUREMENTS_FIELD_NAME)).arg(value));
+        body._if(index.gte(lit(0)))._then()._return(builderFactoryClass.staticRef(COMMON_MEASUREMENT_CACHE_FIELD_NAME)
+                .component(index));
+        body._return(type.staticInvoke("valueOf").arg(value));
+    }
+
+    private void addCloneObjectMethod() {
+        final JClass type = parseClass(codeModel, Object.class);
+        final JMethod method = addMethod(PUBLIC | STATIC, type, CLONE_OBJECT_METHOD_NAME, builderFactoryClass);
+        final JVar source = method.param(type, "source");
+        final JBlock body = method.body();
+        if (reflectionFree) {
+            body._return(invoke(DEEP_COPY_METHOD_NAME).arg(source));
+            return;
+        }
+        body._if(source.eq(_null()))._then()._return(source);
+        // wrappers are copied with same QName, the value is dispatched on its type
+        body._if(source._instanceof(parseClass(codeModel, JAXBElement.class)))._then()
+                ._return(invoke(DEEP_COPY_METHOD_NAME).arg(source));
+        if (useRuntime) {
+            body._return(parseClass(codeModel, BUILDER_SUPPORT_CLASS_FQN).staticInvoke(CLONE_OBJECT_METHOD_NAME)
+                    .arg(source).arg(lit(sourcePackageName)).arg(lit(BUILDER_PACKAGE_NAME)));
+            return;
+        }
+        final JClass classType = parseClass(codeModel, Class.class).narrow(codeModel.wildcard());
+        final JVar objectClass = body.decl(FINAL, classType, "objectClass", source.invoke("getClass"));
+        final JBlock ifBlock = body._if(objectClass.invoke("getPackage").invoke("getName").invoke("equals").arg(lit(sourcePackageName)))._then();
+        final JVar builderClass = ifBlock.decl(classType, "builderClass", _null());
+        final JClass stringType = parseClass(codeModel, String.class);
+        final JVar builderPackageName = ifBlock.decl(FINAL, stringType, "builderPackageName", lit("com.alphasystem.openxml.builder.wml"));
+        final JVar builderFqn = ifBlock.decl(stringType, "builderFqn", stringType.staticInvoke("format")
+                .arg(lit("%s.%sBuilder")).arg(builderPackageName).arg(objectClass.invoke("getSimpleName")));
+
+        JTryBlock tryBlock = ifBlock._try();
+        tryBlock.body().assign(builderClass, parseClass(codeModel, Class.class).staticInvoke("forName").arg(builderFqn));
+        JCatchBlock catchBlock = tryBlock._catch(parseClass(codeModel, ClassNotFoundException.class));
+        catchBlock.param("ex");
+        // objects without builder are shared as they are, same as in BuilderSupport
+        catchBlock.body()._return(source);
+
+        final JClass builderType = openXmlBuilderClass.erasure().narrow(codeModel.wildcard());
+        tryBlock = ifBlock._try();
+        final JBlock tryBody = tryBlock.body();
+        final JVar constructor = tryBody.decl(FINAL, parseClass(codeModel, Constructor.class).narrow(codeModel.wildcard()),
+                "constructor", builderClass.invoke("getConstructor").arg(objectClass).arg(objectClass));
+        final JVar builder = tryBody.decl(FINAL, builderType, "builder",
+                cast(builderType, constructor.invoke("newInstance").arg(source).arg(_null())));
+        tryBody._return(builder.invoke(GET_OBJECT_METHOD_NAME));
+        catchBlock = tryBlock._catch(parseClass(codeModel, ReflectiveOperationException.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body()._throw(_new(parseClass(codeModel, RuntimeException.class))
+                .arg(stringType.staticInvoke("format").arg(lit("Unable to clone {%s}")).arg(objectClass.invoke("getName")))
+                .arg(ex));
+
+        body._return(source);
+    }
+}
@@ -0,0 +1,347 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.jaxb.Context;
+import org.docx4j.jaxb.NamespacePrefixMapperUtils;
+import org.docx4j.wml.P;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlFragmentCache</code>, which marshals static content once and splices the cached bytes into
+ * marshalled documents in place of placeholder paragraphs. Each placeholder holds on to its bytes, so that eviction
+ * from the cache never breaks documents still being built.
+ *
+ * @author sali
+ */
+public class FragmentCacheGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlFragmentCache";
+    public static final String SPLICE_METHOD_NAME = "splice";
+    /**
+     * <code>rsidRPr</code> of placeholder paragraphs, placeholders are valid paragraphs even if never spliced.
+     */
+    public static final String PLACEHOLDER_MARKER = "FFFFFFFE";
+    /**
+     * Placeholder as marshalled, <code>&lt;w:p w:rsidRPr="FFFFFFFE" w:rsidR="0000000N"/&gt;</code>, id of the
+     * content is given as <code>ST_LongHexNumber</code>, i.e. 8 hexadecimal digits.
+     */
+    public static final String PLACEHOLDER_START = "<w:p w:rsidRPr=\"" + PLACEHOLDER_MARKER + "\" w:rsidR=\"";
+    public static final String PLACEHOLDER_END = "\"/>";
+    private static final int ID_LENGTH = 8;
+    private static final long MAX_ID = 0xFFFFFFFFL;
+    private static final String FREEZE_METHOD_NAME = "freeze";
+    private static final String LOOKUP_METHOD_NAME = "lookup";
+    private static final String PURGE_METHOD_NAME = "purge";
+    private static final String STORE_METHOD_NAME = "store";
+    private static final String GET_CONTENT_METHOD_NAME = "getContent";
+    private static final String MARSHAL_METHOD_NAME = "marshal";
+    private static final String CREATE_PLACEHOLDER_METHOD_NAME = "createPlaceholder";
+    private static final String INDEX_OF_BYTES_METHOD_NAME = "indexOf";
+    private static final String KEYS_FIELD_NAME = "KEYS";
+    private static final String CONTENT_FIELD_NAME = "CONTENT";
+    private static final String FRAGMENTS_FIELD_NAME = "FRAGMENTS";
+    private static final String PLACEHOLDERS_FIELD_NAME = "PLACEHOLDERS";
+    private static final String MAX_SIZE_FIELD_NAME = "maxSize";
+
+    public FragmentCacheGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Cache of pre-marshalled content. Frozen content is marshalled once as UTF-8 XML fragment, with the ");
+        javadoc.add("prefixes of docx4j and its own namespace declarations, and is represented in the document by an ");
+        javadoc.add("empty placeholder paragraph. <code>WmlPackageWriter</code> splices the cached bytes in place of ");
+        javadoc.add("placeholders, other writers can do the same through <code>splice</code>. Least recently used ");
+        javadoc.add("content is evicted once the cache is full, placeholders keep their content reachable until they ");
+        javadoc.add("are garbage collected, so evicted content is still spliced into documents referring to it.");
+        addPrivateConstructor();
+        addFields();
+        addFreezeMethods();
+        addCacheMethods();
+        addSpliceMethod();
+        addMarshalMethod();
+        addPlaceholderMethod();
+        addIndexOfMethod();
+    }
+
+    private void addFields() {
+        final JFieldVar marker = thisClass.field(PUBLIC | STATIC | FINAL, String.class, "PLACEHOLDER_MARKER",
+                lit(PLACEHOLDER_MARKER));
+        marker.javadoc().add("<code>rsidRPr</code> of placeholder paragraphs, their <code>rsidR</code> is id of the ");
+        marker.javadoc().add("content as 8 hexadecimal digits.");
+        thisClass.field(PRIVATE | STATIC | FINAL, codeModel.BYTE.array(), "MARKER", lit(PLACEHOLDER_START)
+                .invoke("getBytes").arg(getType(StandardCharsets.class).staticRef("UTF_8")));
+        thisClass.field(PRIVATE | STATIC | FINAL, codeModel.BYTE.array(), "MARKER_END", lit(PLACEHOLDER_END)
+                .invoke("getBytes").arg(getType(StandardCharsets.class).staticRef("UTF_8")));
+        thisClass.field(PRIVATE | STATIC | FINAL, AtomicLong.class, "SEQUENCE", _new(getType(AtomicLong.class)));
+        final JFieldVar maxSize = thisClass.field(PRIVATE | STATIC | VOLATILE, codeModel.INT, MAX_SIZE_FIELD_NAME,
+                getType(Integer.class).staticInvoke("getInteger").arg(lit("openxml.builder.fragmentCacheSize"))
+                        .arg(lit(256)));
+        final JClass contentType = getType(Map.class).narrow(getType(Long.class), codeModel.BYTE.array());
+        final JFieldVar content = thisClass.field(PRIVATE | STATIC | FINAL, contentType, CONTENT_FIELD_NAME,
+                _new(getType(HashMap.class).narrow(getType(Long.class), codeModel.BYTE.array())));
+        final JClass referenceType = getType(WeakReference.class).narrow(codeModel.BYTE.array());
+        JFieldVar field = thisClass.field(PRIVATE | STATIC | FINAL, getType(Map.class).narrow(getType(Long.class),
+                referenceType), FRAGMENTS_FIELD_NAME, _new(getType(HashMap.class).narrow(getType(Long.class),
+                referenceType)));
+        field.javadoc().add("Content by id, reachable as long as it is cached or any of its placeholders is.");
+        field = thisClass.field(PRIVATE | STATIC | FINAL, getType(Map.class).narrow(getType(P.class),
+                codeModel.BYTE.array()), PLACEHOLDERS_FIELD_NAME, _new(getType(WeakHashMap.class)
+                .narrow(getType(P.class), codeModel.BYTE.array())));
+        field.javadoc().add("Content of placeholders, keeps content of live placeholders from being collected.");
+
+        final JClass keysType = getType(LinkedHashMap.class).narrow(String.class, Long.class);
+        final JDefinedClass keysClass = codeModel.anonymousClass(keysType);
+        final JMethod method = addMethod(PROTECTED, codeModel.BOOLEAN, "removeEldestEntry", keysClass, Override.class);
+        final JVar eldest = method.param(getType(Map.Entry.class).narrow(String.class, Long.class), "eldest");
+        final JBlock body = method.body();
+        final JBlock block = body._if(invoke("size").gt(maxSize))._then();
+        block.add(content.invoke("remove").arg(eldest.invoke("getValue")));
+        block._return(TRUE);
+        body._return(FALSE);
+        final JFieldVar keys = thisClass.field(PRIVATE | STATIC | FINAL, getType(Map.class).narrow(String.class, Long.class),
+                KEYS_FIELD_NAME, _new(keysClass).arg(lit(16)).arg(lit(0.75f)).arg(TRUE));
+        keys.javadoc().add("Ids of content by key in access order, guarded by the class lock along with content.");
+    }
+
+    private void addFreezeMethods() {
+        final JClass pType = getType(P.class);
+        JMethod method = addMethod(PUBLIC | STATIC, pType, FREEZE_METHOD_NAME, thisClass);
+        JVar key = method.param(String.class, "key");
+        final JVar content = method.varParam(Object.class, "content");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Marshals given content once and returns placeholder to add into the document in its place, content ");
+        javadoc.add("already cached under given key is not marshalled again. Content must not be changed afterwards, ");
+        javadoc.add("changes are not reflected in the output.");
+        javadoc.addParam(key).add("key identifying the content, e.g. name and version of a template");
+        javadoc.addParam(content).add("block level elements to freeze, e.g. paragraphs and tables");
+        javadoc.addReturn().add("new placeholder paragraph, each placeholder can be added into a document once");
+        JBlock body = method.body();
+        final JVar p = body.decl(FINAL, pType, "p", invoke(LOOKUP_METHOD_NAME).arg(key));
+        body._if(p.ne(_null()))._then()._return(p);
+        body._return(invoke(STORE_METHOD_NAME).arg(key).arg(invoke(MARSHAL_METHOD_NAME).arg(content)));
+
+        method = addMethod(PUBLIC | STATIC, pType, "get", thisClass);
+        key = method.param(String.class, "key");
+        final JVar supplier = method.param(getType(Supplier.class).narrow(codeModel.wildcard()), "supplier");
+        javadoc = method.javadoc();
+        javadoc.add("Returns placeholder of content cached under given key, content is built and frozen if not cached.");
+        javadoc.addParam(key).add("key identifying the content");
+        javadoc.addParam(supplier).add("builds the content, called only if not cached");
+        javadoc.addReturn().add("new placeholder paragraph");
+        body = method.body();
+        final JVar cached = body.decl(FINAL, pType, "p", invoke(LOOKUP_METHOD_NAME).arg(key));
+        body._if(cached.ne(_null()))._then()._return(cached);
+        body._return(invoke(FREEZE_METHOD_NAME).arg(key).arg(supplier.invoke("get")));
+    }
+
+    private void addCacheMethods() {
+        final JClass pType = getType(P.class);
+        JMethod method = addMethod(PRIVATE | STATIC | SYNCHRONIZED, pType, LOOKUP_METHOD_NAME, thisClass);
+        JVar key = method.param(String.class, "key");
+        method.javadoc().addReturn().add("new placeholder of content cached under given key, null if not cached");
+        JBlock body = method.body();
+        final JVar cachedId = body.decl(FINAL, getType(Long.class), "id", ref(KEYS_FIELD_NAME).invoke("get").arg(key));
+        body._if(cachedId.eq(_null()))._then()._return(_null());
+        body._return(invoke(CREATE_PLACEHOLDER_METHOD_NAME).arg(cachedId).arg(ref(CONTENT_FIELD_NAME).invoke("get")
+                .arg(cachedId)));
+
+        method = addMethod(PRIVATE | STATIC | SYNCHRONIZED, pType, STORE_METHOD_NAME, thisClass);
+        key = method.param(String.class, "key");
+        final JVar bytes = method.param(codeModel.BYTE.array(), "bytes");
+        method.javadoc().addReturn().add("new placeholder of content cached under given key");
+        body = method.body();
+        body.directStatement("// content may have been frozen concurrently");
+        final JVar id = body.decl(FINAL, getType(Long.class), "id", ref(KEYS_FIELD_NAME).invoke("get").arg(key));
+        body._if(id.ne(_null()))._then()._return(invoke(CREATE_PLACEHOLDER_METHOD_NAME).arg(id)
+                .arg(ref(CONTENT_FIELD_NAME).invoke("get").arg(id)));
+        body.invoke(PURGE_METHOD_NAME);
+        final JVar newId = body.decl(FINAL, getType(Long.class), "newId", ref("SEQUENCE").invoke("incrementAndGet"));
+        body.directStatement("// ids must fit into rsidR");
+        body._if(newId.gt(lit(MAX_ID)))._then()._throw(_new(getType(IllegalStateException.class))
+                .arg(lit("Fragment ids are exhausted")));
+        body.add(ref(CONTENT_FIELD_NAME).invoke("put").arg(newId).arg(bytes));
+        body.add(ref(FRAGMENTS_FIELD_NAME).invoke("put").arg(newId).arg(_new(getType(WeakReference.class)
+                .narrow(codeModel.BYTE.array())).arg(bytes)));
+        body.directStatement("// may evict the new content itself, the placeholder keeps it reachable");
+        body.add(ref(KEYS_FIELD_NAME).invoke("put").arg(key).arg(newId));
+        body._return(invoke(CREATE_PLACEHOLDER_METHOD_NAME).arg(newId).arg(bytes));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, PURGE_METHOD_NAME, thisClass);
+        method.javadoc().add("Removes ids of content which has been evicted and whose placeholders are gone.");
+        final JClass referenceType = getType(WeakReference.class).narrow(codeModel.BYTE.array());
+        final JVar iterator = method.body().decl(FINAL, getType(Iterator.class).narrow(referenceType), "iterator",
+                ref(FRAGMENTS_FIELD_NAME).invoke("values").invoke("iterator"));
+        method.body()._while(iterator.invoke("hasNext")).body()._if(iterator.invoke("next").invoke("get").eq(_null()))
+                ._then().add(iterator.invoke("remove"));
+
+        method = addMethod(PRIVATE | STATIC | SYNCHRONIZED, codeModel.BYTE.array(), GET_CONTENT_METHOD_NAME, thisClass);
+        final JVar contentId = method.param(codeModel.LONG, "id");
+        body = method.body();
+        final JVar reference = body.decl(FINAL, referenceType, "reference", ref(FRAGMENTS_FIELD_NAME).invoke("get")
+                .arg(contentId));
+        body._return(JOp.cond(reference.eq(_null()), _null(), reference.invoke("get")));
+
+        method = addMethod(PUBLIC | STATIC | SYNCHRONIZED, codeModel.BOOLEAN, "isCached", thisClass);
+        key = method.param(String.class, "key");
+        method.javadoc().addParam(key).add("key identifying the content");
+        method.javadoc().addReturn().add("true if content is cached under given key");
+        method.body()._return(ref(KEYS_FIELD_NAME).invoke("containsKey").arg(key));
+
+        method = addMethod(PUBLIC | STATIC | SYNCHRONIZED, codeModel.VOID, "invalidate", thisClass);
+        key = method.param(String.class, "key");
+        method.javadoc().add("Removes content cached under given key, placeholders already created are still spliced.");
+        method.javadoc().addParam(key).add("key identifying the content");
+        body = method.body();
+        final JVar removed = body.decl(FINAL, getType(Long.class), "id", ref(KEYS_FIELD_NAME).invoke("remove").arg(key));
+        body._if(removed.ne(_null()))._then().add(ref(CONTENT_FIELD_NAME).invoke("remove").arg(removed));
+
+        method = addMethod(PUBLIC | STATIC | SYNCHRONIZED, codeModel.VOID, "clear", thisClass);
+        method.javadoc().add("Removes all cached content, placeholders already created are still spliced.");
+        method.body().add(ref(KEYS_FIELD_NAME).invoke("clear"));
+        method.body().add(ref(CONTENT_FIELD_NAME).invoke("clear"));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.VOID, "setMaxSize", thisClass);
+        final JVar maxSize = method.param(codeModel.INT, MAX_SIZE_FIELD_NAME);
+        method.javadoc().add("Sets maximum number of cached entries, defaults to <code>openxml.builder.fragmentCacheSize</code> ");
+        method.javadoc().add("system property or 256. Takes effect on next insertion.");
+        method.javadoc().addParam(maxSize).add("maximum number of entries");
+        method.body().assign(thisClass.staticRef(MAX_SIZE_FIELD_NAME), maxSize);
+
+        method = addMethod(PUBLIC | STATIC, codeModel.INT, "getMaxSize", thisClass);
+        method.body()._return(ref(MAX_SIZE_FIELD_NAME));
+    }
+
+    private void addSpliceMethod() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, SPLICE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        JVar xml = method.param(codeModel.BYTE.array(), "xml");
+        JVar out = method.param(OutputStream.class, "out");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Writes given marshalled XML into given stream, replacing placeholder paragraphs with cached content.");
+        javadoc.addParam(xml).add("marshalled XML in UTF-8");
+        javadoc.addParam(out).add("stream to write into");
+        javadoc.addThrows(IOException.class).add("if unable to write");
+        javadoc.addThrows(IllegalStateException.class).add("if content of any placeholder is gone");
+        method.body().invoke(SPLICE_METHOD_NAME).arg(xml).arg(xml.ref("length")).arg(out);
+
+        method = addMethod(PUBLIC | STATIC, codeModel.VOID, SPLICE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        xml = method.param(codeModel.BYTE.array(), "xml");
+        final JVar length = method.param(codeModel.INT, "length");
+        out = method.param(OutputStream.class, "out");
+        javadoc = method.javadoc();
+        javadoc.add("Writes first <code>length</code> bytes of given marshalled XML into given stream, replacing ");
+        javadoc.add("placeholder paragraphs with cached content, e.g. straight from the internal array of a buffer.");
+        javadoc.addParam(xml).add("marshalled XML in UTF-8");
+        javadoc.addParam(length).add("number of bytes to write");
+        javadoc.addParam(out).add("stream to write into");
+        javadoc.addThrows(IOException.class).add("if unable to write");
+        javadoc.addThrows(IllegalStateException.class).add("if content of any placeholder is gone");
+        final JBlock body = method.body();
+        final JVar start = body.decl(codeModel.INT, "start", lit(0));
+        final JVar from = body.decl(codeModel.INT, "from", lit(0));
+        final JBlock loop = body._while(TRUE).body();
+        final JVar index = loop.decl(FINAL, codeModel.INT, "index", invoke(INDEX_OF_BYTES_METHOD_NAME).arg(xml)
+                .arg(length).arg(ref("MARKER")).arg(from));
+        loop._if(index.lt(lit(0)))._then()._break();
+        final JVar idStart = loop.decl(FINAL, codeModel.INT, "idStart", index.plus(ref("MARKER").ref("length")));
+        loop.assign(from, idStart);
+        final JVar idEnd = loop.decl(codeModel.INT, "idEnd", idStart);
+        final JWhileLoop idLoop = loop._while(idEnd.lt(length).cand(JOp.gte(xml.component(idEnd), lit('0'))
+                .cand(JOp.lte(xml.component(idEnd), lit('9'))).cor(JOp.gte(xml.component(idEnd), lit('A'))
+                        .cand(JOp.lte(xml.component(idEnd), lit('F'))))));
+        idLoop.body().assign(idEnd, idEnd.plus(lit(1)));
+        loop.directStatement("// only empty paragraphs with nothing but the marker and the id are placeholders");
+        loop._if(idEnd.minus(idStart).ne(lit(ID_LENGTH)).cor(invoke(INDEX_OF_BYTES_METHOD_NAME).arg(xml).arg(length)
+                .arg(ref("MARKER_END")).arg(idEnd).ne(idEnd)))._then()._continue();
+        final JVar id = loop.decl(FINAL, codeModel.LONG, "id", getType(Long.class).staticInvoke("parseLong")
+                .arg(_new(getType(String.class)).arg(xml).arg(idStart).arg(idEnd.minus(idStart))
+                        .arg(getType(StandardCharsets.class).staticRef("US_ASCII"))).arg(lit(16)));
+        final JVar content = loop.decl(FINAL, codeModel.BYTE.array(), "content", invoke(GET_CONTENT_METHOD_NAME).arg(id));
+        loop._if(content.eq(_null()))._then()._throw(_new(getType(IllegalStateException.class))
+                .arg(getType(String.class).staticInvoke("format")
+                        .arg(lit("Fragment {%s} is neither cached nor held by a placeholder")).arg(id)));
+        loop.add(out.invoke("write").arg(xml).arg(start).arg(index.minus(start)));
+        loop.add(out.invoke("write").arg(content));
+        loop.assign(start, idEnd.plus(ref("MARKER_END").ref("length")));
+        loop.assign(from, start);
+        body.add(out.invoke("write").arg(xml).arg(start).arg(length.minus(start)));
+    }
+
+    private void addMarshalMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.BYTE.array(), MARSHAL_METHOD_NAME, thisClass);
+        final JVar content = method.param(getType(Object.class).array(), "content");
+        final JBlock body = method.body();
+        final JVar buffer = body.decl(FINAL, getType(ByteArrayOutputStream.class), "buffer",
+                _new(getType(ByteArrayOutputStream.class)));
+        final JTryBlock tryBlock = body._try();
+        final JBlock tryBody = tryBlock.body();
+        final JClass marshallerType = getType(Marshaller.class);
+        final JClass utilsType = getType(NamespacePrefixMapperUtils.class);
+        final JVar marshaller = tryBody.decl(FINAL, marshallerType, "marshaller", getType(Context.class)
+                .staticRef("jc").invoke("createMarshaller"));
+        tryBody.add(marshaller.invoke("setProperty").arg(marshallerType.staticRef("JAXB_ENCODING")).arg(lit("UTF-8")));
+        tryBody.add(marshaller.invoke("setProperty").arg(marshallerType.staticRef("JAXB_FRAGMENT"))
+                .arg(getType(Boolean.class).staticRef("TRUE")));
+        tryBody.add(utilsType.staticInvoke("setProperty").arg(marshaller).arg(utilsType.staticInvoke("getPrefixMapper")));
+        final JForEach forEach = tryBody.forEach(getType(Object.class), "element", content);
+        forEach.body().add(marshaller.invoke("marshal").arg(forEach.var()).arg(buffer));
+        final JCatchBlock catchBlock = tryBlock._catch(getType(JAXBException.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body()._throw(_new(getType(RuntimeException.class)).arg(lit("Unable to marshal fragment")).arg(ex));
+        body._return(buffer.invoke("toByteArray"));
+    }
+
+    private void addPlaceholderMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, getType(P.class), CREATE_PLACEHOLDER_METHOD_NAME, thisClass);
+        method.javadoc().add("Creates placeholder holding on to given content, called with the class lock held.");
+        final JVar id = method.param(codeModel.LONG, "id");
+        final JVar content = method.param(codeModel.BYTE.array(), "content");
+        final JBlock body = method.body();
+        final JVar p = body.decl(FINAL, getType(P.class), "p", createObject(P.class));
+        body.add(p.invoke("setRsidRPr").arg(ref("PLACEHOLDER_MARKER")));
+        body.add(p.invoke("setRsidR").arg(getType(String.class).staticInvoke("format").arg(lit("%08X")).arg(id)));
+        body.add(ref(PLACEHOLDERS_FIELD_NAME).invoke("put").arg(p).arg(content));
+        body._return(p);
+    }
+
+    private void addIndexOfMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.INT, INDEX_OF_BYTES_METHOD_NAME, thisClass);
+        final JVar source = method.param(codeModel.BYTE.array(), "source");
+        final JVar length = method.param(codeModel.INT, "length");
+        final JVar target = method.param(codeModel.BYTE.array(), "target");
+        final JVar from = method.param(codeModel.INT, "from");
+        final JForLoop outer = method.body()._for();
+        final JVar i = outer.init(codeModel.INT, "i", from);
+        outer.test(i.lte(length.minus(target.ref("length"))));
+        outer.update(i.incr());
+        final JVar j = outer.body().decl(codeModel.INT, "j", lit(0));
+        final JWhileLoop inner = outer.body()._while(j.lt(target.ref("length"))
+                .cand(JOp.eq(source.component(i.plus(j)), target.component(j))));
+        inner.body().assign(j, j.plus(lit(1)));
+        outer.body()._if(j.eq(target.ref("length")))._then()._return(i);
+        method.body()._return(lit(-1));
+    }
+}
@@ -0,0 +1,210 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.CodeWriter;
+import com.sun.codemodel.JPackage;
+import org.apache.commons.io.FileUtils;
+import org.docx4j.wml.ObjectFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static java.lang.String.format;
+
+/**
+ * In JVM cache of rendered sources shared by all the executions of the plugin, e.g. modules of a parallel reactor
+ * build or builds run by a daemon. Entries are keyed by the docx4j artifact and the generator configuration, each
+ * entry is generated once, concurrent requests for same key wait for the generation in progress. At most
+ * {@link #MAX_ENTRIES} entries are kept, least recently used ones are evicted first, so that a long running daemon
+ * does not accumulate sources of outdated configurations.
+ *
+ * @author sali
+ */
+public final class GenerationCache {
+
+    /**
+     * Maximum number of cached entries, rendered sources of a full WML builder set take a few megabytes.
+     */
+    public static final int MAX_ENTRIES = 8;
+
+    /**
+     * Entries in access order, guarded by the map itself.
+     */
+    private static final Map<String, FutureTask<Entry>> ENTRIES = new LinkedHashMap<String, FutureTask<Entry>>(16,
+            0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Entry>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Do not let anyone instantiate this class.
+     */
+    private GenerationCache() {
+    }
+
+    /**
+     * Returns cache key for given configuration.
+     *
+     * @param srcClassNames names of the source classes
+     * @param options       options of the generator by name
+     * @return cache key
+     */
+    public static String getKey(List<String> srcClassNames, Map<String, Boolean> options) {
+        return format("%s|%s|%s", getDocx4jArtifact(), srcClassNames, options);
+    }
+
+    private static String getDocx4jArtifact() {
+        final CodeSource codeSource = ObjectFactory.class.getProtectionDomain().getCodeSource();
+        final String version = ObjectFactory.class.getPackage().getImplementationVersion();
+        return format("%s:%s", (codeSource == null) ? null : codeSource.getLocation(), version);
+    }
+
+    /**
+     * Returns entry for given key, generating it when not cached.
+     *
+     * @param key       cache key
+     * @param generator generates the entry
+     * @return cached entry
+     * @throws Exception if generation fails, failed generations are not cached
+     */
+    public static Entry get(String key, Callable<Entry> generator) throws Exception {
+        FutureTask<Entry> task;
+        boolean generate = false;
+        synchronized (ENTRIES) {
+            task = ENTRIES.get(key);
+            if (task == null) {
+                task = new FutureTask<>(generator);
+                ENTRIES.put(key, task);
+                generate = true;
+            }
+        }
+        if (generate) {
+            // run outside of the lock, requests for other keys are not blocked
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            synchronized (ENTRIES) {
+                ENTRIES.remove(key, task);
+            }
+            final Throwable cause = e.getCause();
+            throw (cause instanceof Exception) ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Returns true if an entry for given key is cached or being generated.
+     *
+     * @param key cache key
+     * @return true if cached
+     */
+    public static boolean contains(String key) {
+        synchronized (ENTRIES) {
+            return ENTRIES.containsKey(key);
+        }
+    }
+
+    /**
+     * Evicts entry of given key.
+     *
+     * @param key cache key
+     */
+    public static void remove(String key) {
+        synchronized (ENTRIES) {
+            ENTRIES.remove(key);
+        }
+    }
+
+    public static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+    }
+
+    /**
+     * Rendered sources along with the generated types.
+     */
+    public static final class Entry {
+
+        private final Map<String, byte[]> files;
+        private final List<Class<?>> generatedTypes;
+        private final List<String> builderClassNames;
+
+        public Entry(Map<String, byte[]> files, List<Class<?>> generatedTypes, List<String> builderClassNames) {
+            this.files = Collections.unmodifiableMap(files);
+            this.generatedTypes = Collections.unmodifiableList(generatedTypes);
+            this.builderClassNames = Collections.unmodifiableList(builderClassNames);
+        }
+
+        /**
+         * @return content of rendered files by their path relative to the target directory
+         */
+        public Map<String, byte[]> getFiles() {
+            return files;
+        }
+
+        public List<Class<?>> getGeneratedTypes() {
+            return generatedTypes;
+        }
+
+        public List<String> getBuilderClassNames() {
+            return builderClassNames;
+        }
+
+        /**
+         * Writes rendered files into given directory, files with identical content are not rewritten so that
+         * incremental compilation is not triggered.
+         *
+         * @param targetDirectory directory to write into
+         * @throws IOException if unable to write
+         */
+        public void writeTo(File targetDirectory) throws IOException {
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                final File file = new File(targetDirectory, entry.getKey());
+                if (file.isFile() && file.length() == entry.getValue().length &&
+                        Arrays.equals(FileUtils.readFileToByteArray(file), entry.getValue())) {
+                    continue;
+                }
+                FileUtils.writeByteArrayToFile(file, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Renders into memory.
+     */
+    public static class MemoryCodeWriter extends CodeWriter {
+
+        private final Map<String, ByteArrayOutputStream> files = new LinkedHashMap<>();
+
+        @Override
+        public OutputStream openBinary(JPackage pkg, String fileName) throws IOException {
+            final String path = pkg.isUnnamed() ? fileName : format("%s/%s", pkg.name().replace('.', '/'), fileName);
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            files.put(path, outputStream);
+            return outputStream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // nothing to close
+        }
+
+        public Map<String, byte[]> getFiles() {
+            Map<String, byte[]> result = new LinkedHashMap<>();
+            for (Map.Entry<String, ByteArrayOutputStream> entry : files.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().toByteArray());
+            }
+            return result;
+        }
+    }
+}
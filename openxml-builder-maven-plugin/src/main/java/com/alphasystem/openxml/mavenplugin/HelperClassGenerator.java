@@ -0,0 +1,264 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.JAXBElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.ClassGenerator.getCreateMethodName;
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.parseClass;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.BUILDER_PACKAGE_NAME;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.OBJECT_FACTORY_FIELD_NAME;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.*;
+import static com.sun.codemodel.ClassType.CLASS;
+import static com.sun.codemodel.JExpr.cast;
+import static com.sun.codemodel.JExpr.lit;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+
+/**
+ * Base class for generators of helper classes which operate on all the types for which builders have been generated.
+ * Dispatch on the runtime type of a value is done through generated <code>WmlTypes</code> index.
+ *
+ * @author sali
+ */
+public abstract class HelperClassGenerator {
+
+    public static final String TYPES_CLASS_NAME = "WmlTypes";
+    public static final String INDEX_OF_METHOD_NAME = "indexOf";
+    public static final String GET_FIELDS_METHOD_NAME = "getFields";
+    public static final String GET_FIELD_VALUE_METHOD_NAME = "getFieldValue";
+
+    protected final JCodeModel codeModel;
+    protected final JDefinedClass builderFactoryClass;
+    protected final List<Class<?>> types;
+    protected JDefinedClass thisClass;
+    private Map<Class<?>, JDefinedClass> builderClasses;
+    private Map<Class<?>, Integer> typeIndexes;
+
+    protected HelperClassGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        this.codeModel = codeModel;
+        this.builderFactoryClass = builderFactoryClass;
+        this.types = types;
+    }
+
+    public JDefinedClass generate() {
+        try {
+            thisClass = codeModel._class(PUBLIC | FINAL, getHelperClassFqn(getHelperClassName()), CLASS);
+            generateBody();
+        } catch (JClassAlreadyExistsException e) {
+            // ignore
+        }
+        return thisClass;
+    }
+
+    /**
+     * @return simple name of the generated helper class
+     */
+    protected abstract String getHelperClassName();
+
+    protected abstract void generateBody();
+
+    protected static String getHelperClassFqn(String className) {
+        return format("%s.%s", BUILDER_PACKAGE_NAME, className);
+    }
+
+    protected void addPrivateConstructor() {
+        thisClass.constructor(PRIVATE).javadoc().add("Do not let anyone instantiate this class.");
+    }
+
+    protected JClass getType(Class<?> type) {
+        // binary names of array types (e.g. "[B") can not be parsed
+        return type.isArray() ? codeModel.ref(type) : parseClass(codeModel, type);
+    }
+
+    protected JClass getHelperClass(String className) {
+        return parseClass(codeModel, getHelperClassFqn(className));
+    }
+
+    /**
+     * Returns nested class of an already generated helper class.
+     *
+     * @param className  simple name of the helper class
+     * @param nestedName simple name of the nested class
+     * @return nested class
+     */
+    protected JClass getNestedHelperClass(String className, String nestedName) {
+        final JDefinedClass helperClass = codeModel._getClass(getHelperClassFqn(className));
+        if (helperClass != null) {
+            final Iterator<JDefinedClass> iterator = helperClass.classes();
+            while (iterator.hasNext()) {
+                final JDefinedClass nestedClass = iterator.next();
+                if (nestedClass.name().equals(nestedName)) {
+                    return nestedClass;
+                }
+            }
+        }
+        throw new RuntimeException(format("Unable to find class {%s} in {%s}", nestedName, className));
+    }
+
+    /**
+     * Returns builder class generated for given type, inner builders included.
+     *
+     * @param type source type
+     * @return builder class or null if no builder has been generated for given type
+     */
+    protected JDefinedClass getBuilderClass(Class<?> type) {
+        if (builderClasses == null) {
+            // indexed once, builders are all generated before any helper and helpers look up every type
+            builderClasses = new HashMap<>();
+            final Iterator<JDefinedClass> iterator = codeModel._package(BUILDER_PACKAGE_NAME).classes();
+            while (iterator.hasNext()) {
+                indexBuilderClasses(iterator.next());
+            }
+        }
+        return builderClasses.get(type);
+    }
+
+    private void indexBuilderClasses(JDefinedClass definedClass) {
+        if (definedClass.metadata instanceof Class) {
+            builderClasses.putIfAbsent((Class<?>) definedClass.metadata, definedClass);
+        }
+        final Iterator<JDefinedClass> iterator = definedClass.classes();
+        while (iterator.hasNext()) {
+            indexBuilderClasses(iterator.next());
+        }
+    }
+
+    /**
+     * Returns single parameter fluent method of given builder class.
+     *
+     * @param builderClass builder class
+     * @param methodName   name of the method
+     * @param paramType    erasure of the parameter type, element type in case of var args methods
+     * @return method or null if there is no such method
+     */
+    protected static JMethod getBuilderMethod(JDefinedClass builderClass, String methodName, JType paramType) {
+        if (builderClass == null) {
+            return null;
+        }
+        for (JMethod method : builderClass.methods()) {
+            if (!method.name().equals(methodName)) {
+                continue;
+            }
+            final JVar varParam = method.listVarParam();
+            final List<JVar> params = method.params();
+            JType type = null;
+            if (varParam != null && params.isEmpty()) {
+                // type of var args parameter is the array type
+                type = varParam.type().elementType();
+            } else if (varParam == null && params.size() == 1) {
+                type = params.get(0).type();
+            }
+            if (type != null && type.erasure().fullName().equals(paramType.erasure().fullName())) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    protected JInvocation createObject(Class<?> type) {
+        return builderFactoryClass.staticRef(OBJECT_FACTORY_FIELD_NAME).invoke(getCreateMethodName(type));
+    }
+
+    protected static String getMethodName(String prefix, Class<?> type) {
+        return format("%s%s", prefix, getClassName(type));
+    }
+
+    /**
+     * Returns properties which can be read (and written if not a collection) by direct method calls.
+     *
+     * @param type type to inspect
+     * @return list of accessible properties
+     */
+    protected List<PropertyInfo> getProperties(Class<?> type) {
+        List<PropertyInfo> properties = new ArrayList<>();
+        for (Map.Entry<String, PropertyInfo> entry : inspectClass(type).entrySet()) {
+            final PropertyInfo propertyInfo = entry.getValue();
+            final Method readMethod = propertyInfo.getReadMethod();
+            if (readMethod == null || readMethod.getParameterCount() > 0) {
+                continue;
+            }
+            if (!isCollectionType(propertyInfo.getField()) && propertyInfo.getWriteMethod() == null) {
+                continue;
+            }
+            properties.add(propertyInfo);
+        }
+        return properties;
+    }
+
+    /**
+     * Returns true if the given property can hold a node, i.e., an object of generated type or
+     * <code>JAXBElement</code> wrapping one.
+     *
+     * @param propertyInfo property to check
+     * @return true if property can hold a node
+     */
+    protected boolean isNodeProperty(PropertyInfo propertyInfo) {
+        final Field field = propertyInfo.getField();
+        if (isCollectionType(field)) {
+            final Class<?> elementType = getCollectionElementType(field);
+            return elementType == null || isNodeType(elementType);
+        }
+        return isNodeType(field.getType());
+    }
+
+    protected boolean isNodeType(Class<?> type) {
+        return Object.class.equals(type) || JAXBElement.class.equals(type) || types.contains(type);
+    }
+
+    /**
+     * Returns expression to read given property, the value is cast to the field type if the getter is declared with a
+     * wider return type (e.g. <code>SdtBlock.getSdtContent</code>).
+     *
+     * @param source       expression of source object
+     * @param propertyInfo property to read
+     * @return read expression
+     */
+    protected JExpression getValue(JExpression source, PropertyInfo propertyInfo) {
+        final Method readMethod = propertyInfo.getReadMethod();
+        final Class<?> fieldType = propertyInfo.getField().getType();
+        final Class<?> returnType = readMethod.getReturnType();
+        final JInvocation invocation = source.invoke(readMethod.getName());
+        if (fieldType.isPrimitive() || returnType.isPrimitive() || fieldType.isAssignableFrom(returnType)) {
+            return invocation;
+        }
+        return cast(getType(fieldType), invocation);
+    }
+
+    /**
+     * Returns expression which reads list of given collection property from its field, getters of JAXB types create
+     * missing lists.
+     *
+     * @param source       expression of the object to read from
+     * @param propertyInfo collection property to read
+     * @return expression of the list, which is null if the list has never been created
+     */
+    protected JExpression getCreatedList(JExpression source, PropertyInfo propertyInfo) {
+        return cast(getType(List.class).narrow(codeModel.wildcard()), getHelperClass(TYPES_CLASS_NAME)
+                .staticInvoke(GET_FIELD_VALUE_METHOD_NAME).arg(source).arg(lit(propertyInfo.getField().getName())));
+    }
+
+    /**
+     * Adds <code>switch</code> on the generated type index of given value.
+     *
+     * @param block block to add switch into
+     * @param value value to switch on
+     * @return switch statement
+     */
+    protected JSwitch addTypeSwitch(JBlock block, JExpression value) {
+        return block._switch(getHelperClass(TYPES_CLASS_NAME).staticInvoke(INDEX_OF_METHOD_NAME).arg(value));
+    }
+
+    protected JBlock addCase(JSwitch jSwitch, Class<?> type) {
+        if (typeIndexes == null) {
+            typeIndexes = new HashMap<>();
+            for (int i = 0; i < types.size(); i++) {
+                typeIndexes.putIfAbsent(types.get(i), i);
+            }
+        }
+        return jSwitch._case(lit(typeIndexes.get(type))).body();
+    }
+}
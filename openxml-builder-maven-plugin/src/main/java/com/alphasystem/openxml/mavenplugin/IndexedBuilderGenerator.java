@@ -0,0 +1,225 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.EqualityGenerator.KEY_CLASS_NAME;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.*;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.*;
+import static com.sun.codemodel.ClassType.CLASS;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+import static org.apache.commons.lang3.text.WordUtils.uncapitalize;
+
+/**
+ * Generates registry backed variant of a builder (e.g. <code>IndexedStylesBuilder</code>), which keeps hash index of
+ * list items by their id, de-duplicates structurally identical items and allocates ids without collisions.
+ *
+ * @author sali
+ */
+public class IndexedBuilderGenerator extends HelperClassGenerator {
+
+    private static final String CLASS_NAME_PREFIX = "Indexed";
+    private static final String REGISTER_METHOD_PREFIX = "register";
+    private static final String INDEX_METHOD_PREFIX = "index";
+    private static final String NEXT_ID_METHOD_PREFIX = "next";
+
+    private final Class<?> srcClass;
+    private final List<IndexSpec> indexes = new ArrayList<>();
+    private JClass keyClass;
+
+    public IndexedBuilderGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types,
+                                   Class<?> srcClass) {
+        super(codeModel, builderFactoryClass, types);
+        this.srcClass = srcClass;
+    }
+
+    /**
+     * Adds index on given list property.
+     *
+     * @param listFieldName name of the list field in source class, e.g. <code>style</code>
+     * @param idFieldName   name of the id field in the list item class, e.g. <code>styleId</code>
+     * @param idPrefix      prefix of allocated ids, only used for <code>String</code> ids
+     * @return reference to this
+     */
+    public IndexedBuilderGenerator addIndex(String listFieldName, String idFieldName, String idPrefix) {
+        final PropertyInfo listProperty = inspectClass(srcClass).get(listFieldName);
+        if (listProperty == null || !isCollectionType(listProperty.getField())) {
+            throw new RuntimeException(format("No list field {%s} in class {%s}", listFieldName, srcClass.getName()));
+        }
+        final Class<?> itemType = getCollectionElementType(listProperty.getField());
+        final PropertyInfo idProperty = (itemType == null) ? null : inspectClass(itemType).get(idFieldName);
+        if (idProperty == null || idProperty.getReadMethod() == null || idProperty.getWriteMethod() == null) {
+            throw new RuntimeException(format("No id field {%s} in class {%s}", idFieldName, itemType));
+        }
+        indexes.add(new IndexSpec(listProperty, itemType, idProperty, idPrefix));
+        return this;
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return format("%s%sBuilder", CLASS_NAME_PREFIX, getClassName(srcClass));
+    }
+
+    @Override
+    public JDefinedClass generate() {
+        final JDefinedClass builderClass = getBuilderClass(srcClass);
+        if (builderClass == null) {
+            throw new RuntimeException(format("Unable to find builder for {%s}", srcClass.getName()));
+        }
+        try {
+            thisClass = codeModel._class(PUBLIC, getHelperClassFqn(getHelperClassName()), CLASS);
+            thisClass._extends(builderClass);
+            generateBody();
+        } catch (JClassAlreadyExistsException e) {
+            // ignore
+        }
+        return thisClass;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add(format("Variant of <code>%s</code> with hash index of items by id. Items added through this ",
+                getBuilderClass(srcClass).name()));
+        javadoc.add("builder without id get a newly allocated id, items which are structurally identical to an existing ");
+        javadoc.add("one (ignoring id) are not added again. Items must not be modified once added.");
+        keyClass = getNestedHelperClass(EqualityGenerator.CLASS_NAME, KEY_CLASS_NAME);
+
+        JMethod constructor = thisClass.constructor(PUBLIC);
+        constructor.javadoc().add("Initialize the underlying object.");
+        constructor.body().invoke("this").arg(_null());
+
+        constructor = thisClass.constructor(PUBLIC);
+        final JVar object = constructor.param(srcClass, FIELD_NAME);
+        constructor.javadoc().add("Initialize the builder with given object, existing items are indexed.");
+        constructor.javadoc().addParam(object).add("the given object");
+        constructor.body().invoke("super").arg(object);
+
+        for (IndexSpec spec : indexes) {
+            addIndex(spec, constructor.body());
+        }
+    }
+
+    private void addIndex(IndexSpec spec, JBlock constructorBody) {
+        final String itemName = spec.itemType.getSimpleName();
+        final JClass itemType = getType(spec.itemType);
+        final JClass idType = getType(spec.idProperty.getField().getType());
+        final JFieldVar index = thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(idType, itemType),
+                format("%sIndex", uncapitalize(itemName)), _new(getType(HashMap.class).narrow(idType, itemType)));
+        final JFieldVar contentIndex = thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(keyClass, itemType),
+                format("%sContentIndex", uncapitalize(itemName)), _new(getType(HashMap.class).narrow(keyClass, itemType)));
+        final JFieldVar sequence = thisClass.field(PRIVATE, codeModel.LONG, format("%sSequence", uncapitalize(itemName)));
+
+        final String listReadMethodName = spec.listProperty.getReadMethod().getName();
+        final String idReadMethodName = spec.idProperty.getReadMethod().getName();
+        final String idWriteMethodName = spec.idProperty.getWriteMethod().getName();
+        final String indexMethodName = INDEX_METHOD_PREFIX + itemName;
+        final String registerMethodName = REGISTER_METHOD_PREFIX + itemName;
+        final String nextIdMethodName = format("%s%sId", NEXT_ID_METHOD_PREFIX, itemName);
+
+        final JForEach forEach = constructorBody.forEach(itemType, "value", FIELD_TYPE_REF.invoke(listReadMethodName));
+        forEach.body().invoke(indexMethodName).arg(forEach.var());
+
+        // override "add" method of the builder
+        final String addMethodName = listReadMethodName.replaceFirst("^get", "add");
+        if (getBuilderMethod(getBuilderClass(srcClass), addMethodName, itemType) == null) {
+            throw new RuntimeException(format("Unable to find method {%s} in builder of {%s}", addMethodName,
+                    srcClass.getName()));
+        }
+        JMethod method = addMethod(PUBLIC, thisClass, addMethodName, thisClass, Override.class);
+        final JVar values = method.varParam(itemType, PARAM_NAME);
+        JBlock body = method.body();
+        final JBlock ifBlock = body._if(values.ne(_null()))._then();
+        final JForEach valuesLoop = ifBlock.forEach(itemType, "item", values);
+        valuesLoop.body().invoke(registerMethodName).arg(valuesLoop.var());
+        body._return(_this());
+
+        method = addMethod(PUBLIC, itemType, registerMethodName, thisClass);
+        JVar value = method.param(itemType, "value");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Adds given item unless a structurally identical item with same or no id already exists, an id is ");
+        javadoc.add("allocated if given item has none.");
+        javadoc.addParam(value).add("item to add");
+        javadoc.addReturn().add("item which is part of the underlying object, the existing one if given item is a duplicate");
+        javadoc.addThrows(IllegalStateException.class).add("if another item with same id already exists");
+        body = method.body();
+        body._if(value.eq(_null()))._then()._return(_null());
+        final JVar id = body.decl(FINAL, idType, "id", value.invoke(idReadMethodName));
+        body.directStatement("// id is cleared while looking up, so that content is compared without id");
+        body.add(value.invoke(idWriteMethodName).arg(_null()));
+        final JVar existing = body.decl(FINAL, itemType, "existing", contentIndex.invoke("get")
+                .arg(_new(keyClass).arg(value)));
+        body.add(value.invoke(idWriteMethodName).arg(id));
+        body._if(existing.ne(_null()).cand(id.eq(_null()).cor(id.invoke("equals").arg(existing.invoke(idReadMethodName)))))
+                ._then()._return(existing);
+        final JConditional conditional = body._if(id.eq(_null()));
+        conditional._then().add(value.invoke(idWriteMethodName).arg(invoke(nextIdMethodName)));
+        conditional._else()._if(index.invoke("containsKey").arg(id))._then()._throw(_new(getType(IllegalStateException.class))
+                .arg(getType(String.class).staticInvoke("format").arg(lit("Duplicate id {%s}")).arg(id)));
+        body.add(FIELD_TYPE_REF.invoke(listReadMethodName).invoke("add").arg(value));
+        body.invoke(indexMethodName).arg(value);
+        body._return(value);
+
+        method = addMethod(PUBLIC, itemType, format("find%s", itemName), thisClass);
+        value = method.param(idType, "id");
+        method.javadoc().addParam(value).add("id to look up");
+        method.javadoc().addReturn().add("item with given id or null");
+        method.body()._return(index.invoke("get").arg(value));
+
+        method = addMethod(PUBLIC, codeModel.BOOLEAN, format("contains%s", itemName), thisClass);
+        value = method.param(idType, "id");
+        method.javadoc().addParam(value).add("id to look up");
+        method.javadoc().addReturn().add("true if an item with given id exists");
+        method.body()._return(index.invoke("containsKey").arg(value));
+
+        method = addMethod(PRIVATE, codeModel.VOID, indexMethodName, thisClass);
+        value = method.param(itemType, "value");
+        body = method.body();
+        final JVar indexedId = body.decl(FINAL, idType, "id", value.invoke(idReadMethodName));
+        body._if(indexedId.ne(_null()))._then().add(index.invoke("put").arg(indexedId).arg(value));
+        body.directStatement("// content is keyed by a copy without id, so that the key is not affected by the id");
+        final JVar copy = body.decl(FINAL, itemType, "copy", builderFactoryClass.staticInvoke(DEEP_COPY_METHOD_NAME)
+                .arg(value));
+        body.add(copy.invoke(idWriteMethodName).arg(_null()));
+        body.add(contentIndex.invoke("putIfAbsent").arg(_new(keyClass).arg(copy)).arg(value));
+
+        method = addMethod(PRIVATE, idType, nextIdMethodName, thisClass);
+        body = method.body();
+        final JVar nextId = body.decl(idType, "id");
+        JExpression idExpression;
+        if (BigInteger.class.equals(spec.idProperty.getField().getType())) {
+            idExpression = builderFactoryClass.staticInvoke(GET_BIG_INTEGER_METHOD_NAME).arg(sequence);
+        } else if (String.class.equals(spec.idProperty.getField().getType())) {
+            idExpression = lit(spec.idPrefix).plus(sequence);
+        } else {
+            throw new RuntimeException(format("Unsupported id type {%s} of {%s}", idType.fullName(), itemType.fullName()));
+        }
+        final JDoLoop doLoop = body._do(index.invoke("containsKey").arg(nextId));
+        doLoop.body().assignPlus(sequence, lit(1));
+        doLoop.body().assign(nextId, idExpression);
+        body._return(nextId);
+    }
+
+    private static class IndexSpec {
+
+        private final PropertyInfo listProperty;
+        private final Class<?> itemType;
+        private final PropertyInfo idProperty;
+        private final String idPrefix;
+
+        private IndexSpec(PropertyInfo listProperty, Class<?> itemType, PropertyInfo idProperty, String idPrefix) {
+            this.listProperty = listProperty;
+            this.itemType = itemType;
+            this.idProperty = idProperty;
+            this.idPrefix = idPrefix;
+        }
+    }
+}
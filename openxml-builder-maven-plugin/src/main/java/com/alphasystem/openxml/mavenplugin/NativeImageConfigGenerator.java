@@ -0,0 +1,132 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.apache.commons.io.FileUtils;
+
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlRegistry;
+import javax.xml.bind.annotation.XmlType;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Generates GraalVM native image <code>reflect-config.json</code> for the generated builders. The configuration is
+ * derived from the types for which builders have been generated: every JAXB type reachable through their fields, the
+ * <code>ObjectFactory</code> of each package and, unless code has been generated reflection free, the builder classes
+ * looked up by <code>cloneObject</code>.
+ *
+ * @author sali
+ */
+public class NativeImageConfigGenerator {
+
+    public static final String REFLECT_CONFIG_FILE_NAME = "reflect-config.json";
+
+    private final List<Class<?>> types;
+    private final List<String> builderClassNames;
+    private final boolean reflectionFree;
+
+    public NativeImageConfigGenerator(List<Class<?>> types, List<String> builderClassNames, boolean reflectionFree) {
+        this.types = types;
+        this.builderClassNames = builderClassNames;
+        this.reflectionFree = reflectionFree;
+    }
+
+    public void generate(File targetDirectory) throws IOException {
+        FileUtils.writeStringToFile(new File(targetDirectory, REFLECT_CONFIG_FILE_NAME), getReflectConfig(),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return content of <code>reflect-config.json</code>
+     */
+    public String getReflectConfig() {
+        final Set<Class<?>> jaxbTypes = getJaxbTypes(types);
+        final Set<String> objectFactories = new TreeSet<>();
+        for (Class<?> type : jaxbTypes) {
+            final String objectFactoryName = format("%s.ObjectFactory", type.getPackage().getName());
+            try {
+                final Class<?> objectFactory = Class.forName(objectFactoryName, false, type.getClassLoader());
+                if (objectFactory.isAnnotationPresent(XmlRegistry.class)) {
+                    objectFactories.add(objectFactory.getName());
+                }
+            } catch (ClassNotFoundException e) {
+                // ignore
+            }
+        }
+
+        List<String> entries = new ArrayList<>();
+        for (Class<?> type : jaxbTypes) {
+            entries.add(format("{\"name\":\"%s\",\"allDeclaredFields\":true,\"allDeclaredConstructors\":true," +
+                    "\"allDeclaredMethods\":true}", type.getName()));
+        }
+        for (String objectFactory : objectFactories) {
+            entries.add(format("{\"name\":\"%s\",\"allDeclaredConstructors\":true,\"allDeclaredMethods\":true}",
+                    objectFactory));
+        }
+        if (!reflectionFree) {
+            for (String builderClassName : new TreeSet<>(builderClassNames)) {
+                entries.add(format("{\"name\":\"%s\",\"allPublicConstructors\":true}", builderClassName));
+            }
+        }
+
+        StringBuilder builder = new StringBuilder("[\n");
+        for (int i = 0; i < entries.size(); i++) {
+            builder.append("  ").append(entries.get(i)).append((i < entries.size() - 1) ? ",\n" : "\n");
+        }
+        return builder.append("]\n").toString();
+    }
+
+    /**
+     * Returns given types and all the JAXB types (<code>XmlType</code> or <code>XmlEnum</code>) reachable through
+     * their fields, sorted by name.
+     *
+     * @param types types to start from
+     * @return set of JAXB types
+     */
+    public static Set<Class<?>> getJaxbTypes(Collection<Class<?>> types) {
+        Set<Class<?>> result = new TreeSet<>(Comparator.comparing(Class::getName));
+        Deque<Class<?>> queue = new ArrayDeque<>(types);
+        while (!queue.isEmpty()) {
+            final Class<?> type = queue.poll();
+            if (!result.add(type)) {
+                continue;
+            }
+            Class<?> currentClass = type;
+            while (currentClass != null && !Object.class.equals(currentClass)) {
+                for (Field field : currentClass.getDeclaredFields()) {
+                    addJaxbTypes(field.getGenericType(), queue);
+                }
+                currentClass = currentClass.getSuperclass();
+                if (currentClass != null && isJaxbType(currentClass)) {
+                    queue.add(currentClass);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addJaxbTypes(Type type, Deque<Class<?>> queue) {
+        if (type instanceof ParameterizedType) {
+            final ParameterizedType parameterizedType = (ParameterizedType) type;
+            addJaxbTypes(parameterizedType.getRawType(), queue);
+            for (Type argument : parameterizedType.getActualTypeArguments()) {
+                addJaxbTypes(argument, queue);
+            }
+        } else if (type instanceof Class) {
+            final Class<?> _class = (Class<?>) type;
+            if (isJaxbType(_class)) {
+                queue.add(_class);
+            }
+        }
+    }
+
+    private static boolean isJaxbType(Class<?> type) {
+        return type.isAnnotationPresent(XmlType.class) || type.isAnnotationPresent(XmlEnum.class);
+    }
+}
@@ -0,0 +1,200 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.wml.R;
+import org.docx4j.wml.Text;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import java.util.List;
+import java.util.Objects;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.EqualityGenerator.IS_EQUAL_METHOD_NAME;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.isCollectionType;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlNormalizer</code>, which merges adjacent runs with structurally identical properties and
+ * collapses adjacent <code>Text</code> nodes of paragraph like content.
+ *
+ * @author sali
+ */
+public class NormalizerGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlNormalizer";
+    public static final String COALESCE_RUNS_METHOD_NAME = "coalesceRuns";
+    private static final String COLLAPSE_TEXT_METHOD_NAME = "collapseText";
+    private static final String CAN_MERGE_METHOD_NAME = "canMerge";
+    private static final String MERGE_METHOD_NAME = "merge";
+    private static final String GET_TEXT_METHOD_NAME = "getText";
+    private static final String GET_NAME_METHOD_NAME = "getName";
+    private static final String PRESERVE = "preserve";
+
+    public NormalizerGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        thisClass.javadoc().add("Normalizes paragraph content. Merged runs and texts are always new objects, objects " +
+                "in the given content are never modified, so shared subtrees stay intact.");
+        addPrivateConstructor();
+        addCoalesceRunsMethod();
+        addCollapseTextMethod();
+        addCanMergeMethod();
+        addMergeMethod();
+        addGetTextMethod();
+        addGetNameMethod();
+    }
+
+    private void addCoalesceRunsMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, COALESCE_RUNS_METHOD_NAME, thisClass);
+        final JVar content = method.param(getType(List.class).narrow(Object.class), "content");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Merges adjacent runs with structurally identical properties and collapses adjacent text nodes ");
+        javadoc.add("of the merged runs, runs which are not merged are left untouched.");
+        javadoc.addParam(content).add("content of a paragraph or hyperlink");
+
+        final JClass runType = getType(R.class);
+        final JBlock body = method.body();
+        final JVar target = body.decl(codeModel.INT, "target", lit(0));
+        final JVar i = body.decl(codeModel.INT, "i", lit(0));
+        final JBlock whileBody = body._while(i.lt(content.invoke("size"))).body();
+        final JVar item = whileBody.decl(getType(Object.class), "item", content.invoke("get").arg(i));
+        final JVar end = whileBody.decl(codeModel.INT, "end", i.plus(lit(1)));
+        // each group of mergeable runs is merged at once, merging run by run would copy the content over and over
+        final JBlock runBlock = whileBody._if(item._instanceof(runType))._then();
+        runBlock._while(end.lt(content.invoke("size")).cand(content.invoke("get").arg(end)._instanceof(runType))
+                .cand(invoke(CAN_MERGE_METHOD_NAME).arg(cast(runType, item))
+                        .arg(cast(runType, content.invoke("get").arg(end))))).body().assign(end, end.plus(lit(1)));
+        runBlock._if(end.minus(i).gt(lit(1)))._then().assign(item, invoke(MERGE_METHOD_NAME)
+                .arg(content.invoke("subList").arg(i).arg(end)));
+        whileBody.add(content.invoke("set").arg(target).arg(item));
+        whileBody.assign(target, target.plus(lit(1)));
+        whileBody.assign(i, end);
+        body.add(content.invoke("subList").arg(target).arg(content.invoke("size")).invoke("clear"));
+    }
+
+    private void addCollapseTextMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, COLLAPSE_TEXT_METHOD_NAME, thisClass);
+        final JVar content = method.param(getType(List.class).narrow(Object.class), "content");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Collapses adjacent text nodes of same element name into one, spaces of the collapsed text are ");
+        javadoc.add("preserved if they were preserved in any of its parts.");
+        javadoc.addParam(content).add("content of a run");
+
+        final JClass textType = getType(Text.class);
+        final JClass qNameType = getType(QName.class);
+        final JClass stringType = getType(String.class);
+        final JBlock body = method.body();
+        final JVar target = body.decl(codeModel.INT, "target", lit(0));
+        final JVar i = body.decl(codeModel.INT, "i", lit(0));
+        final JBlock whileBody = body._while(i.lt(content.invoke("size"))).body();
+        final JVar item = whileBody.decl(getType(Object.class), "item", content.invoke("get").arg(i));
+        final JVar name = whileBody.decl(FINAL, qNameType, "name", invoke(GET_NAME_METHOD_NAME).arg(item));
+        final JVar end = whileBody.decl(codeModel.INT, "end", i.plus(lit(1)));
+        final JBlock textBlock = whileBody._if(invoke(GET_TEXT_METHOD_NAME).arg(item).ne(_null()))._then();
+        textBlock._while(end.lt(content.invoke("size"))
+                .cand(invoke(GET_TEXT_METHOD_NAME).arg(content.invoke("get").arg(end)).ne(_null()))
+                .cand(getType(Objects.class).staticInvoke("equals").arg(name)
+                        .arg(invoke(GET_NAME_METHOD_NAME).arg(content.invoke("get").arg(end)))))
+                .body().assign(end, end.plus(lit(1)));
+
+        // one builder per group, concatenating part by part would copy the text over and over
+        final JBlock mergeBlock = textBlock._if(end.minus(i).gt(lit(1)))._then();
+        final JVar value = mergeBlock.decl(FINAL, getType(StringBuilder.class), "value",
+                _new(getType(StringBuilder.class)));
+        final JVar preserve = mergeBlock.decl(codeModel.BOOLEAN, "preserve", FALSE);
+        final JForLoop forLoop = mergeBlock._for();
+        final JVar j = forLoop.init(codeModel.INT, "j", i);
+        forLoop.test(j.lt(end));
+        forLoop.update(j.incr());
+        final JBlock forBody = forLoop.body();
+        final JVar part = forBody.decl(FINAL, textType, "part", invoke(GET_TEXT_METHOD_NAME)
+                .arg(content.invoke("get").arg(j)));
+        forBody._if(part.invoke("getValue").ne(_null()))._then().add(value.invoke("append").arg(part.invoke("getValue")));
+        forBody.assign(preserve, preserve.cor(lit(PRESERVE).invoke("equals").arg(part.invoke("getSpace"))));
+        final JVar text = mergeBlock.decl(FINAL, textType, "text", createObject(Text.class));
+        mergeBlock.add(text.invoke("setValue").arg(value.invoke("toString")));
+        mergeBlock._if(preserve)._then().add(text.invoke("setSpace").arg(lit(PRESERVE)));
+        final JConditional elementConditional = mergeBlock._if(item._instanceof(getType(JAXBElement.class)));
+        final JClass elementType = getType(JAXBElement.class).narrow(codeModel.wildcard());
+        elementConditional._then().assign(item, _new(getType(JAXBElement.class).narrow(textType)).arg(name)
+                .arg(textType.dotclass()).arg(invoke(cast(elementType, item), "getScope")).arg(text));
+        elementConditional._else().assign(item, text);
+
+        whileBody.add(content.invoke("set").arg(target).arg(item));
+        whileBody.assign(target, target.plus(lit(1)));
+        whileBody.assign(i, end);
+        body.add(content.invoke("subList").arg(target).arg(content.invoke("size")).invoke("clear"));
+    }
+
+    private void addCanMergeMethod() {
+        final JClass runType = getType(R.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.BOOLEAN, CAN_MERGE_METHOD_NAME, thisClass);
+        final JVar a = method.param(runType, "a");
+        final JVar b = method.param(runType, "b");
+        // every property other than content (run properties, revision ids) must be equal
+        JExpression result = TRUE;
+        for (PropertyInfo propertyInfo : getProperties(R.class)) {
+            if (isCollectionType(propertyInfo.getField())) {
+                continue;
+            }
+            result = result.cand(getHelperClass(EqualityGenerator.CLASS_NAME).staticInvoke(IS_EQUAL_METHOD_NAME)
+                    .arg(getValue(a, propertyInfo)).arg(getValue(b, propertyInfo)));
+        }
+        method.body()._return(result);
+    }
+
+    private void addMergeMethod() {
+        final JClass runType = getType(R.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, runType, MERGE_METHOD_NAME, thisClass);
+        final JVar runs = method.param(getType(List.class).narrow(Object.class), "runs");
+        final JBlock body = method.body();
+        final JVar first = body.decl(FINAL, runType, "first", cast(runType, runs.invoke("get").arg(lit(0))));
+        final JVar target = body.decl(FINAL, runType, "target", createObject(R.class));
+        final JForEach forEach = body.forEach(getType(Object.class), "run", runs);
+        for (PropertyInfo propertyInfo : getProperties(R.class)) {
+            if (isCollectionType(propertyInfo.getField())) {
+                final String readMethodName = propertyInfo.getReadMethod().getName();
+                forEach.body().add(target.invoke(readMethodName).invoke("addAll")
+                        .arg(invoke(cast(runType, forEach.var()), readMethodName)));
+            } else {
+                body.add(target.invoke(propertyInfo.getWriteMethod().getName()).arg(getValue(first, propertyInfo)));
+            }
+        }
+        // only the content of the new run is collapsed, runs which are not merged are left as is
+        body.invoke(COLLAPSE_TEXT_METHOD_NAME).arg(target.invoke("getContent"));
+        body._return(target);
+    }
+
+    private void addGetTextMethod() {
+        final JClass textType = getType(Text.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, textType, GET_TEXT_METHOD_NAME, thisClass);
+        final JVar item = method.param(Object.class, "item");
+        final JBlock body = method.body();
+        body._if(item._instanceof(textType))._then()._return(cast(textType, item));
+        final JBlock ifBlock = body._if(item._instanceof(getType(JAXBElement.class)))._then();
+        final JVar value = ifBlock.decl(FINAL, getType(Object.class), "value",
+                invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()), item), "getValue"));
+        ifBlock._if(value._instanceof(textType))._then()._return(cast(textType, value));
+        body._return(_null());
+    }
+
+    private void addGetNameMethod() {
+        final JClass qNameType = getType(QName.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, qNameType, GET_NAME_METHOD_NAME, thisClass);
+        final JVar item = method.param(Object.class, "item");
+        final JBlock body = method.body();
+        body._if(item._instanceof(getType(JAXBElement.class)))._then()._return(
+                invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()), item), "getName"));
+        body._return(_null());
+    }
+}
@@ -0,0 +1,129 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.alphasystem.openxml.builder.annotation.GenerateOpenXmlBuilders;
+import com.sun.codemodel.JCodeModel;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.lang.String.format;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Annotation processor which runs the same {@link FluentApiGenerator} as {@link OpenXmlFluentApiBuilder} but from
+ * within <code>javac</code>. Root classes are taken from all elements annotated with
+ * {@link GenerateOpenXmlBuilders}, generated builders are written through {@link FilerCodeWriter} so that they are
+ * compiled in the same compilation and take part in incremental compilation.
+ * <p>
+ * Options of the generator are passed as processor options prefixed with <code>openxml.</code>, e.g.
+ * <code>-Aopenxml.useRuntime=true</code>.
+ *
+ * @author sali
+ */
+@SupportedAnnotationTypes(OpenXmlBuilderProcessor.ANNOTATION_TYPE_NAME)
+public class OpenXmlBuilderProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION_TYPE_NAME = "com.alphasystem.openxml.builder.annotation.GenerateOpenXmlBuilders";
+    static final String OPTION_PREFIX = "openxml.";
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        final Set<String> options = new TreeSet<>();
+        for (String name : new FluentApiGenerator(new JCodeModel()).getOptions().keySet()) {
+            options.add(OPTION_PREFIX + name);
+        }
+        return options;
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || annotations.isEmpty()) {
+            return false;
+        }
+
+        List<Element> originatingElements = new ArrayList<>();
+        Set<Class<?>> srcClasses = new LinkedHashSet<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateOpenXmlBuilders.class)) {
+            originatingElements.add(element);
+            for (String className : getClassNames(element)) {
+                try {
+                    srcClasses.add(Class.forName(className, true, getClass().getClassLoader()));
+                } catch (ClassNotFoundException e) {
+                    processingEnv.getMessager().printMessage(ERROR,
+                            format("Unable to load class {%s}, make sure it is available on processor path", className),
+                            element);
+                }
+            }
+        }
+        if (srcClasses.isEmpty()) {
+            return true;
+        }
+
+        JCodeModel codeModel = new JCodeModel();
+        FluentApiGenerator apiGenerator = new FluentApiGenerator(codeModel,
+                srcClasses.toArray(new Class<?>[srcClasses.size()]));
+        for (Map.Entry<String, String> option : processingEnv.getOptions().entrySet()) {
+            if (option.getKey().startsWith(OPTION_PREFIX)) {
+                apiGenerator.setOption(option.getKey().substring(OPTION_PREFIX.length()),
+                        Boolean.parseBoolean(option.getValue()));
+            }
+        }
+        apiGenerator.generate();
+        try {
+            codeModel.build(new FilerCodeWriter(processingEnv.getFiler(),
+                    originatingElements.toArray(new Element[originatingElements.size()])));
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(ERROR, format("Unable to write builders: %s", e.getMessage()));
+        }
+        generated = true;
+        return true;
+    }
+
+    private List<String> getClassNames(Element element) {
+        List<String> classNames = new ArrayList<>();
+        for (AnnotationMirror annotationMirror : element.getAnnotationMirrors()) {
+            final TypeElement annotationElement = (TypeElement) annotationMirror.getAnnotationType().asElement();
+            if (!ANNOTATION_TYPE_NAME.contentEquals(annotationElement.getQualifiedName())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                    annotationMirror.getElementValues().entrySet()) {
+                if (!entry.getKey().getSimpleName().contentEquals("value")) {
+                    continue;
+                }
+                // Class<?>[] values are not accessible as classes during compilation, read them as type mirrors
+                @SuppressWarnings("unchecked")
+                final List<? extends AnnotationValue> values = (List<? extends AnnotationValue>) entry.getValue().getValue();
+                for (AnnotationValue value : values) {
+                    final TypeMirror typeMirror = (TypeMirror) value.getValue();
+                    final TypeElement typeElement = (TypeElement) ((DeclaredType) typeMirror).asElement();
+                    classNames.add(processingEnv.getElementUtils().getBinaryName(typeElement).toString());
+                }
+            }
+        }
+        return classNames;
+    }
+}
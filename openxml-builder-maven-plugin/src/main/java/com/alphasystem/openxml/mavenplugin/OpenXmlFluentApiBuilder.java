@@ -0,0 +1,387 @@
+/**
+ *
+ */
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.JCodeModel;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Execute;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static java.lang.String.format;
+import static org.apache.maven.plugins.annotations.LifecyclePhase.GENERATE_SOURCES;
+
+/**
+ * Generates fluent API builders. Mojo is thread safe, rendered sources are shared through {@link GenerationCache} by
+ * executions with same configuration, so each builder set is generated once per JVM.
+ *
+ * @author sali
+ */
+@Mojo(name = "generate", requiresProject = true, defaultPhase = GENERATE_SOURCES, threadSafe = true)
+@Execute(goal = "generate", phase = GENERATE_SOURCES, lifecycle = "generate-sources")
+public class OpenXmlFluentApiBuilder extends AbstractMojo {
+
+    @Parameter(name = "targetDirectory", required = true, defaultValue = "${project.build.directory}/generated-sources/openxml")
+    private File targetDirectory;
+
+    @Parameter(name = "srcClassNames")
+    private List<String> srcClassNames;
+
+    @Parameter(name = "reflectionFree", defaultValue = "false")
+    private boolean reflectionFree;
+
+    @Parameter(name = "useRuntime", defaultValue = "false")
+    private boolean useRuntime;
+
+    @Parameter(name = "sizeTracking", defaultValue = "false")
+    private boolean sizeTracking;
+
+    @Parameter(name = "elementValueBuilders", defaultValue = "false")
+    private boolean elementValueBuilders;
+
+    @Parameter(name = "template", defaultValue = "false")
+    private boolean template;
+
+    @Parameter(name = "equality", defaultValue = "false")
+    private boolean equality;
+
+    @Parameter(name = "normalizer", defaultValue = "false")
+    private boolean normalizer;
+
+    @Parameter(name = "walker", defaultValue = "false")
+    private boolean walker;
+
+    @Parameter(name = "bulkTable", defaultValue = "false")
+    private boolean bulkTable;
+
+    @Parameter(name = "compactBody", defaultValue = "false")
+    private boolean compactBody;
+
+    @Parameter(name = "diff", defaultValue = "false")
+    private boolean diff;
+
+    @Parameter(name = "packageWriter", defaultValue = "false")
+    private boolean packageWriter;
+
+    @Parameter(name = "indexedBuilders", defaultValue = "false")
+    private boolean indexedBuilders;
+
+    @Parameter(name = "staticFactory", defaultValue = "false")
+    private boolean staticFactory;
+
+    @Parameter(name = "validator", defaultValue = "false")
+    private boolean validator;
+
+    @Parameter(name = "sizeEstimator", defaultValue = "false")
+    private boolean sizeEstimator;
+
+    @Parameter(name = "binaryCodec", defaultValue = "false")
+    private boolean binaryCodec;
+
+    @Parameter(name = "sdtIndex", defaultValue = "false")
+    private boolean sdtIndex;
+
+    @Parameter(name = "bookmarkRegistry", defaultValue = "false")
+    private boolean bookmarkRegistry;
+
+    @Parameter(name = "fragmentCache", defaultValue = "false")
+    private boolean fragmentCache;
+
+    @Parameter(name = "generateNativeImageConfig", defaultValue = "false")
+    private boolean generateNativeImageConfig;
+
+    @Parameter(name = "nativeImageConfigDirectory",
+            defaultValue = "${project.build.outputDirectory}/META-INF/native-image/com.alphasystem.openxml/openxml-builder")
+    private File nativeImageConfigDirectory;
+
+    private Class<?>[] srcClasses;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!targetDirectory.exists()) {
+            targetDirectory.mkdirs();
+        }
+
+        initClasses();
+        generate();
+    }
+
+    private void generate() throws MojoExecutionException {
+        final JCodeModel codeModel = new JCodeModel();
+        final FluentApiGenerator apiGenerator = new FluentApiGenerator(codeModel, srcClasses);
+        configure(apiGenerator);
+        final String key = GenerationCache.getKey(srcClassNames, apiGenerator.getOptions());
+        final GenerationCache.Entry entry;
+        try {
+            entry = GenerationCache.get(key, () -> render(codeModel, apiGenerator));
+        } catch (Exception e) {
+            throw new MojoExecutionException(format("Unable to generate builders for {%s}", srcClassNames), e);
+        }
+        try {
+            entry.writeTo(targetDirectory);
+        } catch (IOException e) {
+            throw new MojoExecutionException(format("Unable to write builders into {%s}", targetDirectory), e);
+        }
+        if (generateNativeImageConfig) {
+            try {
+                new NativeImageConfigGenerator(entry.getGeneratedTypes(), entry.getBuilderClassNames(), reflectionFree)
+                        .generate(nativeImageConfigDirectory);
+            } catch (IOException e) {
+                throw new MojoExecutionException(format("Unable to write native image configuration into {%s}",
+                        nativeImageConfigDirectory), e);
+            }
+        }
+    }
+
+    private void configure(FluentApiGenerator apiGenerator) {
+        apiGenerator.setReflectionFree(reflectionFree);
+        apiGenerator.setUseRuntime(useRuntime);
+        apiGenerator.setSizeTracking(sizeTracking);
+        apiGenerator.setElementValueBuilders(elementValueBuilders);
+        apiGenerator.setTemplate(template);
+        apiGenerator.setEquality(equality);
+        apiGenerator.setNormalizer(normalizer);
+        apiGenerator.setWalker(walker);
+        apiGenerator.setBulkTable(bulkTable);
+        apiGenerator.setCompactBody(compactBody);
+        apiGenerator.setDiff(diff);
+        apiGenerator.setPackageWriter(packageWriter);
+        apiGenerator.setIndexedBuilders(indexedBuilders);
+        apiGenerator.setStaticFactory(staticFactory);
+        apiGenerator.setValidator(validator);
+        apiGenerator.setSizeEstimator(sizeEstimator);
+        apiGenerator.setBinaryCodec(binaryCodec);
+        apiGenerator.setSdtIndex(sdtIndex);
+        apiGenerator.setBookmarkRegistry(bookmarkRegistry);
+        apiGenerator.setFragmentCache(fragmentCache);
+    }
+
+    private static GenerationCache.Entry render(JCodeModel codeModel, FluentApiGenerator apiGenerator)
+            throws IOException {
+        apiGenerator.generate();
+        final GenerationCache.MemoryCodeWriter codeWriter = new GenerationCache.MemoryCodeWriter();
+        codeModel.build(codeWriter);
+        return new GenerationCache.Entry(codeWriter.getFiles(), apiGenerator.getGeneratedTypes(),
+                apiGenerator.getGeneratedBuilderClassNames());
+    }
+
+    public Class<?>[] getSrcClasses() {
+        return srcClasses;
+    }
+
+    public void setSrcClasses(Class<?>[] srcClasses) {
+        this.srcClasses = srcClasses;
+    }
+
+    public List<String> getSrcClassNames() {
+        return srcClassNames;
+    }
+
+    public void setSrcClassNames(List<String> srcClasses) {
+        this.srcClassNames = srcClasses;
+    }
+
+    public boolean isReflectionFree() {
+        return reflectionFree;
+    }
+
+    public void setReflectionFree(boolean reflectionFree) {
+        this.reflectionFree = reflectionFree;
+    }
+
+    public boolean isUseRuntime() {
+        return useRuntime;
+    }
+
+    public void setUseRuntime(boolean useRuntime) {
+        this.useRuntime = useRuntime;
+    }
+
+    public boolean isSizeTracking() {
+        return sizeTracking;
+    }
+
+    public void setSizeTracking(boolean sizeTracking) {
+        this.sizeTracking = sizeTracking;
+    }
+
+    public boolean isElementValueBuilders() {
+        return elementValueBuilders;
+    }
+
+    public void setElementValueBuilders(boolean elementValueBuilders) {
+        this.elementValueBuilders = elementValueBuilders;
+    }
+
+    public boolean isTemplate() {
+        return template;
+    }
+
+    public void setTemplate(boolean template) {
+        this.template = template;
+    }
+
+    public boolean isEquality() {
+        return equality;
+    }
+
+    public void setEquality(boolean equality) {
+        this.equality = equality;
+    }
+
+    public boolean isNormalizer() {
+        return normalizer;
+    }
+
+    public void setNormalizer(boolean normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    public boolean isWalker() {
+        return walker;
+    }
+
+    public void setWalker(boolean walker) {
+        this.walker = walker;
+    }
+
+    public boolean isBulkTable() {
+        return bulkTable;
+    }
+
+    public void setBulkTable(boolean bulkTable) {
+        this.bulkTable = bulkTable;
+    }
+
+    public boolean isCompactBody() {
+        return compactBody;
+    }
+
+    public void setCompactBody(boolean compactBody) {
+        this.compactBody = compactBody;
+    }
+
+    public boolean isDiff() {
+        return diff;
+    }
+
+    public void setDiff(boolean diff) {
+        this.diff = diff;
+    }
+
+    public boolean isPackageWriter() {
+        return packageWriter;
+    }
+
+    public void setPackageWriter(boolean packageWriter) {
+        this.packageWriter = packageWriter;
+    }
+
+    public boolean isIndexedBuilders() {
+        return indexedBuilders;
+    }
+
+    public void setIndexedBuilders(boolean indexedBuilders) {
+        this.indexedBuilders = indexedBuilders;
+    }
+
+    public boolean isStaticFactory() {
+        return staticFactory;
+    }
+
+    public void setStaticFactory(boolean staticFactory) {
+        this.staticFactory = staticFactory;
+    }
+
+    public boolean isValidator() {
+        return validator;
+    }
+
+    public void setValidator(boolean validator) {
+        this.validator = validator;
+    }
+
+    public boolean isSizeEstimator() {
+        return sizeEstimator;
+    }
+
+    public void setSizeEstimator(boolean sizeEstimator) {
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    public boolean isBinaryCodec() {
+        return binaryCodec;
+    }
+
+    public void setBinaryCodec(boolean binaryCodec) {
+        this.binaryCodec = binaryCodec;
+    }
+
+    public boolean isSdtIndex() {
+        return sdtIndex;
+    }
+
+    public void setSdtIndex(boolean sdtIndex) {
+        this.sdtIndex = sdtIndex;
+    }
+
+    public boolean isBookmarkRegistry() {
+        return bookmarkRegistry;
+    }
+
+    public void setBookmarkRegistry(boolean bookmarkRegistry) {
+        this.bookmarkRegistry = bookmarkRegistry;
+    }
+
+    public boolean isFragmentCache() {
+        return fragmentCache;
+    }
+
+    public void setFragmentCache(boolean fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
+    public boolean isGenerateNativeImageConfig() {
+        return generateNativeImageConfig;
+    }
+
+    public void setGenerateNativeImageConfig(boolean generateNativeImageConfig) {
+        this.generateNativeImageConfig = generateNativeImageConfig;
+    }
+
+    public File getNativeImageConfigDirectory() {
+        return nativeImageConfigDirectory;
+    }
+
+    public void setNativeImageConfigDirectory(File nativeImageConfigDirectory) {
+        this.nativeImageConfigDirectory = nativeImageConfigDirectory;
+    }
+
+    public File getTargetDirectory() {
+        return targetDirectory;
+    }
+
+    public void setTargetDirectory(File targetDirectory) {
+        this.targetDirectory = targetDirectory;
+    }
+
+    private void initClasses() throws MojoExecutionException {
+        srcClasses = new Class<?>[srcClassNames.size()];
+        for (int i = 0; i < srcClassNames.size(); i++) {
+            final String srcClassName = srcClassNames.get(i);
+            try {
+                srcClasses[i] = Class.forName(srcClassName);
+            } catch (ClassNotFoundException e) {
+                throw new MojoExecutionException(format("Unable to find source class {%s}", srcClassName), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.jaxb.Context;
+import org.docx4j.jaxb.NamespacePrefixMapperUtils;
+import org.docx4j.wml.Body;
+import org.docx4j.wml.Document;
+import org.docx4j.wml.Numbering;
+import org.docx4j.wml.Styles;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.OBJECT_FACTORY_FIELD_NAME;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static org.apache.commons.lang3.text.WordUtils.capitalize;
+
+/**
+ * Generates <code>WmlPackageWriter</code>, which marshals document, styles and numbering parts concurrently into pooled
+ * buffers and streams them into the output ZIP. Marshalling parts concurrently means each part is held in memory as a
+ * whole until its turn to be written, so memory use peaks at the marshalled size of all parts; the document part is not
+ * streamed. The writer only depends on docx4j types, so it is generated for WML regardless of whether builders of
+ * <code>Body</code> or <code>Document</code> are generated.
+ *
+ * @author sali
+ */
+public class PackageWriterGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlPackageWriter";
+    public static final String WRITE_METHOD_NAME = "write";
+    private static final String MARSHAL_PART_METHOD_NAME = "marshalPart";
+    private static final String SUBMIT_METHOD_NAME = "submit";
+    private static final String ACQUIRE_BUFFER_METHOD_NAME = "acquireBuffer";
+    private static final String RELEASE_BUFFER_METHOD_NAME = "releaseBuffer";
+    private static final String DISCARD_METHOD_NAME = "discard";
+    private static final String WRITE_ENTRY_METHOD_NAME = "writeEntry";
+    private static final String BUFFERS_FIELD_NAME = "BUFFERS";
+    private static final String BUFFER_CLASS_NAME = "PartBuffer";
+    private static final String GET_BYTES_METHOD_NAME = "getBytes";
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String CONTENT_TYPE_PREFIX = "application/vnd.openxmlformats-officedocument.wordprocessingml.";
+    private static final String RELATIONSHIP_TYPE_PREFIX = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/";
+    private static final String RELATIONSHIPS_PREFIX = XML_DECLARATION +
+            "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">";
+    private static final String RELATIONSHIPS_SUFFIX = "</Relationships>";
+
+    private JClass bufferType;
+    private JClass futureType;
+
+    public PackageWriterGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Writes a minimal WordprocessingML package. Each part is marshalled with its own marshaller on the ");
+        javadoc.add("given executor into a pooled buffer, parts are written into the ZIP in order as soon as they are ");
+        javadoc.add("ready. Each part is held in memory as a whole until it is written, so up to the marshalled size of ");
+        javadoc.add("all parts is buffered at once, writing the body of very large documents needs as much heap. ");
+        javadoc.add("Placeholders of frozen fragments are replaced with the cached content while parts are written.");
+        try {
+            addBufferClass();
+        } catch (JClassAlreadyExistsException e) {
+            return;
+        }
+        futureType = getType(CompletableFuture.class).narrow(bufferType);
+
+        thisClass.field(PRIVATE | STATIC | FINAL, getType(BlockingQueue.class).narrow(bufferType), BUFFERS_FIELD_NAME,
+                _new(getType(ArrayBlockingQueue.class).narrow(bufferType)).arg(lit(16)));
+        thisClass.field(PRIVATE | FINAL, Body.class, "body");
+        thisClass.field(PRIVATE, Styles.class, "styles");
+        thisClass.field(PRIVATE, Numbering.class, "numbering");
+        thisClass.field(PRIVATE, codeModel.INT, "compressionLevel", getType(Deflater.class).staticRef("DEFAULT_COMPRESSION"));
+        thisClass.field(PRIVATE, Executor.class, "executor", getType(ForkJoinPool.class).staticInvoke("commonPool"));
+
+        final JMethod constructor = thisClass.constructor(PUBLIC);
+        final JVar body = constructor.param(Body.class, "body");
+        constructor.javadoc().addParam(body).add("body of the main document part");
+        constructor.body()._if(body.eq(_null()))._then()._throw(_new(getType(NullPointerException.class))
+                .arg(lit("body")));
+        constructor.body().assign(refthis("body"), body);
+
+        addWithMethod(getType(Styles.class), "styles", "styles part, no styles part is written if null");
+        addWithMethod(getType(Numbering.class), "numbering", "numbering part, no numbering part is written if null");
+        addWithMethod(codeModel.INT, "compressionLevel", "ZIP compression level, between 0 and 9 or -1 for default");
+        addWithMethod(getType(Executor.class), "executor", "executor to marshal parts on, defaults to common pool");
+        addWriteFileMethod();
+        addWriteMethod();
+        addSubmitMethod();
+        addMarshalPartMethod();
+        addBufferMethods();
+        addWriteEntryMethods();
+    }
+
+    private void addBufferClass() throws JClassAlreadyExistsException {
+        final JDefinedClass bufferClass = thisClass._class(PRIVATE | STATIC | FINAL, BUFFER_CLASS_NAME);
+        bufferClass.javadoc().add("Buffer exposing its internal array, so that parts are written without copying them.");
+        bufferClass._extends(ByteArrayOutputStream.class);
+        final JMethod constructor = bufferClass.constructor(PRIVATE);
+        final JVar size = constructor.param(codeModel.INT, "size");
+        constructor.body().invoke("super").arg(size);
+        final JMethod method = addMethod(PRIVATE, codeModel.BYTE.array(), GET_BYTES_METHOD_NAME, bufferClass);
+        method.javadoc().addReturn().add("internal array, only first <code>size()</code> bytes are valid");
+        method.body()._return(ref("buf"));
+        bufferType = bufferClass;
+    }
+
+    private void addWithMethod(JType type, String fieldName, String description) {
+        final JMethod method = addMethod(PUBLIC, thisClass, "with" + capitalize(fieldName), thisClass);
+        final JVar param = method.param(type, fieldName);
+        method.javadoc().addParam(param).add(description);
+        method.javadoc().addReturn().add("reference to this");
+        method.body().assign(refthis(fieldName), param);
+        method.body()._return(_this());
+    }
+
+    private void addWriteFileMethod() {
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, WRITE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar file = method.param(File.class, "file");
+        method.javadoc().add("Writes package into given file.");
+        method.javadoc().addParam(file).add("file to write");
+        method.javadoc().addThrows(IOException.class).add("if unable to write or marshal any part");
+        final JBlock body = method.body();
+        final JVar out = body.decl(FINAL, getType(OutputStream.class), "out", _new(getType(BufferedOutputStream.class))
+                .arg(_new(getType(FileOutputStream.class)).arg(file)));
+        final JTryBlock tryBlock = body._try();
+        tryBlock.body().invoke(WRITE_METHOD_NAME).arg(out);
+        tryBlock._finally().add(out.invoke("close"));
+    }
+
+    private void addWriteMethod() {
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, WRITE_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        final JVar out = method.param(OutputStream.class, "out");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Writes package into given stream, the stream is not closed.");
+        javadoc.addParam(out).add("stream to write into");
+        javadoc.addThrows(IOException.class).add("if unable to write or marshal any part");
+        final JBlock body = method.body();
+        final JClass documentType = getType(Document.class);
+        final JVar document = body.decl(FINAL, documentType, "document", builderFactoryClass
+                .staticRef(OBJECT_FACTORY_FIELD_NAME).invoke("createDocument"));
+        body.add(document.invoke("setBody").arg(ref("body")));
+        final JVar documentPart = body.decl(FINAL, futureType, "documentPart", invoke(SUBMIT_METHOD_NAME).arg(document));
+        final JVar stylesPart = body.decl(FINAL, futureType, "stylesPart", invoke(SUBMIT_METHOD_NAME).arg(ref("styles")));
+        final JVar numberingPart = body.decl(FINAL, futureType, "numberingPart", invoke(SUBMIT_METHOD_NAME)
+                .arg(ref("numbering")));
+
+        final JVar zip = body.decl(FINAL, getType(ZipOutputStream.class), "zip", _new(getType(ZipOutputStream.class))
+                .arg(out));
+        body.add(zip.invoke("setLevel").arg(ref("compressionLevel")));
+        // static parts are written while the others are being marshalled
+        final JVar contentTypes = body.decl(FINAL, getType(StringBuilder.class), "contentTypes",
+                _new(getType(StringBuilder.class)).arg(lit(XML_DECLARATION +
+                        "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+                        "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+                        "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+                        "<Override PartName=\"/word/document.xml\" ContentType=\"" + CONTENT_TYPE_PREFIX +
+                        "document.main+xml\"/>")));
+        final JVar relationships = body.decl(FINAL, getType(StringBuilder.class), "relationships",
+                _new(getType(StringBuilder.class)).arg(lit(RELATIONSHIPS_PREFIX)));
+        addPartDeclaration(body, contentTypes, relationships, "styles", "rId1");
+        addPartDeclaration(body, contentTypes, relationships, "numbering", "rId2");
+        body.add(contentTypes.invoke("append").arg(lit("</Types>")));
+        body.add(relationships.invoke("append").arg(lit(RELATIONSHIPS_SUFFIX)));
+        // number of parts handed over to writeEntry, which releases their buffers, buffers of the others are
+        // released once they are marshalled
+        final JVar handedOver = body.decl(codeModel.INT, "handedOver", lit(0));
+        final JTryBlock tryBlock = body._try();
+        final JBlock tryBody = tryBlock.body();
+        tryBody.invoke(WRITE_ENTRY_METHOD_NAME).arg(zip).arg(lit("[Content_Types].xml")).arg(contentTypes.invoke("toString"));
+        tryBody.invoke(WRITE_ENTRY_METHOD_NAME).arg(zip).arg(lit("_rels/.rels")).arg(lit(RELATIONSHIPS_PREFIX +
+                "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIP_TYPE_PREFIX +
+                "officeDocument\" Target=\"word/document.xml\"/>" + RELATIONSHIPS_SUFFIX));
+        tryBody.invoke(WRITE_ENTRY_METHOD_NAME).arg(zip).arg(lit("word/_rels/document.xml.rels"))
+                .arg(relationships.invoke("toString"));
+
+        final JVar[] parts = {documentPart, stylesPart, numberingPart};
+        final String[] partNames = {"word/document.xml", "word/styles.xml", "word/numbering.xml"};
+        for (int i = 0; i < parts.length; i++) {
+            tryBody.assign(handedOver, lit(i + 1));
+            tryBody.invoke(WRITE_ENTRY_METHOD_NAME).arg(zip).arg(lit(partNames[i])).arg(parts[i]);
+        }
+        tryBody.add(zip.invoke("finish"));
+        final JBlock finallyBlock = tryBlock._finally();
+        for (int i = 0; i < parts.length; i++) {
+            finallyBlock._if(handedOver.lte(lit(i)))._then().invoke(DISCARD_METHOD_NAME).arg(parts[i]);
+        }
+    }
+
+    private void addPartDeclaration(JBlock body, JVar contentTypes, JVar relationships, String partName, String id) {
+        final JBlock block = body._if(ref(partName).ne(_null()))._then();
+        block.add(contentTypes.invoke("append").arg(lit("<Override PartName=\"/word/" + partName +
+                ".xml\" ContentType=\"" + CONTENT_TYPE_PREFIX + partName + "+xml\"/>")));
+        block.add(relationships.invoke("append").arg(lit("<Relationship Id=\"" + id + "\" Type=\"" +
+                RELATIONSHIP_TYPE_PREFIX + partName + "\" Target=\"" + partName + ".xml\"/>")));
+    }
+
+    private void addSubmitMethod() {
+        final JMethod method = addMethod(PRIVATE, futureType, SUBMIT_METHOD_NAME, thisClass);
+        final JVar part = method.param(FINAL, Object.class, "part");
+        final JBlock body = method.body();
+        body._if(part.eq(_null()))._then()._return(_null());
+        final JDefinedClass supplierClass = codeModel.anonymousClass(getType(Supplier.class).narrow(bufferType));
+        addMethod(PUBLIC, bufferType, "get", supplierClass, Override.class).body()
+                ._return(invoke(MARSHAL_PART_METHOD_NAME).arg(part));
+        body._return(getType(CompletableFuture.class).staticInvoke("supplyAsync").arg(_new(supplierClass))
+                .arg(ref("executor")));
+    }
+
+    private void addMarshalPartMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, bufferType, MARSHAL_PART_METHOD_NAME, thisClass);
+        final JVar part = method.param(Object.class, "part");
+        final JBlock body = method.body();
+        final JVar buffer = body.decl(FINAL, bufferType, "buffer", invoke(ACQUIRE_BUFFER_METHOD_NAME));
+        final JVar marshalled = body.decl(codeModel.BOOLEAN, "marshalled", FALSE);
+        final JTryBlock tryBlock = body._try();
+        final JBlock tryBody = tryBlock.body();
+        final JClass utilsType = getType(NamespacePrefixMapperUtils.class);
+        final JVar marshaller = tryBody.decl(FINAL, getType(Marshaller.class), "marshaller", getType(Context.class)
+                .staticRef("jc").invoke("createMarshaller"));
+        tryBody.add(marshaller.invoke("setProperty").arg(getType(Marshaller.class).staticRef("JAXB_ENCODING"))
+                .arg(lit("UTF-8")));
+        tryBody.add(utilsType.staticInvoke("setProperty").arg(marshaller).arg(utilsType.staticInvoke("getPrefixMapper")));
+        tryBody.add(marshaller.invoke("marshal").arg(part).arg(buffer));
+        tryBody.assign(marshalled, TRUE);
+        tryBody._return(buffer);
+        final JCatchBlock catchBlock = tryBlock._catch(getType(JAXBException.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body()._throw(_new(getType(RuntimeException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Unable to marshal part {%s}")).arg(part.invoke("getClass").invoke("getName"))).arg(ex));
+        // any failure, not only JAXBException, must give the buffer back
+        tryBlock._finally()._if(marshalled.not())._then().invoke(RELEASE_BUFFER_METHOD_NAME).arg(buffer);
+    }
+
+    private void addBufferMethods() {
+        JMethod method = addMethod(PRIVATE | STATIC, bufferType, ACQUIRE_BUFFER_METHOD_NAME, thisClass);
+        JBlock body = method.body();
+        final JVar buffer = body.decl(FINAL, bufferType, "buffer", ref(BUFFERS_FIELD_NAME).invoke("poll"));
+        body._return(JOp.cond(buffer.eq(_null()), _new(bufferType).arg(lit(64 * 1024)), buffer));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, RELEASE_BUFFER_METHOD_NAME, thisClass);
+        final JVar param = method.param(bufferType, "buffer");
+        body = method.body();
+        body.directStatement("// very large buffers are not kept around");
+        body._if(param.invoke("size").gt(lit(16 * 1024 * 1024)))._then()._return();
+        body.add(param.invoke("reset"));
+        body.add(ref(BUFFERS_FIELD_NAME).invoke("offer").arg(param));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, DISCARD_METHOD_NAME, thisClass);
+        method.javadoc().add("Releases buffer of a part which is not going to be written, once it is marshalled.");
+        final JVar part = method.param(futureType, "part");
+        body = method.body();
+        body._if(part.eq(_null()))._then()._return();
+        final JDefinedClass consumerClass = codeModel.anonymousClass(getType(Consumer.class).narrow(bufferType));
+        final JMethod acceptMethod = addMethod(PUBLIC, codeModel.VOID, "accept", consumerClass, Override.class);
+        acceptMethod.body().invoke(RELEASE_BUFFER_METHOD_NAME).arg(acceptMethod.param(bufferType, "buffer"));
+        body.add(part.invoke("thenAccept").arg(_new(consumerClass)));
+    }
+
+    private void addWriteEntryMethods() {
+        JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, WRITE_ENTRY_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        JVar zip = method.param(ZipOutputStream.class, "zip");
+        JVar name = method.param(String.class, "name");
+        final JVar content = method.param(String.class, "content");
+        JBlock body = method.body();
+        body.add(zip.invoke("putNextEntry").arg(_new(getType(ZipEntry.class)).arg(name)));
+        body.add(zip.invoke("write").arg(content.invoke("getBytes").arg(getType(StandardCharsets.class)
+                .staticRef("UTF_8"))));
+        body.add(zip.invoke("closeEntry"));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, WRITE_ENTRY_METHOD_NAME, thisClass);
+        method._throws(IOException.class);
+        zip = method.param(ZipOutputStream.class, "zip");
+        name = method.param(String.class, "name");
+        final JVar part = method.param(futureType, "part");
+        body = method.body();
+        body._if(part.eq(_null()))._then()._return();
+        final JVar buffer = body.decl(bufferType, "buffer");
+        final JTryBlock tryBlock = body._try();
+        tryBlock.body().assign(buffer, part.invoke("join"));
+        final JCatchBlock catchBlock = tryBlock._catch(getType(CompletionException.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body()._throw(_new(getType(IOException.class)).arg(ex.invoke("getCause")));
+        final JCatchBlock cancelBlock = tryBlock._catch(getType(CancellationException.class));
+        final JVar cancelled = cancelBlock.param("ex");
+        cancelBlock.body()._throw(_new(getType(IOException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Marshalling of part {%s} was cancelled")).arg(name)).arg(cancelled));
+        final JTryBlock writeBlock = body._try();
+        writeBlock.body().add(zip.invoke("putNextEntry").arg(_new(getType(ZipEntry.class)).arg(name)));
+        if (codeModel._getClass(getHelperClassFqn(FragmentCacheGenerator.CLASS_NAME)) != null) {
+            writeBlock.body().add(getHelperClass(FragmentCacheGenerator.CLASS_NAME)
+                    .staticInvoke(FragmentCacheGenerator.SPLICE_METHOD_NAME).arg(buffer.invoke(GET_BYTES_METHOD_NAME))
+                    .arg(buffer.invoke("size")).arg(zip));
+        } else {
+            writeBlock.body().add(buffer.invoke("writeTo").arg(zip));
+        }
+        writeBlock.body().add(zip.invoke("closeEntry"));
+        writeBlock._finally().invoke(RELEASE_BUFFER_METHOD_NAME).arg(buffer);
+    }
+}
@@ -5,7 +5,9 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -18,6 +20,13 @@ import static org.apache.commons.lang3.StringUtils.capitalize;
  */
 public final class ReflectionUtils {
 
+    private static final ClassValue<Map<String, PropertyInfo>> PROPERTIES = new ClassValue<Map<String, PropertyInfo>>() {
+        @Override
+        protected Map<String, PropertyInfo> computeValue(Class<?> type) {
+            return doInspectClass(type);
+        }
+    };
+
     public static boolean isAssignableFrom(Class<?> superClass, Class<?> subClass) {
         return superClass.isAssignableFrom(subClass);
     }
@@ -77,7 +86,18 @@ public final class ReflectionUtils {
         return method;
     }
 
+    /**
+     * Returns properties of given class and its super classes, result is cached per class and shared by all the
+     * generators running in this JVM.
+     *
+     * @param srcClass class to inspect
+     * @return unmodifiable map of properties by field name
+     */
     public static Map<String, PropertyInfo> inspectClass(Class<?> srcClass) {
+        return PROPERTIES.get(srcClass);
+    }
+
+    private static Map<String, PropertyInfo> doInspectClass(Class<?> srcClass) {
         Map<String, PropertyInfo> propertyInfoMap = new LinkedHashMap<>();
         getProperties(srcClass, propertyInfoMap);
         Class<?> superclass = srcClass.getSuperclass();
@@ -86,7 +106,7 @@ public final class ReflectionUtils {
             getProperties(superclass, propertyInfoMap);
             superclass = superclass.getSuperclass();
         }
-        return propertyInfoMap;
+        return Collections.unmodifiableMap(propertyInfoMap);
     }
 
     public static boolean isCollectionType(Field field) {
@@ -105,6 +125,25 @@ public final class ReflectionUtils {
         return collectionTypeClass;
     }
 
+    /**
+     * Returns raw element type of given collection field without reporting any error, parameterized element types
+     * (such as <code>JAXBElement&lt;?&gt;</code>) are returned as their raw type.
+     *
+     * @param field collection field
+     * @return raw element type or <code>null</code> if element type cannot be determined
+     */
+    public static Class<?> getCollectionElementType(Field field) {
+        final Type genericType = field.getGenericType();
+        if (!(genericType instanceof ParameterizedType)) {
+            return null;
+        }
+        Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+        if (elementType instanceof ParameterizedType) {
+            elementType = ((ParameterizedType) elementType).getRawType();
+        }
+        return (elementType instanceof Class) ? (Class<?>) elementType : null;
+    }
+
     private static void getProperties(Class<?> srcClass, Map<String, PropertyInfo> propertyInfoMap) {
         Field[] fields = srcClass.getDeclaredFields();
         if (fields != null && fields.length > 0) {
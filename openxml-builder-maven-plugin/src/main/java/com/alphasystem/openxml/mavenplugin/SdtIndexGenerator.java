@@ -0,0 +1,308 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.wml.*;
+
+import javax.xml.bind.JAXBElement;
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.DEEP_COPY_METHOD_NAME;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlSdtIndex</code>, index of content controls (<code>SdtBlock</code> and <code>CTSdtRow</code>) by
+ * tag and alias. Builders of content controls register their object on the first <code>getObject</code> while an index
+ * is open on the current thread, which covers content built as well as copied, so template fields are looked up without
+ * walking the document. Content which has not been built through builders, e.g. a loaded document, is indexed with
+ * <code>WmlWalker</code>.
+ *
+ * @author sali
+ */
+public class SdtIndexGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlSdtIndex";
+    public static final String REGISTER_METHOD_NAME = "register";
+    private static final String CURRENT_FIELD_NAME = "CURRENT";
+    private static final String ADD_METHOD_NAME = "add";
+    public static final String INDEX_METHOD_NAME = "index";
+    private static final String PUT_METHOD_NAME = "put";
+    private static final String FIND_BY_TAG_METHOD_NAME = "findByTag";
+    private static final String GET_SDT_CONTENT_METHOD_NAME = "getSdtContent";
+    private static final String COLLECT_TEXTS_METHOD_NAME = "collectTexts";
+
+    private JFieldVar current;
+    private JFieldVar tagIndex;
+    private JFieldVar aliasIndex;
+
+    public SdtIndexGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Index of content controls by tag and alias. Index is opened for current thread and closed with ");
+        javadoc.add("try-with-resources, content controls built or copied in between are indexed. Tags and aliases are ");
+        javadoc.add("indexed as they are when the object is retrieved from its builder.");
+        thisClass._implements(AutoCloseable.class);
+
+        final JClass indexType = getType(Map.class).narrow(getType(String.class), getType(List.class).narrow(Object.class));
+        current = thisClass.field(PRIVATE | STATIC | FINAL, getType(ThreadLocal.class).narrow(thisClass),
+                CURRENT_FIELD_NAME, _new(getType(ThreadLocal.class).narrow(thisClass)));
+        final JFieldVar previous = thisClass.field(PRIVATE | FINAL, thisClass, "previous");
+        tagIndex = thisClass.field(PRIVATE | FINAL, indexType, "tagIndex", _new(getType(HashMap.class)
+                .narrow(getType(String.class), getType(List.class).narrow(Object.class))));
+        aliasIndex = thisClass.field(PRIVATE | FINAL, indexType, "aliasIndex", _new(getType(HashMap.class)
+                .narrow(getType(String.class), getType(List.class).narrow(Object.class))));
+        final JFieldVar indexed = thisClass.field(PRIVATE | FINAL, getType(Set.class).narrow(Object.class), "indexed",
+                getType(Collections.class).staticInvoke("newSetFromMap").arg(_new(getType(IdentityHashMap.class)
+                        .narrow(Object.class, Boolean.class))));
+
+        final JMethod constructor = thisClass.constructor(PRIVATE);
+        constructor.body().assign(_this().ref(previous), current.invoke("get"));
+        constructor.body().add(current.invoke("set").arg(_this()));
+
+        addOpenMethods();
+        addAddMethod(indexed);
+        addIndexMethod();
+        addFindMethods();
+        addReplaceTextMethod();
+        addExpandRowsMethod();
+        addGetSdtContentMethod();
+        addCollectTextsMethod();
+        addPutMethod();
+
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, "close", thisClass, Override.class);
+        method.javadoc().add("Closes this index, index which was open before this one becomes current again.");
+        final JConditional conditional = method.body()._if(current.invoke("get").eq(_this()))._then()
+                ._if(previous.eq(_null()));
+        conditional._then().add(current.invoke("remove"));
+        conditional._else().add(current.invoke("set").arg(previous));
+    }
+
+    private void addOpenMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, thisClass, "open", thisClass);
+        method.javadoc().add("Opens new index for current thread.");
+        method.javadoc().addReturn().add("new index, to be closed when content is built");
+        method.body()._return(_new(thisClass));
+
+        method = addMethod(PUBLIC | STATIC, thisClass, "current", thisClass);
+        method.javadoc().addReturn().add("index open for current thread or null");
+        method.body()._return(current.invoke("get"));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.BOOLEAN, REGISTER_METHOD_NAME, thisClass);
+        final JVar sdt = method.param(Object.class, "sdt");
+        method.javadoc().add("Adds given content control into the index open for current thread, if any.");
+        method.javadoc().addParam(sdt).add("content control to add");
+        method.javadoc().addReturn().add("true if an index is open for current thread");
+        final JBlock body = method.body();
+        final JVar index = body.decl(FINAL, thisClass, "index", current.invoke("get"));
+        body._if(index.eq(_null()))._then()._return(FALSE);
+        body.invoke(index, ADD_METHOD_NAME).arg(sdt);
+        body._return(TRUE);
+    }
+
+    private void addAddMethod(JFieldVar indexed) {
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, ADD_METHOD_NAME, thisClass);
+        final JVar sdt = method.param(Object.class, "sdt");
+        method.javadoc().add("Adds given content control into this index, objects already indexed are ignored.");
+        method.javadoc().addParam(sdt).add("<code>SdtBlock</code> or <code>CTSdtRow</code>");
+        final JBlock body = method.body();
+        body._if(sdt.eq(_null()).cor(indexed.invoke("add").arg(sdt).not()))._then()._return();
+        final JClass sdtPrType = getType(SdtPr.class);
+        final JVar sdtPr = body.decl(sdtPrType, "sdtPr", _null());
+        final JConditional conditional = body._if(sdt._instanceof(getType(SdtBlock.class)));
+        conditional._then().assign(sdtPr, invoke(cast(getType(SdtBlock.class), sdt), "getSdtPr"));
+        conditional._else()._if(sdt._instanceof(getType(CTSdtRow.class)))._then()
+                .assign(sdtPr, invoke(cast(getType(CTSdtRow.class), sdt), "getSdtPr"));
+        body._if(sdtPr.eq(_null()))._then()._return();
+
+        final JForEach forEach = body.forEach(getType(Object.class), "item", sdtPr.invoke("getRPrOrAliasOrLock"));
+        final JVar item = forEach.var();
+        final JBlock forBody = forEach.body();
+        final JVar value = forBody.decl(FINAL, getType(Object.class), "value", JOp.cond(item._instanceof(
+                getType(JAXBElement.class)), invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()), item),
+                "getValue"), item));
+        final JConditional valueConditional = forBody._if(value._instanceof(getType(Tag.class)));
+        valueConditional._then().invoke(PUT_METHOD_NAME).arg(tagIndex).arg(invoke(cast(getType(Tag.class), value),
+                "getVal")).arg(sdt);
+        valueConditional._else()._if(value._instanceof(getType(SdtPr.Alias.class)))._then().invoke(PUT_METHOD_NAME)
+                .arg(aliasIndex).arg(invoke(cast(getType(SdtPr.Alias.class), value), "getVal")).arg(sdt);
+    }
+
+    private void addIndexMethod() {
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, INDEX_METHOD_NAME, thisClass);
+        final JVar root = method.param(Object.class, "root");
+        method.javadoc().add("Adds all the content controls of given tree into this index, objects already indexed are ");
+        method.javadoc().add("ignored.");
+        method.javadoc().addParam(root).add("root of the tree, e.g. <code>Document</code> or <code>Body</code>");
+        final JDefinedClass visitorClass = codeModel.anonymousClass(getHelperClass(VisitorGenerator.VISITOR_ADAPTER_CLASS_NAME));
+        for (Class<?> type : new Class<?>[]{SdtBlock.class, CTSdtRow.class}) {
+            if (!types.contains(type)) {
+                continue;
+            }
+            final JMethod visitMethod = addMethod(PUBLIC, codeModel.BOOLEAN, getMethodName(
+                    VisitorGenerator.VISIT_METHOD_PREFIX, type), visitorClass, Override.class);
+            final JVar node = visitMethod.param(type, "node");
+            visitMethod.body().invoke(ADD_METHOD_NAME).arg(node);
+            // content controls may be nested
+            visitMethod.body()._return(TRUE);
+        }
+        // new walker, this may be called from within a walk of the current thread
+        method.body().add(_new(getHelperClass(VisitorGenerator.CLASS_NAME)).invoke(VisitorGenerator.WALK_METHOD_NAME)
+                .arg(root).arg(_new(visitorClass)));
+    }
+
+    private void addFindMethods() {
+        addFindMethod(FIND_BY_TAG_METHOD_NAME, "tag", tagIndex);
+        addFindMethod("findByAlias", "alias", aliasIndex);
+    }
+
+    private void addFindMethod(String methodName, String paramName, JFieldVar index) {
+        final JClass listType = getType(List.class).narrow(Object.class);
+        final JMethod method = addMethod(PUBLIC, listType, methodName, thisClass);
+        final JVar key = method.param(String.class, paramName);
+        method.javadoc().addParam(key).add(paramName + " to look up");
+        method.javadoc().addReturn().add("content controls with given " + paramName + ", in the order they have been indexed");
+        final JBlock body = method.body();
+        final JVar result = body.decl(FINAL, listType, "result", index.invoke("get").arg(key));
+        body._if(result.eq(_null()))._then()._return(getType(Collections.class).staticInvoke("emptyList"));
+        body._return(getType(Collections.class).staticInvoke("unmodifiableList").arg(result));
+    }
+
+    private void addReplaceTextMethod() {
+        final JMethod method = addMethod(PUBLIC, codeModel.INT, "replaceText", thisClass);
+        final JVar tag = method.param(String.class, "tag");
+        final JVar text = method.param(String.class, "text");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Replaces text of all the content controls with given tag, given text replaces the first text ");
+        javadoc.add("node of the content control and other text nodes are emptied, so that run formatting is kept.");
+        javadoc.addParam(tag).add("tag of the content controls");
+        javadoc.addParam(text).add("replacement text");
+        javadoc.addReturn().add("number of content controls replaced");
+        final JBlock body = method.body();
+        final JVar count = body.decl(codeModel.INT, "count", lit(0));
+        final JClass textType = getType(Text.class);
+        final JForEach forEach = body.forEach(getType(Object.class), "sdt", invoke(FIND_BY_TAG_METHOD_NAME).arg(tag));
+        final JBlock forBody = forEach.body();
+        final JVar texts = forBody.decl(FINAL, getType(List.class).narrow(textType), "texts",
+                _new(getType(ArrayList.class).narrow(textType)));
+        forBody.invoke(COLLECT_TEXTS_METHOD_NAME).arg(invoke(GET_SDT_CONTENT_METHOD_NAME).arg(forEach.var())).arg(texts);
+        forBody._if(texts.invoke("isEmpty"))._then()._continue();
+        final JVar first = forBody.decl(FINAL, textType, "first", texts.invoke("get").arg(lit(0)));
+        forBody.add(first.invoke("setValue").arg(text));
+        forBody.add(first.invoke("setSpace").arg(lit("preserve")));
+        final JForLoop forLoop = forBody._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(1));
+        forLoop.test(i.lt(texts.invoke("size")));
+        forLoop.update(i.incr());
+        forLoop.body().add(texts.invoke("get").arg(i).invoke("setValue").arg(lit("")));
+        forBody.assignPlus(count, lit(1));
+        body._return(count);
+    }
+
+    private void addExpandRowsMethod() {
+        final JClass listType = getType(List.class).narrow(Object.class);
+        final JClass resultType = getType(List.class).narrow(listType);
+        final JMethod method = addMethod(PUBLIC, resultType, "expandRows", thisClass);
+        final JVar tag = method.param(String.class, "tag");
+        final JVar count = method.param(codeModel.INT, "count");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Expands repeating row content control with given tag, the rows of the content control are used as ");
+        javadoc.add("template and deep copied, so that content control holds given number of repetitions. Content ");
+        javadoc.add("controls within the copies are indexed into this index, whether or not it is open for current ");
+        javadoc.add("thread.");
+        javadoc.addParam(tag).add("tag of the row content control, first one is expanded");
+        javadoc.addParam(count).add("number of repetitions");
+        javadoc.addReturn().add("content of each repetition, starting with the template");
+        final JBlock body = method.body();
+        final JVar result = body.decl(FINAL, resultType, "result", _new(getType(ArrayList.class).narrow(listType)));
+        // snapshot, copies of nested content controls with the same tag are indexed while expanding
+        final JForEach forEach = body.forEach(getType(Object.class), "sdt", _new(getType(ArrayList.class)
+                .narrow(Object.class)).arg(invoke(FIND_BY_TAG_METHOD_NAME).arg(tag)));
+        final JVar sdt = forEach.var();
+        final JBlock forBody = forEach.body();
+        forBody._if(sdt._instanceof(getType(CTSdtRow.class)).not())._then()._continue();
+        final JVar content = forBody.decl(FINAL, listType, "content", invoke(GET_SDT_CONTENT_METHOD_NAME).arg(sdt));
+        forBody._if(content.eq(_null()))._then()._continue();
+        final JVar template = forBody.decl(FINAL, listType, "template", _new(getType(ArrayList.class)
+                .narrow(Object.class)).arg(content));
+        forBody.add(result.invoke("add").arg(template));
+        final JForLoop forLoop = forBody._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(1));
+        forLoop.test(i.lt(count));
+        forLoop.update(i.incr());
+        final JBlock loopBody = forLoop.body();
+        final JVar copy = loopBody.decl(FINAL, listType, "copy", _new(getType(ArrayList.class).narrow(Object.class))
+                .arg(template.invoke("size")));
+        final JForEach itemLoop = loopBody.forEach(getType(Object.class), "item", template);
+        final JVar itemCopy = itemLoop.body().decl(FINAL, getType(Object.class), "itemCopy", builderFactoryClass
+                .staticInvoke(DEEP_COPY_METHOD_NAME).arg(itemLoop.var()));
+        // builders register copies into the index of current thread only
+        itemLoop.body().invoke(INDEX_METHOD_NAME).arg(itemCopy);
+        itemLoop.body().add(copy.invoke("add").arg(itemCopy));
+        loopBody.add(content.invoke("addAll").arg(copy));
+        loopBody.add(result.invoke("add").arg(copy));
+        forBody._break();
+        body._return(result);
+    }
+
+    private void addGetSdtContentMethod() {
+        final JClass listType = getType(List.class).narrow(Object.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, listType, GET_SDT_CONTENT_METHOD_NAME, thisClass);
+        final JVar sdt = method.param(Object.class, "sdt");
+        final JBlock body = method.body();
+        JConditional conditional = body._if(sdt._instanceof(getType(SdtBlock.class)));
+        final JVar blockContent = conditional._then().decl(FINAL, getType(ContentAccessor.class), "sdtContent",
+                invoke(cast(getType(SdtBlock.class), sdt), "getSdtContent"));
+        conditional._then()._return(JOp.cond(blockContent.eq(_null()), _null(), blockContent.invoke("getContent")));
+        conditional = body._if(sdt._instanceof(getType(CTSdtRow.class)));
+        final JVar rowContent = conditional._then().decl(FINAL, getType(ContentAccessor.class), "sdtContent",
+                invoke(cast(getType(CTSdtRow.class), sdt), "getSdtContent"));
+        conditional._then()._return(JOp.cond(rowContent.eq(_null()), _null(), rowContent.invoke("getContent")));
+        body._return(_null());
+    }
+
+    private void addCollectTextsMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, COLLECT_TEXTS_METHOD_NAME, thisClass);
+        final JVar content = method.param(getType(List.class).narrow(Object.class), "content");
+        final JVar texts = method.param(getType(List.class).narrow(Text.class), "texts");
+        final JBlock body = method.body();
+        body._if(content.eq(_null()))._then()._return();
+        final JForEach forEach = body.forEach(getType(Object.class), "item", content);
+        final JVar item = forEach.var();
+        final JBlock forBody = forEach.body();
+        final JVar value = forBody.decl(FINAL, getType(Object.class), "value", JOp.cond(item._instanceof(
+                getType(JAXBElement.class)), invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()), item),
+                "getValue"), item));
+        final JConditional conditional = forBody._if(value._instanceof(getType(Text.class)));
+        conditional._then().add(texts.invoke("add").arg(cast(getType(Text.class), value)));
+        final JConditional nested = conditional._else()._if(value._instanceof(getType(ContentAccessor.class)));
+        nested._then().invoke(COLLECT_TEXTS_METHOD_NAME).arg(invoke(cast(getType(ContentAccessor.class), value),
+                "getContent")).arg(texts);
+        nested._else()._if(value._instanceof(getType(SdtBlock.class)).cor(value._instanceof(getType(CTSdtRow.class))))
+                ._then().invoke(COLLECT_TEXTS_METHOD_NAME).arg(invoke(GET_SDT_CONTENT_METHOD_NAME).arg(value)).arg(texts);
+    }
+
+    private void addPutMethod() {
+        final JClass listType = getType(List.class).narrow(Object.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, PUT_METHOD_NAME, thisClass);
+        final JVar index = method.param(getType(Map.class).narrow(getType(String.class), listType), "index");
+        final JVar key = method.param(String.class, "key");
+        final JVar sdt = method.param(Object.class, "sdt");
+        final JBlock body = method.body();
+        body._if(key.eq(_null()))._then()._return();
+        final JVar values = body.decl(listType, "values", index.invoke("get").arg(key));
+        final JBlock ifBlock = body._if(values.eq(_null()))._then();
+        ifBlock.assign(values, _new(getType(ArrayList.class).narrow(Object.class)).arg(lit(1)));
+        ifBlock.add(index.invoke("put").arg(key).arg(values));
+        body.add(values.invoke("add").arg(sdt));
+    }
+}
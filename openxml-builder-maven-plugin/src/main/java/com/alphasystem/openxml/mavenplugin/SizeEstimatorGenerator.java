@@ -0,0 +1,246 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.JAXBElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.isCollectionType;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+
+/**
+ * Generates <code>WmlSizeEstimator</code>, which estimates shallow and retained heap size of objects. Shallow sizes are
+ * computed from the fields of each type at generation time, assuming 64 bit JVM with compressed references, retained
+ * size is computed by walking the tree once.
+ *
+ * @author sali
+ */
+public class SizeEstimatorGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlSizeEstimator";
+    public static final String SHALLOW_SIZE_METHOD_NAME = "shallowSize";
+    public static final String RETAINED_SIZE_METHOD_NAME = "retainedSize";
+    public static final String STRING_SIZE_METHOD_NAME = "stringSize";
+    public static final String LIST_SIZE_METHOD_NAME = "listSize";
+    public static final int REFERENCE_SIZE = 4;
+    private static final int OBJECT_HEADER_SIZE = 12;
+    private static final int ARRAY_HEADER_SIZE = 16;
+    private static final int ALIGNMENT = 8;
+    private static final String ALIGN_METHOD_NAME = "align";
+
+    /**
+     * Returns shallow size of instances of given class, i.e., object header and fields (including inherited ones)
+     * aligned to 8 bytes.
+     *
+     * @param type type to compute size of
+     * @return shallow size in bytes
+     */
+    public static long getShallowSize(Class<?> type) {
+        long size = OBJECT_HEADER_SIZE;
+        Class<?> currentClass = type;
+        while (currentClass != null && !Object.class.equals(currentClass)) {
+            for (Field field : currentClass.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += getFieldSize(field.getType());
+                }
+            }
+            currentClass = currentClass.getSuperclass();
+        }
+        return align(size);
+    }
+
+    private static int getFieldSize(Class<?> type) {
+        if (long.class.equals(type) || double.class.equals(type)) {
+            return 8;
+        } else if (int.class.equals(type) || float.class.equals(type)) {
+            return 4;
+        } else if (short.class.equals(type) || char.class.equals(type)) {
+            return 2;
+        } else if (byte.class.equals(type) || boolean.class.equals(type)) {
+            return 1;
+        }
+        return REFERENCE_SIZE;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private JFieldVar shallowSizes;
+
+    public SizeEstimatorGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Estimates heap size of objects, assuming 64 bit JVM with compressed references and compact ");
+        javadoc.add("strings. Lists are read from their fields, so estimation does not create the lists which JAXB ");
+        javadoc.add("getters create lazily.");
+        addPrivateConstructor();
+
+        final JArray sizes = newArray(codeModel.INT);
+        for (Class<?> type : types) {
+            sizes.add(lit((int) getShallowSize(type)));
+        }
+        shallowSizes = thisClass.field(PRIVATE | STATIC | FINAL, codeModel.INT.array(), "SHALLOW_SIZES", sizes);
+        thisClass.field(PRIVATE | STATIC | FINAL, codeModel.INT, "JAXB_ELEMENT_SIZE",
+                lit((int) getShallowSize(JAXBElement.class)));
+        thisClass.field(PRIVATE | STATIC | FINAL, codeModel.INT, "BIG_INTEGER_SIZE",
+                lit((int) (getShallowSize(BigInteger.class) + align(ARRAY_HEADER_SIZE + 8))));
+        thisClass.field(PRIVATE | STATIC | FINAL, codeModel.INT, "ARRAY_LIST_SIZE", lit((int) getShallowSize(ArrayList.class)));
+
+        addShallowSizeMethod();
+        addRetainedSizeMethods();
+        addStringSizeMethod();
+        addListSizeMethod();
+        addAlignMethod();
+        addFactoryMethods();
+    }
+
+    private void addShallowSizeMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.LONG, SHALLOW_SIZE_METHOD_NAME, thisClass);
+        final JVar value = method.param(Object.class, "value");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns estimated size of given object itself, without the objects it refers to.");
+        javadoc.addParam(value).add("object to estimate");
+        javadoc.addReturn().add("size in bytes");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(lit(0L));
+        final JVar index = body.decl(FINAL, codeModel.INT, "index", getHelperClass(TYPES_CLASS_NAME)
+                .staticInvoke(INDEX_OF_METHOD_NAME).arg(value));
+        body._if(index.gte(lit(0)))._then()._return(shallowSizes.component(index));
+        body._if(value._instanceof(getType(String.class)))._then()._return(invoke(STRING_SIZE_METHOD_NAME)
+                .arg(cast(getType(String.class), value)));
+        body._if(value._instanceof(getType(List.class)))._then()._return(invoke(LIST_SIZE_METHOD_NAME)
+                .arg(cast(getType(List.class).narrow(codeModel.wildcard()), value)));
+        body._if(value._instanceof(getType(JAXBElement.class)))._then()._return(ref("JAXB_ELEMENT_SIZE"));
+        body._if(value._instanceof(getType(BigInteger.class)))._then()._return(ref("BIG_INTEGER_SIZE"));
+        body._return(lit(align(OBJECT_HEADER_SIZE + REFERENCE_SIZE)));
+    }
+
+    private void addRetainedSizeMethods() {
+        final JClass visitedType = getType(Set.class).narrow(Object.class);
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.LONG, RETAINED_SIZE_METHOD_NAME, thisClass);
+        JVar value = method.param(Object.class, "root");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns estimated size of given object and all the objects reachable from it, objects shared ");
+        javadoc.add("within the tree are counted once, enum constants and booleans are not counted.");
+        javadoc.addParam(value).add("root of the tree");
+        javadoc.addReturn().add("size in bytes");
+        method.body()._return(invoke(RETAINED_SIZE_METHOD_NAME).arg(value).arg(getType(Collections.class)
+                .staticInvoke("newSetFromMap").arg(_new(getType(IdentityHashMap.class).narrow(Object.class, Boolean.class)))));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.LONG, RETAINED_SIZE_METHOD_NAME, thisClass);
+        value = method.param(Object.class, "value");
+        final JVar visited = method.param(visitedType, "visited");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()).cor(value._instanceof(getType(Enum.class))).cor(value._instanceof(getType(Boolean.class)))
+                .cor(visited.invoke("add").arg(value).not()))._then()._return(lit(0L));
+        body._if(value._instanceof(getType(JAXBElement.class)))._then()._return(ref("JAXB_ELEMENT_SIZE")
+                .plus(invoke(RETAINED_SIZE_METHOD_NAME).arg(invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()),
+                        value), "getValue")).arg(visited)));
+        final JSwitch jSwitch = addTypeSwitch(body, value);
+        for (Class<?> type : types) {
+            addCase(jSwitch, type)._return(invoke(addRetainedSizeMethod(type, visitedType)).arg(cast(getType(type), value))
+                    .arg(visited));
+        }
+        body._return(invoke(SHALLOW_SIZE_METHOD_NAME).arg(value));
+    }
+
+    private JMethod addRetainedSizeMethod(Class<?> type, JClass visitedType) {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.LONG, getMethodName(RETAINED_SIZE_METHOD_NAME, type),
+                thisClass);
+        final JVar node = method.param(type, "node");
+        final JVar visited = method.param(visitedType, "visited");
+        final JBlock body = method.body();
+        final JVar size = body.decl(codeModel.LONG, "size", lit(getShallowSize(type)));
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            final Field field = propertyInfo.getField();
+            if (field.getType().isPrimitive() || propertyInfo.getReadMethod().getReturnType().isPrimitive()) {
+                continue;
+            }
+            if (isCollectionType(field)) {
+                final JVar list = body.decl(FINAL, getType(List.class).narrow(codeModel.wildcard()),
+                        format("%sList", propertyInfo.getFieldName()), getCreatedList(node, propertyInfo));
+                final JBlock listBlock = body._if(list.ne(_null()))._then();
+                listBlock.assignPlus(size, invoke(LIST_SIZE_METHOD_NAME).arg(list));
+                final JForEach forEach = listBlock.forEach(getType(Object.class),
+                        format("%sItem", propertyInfo.getFieldName()), list);
+                forEach.body().assignPlus(size, invoke(RETAINED_SIZE_METHOD_NAME).arg(forEach.var()).arg(visited));
+            } else {
+                body.assignPlus(size, invoke(RETAINED_SIZE_METHOD_NAME).arg(getValue(node, propertyInfo)).arg(visited));
+            }
+        }
+        body._return(size);
+        return method;
+    }
+
+    private void addStringSizeMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.LONG, STRING_SIZE_METHOD_NAME, thisClass);
+        final JVar value = method.param(String.class, "value");
+        method.javadoc().add("Returns estimated size of given string, including its byte array, which holds one byte per ");
+        method.javadoc().add("character for Latin-1 text and two bytes otherwise.");
+        method.javadoc().addParam(value).add("string to estimate");
+        method.javadoc().addReturn().add("size in bytes");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(lit(0L));
+        final JVar length = body.decl(FINAL, codeModel.INT, "length", value.invoke("length"));
+        final JVar bytesPerChar = body.decl(codeModel.LONG, "bytesPerChar", lit(1L));
+        final JForLoop forLoop = body._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(length));
+        forLoop.update(i.incr());
+        final JBlock wideBlock = forLoop.body()._if(value.invoke("charAt").arg(i).gt(lit(0xFF)))._then();
+        wideBlock.assign(bytesPerChar, lit(2L));
+        wideBlock._break();
+        body._return(lit(getShallowSize(String.class)).plus(invoke(ALIGN_METHOD_NAME)
+                .arg(lit((long) ARRAY_HEADER_SIZE).plus(bytesPerChar.mul(length)))));
+    }
+
+    private void addListSizeMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.LONG, LIST_SIZE_METHOD_NAME, thisClass);
+        final JVar value = method.param(getType(List.class).narrow(codeModel.wildcard()), "value");
+        method.javadoc().add("Returns estimated size of given list, including its backing array but not the items.");
+        method.javadoc().addParam(value).add("list to estimate");
+        method.javadoc().addReturn().add("size in bytes");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(lit(0L));
+        body._return(ref("ARRAY_LIST_SIZE").plus(invoke(ALIGN_METHOD_NAME).arg(lit((long) ARRAY_HEADER_SIZE)
+                .plus(lit((long) REFERENCE_SIZE).mul(value.invoke("size"))))));
+    }
+
+    private void addAlignMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.LONG, ALIGN_METHOD_NAME, thisClass);
+        final JVar size = method.param(codeModel.LONG, "size");
+        method.body()._return(size.plus(lit((long) ALIGNMENT - 1)).div(lit((long) ALIGNMENT)).mul(lit((long) ALIGNMENT)));
+    }
+
+    private void addFactoryMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.LONG, "estimateSize", builderFactoryClass);
+        JVar value = method.param(Object.class, "root");
+        method.javadoc().add("Returns estimated heap size of given object and all the objects reachable from it.");
+        method.javadoc().addParam(value).add("root of the tree");
+        method.javadoc().addReturn().add("size in bytes");
+        method.body()._return(thisClass.staticInvoke(RETAINED_SIZE_METHOD_NAME).arg(value));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.LONG, "estimateShallowSize", builderFactoryClass);
+        value = method.param(Object.class, "value");
+        method.javadoc().add("Returns estimated heap size of given object itself.");
+        method.javadoc().addParam(value).add("object to estimate");
+        method.javadoc().addReturn().add("size in bytes");
+        method.body()._return(thisClass.staticInvoke(SHALLOW_SIZE_METHOD_NAME).arg(value));
+    }
+}
@@ -0,0 +1,107 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import java.util.List;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlSizeTracker</code>, memory budget of current thread. Builders charge the estimated size of the
+ * objects they create and of the content they add, so that oversized documents are rejected while being built.
+ *
+ * @author sali
+ */
+public class SizeTrackerGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlSizeTracker";
+    public static final String CHARGE_METHOD_NAME = "charge";
+    public static final String CHARGE_STRING_METHOD_NAME = "chargeString";
+    private static final String CURRENT_FIELD_NAME = "CURRENT";
+
+    public SizeTrackerGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Memory budget of current thread, opened and closed with try-with-resources. Builders charge estimated ");
+        javadoc.add("size of created objects, added list items and strings, objects created without builders are not ");
+        javadoc.add("charged, <code>WmlSizeEstimator</code> estimates them on demand.");
+        thisClass._implements(AutoCloseable.class);
+
+        final JFieldVar current = thisClass.field(PRIVATE | STATIC | FINAL, getType(ThreadLocal.class).narrow(thisClass),
+                CURRENT_FIELD_NAME, _new(getType(ThreadLocal.class).narrow(thisClass)));
+        final JFieldVar previous = thisClass.field(PRIVATE | FINAL, thisClass, "previous");
+        final JFieldVar budget = thisClass.field(PRIVATE | FINAL, codeModel.LONG, "budget");
+        final JFieldVar used = thisClass.field(PRIVATE, codeModel.LONG, "used");
+
+        final JMethod constructor = thisClass.constructor(PRIVATE);
+        JVar param = constructor.param(codeModel.LONG, "budget");
+        constructor.body().assign(_this().ref(budget), param);
+        constructor.body().assign(_this().ref(previous), current.invoke("get"));
+        constructor.body().add(current.invoke("set").arg(_this()));
+
+        JMethod method = addMethod(PUBLIC | STATIC, thisClass, "open", thisClass);
+        param = method.param(codeModel.LONG, "budget");
+        method.javadoc().add("Opens new budget for current thread.");
+        method.javadoc().addParam(param).add("maximum estimated size in bytes");
+        method.javadoc().addReturn().add("new tracker, to be closed when content is built");
+        method.body()._return(_new(thisClass).arg(param));
+
+        method = addMethod(PUBLIC | STATIC, thisClass, "current", thisClass);
+        method.javadoc().addReturn().add("tracker open for current thread or null");
+        method.body()._return(current.invoke("get"));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.VOID, CHARGE_METHOD_NAME, thisClass);
+        param = method.param(codeModel.LONG, "bytes");
+        method.javadoc().add("Charges given size to the tracker open for current thread, if any.");
+        method.javadoc().addParam(param).add("size in bytes");
+        method.javadoc().addThrows(IllegalStateException.class).add("if budget is exceeded");
+        JBlock body = method.body();
+        final JVar tracker = body.decl(FINAL, thisClass, "tracker", current.invoke("get"));
+        body._if(tracker.ne(_null()))._then().invoke(tracker, "add").arg(param);
+
+        method = addMethod(PUBLIC | STATIC, codeModel.VOID, CHARGE_STRING_METHOD_NAME, thisClass);
+        param = method.param(String.class, "value");
+        method.javadoc().add("Charges size of given string to the tracker open for current thread, if any.");
+        method.javadoc().addParam(param).add("string to charge");
+        method.javadoc().addThrows(IllegalStateException.class).add("if budget is exceeded");
+        body = method.body();
+        body._if(current.invoke("get").ne(_null()))._then().invoke(CHARGE_METHOD_NAME).arg(getHelperClass(
+                SizeEstimatorGenerator.CLASS_NAME).staticInvoke(SizeEstimatorGenerator.STRING_SIZE_METHOD_NAME).arg(param));
+
+        method = addMethod(PUBLIC, codeModel.VOID, "add", thisClass);
+        param = method.param(codeModel.LONG, "bytes");
+        method.javadoc().add("Charges given size to this tracker.");
+        method.javadoc().addParam(param).add("size in bytes");
+        method.javadoc().addThrows(IllegalStateException.class).add("if budget is exceeded");
+        body = method.body();
+        body.assignPlus(used, param);
+        body._if(used.gt(budget))._then()._throw(_new(getType(IllegalStateException.class)).arg(getType(String.class)
+                .staticInvoke("format").arg(lit("Memory budget of {%s} bytes exceeded, estimated size is {%s} bytes"))
+                .arg(budget).arg(used)));
+
+        method = addMethod(PUBLIC, codeModel.LONG, "getBudget", thisClass);
+        method.body()._return(budget);
+
+        method = addMethod(PUBLIC, codeModel.LONG, "getUsed", thisClass);
+        method.javadoc().addReturn().add("estimated size charged so far");
+        method.body()._return(used);
+
+        method = addMethod(PUBLIC, codeModel.VOID, "close", thisClass, Override.class);
+        method.javadoc().add("Closes this tracker, tracker which was open before this one becomes current again.");
+        final JConditional conditional = method.body()._if(current.invoke("get").eq(_this()))._then()
+                ._if(previous.eq(_null()));
+        conditional._then().add(current.invoke("remove"));
+        conditional._else().add(current.invoke("set").arg(previous));
+    }
+}
@@ -0,0 +1,194 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.wml.Text;
+
+import javax.lang.model.SourceVersion;
+import javax.xml.bind.JAXBElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.OBJECT_FACTORY_FIELD_NAME;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.*;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+import static org.apache.commons.lang3.text.WordUtils.uncapitalize;
+
+/**
+ * Generates <code>Wml</code>, static factory functions which construct objects directly, without builder, e.g.
+ * <code>Wml.p(pPr, Wml.r(Wml.text(s)))</code>. A function is generated for each type with exactly one list property,
+ * with an overload taking the properties object (<code>pPr</code>, <code>rPr</code> etc.) when type has one. Functions
+ * are named after the type without the <code>CT</code> prefix of complex types, e.g. <code>ffData</code> for
+ * <code>CTFFData</code>, unless another type already takes the name.
+ *
+ * @author sali
+ */
+public class StaticFactoryGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "Wml";
+    private static final String ADD_ALL_METHOD_NAME = "addAll";
+    private static final String COMPLEX_TYPE_PREFIX = "CT";
+
+    private final Set<String> typeNames = new HashSet<>();
+
+    public StaticFactoryGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        thisClass.javadoc().add("Static factory functions which construct objects directly with pre-sized lists, for hot " +
+                "paths where builder allocation matters.");
+        addPrivateConstructor();
+        for (Class<?> type : types) {
+            typeNames.add(uncapitalize(getClassName(type)));
+        }
+        if (types.contains(Text.class)) {
+            addTextMethod();
+        }
+        for (Class<?> type : types) {
+            addFactoryMethods(type);
+        }
+        addAddAllMethod();
+    }
+
+    private void addTextMethod() {
+        final JClass textType = getType(Text.class);
+        final JMethod method = addMethod(PUBLIC | STATIC, getType(JAXBElement.class).narrow(textType), "text", thisClass);
+        final JVar value = method.param(String.class, "value");
+        method.javadoc().add("Creates run text, wrapped as run content, whitespace is preserved.");
+        method.javadoc().addParam(value).add("text value");
+        method.javadoc().addReturn().add("run content");
+        final JBlock body = method.body();
+        final JVar t = body.decl(FINAL, textType, "t", createObject(Text.class));
+        body.add(t.invoke("setValue").arg(value));
+        body._if(value.ne(_null()).cand(value.invoke("trim").invoke("length").ne(value.invoke("length"))))._then()
+                .add(t.invoke("setSpace").arg(lit("preserve")));
+        body._return(builderFactoryClass.staticRef(OBJECT_FACTORY_FIELD_NAME).invoke("createRT").arg(t));
+    }
+
+    private void addFactoryMethods(Class<?> type) {
+        PropertyInfo listProperty = null;
+        PropertyInfo propertiesProperty = null;
+        final String name = uncapitalize(getClassName(type));
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            if (isCollectionType(propertyInfo.getField())) {
+                if (listProperty != null) {
+                    return;
+                }
+                listProperty = propertyInfo;
+            } else if (propertyInfo.getFieldName().equals(format("%sPr", name))) {
+                propertiesProperty = propertyInfo;
+            }
+        }
+        final Class<?> itemType = (listProperty == null) ? null : getCollectionElementType(listProperty.getField());
+        if (itemType == null) {
+            return;
+        }
+        final JClass jItemType = getItemType(listProperty.getField(), itemType);
+        if (jItemType == null) {
+            return;
+        }
+        final String functionName = getFunctionName(getClassName(type));
+        final String methodName = SourceVersion.isKeyword(functionName) ? format("%s_", functionName) : functionName;
+        final JClass jType = getType(type);
+
+        JMethod method = addMethod(PUBLIC | STATIC, jType, methodName, thisClass);
+        JVar items = method.varParam(jItemType, "items");
+        method.javadoc().add(format("Creates <code>%s</code> with given items.", type.getName()));
+        method.javadoc().addParam(items).add("items to add");
+        method.javadoc().addReturn().add("new object");
+        JBlock body = method.body();
+        JVar result = body.decl(FINAL, jType, "result", createObject(type));
+        body.invoke(ADD_ALL_METHOD_NAME).arg(getValue(result, listProperty)).arg(items);
+        body._return(result);
+
+        if (propertiesProperty != null) {
+            method = addMethod(PUBLIC | STATIC, jType, methodName, thisClass);
+            final Class<?> propertiesType = propertiesProperty.getField().getType();
+            final JVar properties = method.param(propertiesType, propertiesProperty.getFieldName());
+            items = method.varParam(jItemType, "items");
+            method.javadoc().add(format("Creates <code>%s</code> with given properties and items.", type.getName()));
+            method.javadoc().addParam(properties).add("properties, may be null");
+            method.javadoc().addParam(items).add("items to add");
+            method.javadoc().addReturn().add("new object");
+            body = method.body();
+            result = body.decl(FINAL, jType, "result", createObject(type));
+            body.add(result.invoke(propertiesProperty.getWriteMethod().getName()).arg(properties));
+            body.invoke(ADD_ALL_METHOD_NAME).arg(getValue(result, listProperty)).arg(items);
+            body._return(result);
+        }
+    }
+
+    /**
+     * Returns type of varargs items, wrappers are taken as <code>JAXBElement&lt;?&gt;</code>. Returns null for items of
+     * other parameterized types, whose arrays could not be passed on safely.
+     */
+    private JClass getItemType(Field field, Class<?> itemType) {
+        final Type elementType = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+        if (!(elementType instanceof ParameterizedType)) {
+            return getType(itemType);
+        }
+        for (Type typeArgument : ((ParameterizedType) elementType).getActualTypeArguments()) {
+            if (!(typeArgument instanceof WildcardType)) {
+                return null;
+            }
+        }
+        final JClass jItemType = getType(itemType);
+        final List<JClass> wildcards = new ArrayList<>();
+        for (int i = 0; i < itemType.getTypeParameters().length; i++) {
+            wildcards.add(codeModel.wildcard());
+        }
+        return jItemType.narrow(wildcards);
+    }
+
+    /**
+     * Strips <code>CT</code> prefix of complex types and lower cases leading abbreviation, e.g. <code>ffData</code>
+     * for <code>CTFFData</code>, the mechanical name is kept if another type is named so.
+     */
+    private String getFunctionName(String className) {
+        final String name = uncapitalize(className);
+        if (!className.startsWith(COMPLEX_TYPE_PREFIX) || className.length() == COMPLEX_TYPE_PREFIX.length()) {
+            return name;
+        }
+        final String strippedName = className.substring(COMPLEX_TYPE_PREFIX.length());
+        int end = 0;
+        while (end < strippedName.length() && Character.isUpperCase(strippedName.charAt(end))) {
+            end++;
+        }
+        // last upper case letter of an abbreviation starts next word, e.g. "FF" of "FFData"
+        if (end > 1 && end < strippedName.length()) {
+            end--;
+        }
+        final String functionName = strippedName.substring(0, end).toLowerCase() + strippedName.substring(end);
+        return typeNames.contains(functionName) ? name : functionName;
+    }
+
+    private void addAddAllMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, ADD_ALL_METHOD_NAME, thisClass,
+                SafeVarargs.class);
+        final JTypeVar c = method.generify("C");
+        final JVar list = method.param(getType(List.class).narrow(c), "list");
+        final JVar items = method.varParam(c, "items");
+        final JBlock body = method.body();
+        body._if(items.eq(_null()))._then()._return();
+        body._if(list._instanceof(getType(ArrayList.class)))._then().add(invoke(cast(getType(ArrayList.class)
+                .narrow(codeModel.wildcard()), list), "ensureCapacity").arg(list.invoke("size")
+                .plus(items.ref("length"))));
+        final JForEach forEach = body.forEach(c, "item", items);
+        forEach.body().add(list.invoke("add").arg(forEach.var()));
+    }
+}
@@ -0,0 +1,441 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+import org.docx4j.wml.Text;
+
+import javax.xml.bind.JAXBElement;
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.GET_OBJECT_METHOD_NAME;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.isCollectionType;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlTemplate</code>, which compiles a built object tree containing named parameters (in
+ * <code>Text</code> values) once and then instantiates new trees with parameters substituted.
+ * <p>
+ * During compilation every node which is on a path from the root to a parameterized <code>Text</code> is recorded
+ * along with the position of each of its parameterized children, only those nodes are copied while instantiating and
+ * the copied children are put back by position, every other subtree is shared between the template and all the
+ * instances.
+ *
+ * @author sali
+ */
+public class TemplateGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlTemplate";
+    private static final String ROOT_FIELD_NAME = "root";
+    private static final String PREFIX_FIELD_NAME = "prefix";
+    private static final String SUFFIX_FIELD_NAME = "suffix";
+    private static final String SPINE_FIELD_NAME = "spine";
+    private static final String POSITIONS_FIELD_NAME = "positions";
+    private static final String SLOTS_FIELD_NAME = "slots";
+    private static final String PARAMETER_NAMES_FIELD_NAME = "parameterNames";
+    private static final String COMPILE_METHOD_NAME = "compile";
+    private static final String COMPILE_NODE_METHOD_NAME = "compileNode";
+    private static final String PARSE_METHOD_NAME = "parse";
+    private static final String COPY_METHOD_NAME = "copy";
+    private static final String COPY_TEXT_METHOD_NAME = "copyText";
+    private static final String COLLECT_CHILDREN_METHOD_NAME = "collectChildren";
+    private static final String ADD_CHILD_METHOD_NAME = "addChild";
+    private static final String SHALLOW_COPY_METHOD_NAME = "shallowCopy";
+    private static final String REPLACE_CHILD_METHOD_NAME = "replaceChild";
+    private static final String SET_METHOD_NAME = "set";
+
+    private JTypeVar t;
+    private JFieldRef spine;
+    private JFieldRef positions;
+    private JFieldRef slots;
+
+    public TemplateGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Template of a built object tree with named parameters in <code>Text</code> values, e.g., ");
+        javadoc.add("<code>Dear ${name},</code>. Only the nodes on the path from root to a parameter are copied ");
+        javadoc.add("by <code>instantiate</code>, all the other subtrees are shared between the template and its ");
+        javadoc.add("instances and must be treated as immutable.");
+        t = thisClass.generify("T");
+
+        final JClass stringType = getType(String.class);
+        thisClass.field(PUBLIC | STATIC | FINAL, stringType, "DEFAULT_PREFIX", lit("${"));
+        thisClass.field(PUBLIC | STATIC | FINAL, stringType, "DEFAULT_SUFFIX", lit("}"));
+        thisClass.field(PRIVATE | FINAL, t, ROOT_FIELD_NAME);
+        thisClass.field(PRIVATE | FINAL, stringType, PREFIX_FIELD_NAME);
+        thisClass.field(PRIVATE | FINAL, stringType, SUFFIX_FIELD_NAME);
+        final JClass objectType = getType(Object.class);
+        thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(objectType, objectType.array()), SPINE_FIELD_NAME,
+                _new(getType(IdentityHashMap.class).narrow(objectType, objectType.array())));
+        thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(objectType, codeModel.INT.array()), POSITIONS_FIELD_NAME,
+                _new(getType(IdentityHashMap.class).narrow(objectType, codeModel.INT.array())));
+        thisClass.field(PRIVATE | FINAL, getType(Map.class).narrow(objectType, stringType.array()), SLOTS_FIELD_NAME,
+                _new(getType(IdentityHashMap.class).narrow(objectType, stringType.array())));
+        thisClass.field(PRIVATE | FINAL, getType(Set.class).narrow(stringType), PARAMETER_NAMES_FIELD_NAME,
+                _new(getType(LinkedHashSet.class).narrow(stringType)));
+        spine = refthis(SPINE_FIELD_NAME);
+        positions = refthis(POSITIONS_FIELD_NAME);
+        slots = refthis(SLOTS_FIELD_NAME);
+
+        addConstructor();
+        addCompileMethods();
+        addGetParameterNamesMethod();
+        addInstantiateMethod();
+        addCompileNodeMethod();
+        addParseMethod();
+        addCopyMethod();
+        addCopyTextMethod();
+        addCollectChildrenMethods();
+        addShallowCopyMethods();
+        addReplaceChildMethods();
+    }
+
+    private void addConstructor() {
+        final JMethod constructor = thisClass.constructor(PRIVATE);
+        final JVar root = constructor.param(t, ROOT_FIELD_NAME);
+        final JVar prefix = constructor.param(String.class, PREFIX_FIELD_NAME);
+        final JVar suffix = constructor.param(String.class, SUFFIX_FIELD_NAME);
+        final JBlock body = constructor.body();
+        body.assign(refthis(ROOT_FIELD_NAME), root);
+        body.assign(refthis(PREFIX_FIELD_NAME), prefix);
+        body.assign(refthis(SUFFIX_FIELD_NAME), suffix);
+        body.invoke(COMPILE_NODE_METHOD_NAME).arg(root);
+    }
+
+    private void addCompileMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, COMPILE_METHOD_NAME, thisClass);
+        JTypeVar typeVar = method.generify("T");
+        method.type(thisClass.narrow(typeVar));
+        JVar root = method.param(typeVar, ROOT_FIELD_NAME);
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Compiles given object tree using <code>${</code> and <code>}</code> as parameter delimiters.");
+        javadoc.addParam(root).add("root of the built object tree");
+        javadoc.addReturn().add("compiled template");
+        method.body()._return(invoke(COMPILE_METHOD_NAME).arg(root).arg(ref("DEFAULT_PREFIX")).arg(ref("DEFAULT_SUFFIX")));
+
+        method = addMethod(PUBLIC | STATIC, codeModel.VOID, COMPILE_METHOD_NAME, thisClass);
+        typeVar = method.generify("T");
+        method.type(thisClass.narrow(typeVar));
+        root = method.param(typeVar, ROOT_FIELD_NAME);
+        final JVar prefix = method.param(String.class, PREFIX_FIELD_NAME);
+        final JVar suffix = method.param(String.class, SUFFIX_FIELD_NAME);
+        javadoc = method.javadoc();
+        javadoc.add("Compiles given object tree, the tree must not be modified afterwards.");
+        javadoc.addParam(root).add("root of the built object tree");
+        javadoc.addParam(prefix).add("start delimiter of a parameter");
+        javadoc.addParam(suffix).add("end delimiter of a parameter");
+        javadoc.addReturn().add("compiled template");
+        method.body()._return(_new(thisClass.narrow(typeVar)).arg(root).arg(prefix).arg(suffix));
+    }
+
+    private void addGetParameterNamesMethod() {
+        final JMethod method = addMethod(PUBLIC, getType(Set.class).narrow(String.class), "getParameterNames", thisClass);
+        method.javadoc().addReturn().add("names of all parameters found in this template");
+        method.body()._return(getType(Collections.class).staticInvoke("unmodifiableSet").arg(ref(PARAMETER_NAMES_FIELD_NAME)));
+    }
+
+    private void addInstantiateMethod() {
+        final JMethod method = addMethod(PUBLIC, t, "instantiate", thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JVar values = method.param(getType(Map.class).narrow(String.class, String.class), "values");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Creates new object tree with parameters substituted, missing parameters are replaced with empty string.");
+        javadoc.addParam(values).add("parameter values by name");
+        javadoc.addReturn().add("new object tree");
+        final JBlock body = method.body();
+        final JFieldRef root = ref(ROOT_FIELD_NAME);
+        body._if(spine.invoke("containsKey").arg(root).not().cand(slots.invoke("containsKey").arg(root).not()))
+                ._then()._return(root);
+        body._return(cast(t, invoke(COPY_METHOD_NAME).arg(root).arg(values)));
+    }
+
+    private void addCompileNodeMethod() {
+        final JMethod method = addMethod(PRIVATE, codeModel.BOOLEAN, COMPILE_NODE_METHOD_NAME, thisClass);
+        final JVar node = method.param(Object.class, "node");
+        final JBlock body = method.body();
+
+        final JClass textType = getType(Text.class);
+        final JBlock textBlock = body._if(node._instanceof(textType))._then();
+        final JClass stringArrayType = getType(String.class).array();
+        final JVar parts = textBlock.decl(FINAL, stringArrayType, "parts",
+                invoke(PARSE_METHOD_NAME).arg(invoke(cast(textType, node), "getValue")));
+        textBlock._if(parts.eq(_null()))._then()._return(FALSE);
+        textBlock.add(slots.invoke("put").arg(node).arg(parts));
+        final JForLoop forLoop = textBlock._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(1));
+        forLoop.test(i.lt(parts.ref("length")));
+        forLoop.update(JExpr.assignPlus(i, lit(2)));
+        forLoop.body().add(ref(PARAMETER_NAMES_FIELD_NAME).invoke("add").arg(parts.component(i)));
+        textBlock._return(TRUE);
+
+        final JClass listType = getType(List.class).narrow(Object.class);
+        final JVar children = body.decl(FINAL, listType, "children", _new(getType(ArrayList.class).narrow(Object.class)));
+        body.invoke(COLLECT_CHILDREN_METHOD_NAME).arg(node).arg(children);
+        final JClass objectType = getType(Object.class);
+        final JVar spineChildren = body.decl(FINAL, objectType.array(), "spineChildren",
+                newArray(objectType, children.invoke("size")));
+        final JVar childPositions = body.decl(FINAL, codeModel.INT.array(), "childPositions",
+                newArray(codeModel.INT, children.invoke("size")));
+        final JVar count = body.decl(codeModel.INT, "count", lit(0));
+        final JForLoop childLoop = body._for();
+        final JVar position = childLoop.init(codeModel.INT, "position", lit(0));
+        childLoop.test(position.lt(children.invoke("size")));
+        childLoop.update(position.incr());
+        final JVar child = childLoop.body().decl(FINAL, objectType, "child", children.invoke("get").arg(position));
+        final JBlock ifBlock = childLoop.body()._if(invoke(COMPILE_NODE_METHOD_NAME).arg(child))._then();
+        ifBlock.assign(spineChildren.component(count), child);
+        ifBlock.assign(childPositions.component(count), position);
+        ifBlock.assign(count, count.plus(lit(1)));
+        body._if(count.eq(lit(0)))._then()._return(FALSE);
+        final JClass arraysType = getType(Arrays.class);
+        body.add(spine.invoke("put").arg(node).arg(arraysType.staticInvoke("copyOf").arg(spineChildren).arg(count)));
+        body.add(positions.invoke("put").arg(node).arg(arraysType.staticInvoke("copyOf").arg(childPositions).arg(count)));
+        body._return(TRUE);
+    }
+
+    private void addParseMethod() {
+        final JClass stringType = getType(String.class);
+        final JMethod method = addMethod(PRIVATE, stringType.array(), PARSE_METHOD_NAME, thisClass);
+        final JVar value = method.param(stringType, "value");
+        method.javadoc().add("Splits given value into literal (even index) and parameter name (odd index) parts.");
+        final JBlock body = method.body();
+        final JFieldRef prefix = ref(PREFIX_FIELD_NAME);
+        final JFieldRef suffix = ref(SUFFIX_FIELD_NAME);
+        body._if(value.eq(_null()).cor(value.invoke("indexOf").arg(prefix).lt(lit(0))))._then()._return(_null());
+
+        final JVar parts = body.decl(FINAL, getType(List.class).narrow(stringType), "parts",
+                _new(getType(ArrayList.class).narrow(stringType)));
+        final JVar start = body.decl(codeModel.INT, "start", lit(0));
+        final JVar index = body.decl(codeModel.INT, "index", value.invoke("indexOf").arg(prefix));
+        final JBlock loopBody = body._while(index.gte(lit(0))).body();
+        final JVar end = loopBody.decl(FINAL, codeModel.INT, "end", value.invoke("indexOf").arg(suffix)
+                .arg(index.plus(prefix.invoke("length"))));
+        loopBody._if(end.lt(lit(0)))._then()._break();
+        loopBody.add(parts.invoke("add").arg(value.invoke("substring").arg(start).arg(index)));
+        loopBody.add(parts.invoke("add").arg(value.invoke("substring").arg(index.plus(prefix.invoke("length"))).arg(end)));
+        loopBody.assign(start, end.plus(suffix.invoke("length")));
+        loopBody.assign(index, value.invoke("indexOf").arg(prefix).arg(start));
+
+        body._if(parts.invoke("isEmpty"))._then()._return(_null());
+        body.add(parts.invoke("add").arg(value.invoke("substring").arg(start)));
+        body._return(parts.invoke("toArray").arg(newArray(stringType, parts.invoke("size"))));
+    }
+
+    private void addCopyMethod() {
+        final JClass objectType = getType(Object.class);
+        final JMethod method = addMethod(PRIVATE, objectType, COPY_METHOD_NAME, thisClass);
+        final JVar node = method.param(objectType, "node");
+        final JVar values = method.param(getType(Map.class).narrow(String.class, String.class), "values");
+        final JBlock body = method.body();
+        final JVar parts = body.decl(FINAL, getType(String.class).array(), "parts", slots.invoke("get").arg(node));
+        body._if(parts.ne(_null()))._then()._return(invoke(COPY_TEXT_METHOD_NAME)
+                .arg(cast(getType(Text.class), node)).arg(parts).arg(values));
+        final JVar copy = body.decl(FINAL, objectType, "copy", invoke(SHALLOW_COPY_METHOD_NAME).arg(node));
+        final JVar children = body.decl(FINAL, objectType.array(), "children", spine.invoke("get").arg(node));
+        final JVar childPositions = body.decl(FINAL, codeModel.INT.array(), "childPositions",
+                positions.invoke("get").arg(node));
+        final JForLoop forLoop = body._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(children.ref("length")));
+        forLoop.update(i.incr());
+        forLoop.body().invoke(REPLACE_CHILD_METHOD_NAME).arg(copy).arg(childPositions.component(i))
+                .arg(invoke(COPY_METHOD_NAME).arg(children.component(i)).arg(values));
+        body._return(copy);
+    }
+
+    private void addCopyTextMethod() {
+        final JClass textType = getType(Text.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, textType, COPY_TEXT_METHOD_NAME, thisClass);
+        final JVar source = method.param(textType, "source");
+        final JVar parts = method.param(getType(String.class).array(), "parts");
+        final JVar values = method.param(getType(Map.class).narrow(String.class, String.class), "values");
+        final JBlock body = method.body();
+        final JVar builder = body.decl(FINAL, getType(StringBuilder.class), "builder", _new(getType(StringBuilder.class)));
+        final JForLoop forLoop = body._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", lit(0));
+        forLoop.test(i.lt(parts.ref("length")));
+        forLoop.update(i.incr());
+        final JConditional conditional = forLoop.body()._if(i.mod(lit(2)).eq(lit(0)));
+        conditional._then().add(builder.invoke("append").arg(parts.component(i)));
+        final JBlock elseBlock = conditional._else();
+        final JVar value = elseBlock.decl(FINAL, getType(String.class), "value", values.invoke("get").arg(parts.component(i)));
+        elseBlock._if(value.ne(_null()))._then().add(builder.invoke("append").arg(value));
+        // substituted values may start or end with white space, so preserve it
+        body._return(_new(getBuilderClass(Text.class)).invoke("withValue").arg(builder.invoke("toString"))
+                .invoke("withSpace").arg(lit("preserve")).invoke(GET_OBJECT_METHOD_NAME));
+    }
+
+    private void addCollectChildrenMethods() {
+        final JClass listType = getType(List.class).narrow(Object.class);
+        JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, ADD_CHILD_METHOD_NAME, thisClass);
+        JVar children = method.param(listType, "children");
+        JVar child = method.param(Object.class, "child");
+        method.body()._if(child.ne(_null()))._then().add(children.invoke("add").arg(child));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, COLLECT_CHILDREN_METHOD_NAME, thisClass);
+        final JVar node = method.param(Object.class, "node");
+        children = method.param(listType, "children");
+        final JBlock body = method.body();
+        final JClass elementType = getType(JAXBElement.class).narrow(codeModel.wildcard());
+        final JBlock elementBlock = body._if(node._instanceof(getType(JAXBElement.class)))._then();
+        elementBlock.invoke(ADD_CHILD_METHOD_NAME).arg(children).arg(invoke(cast(elementType, node), "getValue"));
+        elementBlock._return();
+        final JSwitch jSwitch = addTypeSwitch(body, node);
+        for (Class<?> type : types) {
+            final JMethod typeMethod = addCollectChildrenMethod(type, listType);
+            if (typeMethod != null) {
+                final JBlock caseBody = addCase(jSwitch, type);
+                caseBody.invoke(typeMethod).arg(cast(getType(type), node)).arg(children);
+                caseBody._break();
+            }
+        }
+    }
+
+    private JMethod addCollectChildrenMethod(Class<?> type, JClass listType) {
+        final List<PropertyInfo> properties = new ArrayList<>();
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            if (isNodeProperty(propertyInfo)) {
+                properties.add(propertyInfo);
+            }
+        }
+        if (properties.isEmpty()) {
+            return null;
+        }
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID,
+                getMethodName(COLLECT_CHILDREN_METHOD_NAME, type), thisClass);
+        final JVar node = method.param(type, "node");
+        final JVar children = method.param(listType, "children");
+        final JBlock body = method.body();
+        for (PropertyInfo propertyInfo : properties) {
+            final JExpression value = getValue(node, propertyInfo);
+            if (isCollectionType(propertyInfo.getField())) {
+                body.add(children.invoke("addAll").arg(value));
+            } else {
+                body.invoke(ADD_CHILD_METHOD_NAME).arg(children).arg(value);
+            }
+        }
+        return method;
+    }
+
+    private void addShallowCopyMethods() {
+        final JClass objectType = getType(Object.class);
+        final JMethod method = addMethod(PRIVATE | STATIC, objectType, SHALLOW_COPY_METHOD_NAME, thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JVar node = method.param(objectType, "node");
+        final JBlock body = method.body();
+        final JClass elementType = getType(JAXBElement.class).narrow(codeModel.wildcard());
+        final JClass objectElementType = getType(JAXBElement.class).narrow(Object.class);
+        final JBlock ifBlock = body._if(node._instanceof(getType(JAXBElement.class)))._then();
+        final JVar element = ifBlock.decl(FINAL, elementType, "element", cast(elementType, node));
+        ifBlock._return(_new(objectElementType).arg(element.invoke("getName"))
+                .arg(cast(getType(Class.class).narrow(Object.class), element.invoke("getDeclaredType")))
+                .arg(element.invoke("getScope")).arg(element.invoke("getValue")));
+        final JSwitch jSwitch = addTypeSwitch(body, node);
+        for (Class<?> type : types) {
+            addCase(jSwitch, type)._return(invoke(addShallowCopyMethod(type)).arg(cast(getType(type), node)));
+        }
+        body._throw(_new(getType(IllegalArgumentException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Unsupported type {%s}")).arg(node.invoke("getClass").invoke("getName"))));
+    }
+
+    private JMethod addShallowCopyMethod(Class<?> type) {
+        final JClass jType = getType(type);
+        final JMethod method = addMethod(PRIVATE | STATIC, jType, getMethodName(SHALLOW_COPY_METHOD_NAME, type), thisClass);
+        final JVar source = method.param(jType, "source");
+        final JBlock body = method.body();
+        final JVar target = body.decl(FINAL, jType, "target", createObject(type));
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            if (isCollectionType(propertyInfo.getField())) {
+                body.add(target.invoke(propertyInfo.getReadMethod().getName()).invoke("addAll")
+                        .arg(getValue(source, propertyInfo)));
+            } else if (Boolean.class.equals(propertyInfo.getField().getType())) {
+                // getter of Boolean property may return default value
+                body.add(target.invoke(propertyInfo.getWriteMethod().getName()).arg(builderFactoryClass
+                        .staticInvoke(FluentApiGenerator.CLONE_BOOLEAN_METHOD_NAME).arg(source)
+                        .arg(lit(propertyInfo.getFieldName()))));
+            } else {
+                body.add(target.invoke(propertyInfo.getWriteMethod().getName()).arg(getValue(source, propertyInfo)));
+            }
+        }
+        body._return(target);
+        return method;
+    }
+
+    private void addReplaceChildMethods() {
+        JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, SET_METHOD_NAME, thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JTypeVar e = method.generify("E");
+        final JVar list = method.param(getType(List.class).narrow(e), "list");
+        JVar position = method.param(codeModel.INT, "position");
+        JVar newChild = method.param(Object.class, "newChild");
+        method.body().add(list.invoke("set").arg(position).arg(cast(e, newChild)));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, REPLACE_CHILD_METHOD_NAME, thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        method.javadoc().add("Replaces child of given parent at given position, positions are the indices of children as "
+                + "returned by <code>collectChildren</code>.");
+        final JVar parent = method.param(Object.class, "parent");
+        position = method.param(codeModel.INT, "position");
+        newChild = method.param(Object.class, "newChild");
+        final JBlock body = method.body();
+        final JBlock elementBlock = body._if(parent._instanceof(getType(JAXBElement.class)))._then();
+        elementBlock.add(invoke(cast(getType(JAXBElement.class).narrow(Object.class), parent), "setValue").arg(newChild));
+        elementBlock._return();
+        final JSwitch jSwitch = addTypeSwitch(body, parent);
+        for (Class<?> type : types) {
+            final JMethod typeMethod = addReplaceChildMethod(type);
+            if (typeMethod != null) {
+                final JBlock caseBody = addCase(jSwitch, type);
+                caseBody.invoke(typeMethod).arg(cast(getType(type), parent)).arg(position).arg(newChild);
+                caseBody._break();
+            }
+        }
+    }
+
+    private JMethod addReplaceChildMethod(Class<?> type) {
+        final List<PropertyInfo> properties = new ArrayList<>();
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            if (isNodeProperty(propertyInfo)) {
+                properties.add(propertyInfo);
+            }
+        }
+        if (properties.isEmpty()) {
+            return null;
+        }
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID,
+                getMethodName(REPLACE_CHILD_METHOD_NAME, type), thisClass);
+        final JVar parent = method.param(type, "parent");
+        final JVar position = method.param(codeModel.INT, "position");
+        final JVar newChild = method.param(Object.class, "newChild");
+        final JBlock body = method.body();
+        // walk properties in the same order as collectChildren does, each property is visited once
+        for (PropertyInfo propertyInfo : properties) {
+            final JExpression value = getValue(parent, propertyInfo);
+            if (isCollectionType(propertyInfo.getField())) {
+                final JVar list = body.decl(FINAL, getType(List.class).narrow(codeModel.wildcard()),
+                        propertyInfo.getFieldName() + "List", value);
+                final JBlock ifBlock = body._if(position.lt(list.invoke("size")))._then();
+                ifBlock.invoke(SET_METHOD_NAME).arg(list).arg(position).arg(newChild);
+                ifBlock._return();
+                body.assign(position, position.minus(list.invoke("size")));
+            } else {
+                final JBlock ifBlock = body._if(value.ne(_null()))._then();
+                final JBlock thenBlock = ifBlock._if(position.eq(lit(0)))._then();
+                thenBlock.add(parent.invoke(propertyInfo.getWriteMethod().getName())
+                        .arg(cast(getType(propertyInfo.getField().getType()), newChild)));
+                thenBlock._return();
+                ifBlock.assign(position, position.minus(lit(1)));
+            }
+        }
+        return method;
+    }
+}
@@ -0,0 +1,155 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.bind.annotation.XmlType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+
+/**
+ * Generates <code>WmlTypes</code>, which maps each type with generated builder to a dense index, so that generated
+ * helpers can dispatch on runtime type with a <code>switch</code> rather than <code>instanceof</code> chains. It also
+ * reads fields of JAXB types directly, for helpers which must not create lists through lazy getters or which walk
+ * types without builder.
+ *
+ * @author sali
+ */
+public class TypeIndexGenerator extends HelperClassGenerator {
+
+    private static final String INDEX_FIELD_NAME = "INDEX";
+    private static final String CREATE_INDEX_METHOD_NAME = "createIndex";
+    private static final String FIELDS_FIELD_NAME = "FIELDS";
+    private static final String CREATE_FIELDS_METHOD_NAME = "createFields";
+
+    public TypeIndexGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return TYPES_CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        thisClass.javadoc().add("Index of types for which builders have been generated.");
+        final JClass mapType = getType(Map.class).narrow(getType(Class.class).narrow(codeModel.wildcard()),
+                getType(Integer.class));
+        thisClass.field(PRIVATE | STATIC | FINAL, mapType, INDEX_FIELD_NAME, invoke(CREATE_INDEX_METHOD_NAME));
+
+        JFieldVar field = thisClass.field(PUBLIC | STATIC | FINAL, codeModel.INT, "SIZE", lit(types.size()));
+        field.javadoc().add("Number of indexed types.");
+
+        addPrivateConstructor();
+        addCreateIndexMethod(mapType);
+        addIndexOfMethod();
+        addFieldMethods();
+    }
+
+    private void addCreateIndexMethod(JClass mapType) {
+        final JMethod method = addMethod(PRIVATE | STATIC, mapType, CREATE_INDEX_METHOD_NAME, thisClass);
+        final JBlock body = method.body();
+        final JClass implType = getType(IdentityHashMap.class).narrow(getType(Class.class).narrow(codeModel.wildcard()),
+                getType(Integer.class));
+        final JVar index = body.decl(FINAL, mapType, "index", _new(implType).arg(lit(types.size())));
+        for (int i = 0; i < types.size(); i++) {
+            body.add(index.invoke("put").arg(getType(types.get(i)).dotclass()).arg(lit(i)));
+        }
+        body._return(index);
+    }
+
+    private void addIndexOfMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.INT, INDEX_OF_METHOD_NAME, thisClass);
+        final JVar value = method.param(Object.class, "value");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns index of the exact runtime type of given value.");
+        javadoc.addParam(value).add("value to look up");
+        javadoc.addReturn().add("index of type or <code>-1</code> if given value is null or of unknown type");
+        final JBlock body = method.body();
+        body._if(value.eq(_null()))._then()._return(lit(-1));
+        final JVar index = body.decl(FINAL, getType(Integer.class), "index",
+                ref(INDEX_FIELD_NAME).invoke("get").arg(value.invoke("getClass")));
+        body._return(JOp.cond(index.eq(_null()), lit(-1), index));
+    }
+
+    private void addFieldMethods() {
+        final JClass fieldsType = getType(ClassValue.class).narrow(getType(Field.class).array());
+        final JDefinedClass classValueClass = codeModel.anonymousClass(fieldsType);
+        final JMethod computeValue = addMethod(PROTECTED, getType(Field.class).array(), "computeValue", classValueClass,
+                Override.class);
+        final JVar computeType = computeValue.param(getType(Class.class).narrow(codeModel.wildcard()), "type");
+        computeValue.body()._return(invoke(CREATE_FIELDS_METHOD_NAME).arg(computeType));
+        thisClass.field(PRIVATE | STATIC | FINAL, fieldsType, FIELDS_FIELD_NAME, _new(classValueClass));
+
+        JMethod method = addMethod(PRIVATE | STATIC, getType(Field.class).array(), CREATE_FIELDS_METHOD_NAME, thisClass);
+        JVar type = method.param(getType(Class.class).narrow(codeModel.wildcard()), "type");
+        JBlock body = method.body();
+        final JVar fields = body.decl(FINAL, getType(List.class).narrow(Field.class), "fields",
+                _new(getType(ArrayList.class).narrow(Field.class)));
+        final JVar currentClass = body.decl(getType(Class.class).narrow(codeModel.wildcard()), "currentClass", type);
+        body.directStatement("// fields of JAXB types only, anything else is a leaf value, transient fields refer to " +
+                "parents");
+        final JBlock loopBody = body._while(currentClass.ne(_null()).cand(currentClass.invoke("isEnum").not())
+                .cand(currentClass.invoke("isAnnotationPresent").arg(getType(XmlType.class).dotclass()))).body();
+        final JForEach forEach = loopBody.forEach(getType(Field.class), "field", currentClass.invoke("getDeclaredFields"));
+        final JVar field = forEach.var();
+        final JBlock ifBody = forEach.body()._if(getType(Modifier.class).staticInvoke("isStatic")
+                .arg(field.invoke("getModifiers")).not().cand(field.invoke("getType").invoke("isPrimitive").not())
+                .cand(field.invoke("isAnnotationPresent").arg(getType(XmlTransient.class).dotclass()).not()))._then();
+        ifBody.add(field.invoke("setAccessible").arg(TRUE));
+        ifBody.add(fields.invoke("add").arg(field));
+        loopBody.assign(currentClass, currentClass.invoke("getSuperclass"));
+        body._return(fields.invoke("toArray").arg(newArray(getType(Field.class), fields.invoke("size"))));
+
+        method = addMethod(PUBLIC | STATIC, getType(Field.class).array(), GET_FIELDS_METHOD_NAME, thisClass);
+        type = method.param(getType(Class.class).narrow(codeModel.wildcard()), "type");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Returns non-primitive, non-transient instance fields of given JAXB type, including inherited ones.");
+        javadoc.addParam(type).add("type to look up");
+        javadoc.addReturn().add("shared array of accessible fields, which must not be modified, empty for types other " +
+                "than JAXB types");
+        method.body()._return(ref(FIELDS_FIELD_NAME).invoke("get").arg(type));
+
+        method = addMethod(PUBLIC | STATIC, getType(Object.class), GET_FIELD_VALUE_METHOD_NAME, thisClass);
+        JVar node = method.param(Object.class, "node");
+        final JVar fieldParam = method.param(Field.class, "field");
+        javadoc = method.javadoc();
+        javadoc.add("Returns value of given field of given node.");
+        javadoc.addParam(node).add("node to read from");
+        javadoc.addParam(fieldParam).add("field as returned by <code>getFields</code>");
+        javadoc.addReturn().add("value of the field");
+        final JTryBlock tryBlock = method.body()._try();
+        tryBlock.body()._return(fieldParam.invoke("get").arg(node));
+        final JCatchBlock catchBlock = tryBlock._catch(getType(IllegalAccessException.class));
+        final JVar ex = catchBlock.param("ex");
+        catchBlock.body()._throw(_new(getType(IllegalStateException.class)).arg(getType(String.class)
+                .staticInvoke("format").arg(lit("Unable to read field {%s}")).arg(fieldParam)).arg(ex));
+
+        method = addMethod(PUBLIC | STATIC, getType(Object.class), GET_FIELD_VALUE_METHOD_NAME, thisClass);
+        node = method.param(Object.class, "node");
+        final JVar fieldName = method.param(String.class, "fieldName");
+        javadoc = method.javadoc();
+        javadoc.add("Returns value of named field of given node without calling its getter, getters of JAXB types ");
+        javadoc.add("create missing lists.");
+        javadoc.addParam(node).add("node to read from");
+        javadoc.addParam(fieldName).add("name of the field");
+        javadoc.addReturn().add("value of the field, null for lists which have never been created");
+        javadoc.addThrows(IllegalArgumentException.class).add("if given node has no such field");
+        body = method.body();
+        final JForEach fieldLoop = body.forEach(getType(Field.class), "field",
+                invoke(GET_FIELDS_METHOD_NAME).arg(node.invoke("getClass")));
+        fieldLoop.body()._if(fieldLoop.var().invoke("getName").invoke("equals").arg(fieldName))._then()
+                ._return(invoke(GET_FIELD_VALUE_METHOD_NAME).arg(node).arg(fieldLoop.var()));
+        body._throw(_new(getType(IllegalArgumentException.class)).arg(getType(String.class).staticInvoke("format")
+                .arg(lit("Unknown field {%s} of {%s}")).arg(fieldName).arg(node.invoke("getClass").invoke("getName"))));
+    }
+}
@@ -0,0 +1,267 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.*;
+import javax.xml.namespace.QName;
+import java.lang.reflect.Field;
+import java.util.*;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.getClassName;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.isCollectionType;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+
+/**
+ * Generates <code>WmlValidator</code>, light weight replacement of schema validation. Constraints are derived from JAXB
+ * annotations: required attributes and elements must be present, required lists must not be empty and items of
+ * content lists must be of one of the types (or element names) declared by <code>XmlElements</code> or
+ * <code>XmlElementRefs</code>. Upper bounds of lists are not part of the annotations, the few bounded lists of the
+ * WML schema are listed in <code>MAX_OCCURS</code>.
+ *
+ * @author sali
+ */
+public class ValidatorGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlValidator";
+    public static final String VALIDATE_METHOD_NAME = "validate";
+    public static final String VALIDATE_SHALLOW_METHOD_NAME = "validateShallow";
+    private static final String FAIL_METHOD_NAME = "fail";
+    private static final String IS_ALLOWED_ELEMENT_METHOD_NAME = "isAllowedElement";
+    private static final String VALIDATE_CHILD_METHOD_NAME = "validateChild";
+    private static final String VALIDATED_FIELD_NAME = "VALIDATED";
+
+    /**
+     * Maximum number of items of lists which are bounded by the WML schema, keyed by declaring class and field name.
+     */
+    private static final Map<String, Integer> MAX_OCCURS = new HashMap<>();
+
+    static {
+        MAX_OCCURS.put("org.docx4j.wml.Numbering$AbstractNum.lvl", 9);
+        MAX_OCCURS.put("org.docx4j.wml.Numbering$Num.lvlOverride", 9);
+        MAX_OCCURS.put("org.docx4j.wml.CTColumns.col", 45);
+    }
+
+    public ValidatorGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    protected void generateBody() {
+        thisClass.javadoc().add("Validates objects against constraints derived from their JAXB annotations, validation " +
+                "fails fast with an <code>IllegalStateException</code> describing the first violation.");
+        addPrivateConstructor();
+        // JAXB types do not override equals and hashCode, hence objects are looked up by identity
+        thisClass.field(PRIVATE | STATIC | FINAL, getType(Map.class).narrow(getType(Object.class), getType(Boolean.class)),
+                VALIDATED_FIELD_NAME, getType(Collections.class).staticInvoke("synchronizedMap")
+                        .arg(_new(getType(WeakHashMap.class).narrow(getType(Object.class), getType(Boolean.class)))));
+        addPublicMethods();
+        addValidateChildMethod();
+        addFailMethod();
+        addIsAllowedElementMethod();
+    }
+
+    private void addPublicMethods() {
+        JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, VALIDATE_METHOD_NAME, thisClass);
+        JVar value = method.param(Object.class, "root");
+        JDocComment javadoc = method.javadoc();
+        javadoc.add("Validates given object and all of its descendants in one pass.");
+        javadoc.addParam(value).add("object to validate");
+        javadoc.addThrows(IllegalStateException.class).add("if any constraint is violated");
+        method.body().invoke(VALIDATE_METHOD_NAME).arg(value).arg(TRUE);
+
+        method = addMethod(PUBLIC | STATIC, codeModel.VOID, VALIDATE_SHALLOW_METHOD_NAME, thisClass);
+        value = method.param(Object.class, "node");
+        javadoc = method.javadoc();
+        javadoc.add("Validates constraints of given object and of its descendants which have not been validated by ");
+        javadoc.add("this method yet, e.g. children added to a builder without builder of their own.");
+        javadoc.addParam(value).add("object to validate");
+        javadoc.addThrows(IllegalStateException.class).add("if any constraint is violated");
+        method.body().invoke(VALIDATE_METHOD_NAME).arg(value).arg(FALSE);
+        method.body()._if(value.ne(_null()))._then().add(ref(VALIDATED_FIELD_NAME).invoke("put").arg(value).arg(TRUE));
+
+        method = addMethod(PRIVATE | STATIC, codeModel.VOID, VALIDATE_METHOD_NAME, thisClass);
+        value = method.param(Object.class, "value");
+        final JVar deep = method.param(codeModel.BOOLEAN, "deep");
+        final JBlock body = method.body();
+        final JConditional conditional = body._if(value._instanceof(getType(JAXBElement.class)));
+        conditional._then().invoke(VALIDATE_METHOD_NAME).arg(invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()),
+                value), "getValue")).arg(deep);
+        conditional._then()._return();
+        final JSwitch jSwitch = addTypeSwitch(body, value);
+        for (Class<?> type : types) {
+            final JBlock caseBody = addCase(jSwitch, type);
+            caseBody.invoke(addValidateMethod(type)).arg(cast(getType(type), value)).arg(deep);
+            caseBody._break();
+        }
+    }
+
+    private JMethod addValidateMethod(Class<?> type) {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, getMethodName(VALIDATE_METHOD_NAME, type),
+                thisClass);
+        final JVar node = method.param(type, "node");
+        final JVar deep = method.param(codeModel.BOOLEAN, "deep");
+        final JBlock body = method.body();
+        final String typeName = type.getName();
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            final Field field = propertyInfo.getField();
+            final String propertyName = propertyInfo.getFieldName();
+            final boolean collectionType = isCollectionType(field);
+            final boolean primitive = propertyInfo.getReadMethod().getReturnType().isPrimitive();
+            final JExpression value = getValue(node, propertyInfo);
+            if (isRequired(field) && !primitive) {
+                JExpression test = value.eq(_null());
+                if (collectionType) {
+                    test = value.invoke("isEmpty");
+                }
+                body._if(test)._then().invoke(FAIL_METHOD_NAME).arg(lit(typeName)).arg(lit(propertyName))
+                        .arg(lit("required value is missing")).arg(_null());
+            }
+            if (collectionType) {
+                final Integer maxOccurs = MAX_OCCURS.get(format("%s.%s", field.getDeclaringClass().getName(),
+                        field.getName()));
+                if (maxOccurs != null) {
+                    body._if(value.invoke("size").gt(lit(maxOccurs)))._then().invoke(FAIL_METHOD_NAME)
+                            .arg(lit(typeName)).arg(lit(propertyName))
+                            .arg(lit(format("more than %s items", maxOccurs))).arg(_null());
+                }
+                addAllowedItemsCheck(body, node, typeName, propertyInfo);
+            }
+            if (isNodeProperty(propertyInfo)) {
+                if (collectionType) {
+                    final JForEach forEach = body.forEach(getType(Object.class), format("%sChild", propertyName),
+                            value);
+                    forEach.body().invoke(VALIDATE_CHILD_METHOD_NAME).arg(forEach.var()).arg(deep);
+                } else {
+                    body.invoke(VALIDATE_CHILD_METHOD_NAME).arg(value).arg(deep);
+                }
+            }
+        }
+        return method;
+    }
+
+    private static boolean isRequired(Field field) {
+        final XmlAttribute xmlAttribute = field.getAnnotation(XmlAttribute.class);
+        final XmlElement xmlElement = field.getAnnotation(XmlElement.class);
+        return (xmlAttribute != null && xmlAttribute.required()) || (xmlElement != null && xmlElement.required());
+    }
+
+    /**
+     * Adds check of list items against types and element names declared by <code>XmlElements</code> and
+     * <code>XmlElementRefs</code>, no check is added for lists accepting any element.
+     */
+    private void addAllowedItemsCheck(JBlock body, JVar node, String typeName, PropertyInfo propertyInfo) {
+        final Field field = propertyInfo.getField();
+        if (field.isAnnotationPresent(XmlAnyElement.class)) {
+            return;
+        }
+        final Set<Class<?>> allowedTypes = new LinkedHashSet<>();
+        final Map<String, String> allowedNames = new TreeMap<>();
+        final XmlElements xmlElements = field.getAnnotation(XmlElements.class);
+        if (xmlElements != null) {
+            for (XmlElement xmlElement : xmlElements.value()) {
+                allowedTypes.add(xmlElement.type());
+            }
+        }
+        final XmlElementRefs xmlElementRefs = field.getAnnotation(XmlElementRefs.class);
+        List<XmlElementRef> refs = new ArrayList<>();
+        if (xmlElementRefs != null) {
+            refs.addAll(Arrays.asList(xmlElementRefs.value()));
+        }
+        final XmlElementRef xmlElementRef = field.getAnnotation(XmlElementRef.class);
+        if (xmlElementRef != null) {
+            refs.add(xmlElementRef);
+        }
+        for (XmlElementRef ref : refs) {
+            if (JAXBElement.class.equals(ref.type())) {
+                allowedNames.put(format("{%s}%s", ref.namespace(), ref.name()), ref.namespace());
+            } else {
+                allowedTypes.add(ref.type());
+            }
+        }
+        if (allowedTypes.isEmpty() && allowedNames.isEmpty()) {
+            return;
+        }
+        if (field.isAnnotationPresent(XmlMixed.class)) {
+            allowedTypes.add(String.class);
+        }
+        allowedTypes.remove(XmlElement.DEFAULT.class);
+
+        final String propertyName = propertyInfo.getFieldName();
+        JExpression allowedNamesRef = _null();
+        if (!allowedNames.isEmpty()) {
+            // inherited fields are shared by sub types, hence the constant is named after the declaring class
+            final String fieldName = format("%s_%s_NAMES", getClassName(field.getDeclaringClass()).toUpperCase(),
+                    propertyName.toUpperCase());
+            JFieldVar namesField = thisClass.fields().get(fieldName);
+            if (namesField == null) {
+                final JClass qNameType = getType(QName.class);
+                JInvocation namesList = getType(Arrays.class).staticInvoke("asList");
+                for (Map.Entry<String, String> entry : allowedNames.entrySet()) {
+                    final String localPart = entry.getKey().substring(entry.getKey().indexOf('}') + 1);
+                    namesList = namesList.arg(_new(qNameType).arg(lit(entry.getValue())).arg(lit(localPart)));
+                }
+                namesField = thisClass.field(PRIVATE | STATIC | FINAL, getType(Set.class).narrow(qNameType),
+                        fieldName, _new(getType(HashSet.class).narrow(qNameType)).arg(namesList));
+            }
+            allowedNamesRef = namesField;
+        }
+
+        final JForEach forEach = body.forEach(getType(Object.class), format("%sItem", propertyName),
+                getValue(node, propertyInfo));
+        final JVar item = forEach.var();
+        JExpression allowed = invoke(IS_ALLOWED_ELEMENT_METHOD_NAME).arg(item).arg(allowedNamesRef);
+        for (Class<?> allowedType : allowedTypes) {
+            allowed = allowed.cor(item._instanceof(getType(allowedType)));
+        }
+        forEach.body()._if(allowed.not())._then().invoke(FAIL_METHOD_NAME).arg(lit(typeName)).arg(lit(propertyName))
+                .arg(lit("item is not allowed")).arg(item);
+    }
+
+    private void addIsAllowedElementMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.BOOLEAN, IS_ALLOWED_ELEMENT_METHOD_NAME, thisClass);
+        final JVar item = method.param(Object.class, "item");
+        final JVar names = method.param(getType(Set.class).narrow(QName.class), "names");
+        final JBlock body = method.body();
+        body._if(names.eq(_null()).cor(item._instanceof(getType(JAXBElement.class)).not()))._then()._return(FALSE);
+        body._return(names.invoke("contains").arg(invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()), item),
+                "getName")));
+    }
+
+    private void addValidateChildMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, VALIDATE_CHILD_METHOD_NAME, thisClass);
+        final JVar child = method.param(Object.class, "child");
+        final JVar deep = method.param(codeModel.BOOLEAN, "deep");
+        final JBlock body = method.body();
+        body._if(deep)._then().invoke(VALIDATE_METHOD_NAME).arg(child).arg(TRUE);
+        body._if(deep.cor(child.eq(_null())))._then()._return();
+        // wrappers are created on the fly, whether a child has been validated is told by its value
+        final JVar node = body.decl(FINAL, getType(Object.class), "node", JOp.cond(child._instanceof(getType(JAXBElement.class)),
+                invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()), child), "getValue"), child));
+        body._if(node.eq(_null()).cor(ref(VALIDATED_FIELD_NAME).invoke("containsKey").arg(node)))._then()._return();
+        body.invoke(VALIDATE_METHOD_NAME).arg(node).arg(FALSE);
+        body.add(ref(VALIDATED_FIELD_NAME).invoke("put").arg(node).arg(TRUE));
+    }
+
+    private void addFailMethod() {
+        final JMethod method = addMethod(PRIVATE | STATIC, codeModel.VOID, FAIL_METHOD_NAME, thisClass);
+        final JVar typeName = method.param(String.class, "typeName");
+        final JVar propertyName = method.param(String.class, "propertyName");
+        final JVar message = method.param(String.class, "message");
+        final JVar value = method.param(Object.class, "value");
+        final JClass stringType = getType(String.class);
+        final JVar valueName = method.body().decl(FINAL, stringType, "valueName", JOp.cond(value.eq(_null()), _null(),
+                value.invoke("getClass").invoke("getName")));
+        method.body()._throw(_new(getType(IllegalStateException.class)).arg(stringType.staticInvoke("format")
+                .arg(lit("Invalid property {%s} of {%s}: %s {%s}")).arg(propertyName).arg(typeName).arg(message)
+                .arg(valueName)));
+    }
+}
@@ -0,0 +1,262 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.*;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static com.alphasystem.openxml.mavenplugin.CodeModelUtil.addMethod;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.getCollectionElementType;
+import static com.alphasystem.openxml.mavenplugin.ReflectionUtils.isCollectionType;
+import static com.sun.codemodel.ClassType.INTERFACE;
+import static com.sun.codemodel.JExpr.*;
+import static com.sun.codemodel.JMod.*;
+import static java.lang.String.format;
+
+/**
+ * Generates <code>WmlVisitor</code> interface with one method per type with generated builder,
+ * <code>WmlVisitorAdapter</code> and <code>WmlWalker</code>, an iterative walker which uses direct getter calls to
+ * reach child nodes and an explicit, reusable stack instead of recursion. Lists are read from their fields, so that
+ * walking does not create missing lists, and JAXB types without builder are walked through their fields.
+ *
+ * @author sali
+ */
+public class VisitorGenerator extends HelperClassGenerator {
+
+    public static final String CLASS_NAME = "WmlWalker";
+    public static final String VISITOR_CLASS_NAME = "WmlVisitor";
+    public static final String VISITOR_ADAPTER_CLASS_NAME = "WmlVisitorAdapter";
+    public static final String WALK_METHOD_NAME = "walk";
+    public static final String VISIT_METHOD_PREFIX = "visit";
+    private static final String PUSH_METHOD_NAME = "push";
+    private static final String PUSH_LIST_METHOD_NAME = "pushList";
+    private static final String PUSH_CHILDREN_METHOD_PREFIX = "pushChildren";
+    private static final String PUSH_FIELDS_METHOD_NAME = "pushFields";
+    private static final String STACK_FIELD_NAME = "stack";
+    private static final String SIZE_FIELD_NAME = "size";
+    private static final String WALKING_FIELD_NAME = "walking";
+    private static final String WALKERS_FIELD_NAME = "WALKERS";
+
+    private JDefinedClass visitorClass;
+
+    public VisitorGenerator(JCodeModel codeModel, JDefinedClass builderFactoryClass, List<Class<?>> types) {
+        super(codeModel, builderFactoryClass, types);
+    }
+
+    @Override
+    protected String getHelperClassName() {
+        return CLASS_NAME;
+    }
+
+    @Override
+    public JDefinedClass generate() {
+        try {
+            generateVisitorClass();
+            generateVisitorAdapterClass();
+        } catch (JClassAlreadyExistsException e) {
+            // ignore
+        }
+        return super.generate();
+    }
+
+    private void generateVisitorClass() throws JClassAlreadyExistsException {
+        visitorClass = codeModel._class(PUBLIC, getHelperClassFqn(VISITOR_CLASS_NAME), INTERFACE);
+        visitorClass.javadoc().add(format("Visitor of object trees walked by <code>%s</code>, each method returns true ", CLASS_NAME));
+        visitorClass.javadoc().add("if the children of the visited node should be walked as well.");
+        for (Class<?> type : types) {
+            final JMethod method = visitorClass.method(NONE, codeModel.BOOLEAN, getMethodName(VISIT_METHOD_PREFIX, type));
+            method.param(type, "node");
+        }
+    }
+
+    private void generateVisitorAdapterClass() throws JClassAlreadyExistsException {
+        final JDefinedClass adapterClass = codeModel._class(PUBLIC, getHelperClassFqn(VISITOR_ADAPTER_CLASS_NAME),
+                ClassType.CLASS);
+        adapterClass._implements(visitorClass);
+        adapterClass.javadoc().add(format("<code>%s</code> which visits every node and does nothing.", VISITOR_CLASS_NAME));
+        for (Class<?> type : types) {
+            final JMethod method = addMethod(PUBLIC, codeModel.BOOLEAN, getMethodName(VISIT_METHOD_PREFIX, type),
+                    adapterClass, Override.class);
+            method.param(type, "node");
+            method.body()._return(TRUE);
+        }
+    }
+
+    @Override
+    protected void generateBody() {
+        final JDocComment javadoc = thisClass.javadoc();
+        javadoc.add("Iterative, pre-order walker of object trees. Once its stack is grown to the depth and width of the ");
+        javadoc.add("walked tree no further allocation is done, instances are neither thread safe nor re-entrant. ");
+        javadoc.add("Nodes of JAXB types without builder (e.g. DrawingML and VML objects) are not visited, but their ");
+        javadoc.add("children are.");
+        thisClass.field(PRIVATE, getType(Object.class).array(), STACK_FIELD_NAME,
+                newArray(getType(Object.class), lit(64)));
+        thisClass.field(PRIVATE, codeModel.INT, SIZE_FIELD_NAME);
+        thisClass.field(PRIVATE, codeModel.BOOLEAN, WALKING_FIELD_NAME);
+        addWalkersField();
+        addWalkMethod();
+        addWalkParallelMethod();
+        addPushMethods();
+    }
+
+    private void addWalkersField() {
+        final JDefinedClass threadLocalClass = codeModel.anonymousClass(getType(ThreadLocal.class).narrow(thisClass));
+        final JMethod method = addMethod(PROTECTED, thisClass, "initialValue", threadLocalClass, Override.class);
+        method.body()._return(_new(thisClass));
+        thisClass.field(PRIVATE | STATIC | FINAL, getType(ThreadLocal.class).narrow(thisClass), WALKERS_FIELD_NAME,
+                _new(threadLocalClass));
+    }
+
+    private void addWalkMethod() {
+        final JMethod method = addMethod(PUBLIC, codeModel.VOID, WALK_METHOD_NAME, thisClass);
+        method.annotate(SuppressWarnings.class).param("value", "unchecked");
+        final JVar root = method.param(Object.class, "root");
+        final JVar visitor = method.param(visitorClass, "visitor");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Walks the tree starting from given root, <code>JAXBElement</code> wrappers are unwrapped.");
+        javadoc.addParam(root).add("root of the tree");
+        javadoc.addParam(visitor).add("visitor to call for each node");
+
+        final JFieldRef stack = refthis(STACK_FIELD_NAME);
+        final JFieldRef size = refthis(SIZE_FIELD_NAME);
+        final JBlock body = method.body();
+        body.assign(refthis(WALKING_FIELD_NAME), TRUE);
+        final JTryBlock tryBlock = body._try();
+        final JBlock tryBody = tryBlock.body();
+        tryBody.assign(size, lit(0));
+        tryBody.invoke(PUSH_METHOD_NAME).arg(root);
+        final JBlock loopBody = tryBody._while(size.gt(lit(0))).body();
+        loopBody.assign(size, size.minus(lit(1)));
+        final JVar node = loopBody.decl(FINAL, getType(Object.class), "node", stack.component(size));
+        loopBody.assign(stack.component(size), _null());
+        final JBlock elementBlock = loopBody._if(node._instanceof(getType(JAXBElement.class)))._then();
+        elementBlock.invoke(PUSH_METHOD_NAME).arg(invoke(cast(getType(JAXBElement.class).narrow(codeModel.wildcard()),
+                node), "getValue"));
+        elementBlock._continue();
+
+        final JSwitch jSwitch = addTypeSwitch(loopBody, node);
+        for (Class<?> type : types) {
+            final JMethod pushChildrenMethod = addPushChildrenMethod(type);
+            final JBlock caseBody = addCase(jSwitch, type);
+            final JClass jType = getType(type);
+            final JInvocation visit = visitor.invoke(getMethodName(VISIT_METHOD_PREFIX, type)).arg(cast(jType, node));
+            if (pushChildrenMethod == null) {
+                caseBody.add(visit);
+            } else {
+                caseBody._if(visit)._then().invoke(pushChildrenMethod).arg(cast(jType, node));
+            }
+            caseBody._break();
+        }
+        jSwitch._default().body().invoke(PUSH_FIELDS_METHOD_NAME).arg(node);
+
+        final JBlock finallyBlock = tryBlock._finally();
+        // release references to walked nodes in case of exception
+        finallyBlock.add(getType(Arrays.class).staticInvoke("fill").arg(stack).arg(lit(0)).arg(size).arg(_null()));
+        finallyBlock.assign(size, lit(0));
+        finallyBlock.assign(refthis(WALKING_FIELD_NAME), FALSE);
+    }
+
+    private void addWalkParallelMethod() {
+        final JMethod method = addMethod(PUBLIC | STATIC, codeModel.VOID, "walkParallel", thisClass);
+        final JVar blocks = method.param(FINAL, getType(List.class).narrow(codeModel.wildcard()), "blocks");
+        final JVar visitorFactory = method.param(FINAL, getType(Supplier.class).narrow(visitorClass.wildcard()),
+                "visitorFactory");
+        final JDocComment javadoc = method.javadoc();
+        javadoc.add("Walks each of the given top level blocks (e.g. content of <code>Body</code>) in parallel, ");
+        javadoc.add("visitor factory is called once per block, so visitors need not be thread safe.");
+        javadoc.addParam(blocks).add("blocks to walk");
+        javadoc.addParam(visitorFactory).add("factory of visitors");
+
+        final JDefinedClass consumerClass = codeModel.anonymousClass(getType(Consumer.class).narrow(Object.class));
+        final JMethod accept = addMethod(PUBLIC, codeModel.VOID, "accept", consumerClass, Override.class);
+        final JVar block = accept.param(Object.class, "block");
+        final JBlock acceptBody = accept.body();
+        final JVar walker = acceptBody.decl(thisClass, "walker", thisClass.staticRef(WALKERS_FIELD_NAME).invoke("get"));
+        // walker of this thread is busy if walkParallel is called from within a visitor
+        acceptBody._if(walker.ref(WALKING_FIELD_NAME))._then().assign(walker, _new(thisClass));
+        acceptBody.add(walker.invoke(WALK_METHOD_NAME).arg(block).arg(visitorFactory.invoke("get")));
+
+        final JBlock body = method.body();
+        body.add(blocks.invoke("parallelStream").invoke("forEach").arg(_new(consumerClass)));
+    }
+
+    private void addPushMethods() {
+        final JFieldRef stack = refthis(STACK_FIELD_NAME);
+        final JFieldRef size = refthis(SIZE_FIELD_NAME);
+        JMethod method = addMethod(PRIVATE, codeModel.VOID, PUSH_METHOD_NAME, thisClass);
+        final JVar node = method.param(Object.class, "node");
+        JBlock body = method.body();
+        body._if(node.eq(_null()))._then()._return();
+        body._if(size.eq(stack.ref("length")))._then().assign(stack, getType(Arrays.class).staticInvoke("copyOf")
+                .arg(stack).arg(size.mul(lit(2))));
+        body.assign(stack.component(size), node);
+        body.assign(size, size.plus(lit(1)));
+
+        method = addMethod(PRIVATE, codeModel.VOID, PUSH_LIST_METHOD_NAME, thisClass);
+        final JVar list = method.param(getType(List.class).narrow(codeModel.wildcard()), "list");
+        body = method.body();
+        body._if(list.eq(_null()))._then()._return();
+        // children are pushed in reverse order, so that they are popped in document order
+        final JForLoop forLoop = body._for();
+        final JVar i = forLoop.init(codeModel.INT, "i", list.invoke("size").minus(lit(1)));
+        forLoop.test(i.gte(lit(0)));
+        forLoop.update(i.decr());
+        forLoop.body().invoke(PUSH_METHOD_NAME).arg(list.invoke("get").arg(i));
+
+        method = addMethod(PRIVATE, codeModel.VOID, PUSH_FIELDS_METHOD_NAME, thisClass);
+        final JVar fieldsNode = method.param(Object.class, "node");
+        body = method.body();
+        final JClass typesClass = getHelperClass(TYPES_CLASS_NAME);
+        final JVar fields = body.decl(FINAL, getType(Field.class).array(), "fields",
+                typesClass.staticInvoke(GET_FIELDS_METHOD_NAME).arg(fieldsNode.invoke("getClass")));
+        final JForLoop fieldLoop = body._for();
+        final JVar j = fieldLoop.init(codeModel.INT, "i", fields.ref("length").minus(lit(1)));
+        fieldLoop.test(j.gte(lit(0)));
+        fieldLoop.update(j.decr());
+        final JBlock fieldBody = fieldLoop.body();
+        final JVar value = fieldBody.decl(FINAL, getType(Object.class), "value",
+                typesClass.staticInvoke(GET_FIELD_VALUE_METHOD_NAME).arg(fieldsNode).arg(fields.component(j)));
+        final JConditional conditional = fieldBody._if(value._instanceof(getType(List.class)));
+        conditional._then().invoke(PUSH_LIST_METHOD_NAME).arg(cast(getType(List.class).narrow(codeModel.wildcard()),
+                value));
+        conditional._else().invoke(PUSH_METHOD_NAME).arg(value);
+    }
+
+    private JMethod addPushChildrenMethod(Class<?> type) {
+        final List<PropertyInfo> properties = new ArrayList<>();
+        for (PropertyInfo propertyInfo : getProperties(type)) {
+            if (isNodeProperty(propertyInfo) || isJaxbProperty(propertyInfo)) {
+                properties.add(propertyInfo);
+            }
+        }
+        if (properties.isEmpty()) {
+            return null;
+        }
+        Collections.reverse(properties);
+        final JMethod method = addMethod(PRIVATE, codeModel.VOID, getMethodName(PUSH_CHILDREN_METHOD_PREFIX, type),
+                thisClass);
+        final JVar node = method.param(type, "node");
+        final JBlock body = method.body();
+        for (PropertyInfo propertyInfo : properties) {
+            if (isCollectionType(propertyInfo.getField())) {
+                body.invoke(PUSH_LIST_METHOD_NAME).arg(getCreatedList(node, propertyInfo));
+            } else {
+                body.invoke(PUSH_METHOD_NAME).arg(getValue(node, propertyInfo));
+            }
+        }
+        return method;
+    }
+
+    private static boolean isJaxbProperty(PropertyInfo propertyInfo) {
+        final Field field = propertyInfo.getField();
+        final Class<?> type = isCollectionType(field) ? getCollectionElementType(field) : field.getType();
+        return type != null && !type.isEnum() && type.isAnnotationPresent(XmlType.class);
+    }
+}
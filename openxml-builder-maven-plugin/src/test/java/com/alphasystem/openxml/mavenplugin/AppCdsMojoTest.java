@@ -0,0 +1,117 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.docx4j.wml.Jc;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.ToolProvider;
+import javax.xml.bind.annotation.XmlType;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link AppCdsMojo} measures startup against the default CDS archive and inspects builders with the
+ * classes of the project.
+ *
+ * @author sali
+ */
+public class AppCdsMojoTest {
+
+    private static final String WARM_UP_SOURCE = "public class WarmUp {\n" +
+            "    public static void main(String[] args) {\n" +
+            "        System.out.println(\"arguments \" + java.lang.management.ManagementFactory.getRuntimeMXBean()\n" +
+            "                .getInputArguments());\n" +
+            "    }\n" +
+            "}\n";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File createApplicationJar() throws Exception {
+        final File sourceFile = new File(temporaryFolder.newFolder("src"), "WarmUp.java");
+        FileUtils.writeStringToFile(sourceFile, WARM_UP_SOURCE, StandardCharsets.UTF_8);
+        final File classesDir = temporaryFolder.newFolder("classes");
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-proc:none", "-d",
+                classesDir.getAbsolutePath(), sourceFile.getAbsolutePath()));
+        final File jarFile = new File(temporaryFolder.getRoot(), "application.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile))) {
+            out.putNextEntry(new JarEntry("WarmUp.class"));
+            FileUtils.copyFile(new File(classesDir, "WarmUp.class"), out);
+            out.closeEntry();
+        }
+        return jarFile;
+    }
+
+    @Test
+    public void measuresAgainstDefaultArchive() throws Exception {
+        final List<String> debugLines = new ArrayList<>();
+        final List<String> infoLines = new ArrayList<>();
+        final AppCdsMojo mojo = new AppCdsMojo();
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public boolean isDebugEnabled() {
+                return true;
+            }
+
+            @Override
+            public void debug(CharSequence content) {
+                debugLines.add(content.toString());
+            }
+
+            @Override
+            public void info(CharSequence content) {
+                infoLines.add(content.toString());
+            }
+        });
+        mojo.setApplicationJar(createApplicationJar());
+        mojo.setRuntimeClasspathElements(Collections.<String>emptyList());
+        mojo.setOutputDirectory(new File(temporaryFolder.getRoot(), "appcds"));
+        mojo.setJavaExecutable(new File(System.getProperty("java.home"), "bin/java"));
+        mojo.setWarmUpClassName("WarmUp");
+        mojo.setBenchmark(true);
+        mojo.setBenchmarkIterations(1);
+        mojo.execute();
+
+        assertTrue(new File(mojo.getOutputDirectory(), AppCdsMojo.ARCHIVE_FILE_NAME).isFile());
+        assertTrue(debugLines.toString(), debugLines.contains("arguments []"));
+        assertFalse(debugLines.toString(), debugLines.contains("arguments [-Xshare:off]"));
+        boolean withArchive = false;
+        for (String line : debugLines) {
+            withArchive |= line.startsWith("arguments [-Xshare:auto, -XX:SharedArchiveFile=");
+        }
+        assertTrue(debugLines.toString(), withArchive);
+        assertTrue(infoLines.toString(), infoLines.get(infoLines.size() - 1).contains("with default archive"));
+    }
+
+    @Test
+    public void loadsProjectClassesFirst() throws Exception {
+        final File classesDir = temporaryFolder.newFolder("project");
+        final String path = Jc.class.getName().replace('.', '/') + ".class";
+        try (InputStream in = Jc.class.getClassLoader().getResourceAsStream(path)) {
+            FileUtils.writeByteArrayToFile(new File(classesDir, path), IOUtils.toByteArray(in));
+        }
+        try (AppCdsMojo.ProjectClassLoader classLoader = new AppCdsMojo.ProjectClassLoader(
+                new URL[]{classesDir.toURI().toURL()}, getClass().getClassLoader())) {
+            final Class<?> projectClass = classLoader.loadClass(Jc.class.getName());
+            assertSame(classLoader, projectClass.getClassLoader());
+            assertSame(projectClass, classLoader.loadClass(Jc.class.getName()));
+            assertSame(XmlType.class, classLoader.loadClass(XmlType.class.getName()));
+            assertTrue(projectClass.isAnnotationPresent(XmlType.class));
+            assertSame(getClass(), classLoader.loadClass(getClass().getName()));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.XmlUtils;
+import org.docx4j.wml.*;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.BUILDER_PACKAGE_NAME;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlBinaryCodec</code> decodes into same trees as encoded, absent values included, without
+ * reflection.
+ *
+ * @author sali
+ */
+public class BinaryCodecGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T source) {
+        final GeneratedCode generatedCode = GeneratedCode.getDefault();
+        final byte[] bytes = (byte[]) generatedCode.invokeStatic(BinaryCodecGenerator.CLASS_NAME,
+                BinaryCodecGenerator.ENCODE_METHOD_NAME, source);
+        return (T) generatedCode.invokeStatic(BinaryCodecGenerator.CLASS_NAME, BinaryCodecGenerator.DECODE_METHOD_NAME,
+                (Object) bytes);
+    }
+
+    private static void assertSameXml(Object expected, Object actual) {
+        assertEquals(XmlUtils.marshaltoString(expected), XmlUtils.marshaltoString(actual));
+    }
+
+    @Test
+    public void decodesParagraph() {
+        final P p = WmlFixtures.createParagraph();
+        final P decoded = roundTrip(p);
+        assertNotSame(p, decoded);
+        assertSameXml(p, decoded);
+        final String xml = XmlUtils.marshaltoString(decoded);
+        assertTrue(xml, xml.contains("<w:b/>"));
+        assertTrue(xml, xml.contains("<w:i w:val=\"false\"/>"));
+    }
+
+    @Test
+    public void keepsAbsentBooleansAbsent() {
+        final RPr rPr = WML.createRPr();
+        rPr.setB(WML.createBooleanDefaultTrue());
+        final RPr decoded = roundTrip(rPr);
+        assertSameXml(rPr, decoded);
+        final String xml = XmlUtils.marshaltoString(decoded);
+        assertFalse(xml, xml.contains("w:val"));
+
+        final BooleanDefaultFalse booleanDefaultFalse = roundTrip(WML.createBooleanDefaultFalse());
+        assertFalse(booleanDefaultFalse.isVal());
+        booleanDefaultFalse.setVal(true);
+        assertTrue(roundTrip(booleanDefaultFalse).isVal());
+    }
+
+    @Test
+    public void keepsDefaultedAttributesAbsent() {
+        final Style style = WML.createStyle();
+        style.setStyleId("Heading1");
+        final Style decoded = roundTrip(style);
+        assertSameXml(style, decoded);
+        final String xml = XmlUtils.marshaltoString(decoded);
+        assertFalse(xml, xml.contains("w:default"));
+        assertFalse(xml, xml.contains("w:customStyle"));
+
+        style.setDefault(true);
+        style.setCustomStyle(false);
+        final Style explicit = roundTrip(style);
+        assertSameXml(style, explicit);
+        assertTrue(explicit.isDefault());
+        assertFalse(explicit.isCustomStyle());
+
+        final FldChar fldChar = WML.createFldChar();
+        fldChar.setFldCharType(STFldCharType.BEGIN);
+        final FldChar decodedFldChar = roundTrip(fldChar);
+        assertSameXml(fldChar, decodedFldChar);
+        assertFalse(XmlUtils.marshaltoString(decodedFldChar).contains("w:dirty"));
+    }
+
+    @Test
+    public void decodesExplicitDefaultsAsAbsent() {
+        final RPr rPr = WML.createRPr();
+        rPr.setB(WML.createBooleanDefaultTrue());
+        rPr.getB().setVal(true);
+        final RPr decoded = roundTrip(rPr);
+        assertTrue(decoded.getB().isVal());
+        assertFalse(XmlUtils.marshaltoString(decoded).contains("w:val"));
+    }
+
+    @Test
+    public void usesNoReflection() throws Exception {
+        final GeneratedCode generatedCode = GeneratedCode.getDefault();
+        final File sourceFile = new File(generatedCode.getSourceDir(), String.format("%s/%s.java",
+                BUILDER_PACKAGE_NAME.replace('.', '/'), BinaryCodecGenerator.CLASS_NAME));
+        final String source = FileUtils.readFileToString(sourceFile, StandardCharsets.UTF_8);
+        assertFalse(source.contains("java.lang.reflect"));
+        assertFalse(source.contains("cloneBoolean"));
+        assertEquals(1, generatedCode.loadClass(BinaryCodecGenerator.CLASS_NAME).getField("FORMAT_VERSION").getInt(null));
+    }
+}
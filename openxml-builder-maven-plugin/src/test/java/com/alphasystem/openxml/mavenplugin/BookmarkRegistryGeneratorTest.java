@@ -0,0 +1,131 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.CTBookmark;
+import org.docx4j.wml.CTMarkupRange;
+import org.docx4j.wml.ObjectFactory;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collection;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlBookmarkRegistry</code> keeps names and ids unique, looks bookmarks up by both and does not
+ * allocate ids for rejected bookmarks.
+ *
+ * @author sali
+ */
+public class BookmarkRegistryGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    private static Object createRegistry() {
+        return GeneratedCode.getDefault().newInstance(BookmarkRegistryGenerator.CLASS_NAME);
+    }
+
+    private static CTBookmark createBookmark(String name, Long id) {
+        final CTBookmark bookmark = WML.createCTBookmark();
+        bookmark.setName(name);
+        if (id != null) {
+            bookmark.setId(BigInteger.valueOf(id));
+        }
+        return bookmark;
+    }
+
+    @Test
+    public void findsBookmarksByNameAndId() {
+        final Object registry = createRegistry();
+        final CTBookmark first = (CTBookmark) invoke(registry, "start", "first");
+        final CTBookmark second = (CTBookmark) invoke(registry, "start", "second");
+        assertNotEquals(first.getId(), second.getId());
+        assertSame(first, invoke(registry, "find", "first"));
+        assertSame(second, invoke(registry, "findById", second.getId()));
+
+        final CTMarkupRange end = (CTMarkupRange) invoke(registry, "end", "first");
+        assertSame(first, invoke(registry, "findById", end.getId()));
+        assertNull(invoke(registry, "findById", BigInteger.valueOf(100)));
+        assertNull(invoke(registry, "findById", (Object) null));
+    }
+
+    @Test
+    public void allocatesIdsPastRegisteredOnes() {
+        final Object registry = createRegistry();
+        invoke(registry, "register", createBookmark("merged", 10L));
+        final CTBookmark bookmark = (CTBookmark) invoke(registry, "start", "next");
+        assertEquals(BigInteger.valueOf(11), bookmark.getId());
+
+        final CTBookmark withoutId = createBookmark("withoutId", null);
+        invoke(registry, "register", withoutId);
+        assertEquals(BigInteger.valueOf(12), withoutId.getId());
+        assertSame(withoutId, invoke(registry, "findById", withoutId.getId()));
+    }
+
+    @Test
+    public void rejectsClashingIds() {
+        final Object registry = createRegistry();
+        final CTBookmark first = (CTBookmark) invoke(registry, "start", "first");
+        try {
+            invoke(registry, "register", createBookmark("other", first.getId().longValue()));
+            fail("id of other bookmark is in use");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("other"));
+        }
+        assertFalse((Boolean) invoke(registry, "contains", "other"));
+        assertSame(first, invoke(registry, "findById", first.getId()));
+    }
+
+    @Test
+    public void rejectsClashingNames() {
+        final Object registry = createRegistry();
+        final CTBookmark first = (CTBookmark) invoke(registry, "start", "first");
+        // registering same bookmark again is harmless
+        invoke(registry, "register", first);
+        try {
+            invoke(registry, "start", "first");
+            fail("name is in use");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        try {
+            invoke(registry, "register", createBookmark("first", 5L));
+            fail("name is in use");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertNull(invoke(registry, "findById", BigInteger.valueOf(5)));
+        assertEquals(1, ((Collection<?>) invoke(registry, "getBookmarks")).size());
+    }
+
+    @Test
+    public void rejectsMissingNamesBeforeAllocatingIds() {
+        final Object registry = createRegistry();
+        try {
+            invoke(registry, "start", (Object) null);
+            fail("name is missing");
+        } catch (NullPointerException ex) {
+            assertEquals("name", ex.getMessage());
+        }
+        final CTBookmark withoutName = createBookmark(null, null);
+        try {
+            invoke(registry, "register", withoutName);
+            fail("name is missing");
+        } catch (NullPointerException ex) {
+            assertEquals("name", ex.getMessage());
+        }
+        assertNull(withoutName.getId());
+        assertEquals(BigInteger.ZERO, ((CTBookmark) invoke(registry, "start", "first")).getId());
+    }
+
+    @Test
+    public void keepsSequenceForIdsBeyondLongRange() {
+        final Object registry = createRegistry();
+        final CTBookmark large = createBookmark("large", null);
+        large.setId(BigInteger.valueOf(Long.MAX_VALUE).shiftLeft(1));
+        invoke(registry, "register", large);
+        invoke(registry, "register", createBookmark("max", Long.MAX_VALUE));
+        assertEquals(BigInteger.ZERO, ((CTBookmark) invoke(registry, "start", "first")).getId());
+        assertSame(large, invoke(registry, "findById", large.getId()));
+    }
+}
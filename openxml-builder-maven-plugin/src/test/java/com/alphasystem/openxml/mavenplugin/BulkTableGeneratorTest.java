@@ -0,0 +1,111 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static java.lang.String.format;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlBulkTableBuilder</code> adds grid and marked header row, with or without rows, and passes
+ * rows to the sink in order.
+ *
+ * @author sali
+ */
+public class BulkTableGeneratorTest {
+
+    private static Object newColumn(String header, long width) {
+        final Object column = GeneratedCode.getDefault().newInstance(format("%s$Column", BulkTableGenerator.CLASS_NAME));
+        invoke(column, "withHeader", header);
+        invoke(column, "withWidth", BigInteger.valueOf(width));
+        return column;
+    }
+
+    private static Object newBuilder(String... headers) {
+        final Object builder = GeneratedCode.getDefault().newInstance(BulkTableGenerator.CLASS_NAME);
+        for (int i = 0; i < headers.length; i++) {
+            invoke(builder, "addColumn", newColumn(headers[i], 1000 + i));
+        }
+        return builder;
+    }
+
+    private static String getText(Tr tr, int column) {
+        final P p = (P) ((Tc) tr.getContent().get(column)).getContent().get(0);
+        if (p.getContent().isEmpty()) {
+            return null;
+        }
+        return ((Text) ((JAXBElement<?>) ((R) p.getContent().get(0)).getContent().get(0)).getValue()).getValue();
+    }
+
+    private static boolean isHeader(Tr tr) {
+        if (tr.getTrPr() == null) {
+            return false;
+        }
+        for (JAXBElement<?> element : tr.getTrPr().getCnfStyleOrDivIdOrGridBefore()) {
+            if (element.getName().getLocalPart().equals("tblHeader")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void addsGridAndHeaderWithoutRows() {
+        final Tbl tbl = (Tbl) invoke(newBuilder("a", "b"), "build");
+        assertEquals(2, tbl.getTblGrid().getGridCol().size());
+        assertEquals(BigInteger.valueOf(1001), tbl.getTblGrid().getGridCol().get(1).getW());
+        assertEquals(1, tbl.getContent().size());
+        final Tr header = (Tr) tbl.getContent().get(0);
+        assertTrue(isHeader(header));
+        assertEquals("b", getText(header, 1));
+    }
+
+    @Test
+    public void marksOnlyHeaderRow() {
+        final Object builder = newBuilder("a", "b");
+        invoke(builder, "withBatchSize", 2);
+        final List<List<?>> rows = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            rows.add(Arrays.asList(i, i % 2 == 0 ? null : "x"));
+        }
+        final Tbl tbl = (Tbl) invoke(builder, "build", rows.iterator());
+        assertEquals(6, tbl.getContent().size());
+        assertTrue(isHeader((Tr) tbl.getContent().get(0)));
+        for (int i = 0; i < 5; i++) {
+            final Tr tr = (Tr) tbl.getContent().get(i + 1);
+            assertFalse(isHeader(tr));
+            assertEquals(String.valueOf(i), getText(tr, 0));
+            assertEquals(i % 2 == 0 ? null : "x", getText(tr, 1));
+        }
+    }
+
+    @Test
+    public void passesRowsToSinkInOrder() {
+        final List<Tr> written = new ArrayList<>();
+        final Object builder = newBuilder("value");
+        invoke(builder, "withBatchSize", 7);
+        invoke(builder, "withParallel", true);
+        invoke(builder, "withSink", (Consumer<List<Tr>>) written::addAll);
+        final List<List<?>> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(Arrays.asList(i));
+        }
+        final Tbl tbl = (Tbl) invoke(builder, "build", rows.iterator());
+
+        assertTrue(tbl.getContent().isEmpty());
+        assertEquals(1, tbl.getTblGrid().getGridCol().size());
+        assertEquals(101, written.size());
+        assertTrue(isHeader(written.get(0)));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(String.valueOf(i), getText(written.get(i + 1), 0));
+        }
+    }
+}
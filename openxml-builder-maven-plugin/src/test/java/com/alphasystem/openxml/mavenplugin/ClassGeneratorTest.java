@@ -0,0 +1,57 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.alphasystem.openxml.builder.BuilderSupport;
+import org.docx4j.wml.TblGrid;
+import org.docx4j.wml.TblGridCol;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies <code>BigInteger</code> overloads of generated builders.
+ *
+ * @author sali
+ */
+public class ClassGeneratorTest {
+
+    private static BigInteger getBigInteger(long value) {
+        return (BigInteger) GeneratedCode.getDefault().invokeStatic("WmlBuilderFactory", "getBigInteger", value);
+    }
+
+    private static TblGrid getGrid(Object values) {
+        final Object builder = GeneratedCode.getDefault().newInstance("TblGridBuilder");
+        return (TblGrid) invoke(invoke(builder, "addGridCol", values), "getObject");
+    }
+
+    @Test
+    public void sharesCachedValues() {
+        assertSame(getBigInteger(240L), getBigInteger(240L));
+        for (long measurement : BuilderSupport.getCommonMeasurements()) {
+            assertSame(getBigInteger(measurement), getBigInteger(measurement));
+        }
+        assertEquals(BigInteger.valueOf(12345L), getBigInteger(12345L));
+        assertEquals(BigInteger.valueOf(-1L), getBigInteger(-1L));
+
+        final Object builder = GeneratedCode.getDefault().newInstance("TblGridColBuilder");
+        final TblGridCol col = (TblGridCol) invoke(invoke(builder, "withW", 9360L), "getObject");
+        assertSame(getBigInteger(9360L), col.getW());
+    }
+
+    @Test
+    public void addsPrimitiveAndBoxedCollections() {
+        final TblGrid primitive = getGrid(new long[]{4680L, 4680L});
+        assertEquals(2, primitive.getGridCol().size());
+        assertSame(getBigInteger(4680L), primitive.getGridCol().get(1).getW());
+
+        // boxed overload is kept for callers passing Long[]
+        final TblGrid boxed = getGrid(new Long[]{2268L, 9638L});
+        assertEquals(2, boxed.getGridCol().size());
+        assertSame(getBigInteger(2268L), boxed.getGridCol().get(0).getW());
+        assertSame(getBigInteger(9638L), boxed.getGridCol().get(1).getW());
+
+        assertTrue(getGrid(new long[0]).getGridCol().isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlCompactBodyBuilder</code> materializes recorded paragraphs and runs, shares structurally equal
+ * properties and grows past its initial capacity.
+ *
+ * @author sali
+ */
+public class CompactBodyGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    private static Object newBuilder() {
+        return GeneratedCode.getDefault().newInstance(CompactBodyGenerator.CLASS_NAME);
+    }
+
+    private static RPr createBold() {
+        final RPr rPr = WML.createRPr();
+        rPr.setB(WML.createBooleanDefaultTrue());
+        return rPr;
+    }
+
+    private static Text getText(P p, int index) {
+        final R r = (R) p.getContent().get(index);
+        return r.getContent().isEmpty() ? null : (Text) ((JAXBElement<?>) r.getContent().get(0)).getValue();
+    }
+
+    @Test
+    public void materializesParagraphs() {
+        final Object builder = newBuilder();
+        final RPr bold = createBold();
+        invoke(builder, "addRun", bold, "first ");
+        final PPr pPr = WML.createPPr();
+        invoke(builder, "addParagraph", pPr);
+        invoke(builder, "addRun", createBold(), "second");
+        invoke(builder, "addRun", null, null);
+        assertEquals(2, invoke(builder, "getParagraphCount"));
+
+        final Body body = (Body) invoke(builder, "toBody");
+        assertEquals(2, body.getContent().size());
+        final P first = (P) body.getContent().get(0);
+        assertNull(first.getPPr());
+        assertEquals(1, first.getContent().size());
+        assertEquals("first ", getText(first, 0).getValue());
+        assertEquals("preserve", getText(first, 0).getSpace());
+        final P second = (P) body.getContent().get(1);
+        assertSame(pPr, second.getPPr());
+        assertEquals("second", getText(second, 0).getValue());
+        assertNull(getText(second, 0).getSpace());
+        assertNull(getText(second, 1));
+        assertNull(((R) second.getContent().get(1)).getRPr());
+        // structurally equal properties are shared
+        assertSame(bold, ((R) first.getContent().get(0)).getRPr());
+        assertSame(bold, ((R) second.getContent().get(0)).getRPr());
+
+        assertNotSame(first, invoke(builder, "getParagraph", 0));
+        try {
+            invoke(builder, "getParagraph", 2);
+            fail("there are two paragraphs only");
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        final Object builder = newBuilder();
+        for (int i = 0; i < 200; i++) {
+            invoke(builder, "addParagraph", (Object) null);
+            for (int j = 0; j < 3; j++) {
+                invoke(builder, "addRun", null, i + "." + j);
+            }
+        }
+        assertEquals(200, invoke(builder, "getParagraphCount"));
+        final P last = (P) invoke(builder, "getParagraph", 199);
+        assertEquals(3, last.getContent().size());
+        assertEquals("199.2", getText(last, 2).getValue());
+        assertEquals("0.0", getText((P) invoke(builder, "getParagraph", 0), 0).getValue());
+    }
+}
@@ -0,0 +1,134 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.XmlUtils;
+import org.docx4j.math.CTOMath;
+import org.docx4j.math.CTR;
+import org.docx4j.wml.*;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.math.BigInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlDeepCopy</code> produces same trees as <code>XmlUtils.deepCopy</code>.
+ *
+ * @author sali
+ */
+public class DeepCopyGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+    private static final org.docx4j.math.ObjectFactory MATH = new org.docx4j.math.ObjectFactory();
+
+    @SuppressWarnings("unchecked")
+    private static <T> T deepCopy(T source) {
+        return (T) GeneratedCode.getDefault().invokeStatic("WmlDeepCopy", "copy", source);
+    }
+
+    @Test
+    public void copyIsEquivalentToXmlUtilsDeepCopy() {
+        final P p = WmlFixtures.createParagraph();
+        final P copy = deepCopy(p);
+        assertNotSame(p, copy);
+        assertEquals(XmlUtils.marshaltoString(XmlUtils.deepCopy(p)), XmlUtils.marshaltoString(copy));
+    }
+
+    @Test
+    public void copySharesNoNodeWithSource() {
+        final P p = WmlFixtures.createParagraph();
+        final P copy = deepCopy(p);
+        assertNotSame(p.getPPr(), copy.getPPr());
+        assertNotSame(p.getPPr().getSpacing(), copy.getPPr().getSpacing());
+        final R r = (R) p.getContent().get(1);
+        final R rCopy = (R) copy.getContent().get(1);
+        assertNotSame(r, rCopy);
+        assertNotSame(r.getRPr().getB(), rCopy.getRPr().getB());
+        assertNotSame(p.getContent().get(0), copy.getContent().get(0));
+        assertNotSame(((JAXBElement<?>) r.getContent().get(0)).getValue(),
+                ((JAXBElement<?>) rCopy.getContent().get(0)).getValue());
+
+        ((Text) ((JAXBElement<?>) rCopy.getContent().get(0)).getValue()).setValue("changed");
+        assertEquals("Hello ", ((Text) ((JAXBElement<?>) r.getContent().get(0)).getValue()).getValue());
+    }
+
+    @Test
+    public void copyPreservesAbsentBooleans() {
+        final P p = WmlFixtures.createParagraph();
+        final String xml = XmlUtils.marshaltoString(deepCopy(p));
+        // getter of "val" returns true when absent, the copy must not turn it into an explicit value
+        assertTrue(xml, xml.contains("<w:b/>"));
+        assertTrue(xml, xml.contains("<w:i w:val=\"false\"/>"));
+    }
+
+    @Test
+    public void copiesSdtBlock() {
+        final SdtBlock sdtBlock = WmlFixtures.createSdtBlock("name", "Name", "Name goes here");
+        final Id id = WML.createId();
+        id.setVal(BigInteger.valueOf(42));
+        sdtBlock.getSdtPr().setId(id);
+        final Body body = WML.createBody();
+        body.getContent().add(sdtBlock);
+
+        final Body copy = deepCopy(body);
+        final SdtBlock sdtBlockCopy = (SdtBlock) copy.getContent().get(0);
+        assertNotSame(sdtBlock.getSdtPr(), sdtBlockCopy.getSdtPr());
+        assertNotSame(sdtBlock.getSdtContent().getContent().get(0), sdtBlockCopy.getSdtContent().getContent().get(0));
+        assertEquals(BigInteger.valueOf(42), sdtBlockCopy.getSdtPr().getId().getVal());
+        assertEquals(XmlUtils.marshaltoString(XmlUtils.deepCopy(body)), XmlUtils.marshaltoString(copy));
+    }
+
+    @Test
+    public void copiesSdtRow() {
+        final Tc tc = WML.createTc();
+        tc.getContent().add(WmlFixtures.createParagraph(WmlFixtures.createRun("cell", true)));
+        final Tr tr = WML.createTr();
+        tr.getContent().add(tc);
+        final CTSdtRow sdtRow = WmlFixtures.createSdtRow("items", tr);
+        final Tbl tbl = WML.createTbl();
+        tbl.getContent().add(WML.createTblSdt(sdtRow));
+
+        final Tbl copy = deepCopy(tbl);
+        final CTSdtRow sdtRowCopy = (CTSdtRow) ((JAXBElement<?>) copy.getContent().get(0)).getValue();
+        assertNotSame(sdtRow, sdtRowCopy);
+        assertNotSame(tr, sdtRowCopy.getSdtContent().getContent().get(0));
+        assertEquals(XmlUtils.marshaltoString(XmlUtils.deepCopy(tbl)), XmlUtils.marshaltoString(copy));
+    }
+
+    @Test
+    public void copiesTypesWithoutBuilderThroughJaxb() {
+        final CTOMath math = MATH.createCTOMath();
+        final CTR mathRun = MATH.createCTR();
+        final Text mathText = WML.createText();
+        mathText.setValue("x");
+        mathRun.getContent().add(MATH.createCTRT(mathText));
+        math.getEGOMathElements().add(MATH.createCTOMathArgR(mathRun));
+        final P p = WML.createP();
+        p.getContent().add(MATH.createOMath(math));
+
+        final P copy = deepCopy(p);
+        final Object mathCopy = ((JAXBElement<?>) copy.getContent().get(0)).getValue();
+        assertNotSame(math, mathCopy);
+        assertEquals(XmlUtils.marshaltoString(XmlUtils.deepCopy(p)), XmlUtils.marshaltoString(copy));
+    }
+
+    @Test
+    public void copiesDomNodes() throws Exception {
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        final Element element = document.createElementNS("urn:test", "t:custom");
+        element.setAttribute("value", "1");
+        final Element copy = deepCopy(element);
+        assertNotSame(element, copy);
+        assertEquals("1", copy.getAttribute("value"));
+    }
+
+    @Test
+    public void sharesImmutableValues() {
+        assertSame("value", deepCopy("value"));
+        assertSame(STBrType.PAGE, deepCopy(STBrType.PAGE));
+        assertNull(deepCopy(null));
+    }
+}
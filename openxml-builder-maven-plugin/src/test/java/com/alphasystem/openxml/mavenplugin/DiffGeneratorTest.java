@@ -0,0 +1,98 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.XmlUtils;
+import org.docx4j.wml.P;
+import org.docx4j.wml.R;
+import org.docx4j.wml.Text;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import java.util.List;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createParagraph;
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createRun;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that patches of <code>WmlDiff</code> turn source trees into target trees, hold only changed subtrees and
+ * do not share values with the target tree.
+ *
+ * @author sali
+ */
+public class DiffGeneratorTest {
+
+    private static List<?> diff(Object source, Object target) {
+        return (List<?>) GeneratedCode.getDefault().invokeStatic(DiffGenerator.CLASS_NAME, DiffGenerator.DIFF_METHOD_NAME,
+                source, target);
+    }
+
+    private static <T> T apply(T source, List<?> patch) {
+        final T copy = copy(source);
+        GeneratedCode.getDefault().invokeStatic(DiffGenerator.CLASS_NAME, DiffGenerator.APPLY_METHOD_NAME, copy, patch);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T source) {
+        return (T) GeneratedCode.getDefault().invokeStatic(DeepCopyGenerator.CLASS_NAME,
+                DeepCopyGenerator.COPY_METHOD_NAME, source);
+    }
+
+    private static Text getText(R r) {
+        return (Text) ((JAXBElement<?>) r.getContent().get(0)).getValue();
+    }
+
+    private static void assertSameXml(Object expected, Object actual) {
+        assertEquals(XmlUtils.marshaltoString(expected), XmlUtils.marshaltoString(actual));
+    }
+
+    @Test
+    public void appliesPatch() {
+        final P source = createParagraph(createRun("first", false), createRun("second", true), createRun("third", false));
+        final P target = createParagraph(createRun("first", false), createRun("changed", false),
+                createRun("third", false), createRun("fourth", true));
+        assertSameXml(target, apply(source, diff(source, target)));
+        assertSameXml(source, apply(target, diff(target, source)));
+
+        final P fixture = WmlFixtures.createParagraph();
+        final P empty = createParagraph();
+        assertSameXml(empty, apply(fixture, diff(fixture, empty)));
+        assertSameXml(fixture, apply(empty, diff(empty, fixture)));
+    }
+
+    @Test
+    public void skipsUnchangedSubtrees() {
+        final P source = WmlFixtures.createParagraph();
+        assertTrue(diff(source, source).isEmpty());
+        assertTrue(diff(source, copy(source)).isEmpty());
+
+        final P target = createParagraph(createRun("first", true), createRun("second", false));
+        final P changed = copy(target);
+        getText((R) changed.getContent().get(1)).setValue("changed");
+        final List<?> patch = diff(target, changed);
+        assertEquals(1, patch.size());
+        final Object edit = patch.get(0);
+        assertEquals("SET", invoke(edit, "getOperation").toString());
+        assertEquals("changed", invoke(edit, "getValue"));
+        // (property, index) pairs of paragraph content at index 1 and run content at index 0
+        final int[] path = (int[]) invoke(edit, "getPath");
+        assertEquals(4, path.length);
+        assertEquals(1, path[1]);
+        assertEquals(0, path[3]);
+    }
+
+    @Test
+    public void copiesPatchValues() {
+        final P source = createParagraph(createRun("first", false));
+        final P target = createParagraph(createRun("first", false), createRun("second", true));
+        final List<?> patch = diff(source, target);
+        assertEquals(1, patch.size());
+        final R inserted = (R) target.getContent().get(1);
+        assertNotSame(inserted, invoke(patch.get(0), "getValue"));
+
+        getText(inserted).setValue("modified");
+        final P result = apply(source, patch);
+        assertEquals("second", getText((R) result.getContent().get(1)).getValue());
+    }
+}
@@ -0,0 +1,77 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.P;
+import org.docx4j.wml.R;
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.lang.String.format;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies structural equality, hashing and interning of <code>WmlEquality</code>.
+ *
+ * @author sali
+ */
+public class EqualityGeneratorTest {
+
+    private static Object invokeStatic(String methodName, Object... args) {
+        return GeneratedCode.getDefault().invokeStatic(EqualityGenerator.CLASS_NAME, methodName, args);
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        return (Boolean) invokeStatic(EqualityGenerator.IS_EQUAL_METHOD_NAME, a, b);
+    }
+
+    private static int hashOf(Object value) {
+        return (Integer) invokeStatic(EqualityGenerator.HASH_OF_METHOD_NAME, value);
+    }
+
+    private static Object newKey(Object... args) {
+        return GeneratedCode.getDefault().newInstance(format("%s$%s", EqualityGenerator.CLASS_NAME,
+                EqualityGenerator.KEY_CLASS_NAME), args);
+    }
+
+    @Test
+    public void comparesStructurally() {
+        final P p = WmlFixtures.createParagraph();
+        final P copy = (P) GeneratedCode.getDefault().invokeStatic(DeepCopyGenerator.CLASS_NAME, "copy", p);
+        assertTrue(isEqual(p, copy));
+        assertEquals(hashOf(p), hashOf(copy));
+
+        ((R) copy.getContent().get(1)).getRPr().getI().setVal(true);
+        assertFalse(isEqual(p, copy));
+        assertFalse(isEqual(WmlFixtures.createRun("a", false), WmlFixtures.createRun("a", true)));
+        assertFalse(isEqual(p, null));
+    }
+
+    @Test
+    public void keysWithAndWithoutCacheAreEqual() {
+        final P p = WmlFixtures.createParagraph();
+        final Map<Object, Integer> hashes = new IdentityHashMap<>();
+        final Object key = newKey(p);
+        final Object cachedKey = newKey(p, hashes);
+        assertEquals(key, cachedKey);
+        assertEquals(key.hashCode(), cachedKey.hashCode());
+        assertEquals(hashOf(p), key.hashCode());
+        // every node is cached by the key sharing the cache
+        assertEquals(Integer.valueOf(hashOf(p)), hashes.get(p));
+        assertEquals(Integer.valueOf(hashOf(p.getPPr())), hashes.get(p.getPPr()));
+    }
+
+    @Test
+    public void internsStructurallyEqualObjects() {
+        final ConcurrentMap<Object, Object> pool = new ConcurrentHashMap<>();
+        final R first = WmlFixtures.createRun("text", true);
+        final R second = WmlFixtures.createRun("text", true);
+        assertSame(first, invokeStatic("intern", pool, first));
+        assertSame(first, invokeStatic("intern", pool, second));
+        final R other = WmlFixtures.createRun("other", true);
+        assertSame(other, invokeStatic("intern", pool, other));
+        assertEquals(2, pool.size());
+    }
+}
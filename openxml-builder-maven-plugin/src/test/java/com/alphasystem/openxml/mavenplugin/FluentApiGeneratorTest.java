@@ -0,0 +1,125 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.alphasystem.openxml.builder.OpenXmlBuilder;
+import com.sun.codemodel.JCodeModel;
+import com.sun.codemodel.JDefinedClass;
+import org.docx4j.XmlUtils;
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import java.io.File;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.BUILDER_PACKAGE_NAME;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies generator options, copying of wrapped content and builders generated against
+ * <code>openxml-builder-runtime</code>.
+ *
+ * @author sali
+ */
+public class FluentApiGeneratorTest {
+
+    private static GeneratedCode getRuntimeCode() {
+        return GeneratedCode.get("useRuntime", generator -> generator.setUseRuntime(true));
+    }
+
+    private static Set<String> getHelperClassNames(FluentApiGenerator generator, JCodeModel codeModel) {
+        generator.generate();
+        final Set<String> names = new TreeSet<>();
+        final Iterator<JDefinedClass> iterator = codeModel._package(BUILDER_PACKAGE_NAME).classes();
+        while (iterator.hasNext()) {
+            final JDefinedClass definedClass = iterator.next();
+            if (!(definedClass.metadata instanceof Class)) {
+                names.add(definedClass.name());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void generatesNoHelpersByDefault() {
+        final JCodeModel codeModel = new JCodeModel();
+        final FluentApiGenerator generator = new FluentApiGenerator(codeModel, P.class, Tbl.class, SdtBlock.class,
+                CTBookmark.class, Styles.class);
+        assertFalse(generator.getOptions().containsValue(true));
+        assertEquals(new TreeSet<>(asList("WmlBuilderFactory", "WmlDeepCopy", "WmlTypes")),
+                getHelperClassNames(generator, codeModel));
+        final JDefinedClass baseClass = codeModel._getClass("com.alphasystem.openxml.builder.OpenXmlBuilder");
+        assertNull(baseClass.fields().get(FluentApiGenerator.VALIDATING_FIELD_NAME));
+        assertNull(codeModel._getClass(BUILDER_PACKAGE_NAME + ".PBuilder").fields()
+                .get(FluentApiGenerator.COALESCE_RUNS_FIELD_NAME));
+    }
+
+    @Test
+    public void generatesEnabledHelpersWithTheirDependencies() {
+        final JCodeModel codeModel = new JCodeModel();
+        final FluentApiGenerator generator = new FluentApiGenerator(codeModel, P.class, SdtBlock.class);
+        generator.setOption("diff", true);
+        generator.setSdtIndex(true);
+        assertEquals(new TreeSet<>(asList("WmlBuilderFactory", "WmlDeepCopy", "WmlDiff", "WmlEquality",
+                "WmlSdtIndex", "WmlTypes", "WmlVisitor", "WmlVisitorAdapter", "WmlWalker")),
+                getHelperClassNames(generator, codeModel));
+        try {
+            generator.setOption("unknown", true);
+            fail("option is unknown");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("unknown"));
+        }
+    }
+
+    @Test
+    public void buildersExtendRuntimeBaseClass() {
+        final GeneratedCode generatedCode = getRuntimeCode();
+        assertFalse(new File(generatedCode.getSourceDir(), "com/alphasystem/openxml/builder/OpenXmlBuilder.java").exists());
+        assertSame(OpenXmlBuilder.class, generatedCode.loadClass("PBuilder").getSuperclass());
+    }
+
+    @Test
+    public void copiesThroughRuntime() {
+        final GeneratedCode generatedCode = getRuntimeCode();
+        final P p = WmlFixtures.createParagraph();
+        // runtime looks builders up through context class loader, as those are part of the consuming module
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(generatedCode.loadClass("PBuilder").getClassLoader());
+        final Object copy;
+        try {
+            copy = generatedCode.invokeStatic("WmlBuilderFactory", "cloneObject", p);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+        assertNotSame(p, copy);
+        final String xml = XmlUtils.marshaltoString(copy);
+        assertEquals(XmlUtils.marshaltoString(p), xml);
+        assertTrue(xml, xml.contains("<w:b/>"));
+    }
+
+    @Test
+    public void copiesWrappedContent() {
+        final P p = WmlFixtures.createParagraph();
+        final P copy = (P) GeneratedCode.invoke(GeneratedCode.getDefault().newInstance("PBuilder", p,
+                WmlFixtures.createParagraph(new R[0])), "getObject");
+        assertEquals(XmlUtils.marshaltoString(p), XmlUtils.marshaltoString(copy));
+        for (int i = 0; i < p.getContent().size(); i++) {
+            final Object item = p.getContent().get(i);
+            final Object itemCopy = copy.getContent().get(i);
+            assertNotSame(item, itemCopy);
+            if (item instanceof JAXBElement) {
+                final JAXBElement<?> element = (JAXBElement<?>) item;
+                final JAXBElement<?> elementCopy = (JAXBElement<?>) itemCopy;
+                assertSame(element.getName(), elementCopy.getName());
+                assertSame(element.getDeclaredType(), elementCopy.getDeclaredType());
+                assertNotSame(element.getValue(), elementCopy.getValue());
+            }
+        }
+        final P.Hyperlink hyperlink = (P.Hyperlink) ((JAXBElement<?>) p.getContent().get(2)).getValue();
+        final P.Hyperlink hyperlinkCopy = (P.Hyperlink) ((JAXBElement<?>) copy.getContent().get(2)).getValue();
+        assertNotSame(hyperlink.getContent().get(0), hyperlinkCopy.getContent().get(0));
+    }
+}
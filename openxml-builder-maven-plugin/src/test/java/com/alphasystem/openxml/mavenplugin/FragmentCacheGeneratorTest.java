@@ -0,0 +1,131 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.Body;
+import org.docx4j.wml.ObjectFactory;
+import org.docx4j.wml.P;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlFragmentCache</code> splices frozen content in place of placeholders only, and that
+ * placeholders keep their content after it is evicted from the cache.
+ *
+ * @author sali
+ */
+public class FragmentCacheGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    @After
+    public void tearDown() {
+        invokeStatic("clear");
+        invokeStatic("setMaxSize", 256);
+    }
+
+    private static Object invokeStatic(String methodName, Object... args) {
+        return GeneratedCode.getDefault().invokeStatic(FragmentCacheGenerator.CLASS_NAME, methodName, args);
+    }
+
+    private static P freeze(String key, String text) {
+        final P p = WmlFixtures.createParagraph();
+        p.setRsidR(text);
+        return (P) invokeStatic("freeze", key, new Object[]{p});
+    }
+
+    private static String getPlaceholder(P p) {
+        return String.format("<w:p w:rsidRPr=\"%s\" w:rsidR=\"%s\"/>", p.getRsidRPr(), p.getRsidR());
+    }
+
+    private static String splice(String xml, int padding) {
+        final byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        final byte[] padded = new byte[bytes.length + padding];
+        System.arraycopy(bytes, 0, padded, 0, bytes.length);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        invokeStatic(FragmentCacheGenerator.SPLICE_METHOD_NAME, padded, bytes.length, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String writeDocument(Body body) throws IOException {
+        Object writer = GeneratedCode.getDefault().newInstance(PackageWriterGenerator.CLASS_NAME, body);
+        writer = invoke(writer, "withExecutor", DIRECT_EXECUTOR);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        invoke(writer, PackageWriterGenerator.WRITE_METHOD_NAME, out);
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if ("word/document.xml".equals(entry.getName())) {
+                    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    final byte[] chunk = new byte[4096];
+                    int read;
+                    while ((read = zip.read(chunk)) != -1) {
+                        content.write(chunk, 0, read);
+                    }
+                    return new String(content.toByteArray(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new AssertionError("document part is missing");
+    }
+
+    @Test
+    public void splicesOnlyExactPlaceholders() {
+        final P placeholder = freeze("fragment", "frozen");
+        final String rsidR = placeholder.getRsidR();
+        assertEquals(FragmentCacheGenerator.PLACEHOLDER_MARKER, placeholder.getRsidRPr());
+        assertTrue(rsidR, rsidR.matches("[0-9A-F]{8}"));
+        final String marker = FragmentCacheGenerator.PLACEHOLDER_MARKER;
+        final String run = String.format("<w:r w:rsidRPr=\"%s\" w:rsidR=\"%s\"/>", marker, rsidR);
+        final String paragraph = String.format("<w:p w:rsidRPr=\"%s\" w:rsidR=\"%s\"><w:r/></w:p>", marker, rsidR);
+        final String attributes = String.format("<w:p w:rsidRPr=\"%s\" w:rsidR=\"%s\" w:rsidRDefault=\"00000000\"/>",
+                marker, rsidR);
+        final String shortId = String.format("<w:p w:rsidRPr=\"%s\" w:rsidR=\"%s\"/>", marker, rsidR.substring(1));
+        final String xml = "<w:body>" + run + paragraph + attributes + shortId + getPlaceholder(placeholder) + "</w:body>";
+
+        final String spliced = splice(xml, 16);
+        assertTrue(spliced, spliced.startsWith("<w:body>" + run + paragraph + attributes + shortId + "<w:p "));
+        assertTrue(spliced, spliced.contains("w:rsidR=\"frozen\""));
+        assertTrue(spliced, spliced.contains("Hello "));
+        assertFalse(spliced, spliced.contains(getPlaceholder(placeholder)));
+        assertTrue(spliced, spliced.endsWith("</w:p></w:body>"));
+    }
+
+    @Test
+    public void placeholdersKeepEvictedContent() throws IOException {
+        invokeStatic("setMaxSize", 1);
+        final P first = freeze("first", "first");
+        final P second = freeze("second", "second");
+        assertFalse((Boolean) invokeStatic("isCached", "first"));
+        assertTrue((Boolean) invokeStatic("isCached", "second"));
+        invokeStatic("invalidate", "second");
+
+        final Body body = WML.createBody();
+        body.getContent().add(first);
+        body.getContent().add(second);
+        final String document = writeDocument(body);
+        assertFalse(document, document.contains(FragmentCacheGenerator.PLACEHOLDER_MARKER));
+        assertTrue(document, document.contains("w:rsidR=\"first\""));
+        assertTrue(document, document.contains("w:rsidR=\"second\""));
+    }
+
+    @Test
+    public void reusesCachedContent() {
+        final P first = freeze("fragment", "first");
+        final P second = freeze("fragment", "second");
+        assertNotSame(first, second);
+        assertEquals(first.getRsidR(), second.getRsidR());
+        final String spliced = splice(getPlaceholder(second), 0);
+        assertTrue(spliced, spliced.contains("w:rsidR=\"first\""));
+    }
+}
@@ -0,0 +1,274 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.JCodeModel;
+import com.sun.codemodel.writer.FileCodeWriter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.ClassUtils;
+import org.docx4j.wml.*;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.BUILDER_PACKAGE_NAME;
+import static java.lang.String.format;
+
+/**
+ * Generates builders of a small set of WML types, compiles them and loads them into a class loader of their own, so
+ * that tests can exercise the generated code through reflection. Generated code is cached per set of generator
+ * options.
+ *
+ * @author sali
+ */
+public final class GeneratedCode {
+
+    /**
+     * Same types as of <code>FluentApiGenerator.main</code> plus the package parts.
+     */
+    private static final Class<?>[] FIXTURE_TYPES = {P.class, P.Hyperlink.class, Tbl.class, Tr.class, Tc.class, R.class,
+            Text.class, CTTabStop.class, Br.class, FldChar.class, SectPr.class, TblGridCol.class, CTBookmarkRange.class,
+            CTBookmark.class, BooleanDefaultFalse.class, Styles.class, Style.class, Numbering.class, SdtBlock.class,
+            CTSdtRow.class, Body.class, Document.class};
+
+    /**
+     * Options of the generator which generate helpers or additional builders, all of them are enabled for tests.
+     */
+    private static final String[] HELPER_OPTIONS = {"elementValueBuilders", "template", "equality", "normalizer", "walker", "bulkTable",
+            "compactBody", "diff", "packageWriter", "indexedBuilders", "staticFactory", "validator", "sizeEstimator",
+            "binaryCodec", "sdtIndex", "bookmarkRegistry", "fragmentCache"};
+
+    private static final Map<String, GeneratedCode> CACHE = new HashMap<>();
+
+    /**
+     * Returns generated code with all the helpers and default generator options otherwise.
+     *
+     * @return generated code
+     */
+    public static GeneratedCode getDefault() {
+        return get("default", generator -> {
+        });
+    }
+
+    /**
+     * Returns generated code with all the helpers and given generator options.
+     *
+     * @param name       name of the option set, generated code is cached by this name
+     * @param configurer sets generator options, may disable helpers as well
+     * @return generated code
+     */
+    public static synchronized GeneratedCode get(String name, Consumer<FluentApiGenerator> configurer) {
+        GeneratedCode generatedCode = CACHE.get(name);
+        if (generatedCode == null) {
+            generatedCode = new GeneratedCode(name, configurer);
+            CACHE.put(name, generatedCode);
+        }
+        return generatedCode;
+    }
+
+    private final File sourceDir;
+    private final ClassLoader classLoader;
+
+    private GeneratedCode(String name, Consumer<FluentApiGenerator> configurer) {
+        try {
+            final File baseDir = Files.createTempDirectory(format("openxml-builder-%s", name)).toFile();
+            FileUtils.forceDeleteOnExit(baseDir);
+            sourceDir = new File(baseDir, "src");
+            final File classesDir = new File(baseDir, "classes");
+            sourceDir.mkdirs();
+            classesDir.mkdirs();
+
+            final JCodeModel codeModel = new JCodeModel();
+            final FluentApiGenerator generator = new FluentApiGenerator(codeModel, FIXTURE_TYPES);
+            for (String option : HELPER_OPTIONS) {
+                generator.setOption(option, true);
+            }
+            configurer.accept(generator);
+            generator.generate();
+            codeModel.build(new FileCodeWriter(sourceDir));
+            compile(classesDir);
+            classLoader = new GeneratedClassLoader(classesDir.toURI().toURL(), getClass().getClassLoader());
+        } catch (IOException ex) {
+            throw new RuntimeException(format("Unable to generate code {%s}", name), ex);
+        }
+    }
+
+    private void compile(File classesDir) {
+        final List<String> arguments = new ArrayList<>();
+        arguments.add("-nowarn");
+        arguments.add("-proc:none");
+        arguments.add("-classpath");
+        arguments.add(System.getProperty("java.class.path"));
+        arguments.add("-d");
+        arguments.add(classesDir.getAbsolutePath());
+        final Collection<File> sourceFiles = FileUtils.listFiles(sourceDir, new String[]{"java"}, true);
+        for (File sourceFile : sourceFiles) {
+            arguments.add(sourceFile.getAbsolutePath());
+        }
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        if (compiler.run(null, null, errors, arguments.toArray(new String[arguments.size()])) != 0) {
+            throw new RuntimeException(format("Unable to compile generated code: %s", errors.toString()));
+        }
+    }
+
+    public File getSourceDir() {
+        return sourceDir;
+    }
+
+    /**
+     * Loads generated class of builder package.
+     *
+     * @param simpleName simple name of the class, nested classes are separated by <code>$</code>
+     * @return loaded class
+     */
+    public Class<?> loadClass(String simpleName) {
+        try {
+            return classLoader.loadClass(format("%s.%s", BUILDER_PACKAGE_NAME, simpleName));
+        } catch (ClassNotFoundException ex) {
+            throw new RuntimeException(format("Class {%s} has not been generated", simpleName), ex);
+        }
+    }
+
+    /**
+     * Creates new instance of given generated class.
+     *
+     * @param simpleName simple name of the class
+     * @param args       constructor arguments
+     * @return new instance
+     */
+    public Object newInstance(String simpleName, Object... args) {
+        final Class<?> type = loadClass(simpleName);
+        for (Constructor<?> constructor : type.getConstructors()) {
+            if (isApplicable(constructor.getParameterTypes(), args)) {
+                try {
+                    return constructor.newInstance(args);
+                } catch (InvocationTargetException ex) {
+                    throw propagate(ex);
+                } catch (ReflectiveOperationException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+        throw new RuntimeException(format("No constructor of {%s} is applicable", simpleName));
+    }
+
+    /**
+     * Invokes static method of given generated class.
+     *
+     * @param simpleName simple name of the class
+     * @param methodName name of the method
+     * @param args       method arguments, var args must be passed as array
+     * @return result of the method
+     */
+    public Object invokeStatic(String simpleName, String methodName, Object... args) {
+        return invoke(loadClass(simpleName), null, methodName, args);
+    }
+
+    /**
+     * Invokes public method of given object.
+     *
+     * @param target     object to invoke method on
+     * @param methodName name of the method
+     * @param args       method arguments, var args must be passed as array
+     * @return result of the method
+     */
+    public static Object invoke(Object target, String methodName, Object... args) {
+        return invoke(target.getClass(), target, methodName, args);
+    }
+
+    private static Object invoke(Class<?> type, Object target, String methodName, Object... args) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(methodName) && (target == null) == Modifier.isStatic(method.getModifiers())
+                    && isApplicable(method.getParameterTypes(), args)) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException ex) {
+                    throw propagate(ex);
+                } catch (ReflectiveOperationException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+        throw new RuntimeException(format("No method {%s} of {%s} is applicable", methodName, type.getName()));
+    }
+
+    private static boolean isApplicable(Class<?>[] parameterTypes, Object[] args) {
+        if (parameterTypes.length != args.length) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i++) {
+            Class<?> parameterType = parameterTypes[i];
+            if (parameterType.isPrimitive()) {
+                if (args[i] == null) {
+                    return false;
+                }
+                parameterType = ClassUtils.primitiveToWrapper(parameterType);
+            }
+            if (args[i] != null && !parameterType.isInstance(args[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads generated classes before the ones of the test class path, the runtime module on the class path has base
+     * classes of the same names as generated ones.
+     */
+    private static class GeneratedClassLoader extends URLClassLoader {
+
+        private static final String BASE_PACKAGE_PREFIX = "com.alphasystem.openxml.builder.";
+
+        private GeneratedClassLoader(URL classesUrl, ClassLoader parent) {
+            super(new URL[]{classesUrl}, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(BASE_PACKAGE_PREFIX)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null) {
+                    try {
+                        type = findClass(name);
+                    } catch (ClassNotFoundException ex) {
+                        // not generated, e.g. classes of the runtime module
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(type);
+                }
+                return type;
+            }
+        }
+    }
+
+    private static RuntimeException propagate(InvocationTargetException ex) {
+        final Throwable cause = ex.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+}
@@ -0,0 +1,92 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link GenerationCache} generates each entry once under concurrent use and stays bounded.
+ *
+ * @author sali
+ */
+public class GenerationCacheTest {
+
+    private static final int THREADS = 8;
+
+    @After
+    public void tearDown() {
+        GenerationCache.clear();
+    }
+
+    private static GenerationCache.Entry newEntry() {
+        return new GenerationCache.Entry(Collections.emptyMap(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    @Test
+    public void generatesOnceForConcurrentRequests() throws Exception {
+        final AtomicInteger generations = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<GenerationCache.Entry>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS * 4; i++) {
+                final String key = String.format("key-%s", i % 2);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return GenerationCache.get(key, () -> {
+                        generations.incrementAndGet();
+                        Thread.sleep(50);
+                        return newEntry();
+                    });
+                }));
+            }
+            start.countDown();
+            final GenerationCache.Entry first = futures.get(0).get(30, TimeUnit.SECONDS);
+            final GenerationCache.Entry second = futures.get(1).get(30, TimeUnit.SECONDS);
+            for (int i = 0; i < futures.size(); i++) {
+                assertSame(i % 2 == 0 ? first : second, futures.get(i).get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, generations.get());
+    }
+
+    @Test
+    public void doesNotCacheFailures() throws Exception {
+        try {
+            GenerationCache.get("failing", () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail("generation failure is not propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertFalse(GenerationCache.contains("failing"));
+        final GenerationCache.Entry entry = newEntry();
+        assertSame(entry, GenerationCache.get("failing", () -> entry));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws Exception {
+        for (int i = 0; i < GenerationCache.MAX_ENTRIES; i++) {
+            GenerationCache.get(String.format("key-%s", i), GenerationCacheTest::newEntry);
+        }
+        // touch the eldest entry so that the next one is evicted instead
+        GenerationCache.get("key-0", GenerationCacheTest::newEntry);
+        GenerationCache.get("overflow", GenerationCacheTest::newEntry);
+        assertTrue(GenerationCache.contains("key-0"));
+        assertFalse(GenerationCache.contains("key-1"));
+        assertTrue(GenerationCache.contains("overflow"));
+
+        GenerationCache.remove("overflow");
+        assertFalse(GenerationCache.contains("overflow"));
+    }
+}
@@ -0,0 +1,355 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.sun.codemodel.CodeWriter;
+import com.sun.codemodel.JCodeModel;
+import com.sun.codemodel.JPackage;
+import org.apache.commons.io.FileUtils;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.lang.String.format;
+
+/**
+ * Measures how the generator scales with schema size. For each shape a synthetic graph of JAXB annotated classes is
+ * written, compiled and loaded, then builders are generated for it and rendered into a discarding
+ * <code>CodeWriter</code>. Time, allocated bytes, peak heap and rendered bytes are printed as CSV, one line per shape.
+ * <p>
+ * Usage: <code>GeneratorBenchmark [classCount depth width innerClasses collectionPercent]</code>, without arguments
+ * the default suite (1k to 20k classes) is run. Everything is generated locally, no network access is needed. The
+ * benchmark is not a unit test, it is run by the <code>benchmark</code> profile
+ * (<code>mvn verify -Pbenchmark</code>).
+ * <p>
+ * If system property <code>openxml.benchmark.maxScalingRatio</code> is set, the benchmark fails once time, allocated
+ * bytes or peak heap per source class of any shape exceed the ones of the first (smallest) shape by more than the given
+ * factor, i.e., once cost of generation grows faster than linear with schema size. Ratios rather than absolute limits
+ * are checked, so the gate does not depend on the speed of the machine.
+ *
+ * @author sali
+ */
+public class GeneratorBenchmark {
+
+    private static final String PACKAGE_PREFIX = "com.alphasystem.openxml.synthetic";
+    private static final long SEED = 20160101L;
+    private static final String MAX_SCALING_RATIO_PROPERTY = "openxml.benchmark.maxScalingRatio";
+
+    public static void main(String[] args) {
+        final String maxScalingRatioValue = System.getProperty(MAX_SCALING_RATIO_PROPERTY);
+        final double maxScalingRatio = (maxScalingRatioValue == null) ? -1 : Double.parseDouble(maxScalingRatioValue);
+        List<Shape> shapes = new ArrayList<>();
+        if (args.length >= 5) {
+            shapes.add(new Shape("custom", Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                    Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4])));
+        } else {
+            shapes.add(new Shape("small", 1000, 4, 8, 0, 20));
+            shapes.add(new Shape("deep", 2000, 50, 6, 0, 10));
+            shapes.add(new Shape("wide", 2000, 4, 60, 0, 20));
+            shapes.add(new Shape("inner", 2000, 4, 8, 4, 20));
+            shapes.add(new Shape("collections", 2000, 4, 12, 0, 80));
+            shapes.add(new Shape("medium", 5000, 8, 10, 1, 30));
+            shapes.add(new Shape("large", 20000, 8, 10, 1, 30));
+        }
+
+        final File workDirectory;
+        try {
+            workDirectory = Files.createTempDirectory("openxml-generator-benchmark").toFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create work directory", e);
+        }
+        List<String> violations = new ArrayList<>();
+        try {
+            // warm up, so that the first shape does not pay for class loading of the generator
+            run(new Shape("warmup", 200, 4, 8, 1, 20), workDirectory);
+            System.out.println("shape,classes,depth,width,innerClasses,collectionPercent,builders,timeMs,allocatedMb," +
+                    "peakHeapMb,renderedKb");
+            Result reference = null;
+            for (Shape shape : shapes) {
+                final Result result = run(shape, workDirectory);
+                System.out.println(result.line);
+                if (reference == null) {
+                    reference = result;
+                } else if (maxScalingRatio > 0) {
+                    checkRatio(violations, shape, "time", result.timeMs, reference, reference.timeMs,
+                            maxScalingRatio);
+                    checkRatio(violations, shape, "allocated", result.allocated, reference, reference.allocated,
+                            maxScalingRatio);
+                    checkRatio(violations, shape, "peakHeap", result.peakHeap, reference, reference.peakHeap,
+                            maxScalingRatio);
+                }
+            }
+        } finally {
+            FileUtils.deleteQuietly(workDirectory);
+        }
+        if (!violations.isEmpty()) {
+            throw new RuntimeException(format("Cost per class grew by more than {%s} times of the first shape for {%s}",
+                    maxScalingRatio, violations));
+        }
+    }
+
+    /**
+     * Adds violation if given measurement per class exceeds the one of the reference shape by more than the given
+     * ratio, negative measurements are not available on this JVM and are not checked.
+     */
+    private static void checkRatio(List<String> violations, Shape shape, String name, long value, Result reference,
+                                   long referenceValue, double maxRatio) {
+        if (value < 0 || referenceValue <= 0) {
+            return;
+        }
+        final double ratio = ((double) value / shape.classCount) / ((double) referenceValue / reference.classCount);
+        if (ratio > maxRatio) {
+            violations.add(format("%s %s (%.2f)", shape.name, name, ratio));
+        }
+    }
+
+    private static Result run(Shape shape, File workDirectory) {
+        final File sourceDirectory = new File(workDirectory, shape.name + "-src");
+        final File classesDirectory = new File(workDirectory, shape.name + "-classes");
+        final String packageName = format("%s.%s", PACKAGE_PREFIX, shape.name);
+        final List<File> sourceFiles = writeSources(shape, packageName, sourceDirectory);
+        compile(sourceFiles, classesDirectory);
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{classesDirectory.toURI().toURL()},
+                GeneratorBenchmark.class.getClassLoader())) {
+            Class<?>[] srcClasses = new Class<?>[shape.classCount];
+            for (int i = 0; i < shape.classCount; i++) {
+                srcClasses[i] = Class.forName(format("%s.%s", packageName, getTypeName(i)), false, classLoader);
+            }
+
+            System.gc();
+            resetPeakHeap();
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+
+            JCodeModel codeModel = new JCodeModel();
+            final FluentApiGenerator generator = new FluentApiGenerator(codeModel, packageName, srcClasses);
+            generator.generate();
+            final CountingCodeWriter codeWriter = new CountingCodeWriter();
+            codeModel.build(codeWriter);
+
+            final long time = (System.nanoTime() - start) / 1000000L;
+            final long allocated = (allocatedBefore < 0) ? -1 : getAllocatedBytes() - allocatedBefore;
+            final long peakHeap = getPeakHeap();
+            return new Result(shape.classCount, time, allocated, peakHeap, format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s", shape.name, shape.classCount,
+                    shape.depth, shape.width, shape.innerClasses, shape.collectionPercent,
+                    generator.getGeneratedBuilderClassNames().size(), time,
+                    (allocated < 0) ? -1 : allocated / (1024 * 1024), peakHeap / (1024 * 1024),
+                    codeWriter.count / 1024));
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(format("Unable to run shape {%s}", shape.name), e);
+        }
+    }
+
+    /**
+     * Writes synthetic classes, class <code>i</code> references class <code>i + 1</code> unless it is the last
+     * class of a chain of <code>depth</code> classes, other properties are simple values, references or lists of
+     * randomly chosen classes.
+     */
+    private static List<File> writeSources(Shape shape, String packageName, File sourceDirectory) {
+        final Random random = new Random(SEED);
+        final File packageDirectory = new File(sourceDirectory, packageName.replace('.', File.separatorChar));
+        packageDirectory.mkdirs();
+        List<File> sourceFiles = new ArrayList<>();
+        for (int i = 0; i < shape.classCount; i++) {
+            final String typeName = getTypeName(i);
+            StringBuilder builder = new StringBuilder();
+            builder.append(format("package %s;%n%n", packageName));
+            builder.append(format("import javax.xml.bind.annotation.*;%n%n"));
+            builder.append(format("@XmlAccessorType(XmlAccessType.FIELD)%n@XmlType(name = \"%s\")%n", typeName));
+            builder.append(format("public class %s {%n", typeName));
+            List<String[]> properties = new ArrayList<>();
+            if ((i % shape.depth) < (shape.depth - 1) && (i + 1) < shape.classCount) {
+                properties.add(new String[]{getTypeName(i + 1), "next"});
+            }
+            for (int j = 0; j < shape.innerClasses; j++) {
+                properties.add(new String[]{format("Inner%s", j), format("inner%s", j)});
+            }
+            for (int j = 0; j < shape.width; j++) {
+                final String propertyName = format("property%s", j);
+                final String otherType = getTypeName(random.nextInt(shape.classCount));
+                if (random.nextInt(100) < shape.collectionPercent) {
+                    properties.add(new String[]{format("java.util.List<%s>", otherType), propertyName});
+                } else {
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            properties.add(new String[]{"String", propertyName});
+                            break;
+                        case 1:
+                            properties.add(new String[]{"java.math.BigInteger", propertyName});
+                            break;
+                        case 2:
+                            properties.add(new String[]{"Boolean", propertyName});
+                            break;
+                        default:
+                            properties.add(new String[]{otherType, propertyName});
+                            break;
+                    }
+                }
+            }
+            appendProperties(builder, properties, "    ");
+            for (int j = 0; j < shape.innerClasses; j++) {
+                builder.append(format("%n    @XmlAccessorType(XmlAccessType.FIELD)%n"));
+                builder.append(format("    @XmlType(name = \"\")%n    public static class Inner%s {%n", j));
+                appendProperties(builder, Arrays.asList(new String[]{"String", "value"},
+                        new String[]{"java.math.BigInteger", "size"}), "        ");
+                builder.append(format("    }%n"));
+            }
+            builder.append(format("}%n"));
+
+            final File sourceFile = new File(packageDirectory, typeName + ".java");
+            try {
+                FileUtils.writeStringToFile(sourceFile, builder.toString(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new RuntimeException(format("Unable to write {%s}", sourceFile), e);
+            }
+            sourceFiles.add(sourceFile);
+        }
+        return sourceFiles;
+    }
+
+    private static void appendProperties(StringBuilder builder, List<String[]> properties, String indent) {
+        for (String[] property : properties) {
+            builder.append(format("%n%sprotected %s %s;%n", indent, property[0], property[1]));
+        }
+        for (String[] property : properties) {
+            final String type = property[0];
+            final String name = property[1];
+            final String capitalizedName = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            if (type.startsWith("java.util.List")) {
+                builder.append(format("%n%spublic %s get%s() {%n", indent, type, capitalizedName));
+                builder.append(format("%s    if (%s == null) {%n", indent, name));
+                builder.append(format("%s        %s = new java.util.ArrayList<>();%n", indent, name));
+                builder.append(format("%s    }%n%s    return %s;%n%s}%n", indent, indent, name, indent));
+            } else {
+                final String prefix = "Boolean".equals(type) ? "is" : "get";
+                builder.append(format("%n%spublic %s %s%s() {%n%s    return %s;%n%s}%n", indent, type, prefix,
+                        capitalizedName, indent, name, indent));
+                builder.append(format("%n%spublic void set%s(%s value) {%n%s    this.%s = value;%n%s}%n", indent,
+                        capitalizedName, type, indent, name, indent));
+            }
+        }
+    }
+
+    private static void compile(List<File> sourceFiles, File classesDirectory) {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new RuntimeException("No system Java compiler, benchmark must be run with a JDK");
+        }
+        classesDirectory.mkdirs();
+        List<String> arguments = new ArrayList<>(Arrays.asList("-nowarn", "-proc:none", "-d",
+                classesDirectory.getAbsolutePath(), "-classpath", System.getProperty("java.class.path")));
+        for (File sourceFile : sourceFiles) {
+            arguments.add(sourceFile.getAbsolutePath());
+        }
+        final int result = compiler.run(null, null, null, arguments.toArray(new String[arguments.size()]));
+        if (result != 0) {
+            throw new RuntimeException(format("Unable to compile synthetic sources {%s}", result));
+        }
+    }
+
+    private static String getTypeName(int index) {
+        return format("Type%s", index);
+    }
+
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (MemoryType.HEAP.equals(pool.getType())) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (MemoryType.HEAP.equals(pool.getType())) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static class Shape {
+
+        private final String name;
+        private final int classCount;
+        private final int depth;
+        private final int width;
+        private final int innerClasses;
+        private final int collectionPercent;
+
+        private Shape(String name, int classCount, int depth, int width, int innerClasses, int collectionPercent) {
+            this.name = name;
+            this.classCount = classCount;
+            this.depth = Math.max(1, depth);
+            this.width = width;
+            this.innerClasses = innerClasses;
+            this.collectionPercent = collectionPercent;
+        }
+    }
+
+    private static class Result {
+
+        private final int classCount;
+        private final long timeMs;
+        private final long allocated;
+        private final long peakHeap;
+        private final String line;
+
+        private Result(int classCount, long timeMs, long allocated, long peakHeap, String line) {
+            this.classCount = classCount;
+            this.timeMs = timeMs;
+            this.allocated = allocated;
+            this.peakHeap = peakHeap;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Discards rendered sources, only their size is counted.
+     */
+    private static class CountingCodeWriter extends CodeWriter {
+
+        private long count;
+
+        @Override
+        public OutputStream openBinary(JPackage pkg, String fileName) throws IOException {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    count++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    count += len;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            // nothing to close
+        }
+    }
+}
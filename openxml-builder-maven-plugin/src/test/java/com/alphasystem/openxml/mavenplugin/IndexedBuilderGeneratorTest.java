@@ -0,0 +1,84 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that indexed <code>Styles</code> and <code>Numbering</code> builders look items up by id, de-duplicate
+ * structurally identical items and allocate ids past existing ones.
+ *
+ * @author sali
+ */
+public class IndexedBuilderGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    private static Style createStyle(String id, String name) {
+        final Style style = WML.createStyle();
+        style.setStyleId(id);
+        final Style.Name styleName = WML.createStyleName();
+        styleName.setVal(name);
+        style.setName(styleName);
+        return style;
+    }
+
+    private static Numbering.Num createNum(Long id, long abstractNumId) {
+        final Numbering.Num num = WML.createNumberingNum();
+        if (id != null) {
+            num.setNumId(BigInteger.valueOf(id));
+        }
+        final Numbering.Num.AbstractNumId abstractNum = WML.createNumberingNumAbstractNumId();
+        abstractNum.setVal(BigInteger.valueOf(abstractNumId));
+        num.setAbstractNumId(abstractNum);
+        return num;
+    }
+
+    @Test
+    public void indexesAndDeduplicatesStyles() {
+        final Styles styles = WML.createStyles();
+        final Style heading = createStyle("Heading1", "heading 1");
+        styles.getStyle().add(heading);
+        final Object builder = GeneratedCode.getDefault().newInstance("IndexedStylesBuilder", styles);
+        assertSame(heading, invoke(builder, "findStyle", "Heading1"));
+        assertTrue((Boolean) invoke(builder, "containsStyle", "Heading1"));
+        assertFalse((Boolean) invoke(builder, "containsStyle", "Style1"));
+
+        // same content without id is the existing style, with another id a new one
+        assertSame(heading, invoke(builder, "registerStyle", createStyle(null, "heading 1")));
+        final Style copy = createStyle("Heading1Copy", "heading 1");
+        assertSame(copy, invoke(builder, "registerStyle", copy));
+
+        final Style quote = createStyle(null, "quote");
+        invoke(builder, "addStyle", (Object) new Style[]{quote, createStyle(null, "quote")});
+        assertEquals("Style1", quote.getStyleId());
+        assertSame(quote, invoke(builder, "findStyle", "Style1"));
+        assertEquals(3, styles.getStyle().size());
+
+        try {
+            invoke(builder, "registerStyle", createStyle("Heading1", "other"));
+            fail("id is in use");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Heading1"));
+        }
+        assertSame(heading, invoke(builder, "findStyle", "Heading1"));
+    }
+
+    @Test
+    public void allocatesNumberingIdsPastExistingOnes() {
+        final Numbering numbering = WML.createNumbering();
+        numbering.getNum().add(createNum(1L, 0));
+        numbering.getNum().add(createNum(2L, 1));
+        final Object builder = GeneratedCode.getDefault().newInstance("IndexedNumberingBuilder", numbering);
+
+        final Numbering.Num num = (Numbering.Num) invoke(builder, "registerNum", createNum(null, 2));
+        assertEquals(BigInteger.valueOf(3), num.getNumId());
+        assertSame(num, invoke(builder, "findNum", BigInteger.valueOf(3)));
+        assertSame(numbering.getNum().get(1), invoke(builder, "registerNum", createNum(null, 1)));
+        assertEquals(3, numbering.getNum().size());
+    }
+}
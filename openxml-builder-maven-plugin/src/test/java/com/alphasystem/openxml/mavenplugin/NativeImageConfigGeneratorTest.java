@@ -0,0 +1,88 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.apache.commons.io.FileUtils;
+import org.docx4j.XmlUtils;
+import org.docx4j.wml.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies generated <code>reflect-config.json</code> and copies made by reflection free builders.
+ *
+ * @author sali
+ */
+public class NativeImageConfigGeneratorTest {
+
+    private static final List<Class<?>> TYPES = Collections.singletonList(P.class);
+    private static final List<String> BUILDER_CLASS_NAMES = asList("com.alphasystem.openxml.builder.wml.RBuilder",
+            "com.alphasystem.openxml.builder.wml.PBuilder");
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String entry(Class<?> type) {
+        return format("{\"name\":\"%s\",\"allDeclaredFields\":true,\"allDeclaredConstructors\":true," +
+                "\"allDeclaredMethods\":true}", type.getName());
+    }
+
+    @Test
+    public void registersReachableJaxbTypesWithTheirFields() {
+        final String config = new NativeImageConfigGenerator(TYPES, BUILDER_CLASS_NAMES, false).getReflectConfig();
+        assertTrue(config, config.startsWith("[\n") && config.endsWith("]\n"));
+        assertTrue(config, config.contains(entry(P.class)));
+        // reachable through fields of P and its content, Boolean fields of these are read reflectively
+        assertTrue(config, config.contains(entry(PPr.class)));
+        assertTrue(config, config.contains(entry(BooleanDefaultTrue.class)));
+        assertTrue(config, config.contains(entry(JcEnumeration.class)));
+        assertTrue(config, config.contains("{\"name\":\"org.docx4j.wml.ObjectFactory\",\"allDeclaredConstructors\":true," +
+                "\"allDeclaredMethods\":true}"));
+        assertFalse(config, config.contains("\"name\":\"java.lang.String\""));
+    }
+
+    @Test
+    public void registersBuildersUnlessReflectionFree() {
+        final String config = new NativeImageConfigGenerator(TYPES, BUILDER_CLASS_NAMES, false).getReflectConfig();
+        final String pBuilder = "{\"name\":\"com.alphasystem.openxml.builder.wml.PBuilder\",\"allPublicConstructors\":true}";
+        final String rBuilder = "{\"name\":\"com.alphasystem.openxml.builder.wml.RBuilder\",\"allPublicConstructors\":true}";
+        assertTrue(config, config.contains(pBuilder));
+        // builders are sorted by name
+        assertTrue(config, config.indexOf(pBuilder) < config.indexOf(rBuilder));
+        assertTrue(config, config.endsWith(rBuilder + "\n]\n"));
+
+        final String reflectionFreeConfig = new NativeImageConfigGenerator(TYPES, BUILDER_CLASS_NAMES, true)
+                .getReflectConfig();
+        assertFalse(reflectionFreeConfig, reflectionFreeConfig.contains("Builder\""));
+        assertTrue(reflectionFreeConfig, reflectionFreeConfig.contains(entry(P.class)));
+    }
+
+    @Test
+    public void writesConfigFile() throws Exception {
+        final File targetDirectory = temporaryFolder.newFolder();
+        final NativeImageConfigGenerator generator = new NativeImageConfigGenerator(TYPES, BUILDER_CLASS_NAMES, false);
+        generator.generate(targetDirectory);
+        final File file = new File(targetDirectory, NativeImageConfigGenerator.REFLECT_CONFIG_FILE_NAME);
+        assertEquals(generator.getReflectConfig(), FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void reflectionFreeCopyPreservesAbsentBooleans() {
+        final GeneratedCode generatedCode = GeneratedCode.get("reflectionFree",
+                generator -> generator.setReflectionFree(true));
+        final P p = WmlFixtures.createParagraph();
+        final Object copy = generatedCode.invokeStatic("WmlBuilderFactory", "cloneObject", p);
+        assertNotSame(p, copy);
+        final String xml = XmlUtils.marshaltoString(copy);
+        assertEquals(XmlUtils.marshaltoString(p), xml);
+        assertTrue(xml, xml.contains("<w:b/>"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.P;
+import org.docx4j.wml.R;
+import org.docx4j.wml.Text;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import java.util.List;
+
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createRun;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlNormalizer</code> merges runs in groups, leaves the given runs untouched and preserves
+ * spaces only if a merged part preserved them.
+ *
+ * @author sali
+ */
+public class NormalizerGeneratorTest {
+
+    private static void coalesceRuns(List<Object> content) {
+        GeneratedCode.getDefault().invokeStatic(NormalizerGenerator.CLASS_NAME,
+                NormalizerGenerator.COALESCE_RUNS_METHOD_NAME, content);
+    }
+
+    private static Text getText(R run) {
+        assertEquals(1, run.getContent().size());
+        final JAXBElement<?> element = (JAXBElement<?>) run.getContent().get(0);
+        assertEquals("t", element.getName().getLocalPart());
+        return (Text) element.getValue();
+    }
+
+    private static R createPlainRun(String value, boolean preserve) {
+        final R run = createRun(value, false);
+        if (preserve) {
+            getText(run).setSpace("preserve");
+        }
+        return run;
+    }
+
+    @Test
+    public void mergesRunsInGroups() {
+        final R first = createRun("a", true);
+        final P p = WmlFixtures.createParagraph(first, createRun("b", true), createRun("c", true), createRun("d", false),
+                createRun("e", false), createRun("f", true));
+        coalesceRuns(p.getContent());
+
+        assertEquals(3, p.getContent().size());
+        final R merged = (R) p.getContent().get(0);
+        assertEquals("abc", getText(merged).getValue());
+        assertTrue(merged.getRPr().getB().isVal());
+        assertEquals("de", getText((R) p.getContent().get(1)).getValue());
+        assertEquals("f", getText((R) p.getContent().get(2)).getValue());
+        assertEquals("a", getText(first).getValue());
+    }
+
+    @Test
+    public void mergesManyRuns() {
+        final int count = 20000;
+        final R[] runs = new R[count];
+        for (int i = 0; i < count; i++) {
+            runs[i] = createRun("x", false);
+        }
+        final P p = WmlFixtures.createParagraph(runs);
+        coalesceRuns(p.getContent());
+
+        assertEquals(1, p.getContent().size());
+        assertEquals(count, getText((R) p.getContent().get(0)).getValue().length());
+    }
+
+    @Test
+    public void preservesSpacesOfPreservedParts() {
+        final P p = WmlFixtures.createParagraph(createPlainRun("a ", false), createPlainRun("b", false));
+        coalesceRuns(p.getContent());
+        assertEquals("a b", getText((R) p.getContent().get(0)).getValue());
+        assertNull(getText((R) p.getContent().get(0)).getSpace());
+
+        p.getContent().clear();
+        p.getContent().add(createPlainRun("a", false));
+        p.getContent().add(createPlainRun(" b", true));
+        coalesceRuns(p.getContent());
+        assertEquals("a b", getText((R) p.getContent().get(0)).getValue());
+        assertEquals("preserve", getText((R) p.getContent().get(0)).getSpace());
+    }
+}
@@ -0,0 +1,87 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import com.alphasystem.openxml.builder.annotation.GenerateOpenXmlBuilders;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.annotation.Retention;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static java.lang.annotation.RetentionPolicy.CLASS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link OpenXmlBuilderProcessor} generates builders within <code>javac</code> with given options.
+ *
+ * @author sali
+ */
+public class OpenXmlBuilderProcessorTest {
+
+    /**
+     * Builder factory refers to builders of <code>BooleanDefaultTrue</code>, <code>BooleanDefaultFalse</code> and
+     * <code>Jc</code> for its constants, so these are always among the roots.
+     */
+    private static final String ROOTS_SOURCE = "package test;\n\n" +
+            "import org.docx4j.wml.*;\n\n" +
+            "@com.alphasystem.openxml.builder.annotation.GenerateOpenXmlBuilders({TblGridCol.class,\n" +
+            "        BooleanDefaultTrue.class, BooleanDefaultFalse.class, Jc.class})\n" +
+            "public class Roots {\n}\n";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private boolean compile(StringWriter output, String... options) throws IOException {
+        final File rootsFile = new File(temporaryFolder.newFolder("test"), "Roots.java");
+        FileUtils.writeStringToFile(rootsFile, ROOTS_SOURCE, StandardCharsets.UTF_8);
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            final Iterable<? extends JavaFileObject> sources = fileManager.getJavaFileObjects(rootsFile);
+            final JavaCompiler.CompilationTask task = compiler.getTask(output, fileManager, null,
+                    asList(options), null, sources);
+            task.setProcessors(singletonList(new OpenXmlBuilderProcessor()));
+            return task.call();
+        }
+    }
+
+    @Test
+    public void annotationIsRetainedInClassFiles() {
+        assertEquals(CLASS, GenerateOpenXmlBuilders.class.getAnnotation(Retention.class).value());
+    }
+
+    @Test
+    public void declaresGeneratorOptions() {
+        final Set<String> options = new OpenXmlBuilderProcessor().getSupportedOptions();
+        assertTrue(options.toString(), options.containsAll(asList("openxml.useRuntime", "openxml.reflectionFree",
+                "openxml.sizeTracking", "openxml.validator")));
+    }
+
+    @Test
+    public void generatesBuildersWithOptions() throws IOException {
+        final File sourceDir = temporaryFolder.newFolder("generated");
+        final File classesDir = temporaryFolder.newFolder("classes");
+        final StringWriter output = new StringWriter();
+        final boolean compiled = compile(output, "-nowarn", "-classpath",
+                System.getProperty("java.class.path"), "-d", classesDir.getAbsolutePath(), "-s",
+                sourceDir.getAbsolutePath(), "-Aopenxml.sizeTracking=true");
+        assertTrue(output.toString(), compiled);
+
+        final File builderDir = new File(sourceDir, FluentApiGenerator.BUILDER_PACKAGE_NAME.replace('.', '/'));
+        assertTrue(new File(builderDir, "TblGridColBuilder.java").isFile());
+        assertTrue(new File(builderDir, SizeTrackerGenerator.CLASS_NAME + ".java").isFile());
+        assertFalse(new File(builderDir, "WmlDiff.java").exists());
+        assertTrue(new File(classesDir, "com/alphasystem/openxml/builder/wml/TblGridColBuilder.class").isFile());
+        assertTrue(new File(classesDir, "test/Roots.class").isFile());
+    }
+}
@@ -0,0 +1,65 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link OpenXmlFluentApiBuilder} fails the build on errors rather than reporting them only.
+ *
+ * @author sali
+ */
+public class OpenXmlFluentApiBuilderTest {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        GenerationCache.clear();
+    }
+
+    private static OpenXmlFluentApiBuilder newMojo(File targetDirectory, String... srcClassNames) {
+        final OpenXmlFluentApiBuilder mojo = new OpenXmlFluentApiBuilder();
+        mojo.setTargetDirectory(targetDirectory);
+        mojo.setSrcClassNames(Arrays.asList(srcClassNames));
+        return mojo;
+    }
+
+    @Test
+    public void failsOnUnknownClass() throws Exception {
+        final OpenXmlFluentApiBuilder mojo = newMojo(temporaryFolder.newFolder(), "org.docx4j.wml.Unknown");
+        try {
+            mojo.execute();
+            fail("unknown class is not reported");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("org.docx4j.wml.Unknown"));
+        }
+    }
+
+    @Test
+    public void failsOnWriteError() throws Exception {
+        // a file in place of the target directory can not be written into
+        final File targetDirectory = temporaryFolder.newFile();
+        final OpenXmlFluentApiBuilder mojo = newMojo(targetDirectory, "org.docx4j.wml.TblGridCol",
+                "org.docx4j.wml.BooleanDefaultTrue", "org.docx4j.wml.BooleanDefaultFalse", "org.docx4j.wml.Jc");
+        try {
+            mojo.execute();
+            fail("write error is not reported");
+        } catch (MojoExecutionException e) {
+            assertNotNull(e.getCause());
+        }
+
+        final File directory = temporaryFolder.newFolder();
+        newMojo(directory, "org.docx4j.wml.TblGridCol", "org.docx4j.wml.BooleanDefaultTrue",
+                "org.docx4j.wml.BooleanDefaultFalse", "org.docx4j.wml.Jc").execute();
+        assertTrue(new File(directory, "com/alphasystem/openxml/builder/wml/TblGridColBuilder.java").isFile());
+    }
+}
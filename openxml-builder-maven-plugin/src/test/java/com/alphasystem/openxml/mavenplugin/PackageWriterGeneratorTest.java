@@ -0,0 +1,109 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.Body;
+import org.docx4j.wml.ObjectFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies parts written by <code>WmlPackageWriter</code> and that pooled buffers are given back when writing fails.
+ *
+ * @author sali
+ */
+public class PackageWriterGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    private Queue<?> buffers;
+
+    @Before
+    public void setUp() throws Exception {
+        final Field field = GeneratedCode.getDefault().loadClass(PackageWriterGenerator.CLASS_NAME).getDeclaredField("BUFFERS");
+        field.setAccessible(true);
+        buffers = (Queue<?>) field.get(null);
+        buffers.clear();
+    }
+
+    private static Object createWriter(Body body) {
+        final Object writer = GeneratedCode.getDefault().newInstance(PackageWriterGenerator.CLASS_NAME, body);
+        return invoke(writer, "withExecutor", DIRECT_EXECUTOR);
+    }
+
+    @Test
+    public void writesPackageParts() throws Exception {
+        final Body body = WML.createBody();
+        body.getContent().add(WmlFixtures.createParagraph());
+        final Object writer = invoke(createWriter(body), "withStyles", WML.createStyles());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        invoke(writer, PackageWriterGenerator.WRITE_METHOD_NAME, out);
+
+        final List<String> names = new ArrayList<>();
+        String document = null;
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                if ("word/document.xml".equals(entry.getName())) {
+                    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    final byte[] chunk = new byte[4096];
+                    int read;
+                    while ((read = zip.read(chunk)) != -1) {
+                        content.write(chunk, 0, read);
+                    }
+                    document = new String(content.toByteArray(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        assertEquals(asList("[Content_Types].xml", "_rels/.rels", "word/_rels/document.xml.rels", "word/document.xml",
+                "word/styles.xml"), names);
+        assertNotNull(document);
+        assertTrue(document, document.contains("Hello "));
+        assertEquals(2, buffers.size());
+    }
+
+    @Test
+    public void releasesBufferWhenPartFailsToMarshal() {
+        final Body body = WML.createBody();
+        body.getContent().add(new Object());
+        try {
+            invoke(createWriter(body), PackageWriterGenerator.WRITE_METHOD_NAME, new ByteArrayOutputStream());
+            fail("unknown content must not be marshalled");
+        } catch (RuntimeException ex) {
+            assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof IOException);
+        }
+        assertEquals(1, buffers.size());
+    }
+
+    @Test
+    public void releasesBuffersOfPartsNotWritten() {
+        final Body body = WML.createBody();
+        body.getContent().add(new Object());
+        final Object writer = invoke(createWriter(body), "withStyles", WML.createStyles());
+        try {
+            invoke(writer, PackageWriterGenerator.WRITE_METHOD_NAME, new ByteArrayOutputStream());
+            fail("unknown content must not be marshalled");
+        } catch (RuntimeException ex) {
+            assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof IOException);
+        }
+        // parts are marshalled one after another, styles part reuses buffer given back by the failed document part
+        // and must give it back even though it is never written
+        assertEquals(1, buffers.size());
+    }
+}
@@ -0,0 +1,143 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import java.util.List;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createSdtBlock;
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createSdtRow;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies indexing of content controls which have not been built through builders, registration of built ones and
+ * expansion of repeating rows.
+ *
+ * @author sali
+ */
+public class SdtIndexGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    /**
+     * Creates body with a field and a table whose row is a repeating content control, cells of the row hold a field
+     * as well.
+     */
+    private static Body createBody() {
+        final Body body = WML.createBody();
+        body.getContent().add(createSdtBlock("name", "Name", "Name goes here"));
+
+        final Tc tc = WML.createTc();
+        tc.getContent().add(createSdtBlock("item", null, "Item goes here"));
+        final Tr tr = WML.createTr();
+        tr.getContent().add(tc);
+        final Tbl tbl = WML.createTbl();
+        tbl.getContent().add(WML.createTblSdt(createSdtRow("items", tr)));
+        body.getContent().add(tbl);
+        return body;
+    }
+
+    private static String getText(P p) {
+        final StringBuilder builder = new StringBuilder();
+        for (Object item : p.getContent()) {
+            for (Object content : ((R) item).getContent()) {
+                builder.append(((Text) ((JAXBElement<?>) content).getValue()).getValue());
+            }
+        }
+        return builder.toString();
+    }
+
+    private static AutoCloseable open() {
+        return (AutoCloseable) GeneratedCode.getDefault().invokeStatic(SdtIndexGenerator.CLASS_NAME, "open");
+    }
+
+    private static List<?> findByTag(Object index, String tag) {
+        return (List<?>) invoke(index, "findByTag", tag);
+    }
+
+    @Test
+    public void indexesExistingContent() throws Exception {
+        final Body body = createBody();
+        try (AutoCloseable index = open()) {
+            assertTrue(findByTag(index, "name").isEmpty());
+            invoke(index, SdtIndexGenerator.INDEX_METHOD_NAME, body);
+            assertSame(body.getContent().get(0), findByTag(index, "name").get(0));
+            assertEquals(1, ((List<?>) invoke(index, "findByAlias", "Name")).size());
+            assertEquals(1, findByTag(index, "items").size());
+            assertEquals(1, findByTag(index, "item").size());
+
+            // indexing again does not add duplicates
+            invoke(index, SdtIndexGenerator.INDEX_METHOD_NAME, body);
+            assertEquals(1, findByTag(index, "name").size());
+
+            assertEquals(1, invoke(index, "replaceText", "name", "Jane"));
+            final SdtBlock name = (SdtBlock) body.getContent().get(0);
+            final P p = (P) name.getSdtContent().getContent().get(0);
+            assertEquals("Jane", getText(p));
+        }
+    }
+
+    @Test
+    public void expandsRowsIntoIndexNotOpenForCurrentThread() throws Exception {
+        final Body body = createBody();
+        try (AutoCloseable index = open()) {
+            invoke(index, SdtIndexGenerator.INDEX_METHOD_NAME, body);
+            try (AutoCloseable other = open()) {
+                final List<?> rows = (List<?>) invoke(index, "expandRows", "items", 3);
+                assertEquals(3, rows.size());
+                assertEquals(3, findByTag(index, "item").size());
+                assertNotNull(other);
+            }
+            final Tbl tbl = (Tbl) body.getContent().get(1);
+            final CTSdtRow sdtRow = (CTSdtRow) ((JAXBElement<?>) tbl.getContent().get(0)).getValue();
+            assertEquals(3, sdtRow.getSdtContent().getContent().size());
+            assertEquals(3, invoke(index, "replaceText", "item", "Item"));
+        }
+    }
+
+    @Test
+    public void expandsRowsHoldingNestedRowsWithSameTag() throws Exception {
+        final Tr innerRow = WML.createTr();
+        innerRow.getContent().add(WML.createTc());
+        final Tbl innerTbl = WML.createTbl();
+        innerTbl.getContent().add(WML.createTblSdt(createSdtRow("items", innerRow)));
+        final Tc tc = WML.createTc();
+        tc.getContent().add(innerTbl);
+        final Tr tr = WML.createTr();
+        tr.getContent().add(tc);
+        final Tbl tbl = WML.createTbl();
+        final CTSdtRow sdtRow = createSdtRow("items", tr);
+        tbl.getContent().add(WML.createTblSdt(sdtRow));
+        final Body body = WML.createBody();
+        body.getContent().add(tbl);
+
+        try (AutoCloseable index = open()) {
+            invoke(index, SdtIndexGenerator.INDEX_METHOD_NAME, body);
+            final List<?> rows = (List<?>) invoke(index, "expandRows", "items", 3);
+            assertEquals(3, rows.size());
+            assertEquals(3, sdtRow.getSdtContent().getContent().size());
+            assertEquals(4, findByTag(index, "items").size());
+            assertSame(sdtRow, findByTag(index, "items").get(0));
+        }
+    }
+
+    @Test
+    public void registersBuiltObjectOnce() throws Exception {
+        final SdtBlock sdtBlock = createSdtBlock("name", null, "Name goes here");
+        final Object builder = GeneratedCode.getDefault().newInstance("SdtBlockBuilder", sdtBlock);
+        assertSame(sdtBlock, invoke(builder, "getObject"));
+        try (AutoCloseable index = open()) {
+            // not registered while no index is open
+            assertSame(sdtBlock, invoke(builder, "getObject"));
+            assertSame(sdtBlock, findByTag(index, "name").get(0));
+            try (AutoCloseable other = open()) {
+                invoke(builder, "getObject");
+                assertTrue(findByTag(other, "name").isEmpty());
+            }
+            invoke(builder, "getObject");
+            assertEquals(1, findByTag(index, "name").size());
+        }
+    }
+}
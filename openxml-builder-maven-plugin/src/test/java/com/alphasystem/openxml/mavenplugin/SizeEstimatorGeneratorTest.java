@@ -0,0 +1,44 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.ObjectFactory;
+import org.docx4j.wml.P;
+import org.docx4j.wml.R;
+import org.junit.Test;
+
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createRun;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlSizeEstimator</code> sizes strings by their encoding and does not create lists.
+ *
+ * @author sali
+ */
+public class SizeEstimatorGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    private static long invokeStatic(String methodName, Object value) {
+        return (Long) GeneratedCode.getDefault().invokeStatic(SizeEstimatorGenerator.CLASS_NAME, methodName, value);
+    }
+
+    @Test
+    public void sizesStringsByEncoding() {
+        final long latin1 = invokeStatic(SizeEstimatorGenerator.STRING_SIZE_METHOD_NAME, "abcdefghijklmnop");
+        final long utf16 = invokeStatic(SizeEstimatorGenerator.STRING_SIZE_METHOD_NAME, "abcdefghijklmno\u0628");
+        assertEquals(16, utf16 - latin1);
+        assertEquals(latin1, invokeStatic(SizeEstimatorGenerator.STRING_SIZE_METHOD_NAME, "\u00e9bcdefghijklmnop"));
+        assertEquals(0L, invokeStatic(SizeEstimatorGenerator.STRING_SIZE_METHOD_NAME, null));
+    }
+
+    @Test
+    public void doesNotCreateLists() {
+        final R empty = WML.createR();
+        final P p = WmlFixtures.createParagraph(empty, createRun("text", true));
+        final long size = invokeStatic(SizeEstimatorGenerator.RETAINED_SIZE_METHOD_NAME, p);
+        assertNull(GeneratedCode.getDefault().invokeStatic(HelperClassGenerator.TYPES_CLASS_NAME,
+                HelperClassGenerator.GET_FIELD_VALUE_METHOD_NAME, empty, "content"));
+
+        empty.getContent();
+        assertTrue(invokeStatic(SizeEstimatorGenerator.RETAINED_SIZE_METHOD_NAME, p) > size);
+    }
+}
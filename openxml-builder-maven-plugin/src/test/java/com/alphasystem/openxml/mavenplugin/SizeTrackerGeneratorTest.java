@@ -0,0 +1,73 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static com.alphasystem.openxml.mavenplugin.FluentApiGenerator.BUILDER_PACKAGE_NAME;
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static java.lang.String.format;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that builders charge <code>WmlSizeTracker</code> only when size tracking is enabled.
+ *
+ * @author sali
+ */
+public class SizeTrackerGeneratorTest {
+
+    private static GeneratedCode getTrackingCode() {
+        return GeneratedCode.get("sizeTracking", generator -> generator.setSizeTracking(true));
+    }
+
+    private static File getSourceFile(GeneratedCode generatedCode, String simpleName) {
+        return new File(generatedCode.getSourceDir(), format("%s/%s.java", BUILDER_PACKAGE_NAME.replace('.', '/'),
+                simpleName));
+    }
+
+    private static long getUsed(Object tracker) {
+        return (Long) invoke(tracker, "getUsed");
+    }
+
+    @Test
+    public void buildersDoNotTrackByDefault() throws IOException {
+        final GeneratedCode generatedCode = GeneratedCode.getDefault();
+        assertFalse(getSourceFile(generatedCode, SizeTrackerGenerator.CLASS_NAME).exists());
+        final String source = FileUtils.readFileToString(getSourceFile(generatedCode, "TextBuilder"),
+                StandardCharsets.UTF_8);
+        assertFalse(source.contains(SizeTrackerGenerator.CLASS_NAME));
+    }
+
+    @Test
+    public void chargesTrackerOfCurrentThread() throws Exception {
+        final GeneratedCode generatedCode = getTrackingCode();
+        try (AutoCloseable tracker = (AutoCloseable) generatedCode.invokeStatic(SizeTrackerGenerator.CLASS_NAME,
+                "open", 100000L)) {
+            final Object builder = generatedCode.newInstance("TextBuilder");
+            final long created = getUsed(tracker);
+            assertTrue(created > 0);
+            invoke(builder, "withValue", "some text");
+            assertTrue(getUsed(tracker) > created);
+        }
+        assertNull(generatedCode.invokeStatic(SizeTrackerGenerator.CLASS_NAME, "current"));
+    }
+
+    @Test
+    public void rejectsContentOverBudget() throws Exception {
+        final GeneratedCode generatedCode = getTrackingCode();
+        try (AutoCloseable tracker = (AutoCloseable) generatedCode.invokeStatic(SizeTrackerGenerator.CLASS_NAME,
+                "open", 1000L)) {
+            final Object builder = generatedCode.newInstance("TextBuilder");
+            try {
+                invoke(builder, "withValue", StringUtils.repeat('x', 1000));
+                fail("budget is exceeded");
+            } catch (IllegalStateException ex) {
+                assertTrue(ex.getMessage(), getUsed(tracker) > 1000L);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.WildcardType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>Wml</code> constructs objects with their properties and items, takes wrappers as
+ * <code>JAXBElement&lt;?&gt;</code> and names functions without the <code>CT</code> prefix.
+ *
+ * @author sali
+ */
+public class StaticFactoryGeneratorTest {
+
+    private static Object invokeStatic(String methodName, Object... args) {
+        return GeneratedCode.getDefault().invokeStatic(StaticFactoryGenerator.CLASS_NAME, methodName, args);
+    }
+
+    private static Method getMethod(String methodName, Class<?>... parameterTypes) throws NoSuchMethodException {
+        return GeneratedCode.getDefault().loadClass(StaticFactoryGenerator.CLASS_NAME).getMethod(methodName, parameterTypes);
+    }
+
+    @Test
+    public void constructsObjectsWithItems() {
+        final PPr pPr = new ObjectFactory().createPPr();
+        final JAXBElement<?> text = (JAXBElement<?>) invokeStatic("text", "a ");
+        final R r = (R) invokeStatic("r", (Object) new Object[]{text});
+        final P p = (P) invokeStatic("p", pPr, new Object[]{r, null});
+
+        assertSame(pPr, p.getPPr());
+        assertEquals(2, p.getContent().size());
+        assertSame(r, p.getContent().get(0));
+        assertNull(p.getContent().get(1));
+        final Text value = (Text) ((JAXBElement<?>) r.getContent().get(0)).getValue();
+        assertEquals("a ", value.getValue());
+        assertEquals("preserve", value.getSpace());
+        assertNull(((Text) ((JAXBElement<?>) invokeStatic("text", "a")).getValue()).getSpace());
+    }
+
+    @Test
+    public void takesWrappersOfAnyType() throws Exception {
+        final Method method = getMethod("trPr", JAXBElement[].class);
+        assertTrue(method.isVarArgs());
+        final GenericArrayType parameterType = (GenericArrayType) method.getGenericParameterTypes()[0];
+        final ParameterizedType itemType = (ParameterizedType) parameterType.getGenericComponentType();
+        assertSame(JAXBElement.class, itemType.getRawType());
+        assertTrue(itemType.getActualTypeArguments()[0] instanceof WildcardType);
+
+        final JAXBElement<?> header = new ObjectFactory().createCTTrPrBaseTblHeader(new BooleanDefaultTrue());
+        final TrPr trPr = (TrPr) invokeStatic("trPr", (Object) new JAXBElement<?>[]{header});
+        assertSame(header, trPr.getCnfStyleOrDivIdOrGridBefore().get(0));
+    }
+
+    @Test
+    public void stripsComplexTypePrefix() throws Exception {
+        assertSame(CTFFData.class, getMethod("ffData", JAXBElement[].class).getReturnType());
+        assertSame(CTTrPrBase.class, getMethod("trPrBase", JAXBElement[].class).getReturnType());
+        for (Method method : GeneratedCode.getDefault().loadClass(StaticFactoryGenerator.CLASS_NAME).getMethods()) {
+            assertFalse(method.getName(), method.getName().startsWith("cT"));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.P;
+import org.docx4j.wml.R;
+import org.docx4j.wml.Text;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createRun;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlTemplate</code> substitutes parameters into copies of the parameterized path only and shares
+ * the rest of the tree between the template and its instances.
+ *
+ * @author sali
+ */
+public class TemplateGeneratorTest {
+
+    private static Object compile(Object root, String... delimiters) {
+        if (delimiters.length == 0) {
+            return GeneratedCode.getDefault().invokeStatic(TemplateGenerator.CLASS_NAME, "compile", root);
+        }
+        return GeneratedCode.getDefault().invokeStatic(TemplateGenerator.CLASS_NAME, "compile", root, delimiters[0],
+                delimiters[1]);
+    }
+
+    private static Text getText(P p, int index) {
+        return (Text) ((JAXBElement<?>) ((R) p.getContent().get(index)).getContent().get(0)).getValue();
+    }
+
+    @Test
+    public void substitutesParameters() {
+        final P p = WmlFixtures.createParagraph(createRun("Dear ${title} ${name},", true), createRun(" static", false));
+        final Object template = compile(p);
+        assertEquals(new LinkedHashSet<>(Arrays.asList("title", "name")),
+                (Set<?>) invoke(template, "getParameterNames"));
+
+        final Map<String, String> values = new HashMap<>();
+        values.put("name", "Jane");
+        final P first = (P) invoke(template, "instantiate", values);
+        values.put("name", "John");
+        values.put("title", "Mr");
+        final P second = (P) invoke(template, "instantiate", values);
+
+        assertEquals("Dear  Jane,", getText(first, 0).getValue());
+        assertEquals("preserve", getText(first, 0).getSpace());
+        assertEquals("Dear Mr John,", getText(second, 0).getValue());
+        assertEquals("Dear ${title} ${name},", getText(p, 0).getValue());
+        assertNotSame(p, first);
+        assertNotSame(p.getContent().get(0), first.getContent().get(0));
+        assertSame(((R) p.getContent().get(0)).getRPr(), ((R) first.getContent().get(0)).getRPr());
+        // subtrees without parameters are shared
+        assertSame(p.getContent().get(1), first.getContent().get(1));
+        assertSame(p.getContent().get(1), second.getContent().get(1));
+    }
+
+    @Test
+    public void sharesTreeWithoutParameters() {
+        final P p = WmlFixtures.createParagraph();
+        final Object template = compile(p);
+        assertTrue(((Set<?>) invoke(template, "getParameterNames")).isEmpty());
+        assertSame(p, invoke(template, "instantiate", Collections.emptyMap()));
+    }
+
+    @Test
+    public void usesGivenDelimiters() {
+        final P p = WmlFixtures.createParagraph(createRun("${kept} [[name]] [[open", false));
+        final Object template = compile(p, "[[", "]]");
+        assertEquals(Collections.singleton("name"), invoke(template, "getParameterNames"));
+        final P instance = (P) invoke(template, "instantiate", Collections.singletonMap("name", "Jane"));
+        assertEquals("${kept} Jane [[open", getText(instance, 0).getValue());
+    }
+}
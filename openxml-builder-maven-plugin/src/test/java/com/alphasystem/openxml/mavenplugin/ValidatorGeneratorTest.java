@@ -0,0 +1,181 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that builders validate objects built by the user only, including children added without builder, copies
+ * are never validated. Element names are compared with their namespace and bounded lists are checked.
+ *
+ * @author sali
+ */
+public class ValidatorGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    /**
+     * Returns generated code whose builders validate by default, the default is read once when
+     * <code>OpenXmlBuilder</code> is initialized.
+     */
+    private static synchronized GeneratedCode getValidatingCode() {
+        final String previous = System.getProperty(FluentApiGenerator.VALIDATE_PROPERTY_NAME);
+        System.setProperty(FluentApiGenerator.VALIDATE_PROPERTY_NAME, "true");
+        try {
+            final GeneratedCode generatedCode = GeneratedCode.get("validating", generator -> {
+            });
+            // initializes OpenXmlBuilder while property is set
+            generatedCode.newInstance("CTTabStopBuilder");
+            return generatedCode;
+        } finally {
+            if (previous == null) {
+                System.clearProperty(FluentApiGenerator.VALIDATE_PROPERTY_NAME);
+            } else {
+                System.setProperty(FluentApiGenerator.VALIDATE_PROPERTY_NAME, previous);
+            }
+        }
+    }
+
+    private static CTTabStop createInvalidTabStop() {
+        // "val" is required
+        final CTTabStop tabStop = WML.createCTTabStop();
+        tabStop.setPos(BigInteger.valueOf(720));
+        return tabStop;
+    }
+
+    @Test
+    public void defaultIsStaticFinal() throws Exception {
+        final Class<?> builderClass = GeneratedCode.getDefault().loadClass("CTTabStopBuilder").getSuperclass();
+        final Field field = builderClass.getDeclaredField("VALIDATING_BY_DEFAULT");
+        assertTrue(Modifier.isStatic(field.getModifiers()));
+        assertTrue(Modifier.isFinal(field.getModifiers()));
+    }
+
+    @Test
+    public void validatesOnlyWhenEnabled() {
+        final GeneratedCode generatedCode = GeneratedCode.getDefault();
+        final Object builder = generatedCode.newInstance("CTTabStopBuilder", createInvalidTabStop());
+        assertFalse((Boolean) invoke(builder, "isValidating"));
+        assertNotNull(invoke(builder, FluentApiGenerator.GET_OBJECT_METHOD_NAME));
+
+        invoke(builder, "setValidating", true);
+        try {
+            invoke(builder, FluentApiGenerator.GET_OBJECT_METHOD_NAME);
+            fail("tab stop without value must not be valid");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("val"));
+        }
+        invoke(builder, "withVal", STTabJc.LEFT);
+        assertNotNull(invoke(builder, FluentApiGenerator.GET_OBJECT_METHOD_NAME));
+    }
+
+    @Test
+    public void validatesUserBuiltObjectsByDefault() {
+        final Object builder = getValidatingCode().newInstance("CTTabStopBuilder");
+        assertTrue((Boolean) invoke(builder, "isValidating"));
+        try {
+            invoke(builder, FluentApiGenerator.GET_OBJECT_METHOD_NAME);
+            fail("tab stop without value must not be valid");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void copiesAreNotValidated() {
+        final GeneratedCode generatedCode = getValidatingCode();
+        final CTTabStop tabStop = createInvalidTabStop();
+        final Object copyBuilder = generatedCode.newInstance("CTTabStopBuilder", tabStop, null);
+        assertFalse((Boolean) invoke(copyBuilder, "isValidating"));
+        assertNotSame(tabStop, invoke(copyBuilder, FluentApiGenerator.GET_OBJECT_METHOD_NAME));
+
+        final P p = WML.createP();
+        final PPr pPr = WML.createPPr();
+        final Tabs tabs = WML.createTabs();
+        tabs.getTab().add(createInvalidTabStop());
+        pPr.setTabs(tabs);
+        p.setPPr(pPr);
+        final P copy = (P) generatedCode.invokeStatic("WmlDeepCopy", "copy", p);
+        assertEquals(BigInteger.valueOf(720), copy.getPPr().getTabs().getTab().get(0).getPos());
+        final P clone = (P) generatedCode.invokeStatic("WmlBuilderFactory", "cloneObject", p);
+        assertNotSame(p.getPPr(), clone.getPPr());
+    }
+
+    @Test
+    public void comparesElementNamesWithNamespace() {
+        final CTBookmark bookmark = WML.createCTBookmark();
+        bookmark.setId(BigInteger.ONE);
+        bookmark.setName("start");
+        final P p = WML.createP();
+        p.getContent().add(WML.createPBookmarkStart(bookmark));
+        validate(p);
+
+        p.getContent().add(new JAXBElement<>(new QName("urn:other", "bookmarkStart"), CTBookmark.class, bookmark));
+        try {
+            validate(p);
+            fail("element of other namespace must not be allowed");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("item is not allowed"));
+        }
+    }
+
+    @Test
+    public void checksMaximumNumberOfItems() {
+        final Numbering.AbstractNum abstractNum = WML.createNumberingAbstractNum();
+        abstractNum.setAbstractNumId(BigInteger.ZERO);
+        for (int i = 0; i < 9; i++) {
+            final Lvl lvl = WML.createLvl();
+            lvl.setIlvl(BigInteger.valueOf(i));
+            abstractNum.getLvl().add(lvl);
+        }
+        validate(abstractNum);
+
+        final Lvl lvl = WML.createLvl();
+        lvl.setIlvl(BigInteger.valueOf(9));
+        abstractNum.getLvl().add(lvl);
+        try {
+            validate(abstractNum);
+            fail("more than nine levels must not be valid");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("more than 9 items"));
+        }
+    }
+
+    @Test
+    public void validatesChildrenAddedWithoutBuilder() {
+        final GeneratedCode generatedCode = GeneratedCode.getDefault();
+        final Object tabStopBuilder = generatedCode.newInstance("CTTabStopBuilder");
+        invoke(tabStopBuilder, "setValidating", true);
+        invoke(tabStopBuilder, "withPos", 720L);
+        invoke(tabStopBuilder, "withVal", STTabJc.LEFT);
+        final CTTabStop validTabStop = (CTTabStop) invoke(tabStopBuilder, FluentApiGenerator.GET_OBJECT_METHOD_NAME);
+
+        Object builder = generatedCode.newInstance("TabsBuilder");
+        invoke(builder, "setValidating", true);
+        invoke(builder, "addTab", (Object) new CTTabStop[]{validTabStop});
+        assertEquals(1, ((Tabs) invoke(builder, FluentApiGenerator.GET_OBJECT_METHOD_NAME)).getTab().size());
+
+        builder = generatedCode.newInstance("TabsBuilder");
+        invoke(builder, "setValidating", true);
+        invoke(builder, "addTab", (Object) new CTTabStop[]{validTabStop, createInvalidTabStop()});
+        try {
+            invoke(builder, FluentApiGenerator.GET_OBJECT_METHOD_NAME);
+            fail("tab stop without value must not be valid");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("val"));
+        }
+    }
+
+    private static void validate(Object node) {
+        GeneratedCode.getDefault().invokeStatic(ValidatorGenerator.CLASS_NAME, ValidatorGenerator.VALIDATE_METHOD_NAME,
+                node);
+    }
+}
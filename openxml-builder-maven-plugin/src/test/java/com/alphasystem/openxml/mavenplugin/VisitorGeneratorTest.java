@@ -0,0 +1,91 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.vml.CTShape;
+import org.docx4j.vml.CTTextbox;
+import org.docx4j.wml.*;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.alphasystem.openxml.mavenplugin.GeneratedCode.invoke;
+import static com.alphasystem.openxml.mavenplugin.WmlFixtures.createRun;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that <code>WmlWalker</code> visits nodes in document order, does not create missing lists and walks
+ * through JAXB types without builder.
+ *
+ * @author sali
+ */
+public class VisitorGeneratorTest {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+    private static final org.docx4j.vml.ObjectFactory VML = new org.docx4j.vml.ObjectFactory();
+
+    /**
+     * Walks given tree and returns simple names of the visited types, values of visited texts are added as well.
+     */
+    private static List<String> walk(Object root) {
+        final GeneratedCode generatedCode = GeneratedCode.getDefault();
+        final Class<?> visitorClass = generatedCode.loadClass(VisitorGenerator.VISITOR_CLASS_NAME);
+        final List<String> visited = new ArrayList<>();
+        final Object visitor = Proxy.newProxyInstance(visitorClass.getClassLoader(), new Class<?>[]{visitorClass},
+                (proxy, method, args) -> {
+                    visited.add(args[0].getClass().getSimpleName());
+                    if (args[0] instanceof Text) {
+                        visited.add(((Text) args[0]).getValue());
+                    }
+                    return true;
+                });
+        invoke(generatedCode.newInstance(VisitorGenerator.CLASS_NAME), VisitorGenerator.WALK_METHOD_NAME, root, visitor);
+        return visited;
+    }
+
+    private static Object getFieldValue(Object node, String fieldName) {
+        return GeneratedCode.getDefault().invokeStatic(HelperClassGenerator.TYPES_CLASS_NAME,
+                HelperClassGenerator.GET_FIELD_VALUE_METHOD_NAME, node, fieldName);
+    }
+
+    @Test
+    public void visitsInDocumentOrder() {
+        final P p = WmlFixtures.createParagraph(createRun("first", true), createRun("second", false));
+        final List<String> visited = walk(p);
+        assertEquals("[P, R, RPr, BooleanDefaultTrue, Text, first, R, Text, second]", visited.toString());
+    }
+
+    @Test
+    public void doesNotCreateLists() {
+        final R r = WML.createR();
+        final Tbl tbl = WML.createTbl();
+        final Body body = WML.createBody();
+        body.getContent().add(WmlFixtures.createParagraph(r));
+        body.getContent().add(tbl);
+        assertNull(getFieldValue(r, "content"));
+        assertNull(getFieldValue(tbl, "content"));
+
+        assertEquals("[Body, P, R, Tbl]", walk(body).toString());
+        assertNull(getFieldValue(r, "content"));
+        assertNull(getFieldValue(tbl, "content"));
+    }
+
+    @Test
+    public void walksTypesWithoutBuilder() {
+        final CTTxbxContent txbxContent = WML.createCTTxbxContent();
+        txbxContent.getContent().add(WmlFixtures.createParagraph(createRun("inside", false)));
+        final CTTextbox textbox = VML.createCTTextbox();
+        textbox.setTxbxContent(txbxContent);
+        final CTShape shape = VML.createCTShape();
+        shape.getEGShapeElements().add(VML.createTextbox(textbox));
+        final Pict pict = WML.createPict();
+        pict.getAnyAndAny().add(VML.createShape(shape));
+        final R r = WML.createR();
+        r.getContent().add(pict);
+
+        final List<String> visited = walk(WmlFixtures.createParagraph(r, createRun("outside", false)));
+        assertTrue(visited.toString(), visited.indexOf("inside") > visited.indexOf("Pict"));
+        assertTrue(visited.toString(), visited.indexOf("outside") > visited.indexOf("inside"));
+        assertTrue(visited.toString(), visited.contains("CTTxbxContent"));
+    }
+}
@@ -0,0 +1,151 @@
+package com.alphasystem.openxml.mavenplugin;
+
+import org.docx4j.wml.*;
+
+import java.math.BigInteger;
+
+/**
+ * WML trees shared by the tests of generated code, each call creates a new tree.
+ *
+ * @author sali
+ */
+public final class WmlFixtures {
+
+    private static final ObjectFactory WML = new ObjectFactory();
+
+    /**
+     * Do not let anyone instantiate this class.
+     */
+    private WmlFixtures() {
+    }
+
+    /**
+     * Creates paragraph with properties, a bookmark, a formatted run of preserved text with a tab and a hyperlink,
+     * i.e., with nested JAXBElement wrappers, inner types and absent as well as explicit boolean values.
+     *
+     * @return new paragraph
+     */
+    public static P createParagraph() {
+        final P p = WML.createP();
+        final PPr pPr = WML.createPPr();
+        final PPrBase.PStyle pStyle = WML.createPPrBasePStyle();
+        pStyle.setVal("Heading1");
+        pPr.setPStyle(pStyle);
+        final PPrBase.Spacing spacing = WML.createPPrBaseSpacing();
+        spacing.setAfter(BigInteger.valueOf(240));
+        pPr.setSpacing(spacing);
+        p.setPPr(pPr);
+
+        final CTBookmark bookmark = WML.createCTBookmark();
+        bookmark.setId(BigInteger.ONE);
+        bookmark.setName("start");
+        p.getContent().add(WML.createPBookmarkStart(bookmark));
+
+        final R r = WML.createR();
+        final RPr rPr = WML.createRPr();
+        final BooleanDefaultTrue bold = WML.createBooleanDefaultTrue();
+        rPr.setB(bold);
+        final BooleanDefaultTrue italic = WML.createBooleanDefaultTrue();
+        italic.setVal(false);
+        rPr.setI(italic);
+        r.setRPr(rPr);
+        final Text text = WML.createText();
+        text.setValue("Hello ");
+        text.setSpace("preserve");
+        r.getContent().add(WML.createRT(text));
+        r.getContent().add(WML.createRTab());
+        p.getContent().add(r);
+
+        final P.Hyperlink hyperlink = WML.createPHyperlink();
+        hyperlink.setAnchor("start");
+        final R linkRun = WML.createR();
+        final Text linkText = WML.createText();
+        linkText.setValue("world");
+        linkRun.getContent().add(WML.createRT(linkText));
+        hyperlink.getContent().add(linkRun);
+        p.getContent().add(WML.createPHyperlink(hyperlink));
+        return p;
+    }
+
+    /**
+     * Creates run holding single text.
+     *
+     * @param value text of the run
+     * @param bold  true to give the run bold run properties, false for none
+     * @return new run
+     */
+    public static R createRun(String value, boolean bold) {
+        final R r = WML.createR();
+        if (bold) {
+            final RPr rPr = WML.createRPr();
+            rPr.setB(WML.createBooleanDefaultTrue());
+            r.setRPr(rPr);
+        }
+        final Text text = WML.createText();
+        text.setValue(value);
+        r.getContent().add(WML.createRT(text));
+        return r;
+    }
+
+    /**
+     * Creates paragraph holding given runs.
+     *
+     * @param runs content of the paragraph
+     * @return new paragraph
+     */
+    public static P createParagraph(R... runs) {
+        final P p = WML.createP();
+        for (R r : runs) {
+            p.getContent().add(r);
+        }
+        return p;
+    }
+
+    /**
+     * Creates block level content control holding single paragraph.
+     *
+     * @param tag   tag of the content control
+     * @param alias alias of the content control, none if null
+     * @param value text of the paragraph
+     * @return new content control
+     */
+    public static SdtBlock createSdtBlock(String tag, String alias, String value) {
+        final SdtBlock sdtBlock = WML.createSdtBlock();
+        sdtBlock.setSdtPr(createSdtPr(tag, alias));
+        final SdtContentBlock content = WML.createSdtContentBlock();
+        content.getContent().add(createParagraph(createRun(value, false)));
+        sdtBlock.setSdtContent(content);
+        return sdtBlock;
+    }
+
+    /**
+     * Creates row level content control holding given rows.
+     *
+     * @param tag  tag of the content control
+     * @param rows content of the content control
+     * @return new content control
+     */
+    public static CTSdtRow createSdtRow(String tag, Tr... rows) {
+        final CTSdtRow sdtRow = WML.createCTSdtRow();
+        sdtRow.setSdtPr(createSdtPr(tag, null));
+        final CTSdtContentRow content = WML.createCTSdtContentRow();
+        for (Tr tr : rows) {
+            content.getContent().add(tr);
+        }
+        sdtRow.setSdtContent(content);
+        return sdtRow;
+    }
+
+    private static SdtPr createSdtPr(String tag, String alias) {
+        final SdtPr sdtPr = WML.createSdtPr();
+        final Tag tagValue = WML.createTag();
+        tagValue.setVal(tag);
+        sdtPr.getRPrOrAliasOrLock().add(tagValue);
+        if (alias != null) {
+            final SdtPr.Alias aliasValue = WML.createSdtPrAlias();
+            aliasValue.setVal(alias);
+            sdtPr.getRPrOrAliasOrLock().add(WML.createSdtPrAlias(aliasValue));
+        }
+        return sdtPr;
+    }
+}
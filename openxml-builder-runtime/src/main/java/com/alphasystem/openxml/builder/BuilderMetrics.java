@@ -0,0 +1,100 @@
+package com.alphasystem.openxml.builder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of builder activity, shared by all the modules using the runtime. Metrics are collected only when system
+ * property <code>openxml.builder.metrics</code> is set to <code>true</code>, otherwise recording is a no-op which the
+ * JIT removes.
+ *
+ * @author sali
+ */
+public final class BuilderMetrics {
+
+    public enum Counter {
+        /**
+         * Number of builders created.
+         */
+        BUILDERS_CREATED,
+
+        /**
+         * Number of <code>getObject</code> calls.
+         */
+        OBJECTS_BUILT,
+
+        /**
+         * Number of objects cloned through <code>cloneObject</code>.
+         */
+        OBJECTS_CLONED,
+
+        /**
+         * Number of objects returned uncloned, because no builder is found or builder fails.
+         */
+        CLONE_FAILURES,
+
+        /**
+         * Number of builder constructor look ups, each builder class is looked up once.
+         */
+        BUILDER_LOOKUPS,
+
+        /**
+         * Number of <code>BigInteger</code> requests served from cache.
+         */
+        BIG_INTEGER_CACHE_HITS,
+
+        /**
+         * Number of <code>BigInteger</code> requests not served from cache.
+         */
+        BIG_INTEGER_CACHE_MISSES
+    }
+
+    private static final boolean ENABLED = Boolean.getBoolean("openxml.builder.metrics");
+    private static final LongAdder[] COUNTERS = createCounters();
+
+    /**
+     * Do not let anyone instantiate this class.
+     */
+    private BuilderMetrics() {
+    }
+
+    private static LongAdder[] createCounters() {
+        final LongAdder[] counters = new LongAdder[Counter.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    public static void increment(Counter counter) {
+        if (ENABLED) {
+            COUNTERS[counter.ordinal()].increment();
+        }
+    }
+
+    public static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    /**
+     * @return current value of all the counters
+     */
+    public static Map<Counter, Long> snapshot() {
+        Map<Counter, Long> snapshot = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values()) {
+            snapshot.put(counter, get(counter));
+        }
+        return snapshot;
+    }
+
+    public static void reset() {
+        for (LongAdder counter : COUNTERS) {
+            counter.reset();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.alphasystem.openxml.builder;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.alphasystem.openxml.builder.BuilderMetrics.Counter.*;
+import static java.lang.String.format;
+
+/**
+ * Clone and dispatch utilities used by generated builders. Reflective look ups (builder constructors and fields) are
+ * done once per class and cached.
+ *
+ * @author sali
+ */
+public final class BuilderSupport {
+
+    /**
+     * Size of the dense cache, values from zero up to this size (exclusive) are cached.
+     */
+    public static final int BIG_INTEGER_CACHE_SIZE = 2048;
+    private static final BigInteger[] BIG_INTEGER_CACHE = createBigIntegerCache();
+    private static final long[] COMMON_MEASUREMENTS = createCommonMeasurements();
+    private static final BigInteger[] COMMON_MEASUREMENT_CACHE = createCommonMeasurementCache();
+
+    /**
+     * Builder constructors by class loader the builders are looked up from and builder package name.
+     */
+    private static final Map<ClassLoader, Map<String, BuilderConstructors>> BUILDER_CONSTRUCTORS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final ClassValue<Map<String, Field>> FIELDS = new ClassValue<Map<String, Field>>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * Do not let anyone instantiate this class.
+     */
+    private BuilderSupport() {
+    }
+
+    private static BigInteger[] createBigIntegerCache() {
+        final BigInteger[] cache = new BigInteger[BIG_INTEGER_CACHE_SIZE];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = BigInteger.valueOf(i);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns commonly used measurements in twips above the dense cache range, i.e., multiples of a quarter inch up to
+     * 22 inches (covers inch based margins, Letter 12240 x 15840 and its 9360 text width) and A4 page (11906 x 16838)
+     * with its usual text widths and heights. Generator embeds the same values in <code>WmlBuilderFactory</code> of
+     * code generated without the runtime.
+     *
+     * @return sorted measurements
+     */
+    public static long[] getCommonMeasurements() {
+        return COMMON_MEASUREMENTS.clone();
+    }
+
+    private static long[] createCommonMeasurements() {
+        final SortedSet<Long> values = new TreeSet<>();
+        for (long value = 360L; value <= 31680L; value += 360L) {
+            if (value >= BIG_INTEGER_CACHE_SIZE) {
+                values.add(value);
+            }
+        }
+        Collections.addAll(values, 2268L, 9026L, 9638L, 11906L, 13958L, 14570L, 16838L);
+        final long[] result = new long[values.size()];
+        int index = 0;
+        for (Long value : values) {
+            result[index++] = value;
+        }
+        return result;
+    }
+
+    private static BigInteger[] createCommonMeasurementCache() {
+        final BigInteger[] cache = new BigInteger[COMMON_MEASUREMENTS.length];
+        for (int i = 0; i < cache.length; i++) {
+            cache[i] = BigInteger.valueOf(COMMON_MEASUREMENTS[i]);
+        }
+        return cache;
+    }
+
+    /**
+     * Returns <code>BigInteger</code> for the given value, commonly used measurements (twips, half-points, widths
+     * etc.) are served from a cache, so setting them does not allocate.
+     *
+     * @param value value to convert
+     * @return <code>BigInteger</code> for the given value
+     */
+    public static BigInteger getBigInteger(long value) {
+        if (value >= 0L && value < BIG_INTEGER_CACHE.length) {
+            BuilderMetrics.increment(BIG_INTEGER_CACHE_HITS);
+            return BIG_INTEGER_CACHE[(int) value];
+        }
+        final int index = Arrays.binarySearch(COMMON_MEASUREMENTS, value);
+        if (index >= 0) {
+            BuilderMetrics.increment(BIG_INTEGER_CACHE_HITS);
+            return COMMON_MEASUREMENT_CACHE[index];
+        }
+        BuilderMetrics.increment(BIG_INTEGER_CACHE_MISSES);
+        return BigInteger.valueOf(value);
+    }
+
+    /**
+     * <code>BigInteger</code> is immutable, values which fits in the cache are shared, anything else is returned as
+     * is.
+     *
+     * @param source value to clone
+     * @return cloned value
+     */
+    public static BigInteger cloneBigInteger(BigInteger source) {
+        if (source == null) {
+            return null;
+        }
+        return (source.bitLength() < 64) ? getBigInteger(source.longValue()) : source;
+    }
+
+    /**
+     * Reads <code>Boolean</code> field directly, getters of such fields return default value instead of null.
+     *
+     * @param source    object to read from
+     * @param fieldName name of the field
+     * @return value of the field
+     * @throws RuntimeException if given object has no such field or it can not be read
+     */
+    public static Boolean cloneBoolean(Object source, String fieldName) {
+        if (source == null) {
+            return null;
+        }
+        try {
+            return (Boolean) getField(source.getClass(), fieldName).get(source);
+        } catch (ReflectiveOperationException | ClassCastException ex) {
+            throw new RuntimeException(format("Unable to read field {%s} of {%s}", fieldName,
+                    source.getClass().getName()), ex);
+        }
+    }
+
+    private static Field getField(Class<?> type, String fieldName) throws NoSuchFieldException {
+        final Map<String, Field> fields = FIELDS.get(type);
+        Field field = fields.get(fieldName);
+        if (field == null) {
+            field = type.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            fields.put(fieldName, field);
+        }
+        return field;
+    }
+
+    /**
+     * Clones given object through the copy constructor of its builder, i.e., builder named
+     * <code>&lt;builderPackageName&gt;.&lt;SimpleName&gt;Builder</code> for objects of
+     * <code>sourcePackageName</code>. Builders are looked up through the context class loader of the calling thread,
+     * as they are part of the consuming module, and cached per class loader.
+     *
+     * @param source             object to clone
+     * @param sourcePackageName  package of the source types
+     * @param builderPackageName package of the generated builders
+     * @return cloned object, objects without builder are returned as is
+     * @throws RuntimeException if the builder fails to clone given object
+     */
+    public static Object cloneObject(Object source, String sourcePackageName, String builderPackageName) {
+        if (source == null) {
+            return null;
+        }
+        final Class<?> objectClass = source.getClass();
+        if (objectClass.getPackage() == null || !objectClass.getPackage().getName().equals(sourcePackageName)) {
+            return source;
+        }
+        final Constructor<?> constructor = getBuilderConstructors(builderPackageName).get(objectClass);
+        if (constructor == null) {
+            BuilderMetrics.increment(CLONE_FAILURES);
+            return source;
+        }
+        try {
+            final OpenXmlBuilder<?> builder = (OpenXmlBuilder<?>) constructor.newInstance(source, null);
+            BuilderMetrics.increment(OBJECTS_CLONED);
+            return builder.getObject();
+        } catch (ReflectiveOperationException ex) {
+            BuilderMetrics.increment(CLONE_FAILURES);
+            throw new RuntimeException(format("Unable to clone {%s}", objectClass.getName()), ex);
+        }
+    }
+
+    private static BuilderConstructors getBuilderConstructors(String builderPackageName) {
+        // builders are part of the consuming module, which is usually not visible to this class loader
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = BuilderSupport.class.getClassLoader();
+        }
+        Map<String, BuilderConstructors> constructorsByPackage;
+        synchronized (BUILDER_CONSTRUCTORS) {
+            constructorsByPackage = BUILDER_CONSTRUCTORS.get(classLoader);
+            if (constructorsByPackage == null) {
+                constructorsByPackage = new ConcurrentHashMap<>();
+                BUILDER_CONSTRUCTORS.put(classLoader, constructorsByPackage);
+            }
+        }
+        BuilderConstructors constructors = constructorsByPackage.get(builderPackageName);
+        if (constructors == null) {
+            constructors = new BuilderConstructors(builderPackageName, classLoader);
+            final BuilderConstructors existing = constructorsByPackage.putIfAbsent(builderPackageName, constructors);
+            if (existing != null) {
+                constructors = existing;
+            }
+        }
+        return constructors;
+    }
+
+    /**
+     * Copy constructors of builders of one package visible to one class loader, looked up once per source class.
+     * Value is null when no builder is found. Class loader is weakly referenced as it is the key of the cache.
+     */
+    private static class BuilderConstructors extends ClassValue<Constructor<?>> {
+
+        private final String builderPackageName;
+        private final WeakReference<ClassLoader> classLoader;
+
+        private BuilderConstructors(String builderPackageName, ClassLoader classLoader) {
+            this.builderPackageName = builderPackageName;
+            this.classLoader = new WeakReference<>(classLoader);
+        }
+
+        @Override
+        protected Constructor<?> computeValue(Class<?> objectClass) {
+            BuilderMetrics.increment(BUILDER_LOOKUPS);
+            final String builderFqn = format("%s.%sBuilder", builderPackageName, objectClass.getSimpleName());
+            try {
+                final Class<?> builderClass = Class.forName(builderFqn, true, classLoader.get());
+                return builderClass.getConstructor(objectClass, objectClass);
+            } catch (ClassNotFoundException | NoSuchMethodException ex) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.alphasystem.openxml.builder;
+
+/**
+ * Validates objects built by {@link OpenXmlBuilder}.
+ *
+ * @author sali
+ */
+public interface ObjectValidator {
+
+    /**
+     * Validates given object.
+     *
+     * @param object object to validate
+     * @throws IllegalStateException if any constraint is violated
+     */
+    void validate(Object object);
+}
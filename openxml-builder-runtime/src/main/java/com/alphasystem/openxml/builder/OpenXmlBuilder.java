@@ -0,0 +1,110 @@
+package com.alphasystem.openxml.builder;
+
+import java.util.List;
+
+import static com.alphasystem.openxml.builder.BuilderMetrics.Counter.BUILDERS_CREATED;
+import static com.alphasystem.openxml.builder.BuilderMetrics.Counter.OBJECTS_BUILT;
+
+/**
+ * Base class of generated builders, hand written replacement of the base class generated into each consumer.
+ *
+ * @param <T> type of the object being built
+ * @author sali
+ */
+public abstract class OpenXmlBuilder<T> {
+
+    /**
+     * Default of "validating", read from system property "openxml.builder.validate" once.
+     */
+    private static final boolean VALIDATING_BY_DEFAULT = Boolean.getBoolean("openxml.builder.validate");
+
+    private static volatile ObjectValidator defaultValidator;
+
+    protected T object;
+
+    /**
+     * Whether object is validated in "getObject".
+     */
+    private boolean validating = VALIDATING_BY_DEFAULT;
+
+    protected OpenXmlBuilder() {
+        this(null);
+    }
+
+    protected OpenXmlBuilder(T object) {
+        BuilderMetrics.increment(BUILDERS_CREATED);
+        setObject(object);
+    }
+
+    /**
+     * Sets validator used by builders which are validating, generated <code>WmlBuilderFactory</code> registers
+     * <code>WmlValidator</code> when it is initialized.
+     *
+     * @param validator validator to use, null to disable validation
+     */
+    public static void setDefaultValidator(ObjectValidator validator) {
+        defaultValidator = validator;
+    }
+
+    public static ObjectValidator getDefaultValidator() {
+        return defaultValidator;
+    }
+
+    protected abstract T createObject();
+
+    public T getObject() {
+        BuilderMetrics.increment(OBJECTS_BUILT);
+        if (validating) {
+            validate(object);
+        }
+        return object;
+    }
+
+    public void setObject(T object) {
+        if (object == null) {
+            object = createObject();
+        }
+        this.object = object;
+    }
+
+    public boolean isValidating() {
+        return validating;
+    }
+
+    /**
+     * Enables validation of object in "getObject".
+     *
+     * @param validating true to validate
+     */
+    public void setValidating(boolean validating) {
+        this.validating = validating;
+    }
+
+    /**
+     * Validates given object, sub classes may override to add constraints.
+     *
+     * @param object object to validate
+     * @throws IllegalStateException if any constraint is violated
+     */
+    protected void validate(T object) {
+        final ObjectValidator validator = defaultValidator;
+        if (validator != null) {
+            validator.validate(object);
+        }
+    }
+
+    @SafeVarargs
+    protected static <C> Boolean hasContent(C... content) {
+        return (content != null) && (content.length > 0);
+    }
+
+    @SafeVarargs
+    protected static <C> void addContent(List<C> src, C... content) {
+        if (content != null) {
+            // added one by one, handing the array on to another varargs method would not be safe
+            for (C item : content) {
+                src.add(item);
+            }
+        }
+    }
+}
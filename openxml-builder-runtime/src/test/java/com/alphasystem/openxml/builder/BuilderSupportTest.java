@@ -0,0 +1,108 @@
+package com.alphasystem.openxml.builder;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies caches and clone utilities of {@link BuilderSupport}.
+ *
+ * @author sali
+ */
+public class BuilderSupportTest {
+
+    private static final String SOURCE_PACKAGE_NAME = "com.alphasystem.openxml.builder";
+    private static final String BUILDER_PACKAGE_NAME = "com.alphasystem.openxml.builder.test";
+
+    public static class Node {
+
+        private Boolean val;
+        private String name;
+
+        public boolean isVal() {
+            return (val == null) || val;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    @Test
+    public void sharesCommonMeasurements() {
+        assertSame(BuilderSupport.getBigInteger(0L), BuilderSupport.getBigInteger(0L));
+        assertSame(BuilderSupport.getBigInteger(720L), BuilderSupport.getBigInteger(720L));
+        // A4 width and a multiple of a quarter inch above the dense range
+        assertSame(BuilderSupport.getBigInteger(11906L), BuilderSupport.getBigInteger(11906L));
+        assertSame(BuilderSupport.getBigInteger(2520L), BuilderSupport.getBigInteger(2520L));
+        assertEquals(BigInteger.valueOf(12345L), BuilderSupport.getBigInteger(12345L));
+        assertEquals(BigInteger.valueOf(-1L), BuilderSupport.getBigInteger(-1L));
+    }
+
+    @Test
+    public void clonesBigInteger() {
+        assertNull(BuilderSupport.cloneBigInteger(null));
+        assertSame(BuilderSupport.getBigInteger(720L), BuilderSupport.cloneBigInteger(new BigInteger("720")));
+        final BigInteger large = BigInteger.ONE.shiftLeft(80);
+        assertSame(large, BuilderSupport.cloneBigInteger(large));
+    }
+
+    @Test
+    public void clonesBooleanFromField() {
+        final Node node = new Node();
+        assertTrue(node.isVal());
+        assertNull(BuilderSupport.cloneBoolean(node, "val"));
+        node.val = false;
+        assertEquals(Boolean.FALSE, BuilderSupport.cloneBoolean(node, "val"));
+        assertNull(BuilderSupport.cloneBoolean(null, "val"));
+    }
+
+    @Test
+    public void failsOnUnreadableField() {
+        final Node node = new Node();
+        node.name = "node";
+        for (String fieldName : new String[]{"missing", "name"}) {
+            try {
+                BuilderSupport.cloneBoolean(node, fieldName);
+                fail(fieldName);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(fieldName));
+            }
+        }
+    }
+
+    @Test
+    public void looksUpBuildersPerClassLoader() throws Exception {
+        final Node node = new Node();
+        node.name = "node";
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        // builder is not visible to the first thread which clones
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[0], null)) {
+            thread.setContextClassLoader(classLoader);
+            assertSame(node, BuilderSupport.cloneObject(node, SOURCE_PACKAGE_NAME, BUILDER_PACKAGE_NAME));
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+        final Node clone = (Node) BuilderSupport.cloneObject(node, SOURCE_PACKAGE_NAME, BUILDER_PACKAGE_NAME);
+        assertNotSame(node, clone);
+        assertEquals("node", clone.getName());
+    }
+
+    @Test
+    public void returnsObjectsWithoutBuilderAsIs() {
+        final Node node = new Node();
+        node.name = "node";
+        assertSame(node, BuilderSupport.cloneObject(node, SOURCE_PACKAGE_NAME, "com.alphasystem.openxml.builder.none"));
+        assertSame(node, BuilderSupport.cloneObject(node, "org.docx4j.wml", "com.alphasystem.openxml.builder.wml"));
+        assertNull(BuilderSupport.cloneObject(null, "org.docx4j.wml", "com.alphasystem.openxml.builder.wml"));
+    }
+}
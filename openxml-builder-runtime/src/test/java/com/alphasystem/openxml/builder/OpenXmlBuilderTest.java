@@ -0,0 +1,81 @@
+package com.alphasystem.openxml.builder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies validation and content helpers of {@link OpenXmlBuilder}.
+ *
+ * @author sali
+ */
+public class OpenXmlBuilderTest {
+
+    private static class ListBuilder extends OpenXmlBuilder<List<String>> {
+
+        @Override
+        protected List<String> createObject() {
+            return new ArrayList<>();
+        }
+
+        private ListBuilder addItems(String... items) {
+            addContent(object, items);
+            return this;
+        }
+    }
+
+    private static final ObjectValidator NOT_EMPTY = object -> {
+        if (((List<?>) object).isEmpty()) {
+            throw new IllegalStateException("list is empty");
+        }
+    };
+
+    @After
+    public void tearDown() {
+        OpenXmlBuilder.setDefaultValidator(null);
+    }
+
+    @Test
+    public void defaultIsStaticFinal() throws Exception {
+        final Field field = OpenXmlBuilder.class.getDeclaredField("VALIDATING_BY_DEFAULT");
+        assertTrue(Modifier.isStatic(field.getModifiers()));
+        assertTrue(Modifier.isFinal(field.getModifiers()));
+        assertEquals(Boolean.getBoolean("openxml.builder.validate"), new ListBuilder().isValidating());
+    }
+
+    @Test
+    public void validatesOnlyWhenEnabled() {
+        OpenXmlBuilder.setDefaultValidator(NOT_EMPTY);
+        final ListBuilder builder = new ListBuilder();
+        builder.setValidating(false);
+        assertTrue(builder.getObject().isEmpty());
+
+        builder.setValidating(true);
+        try {
+            builder.getObject();
+            fail("empty list must not be valid");
+        } catch (IllegalStateException ex) {
+            assertEquals("list is empty", ex.getMessage());
+        }
+        assertEquals(1, builder.addItems("item").getObject().size());
+    }
+
+    @Test
+    public void skipsValidationWithoutValidator() {
+        final ListBuilder builder = new ListBuilder();
+        builder.setValidating(true);
+        assertTrue(builder.getObject().isEmpty());
+    }
+
+    @Test
+    public void addsContent() {
+        final ListBuilder builder = new ListBuilder().addItems("a", "b").addItems().addItems((String[]) null);
+        assertEquals(2, builder.getObject().size());
+    }
+}
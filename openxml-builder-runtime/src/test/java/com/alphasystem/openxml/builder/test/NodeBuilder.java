@@ -0,0 +1,25 @@
+package com.alphasystem.openxml.builder.test;
+
+import com.alphasystem.openxml.builder.BuilderSupportTest.Node;
+import com.alphasystem.openxml.builder.OpenXmlBuilder;
+
+/**
+ * Builder of {@link Node} with the copy constructor of generated builders, found by name by
+ * <code>BuilderSupport.cloneObject</code>.
+ *
+ * @author sali
+ */
+public class NodeBuilder extends OpenXmlBuilder<Node> {
+
+    public NodeBuilder(Node source, Node target) {
+        super(target);
+        if (source != null) {
+            object.setName(source.getName());
+        }
+    }
+
+    @Override
+    protected Node createObject() {
+        return new Node();
+    }
+}